@@ -0,0 +1,169 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle.server;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * In-process stand-in for a remote client of a SpinServer table, for local
+ * runs and checks. Records the keyframes and the stop of its latest spin, as a
+ * client would receive them over the network.
+ * </p>
+ */
+public final class LocalSpinClient implements SpinTable.Listener
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private final SpinTable table;
+
+	/** Guarded by this */
+	private int spin = 0;
+	private float[] keyframes = new float[0];
+	private int keyframeCount = 0;
+	private boolean keyframesContiguous = true;
+	private float stopDegrees = Float.NaN;
+	private long steps = -1L;
+	private CountDownLatch stopped = new CountDownLatch(1);
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public LocalSpinClient(SpinServer server)
+	{
+		this.table = server.openTable(this);
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public SpinTable getTable()
+	{
+		return table;
+	}
+
+	/**
+	 * Flings the table's bottle, forgetting about the previous spin.
+	 *
+	 * @return number of the spin
+	 */
+	public int fling(float stepDegrees)
+	{
+		synchronized (this)
+		{
+			//Spins are numbered one after another; the stop may come before fling returns
+			spin++;
+			keyframeCount = 0;
+			keyframesContiguous = true;
+			stopDegrees = Float.NaN;
+			steps = -1L;
+			stopped = new CountDownLatch(1);
+		}
+
+		return table.fling(stepDegrees);
+	}
+
+	/**
+	 * @return false if the spin did not stop in time
+	 */
+	public boolean awaitStop(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		CountDownLatch latch;
+
+		synchronized (this)
+		{
+			latch = stopped;
+		}
+
+		return latch.await(timeout, unit);
+	}
+
+	/**
+	 * @return stop angle of the latest spin, NaN if not stopped yet
+	 */
+	public synchronized float getStopDegrees()
+	{
+		return stopDegrees;
+	}
+
+	/**
+	 * @return steps taken by the latest spin, -1 if not stopped yet
+	 */
+	public synchronized long getSteps()
+	{
+		return steps;
+	}
+
+	/**
+	 * @return copy of the keyframes received for the latest spin
+	 */
+	public synchronized float[] getKeyframes()
+	{
+		return Arrays.copyOf(keyframes, keyframeCount);
+	}
+
+	/**
+	 * @return false if a batch of keyframes was missing or out of order
+	 */
+	public synchronized boolean isKeyframesContiguous()
+	{
+		return keyframesContiguous;
+	}
+
+	public void close()
+	{
+		table.close();
+	}
+
+	public synchronized void onKeyframes(SpinTable table, int spin, long firstStep, float[] degrees, int count)
+	{
+		if(spin != this.spin)
+		{
+			return;
+		}
+
+		keyframesContiguous &= firstStep == keyframeCount;
+
+		if(keyframeCount + count > keyframes.length)
+		{
+			keyframes = Arrays.copyOf(keyframes, Math.max(keyframes.length * 2, keyframeCount + count));
+		}
+
+		System.arraycopy(degrees, 0, keyframes, keyframeCount, count);
+		keyframeCount += count;
+	}
+
+	public synchronized void onStop(SpinTable table, int spin, float stopDegrees, long steps)
+	{
+		if(spin != this.spin)
+		{
+			return;
+		}
+
+		this.stopDegrees = stopDegrees;
+		this.steps = steps;
+
+		stopped.countDown();
+	}
+}
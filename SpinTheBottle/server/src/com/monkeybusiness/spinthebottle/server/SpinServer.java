@@ -0,0 +1,144 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle.server;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.monkeybusiness.spinthebottle.SpinEngine;
+
+/**
+ * <p>
+ * Authoritative spin simulation for online rooms. Clients send flings and
+ * obstacles; tables spin here, on the very SpinEngine the views use, and the
+ * server tells where they stop. Clients only animate the keyframes they get.
+ * </p>
+ * <p>
+ * Tables share a single scheduler of a few threads. A table is only scheduled
+ * while spinning, every KEYFRAME_INTERVAL_NANOS, to catch up with the clock and
+ * hand out the steps taken meanwhile. An idle table costs memory only, bounded
+ * by SpinTable.MAX_FIXED_OBSTACLES; a few hundred bytes.
+ * </p>
+ */
+public final class SpinServer
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Spinning tables catch up with the clock this often, i.e. keyframes come in batches of this many steps */
+	public static final long KEYFRAME_INTERVAL_NANOS = 4L * SpinEngine.STEP_NANOS;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final AtomicInteger tableCount = new AtomicInteger();
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * @param threads size of the scheduler shared by the tables, e.g. the number of cores
+	 */
+	public SpinServer(int threads)
+	{
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "SpinServer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		//Stopped spins leave nothing behind in the queue
+		executor.setRemoveOnCancelPolicy(true);
+
+		this.scheduler = executor;
+	}
+
+	public SpinServer()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * @param listener notified of the keyframes and stops of the table, on the scheduler's threads
+	 */
+	public SpinTable openTable(SpinTable.Listener listener)
+	{
+		if(scheduler.isShutdown())
+		{
+			throw new IllegalStateException("Server is shut down");
+		}
+
+		tableCount.incrementAndGet();
+
+		return new SpinTable(this, listener);
+	}
+
+	/**
+	 * @return tables opened and not closed yet
+	 */
+	public int getTableCount()
+	{
+		return tableCount.get();
+	}
+
+	/**
+	 * Stops scheduling. Spins on the way are abandoned, without a stop.
+	 */
+	public void shutdown()
+	{
+		scheduler.shutdownNow();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		return scheduler.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Monotonic server time, which spins are stepped on.
+	 */
+	long nowNanos()
+	{
+		return System.nanoTime();
+	}
+
+	ScheduledExecutorService getScheduler()
+	{
+		return scheduler;
+	}
+
+	void onTableClosed()
+	{
+		tableCount.decrementAndGet();
+	}
+}
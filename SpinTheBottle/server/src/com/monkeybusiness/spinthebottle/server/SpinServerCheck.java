@@ -0,0 +1,247 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle.server;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.monkeybusiness.spinthebottle.AngleMath;
+import com.monkeybusiness.spinthebottle.FixedPointSpinEngine;
+import com.monkeybusiness.spinthebottle.SpinEngine;
+
+/**
+ * <p>
+ * Load check of a SpinServer on one node: opens many tables with local
+ * clients, flings them all at once, and verifies every keyframe and stop angle
+ * against a SpinEngine stepped by hand with the same fling and obstacles. Every
+ * other table runs on fixed point physics, verified against a plain
+ * FixedPointSpinEngine as a client would step it. Exits with a non-zero status on the first mismatch.
+ * </p>
+ * <p>
+ * Usage: SpinServerCheck [tables, 10000 by default]
+ * </p>
+ */
+public class SpinServerCheck
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final int DEFAULT_TABLES = 10000;
+
+	/** Longest spin is a couple of seconds, the rest is scheduling slack */
+	private static final long STOP_TIMEOUT_SECONDS = 60L;
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int tableCount = (args.length > 0)?(Integer.parseInt(args[0])):(DEFAULT_TABLES);
+
+		Random random = new Random(42L);
+		SpinServer server = new SpinServer();
+
+		long heapBefore = usedHeap();
+
+		LocalSpinClient[] clients = new LocalSpinClient[tableCount];
+		float[] flings = new float[tableCount];
+		float[][] obstacles = new float[tableCount][];
+		float[] fingers = new float[tableCount];
+
+		for(int i = 0; i < tableCount; i++)
+		{
+			clients[i] = new LocalSpinClient(server);
+
+			if((i & 1) != 0)
+			{
+				clients[i].getTable().setFixedPoint(true);
+			}
+
+			obstacles[i] = new float[random.nextInt(4)];
+
+			for(int j = 0; j < obstacles[i].length; j++)
+			{
+				obstacles[i][j] = random.nextFloat() * 360.0f;
+				clients[i].getTable().addObstacle(obstacles[i][j]);
+			}
+
+			//Fingers placed before the fling apply from its first step, so are replayable
+			fingers[i] = (random.nextInt(4) == 0)?(random.nextFloat() * 360.0f):(Float.NaN);
+
+			if(!Float.isNaN(fingers[i]))
+			{
+				clients[i].getTable().touch(fingers[i]);
+			}
+
+			//Some beyond the cap, which the server must enforce
+			flings[i] = (random.nextFloat() * 2.0f - 1.0f) * SpinEngine.MAX_ROTATION_DEGREES * 1.2f;
+		}
+
+		long heapAfter = usedHeap();
+
+		long start = System.nanoTime();
+
+		for(int i = 0; i < tableCount; i++)
+		{
+			clients[i].fling(flings[i]);
+		}
+
+		for(int i = 0; i < tableCount; i++)
+		{
+			check(clients[i].awaitStop(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS), "table " + i + " did not stop in time");
+		}
+
+		long elapsedNanos = System.nanoTime() - start;
+		long keyframes = 0L;
+
+		for(int i = 0; i < tableCount; i++)
+		{
+			keyframes += ((i & 1) != 0)
+					?(verifyFixedPoint(i, clients[i], flings[i], obstacles[i], fingers[i]))
+					:(verify(i, clients[i], flings[i], obstacles[i], fingers[i]));
+		}
+
+		check(server.getTableCount() == tableCount, "server counts " + server.getTableCount() + " tables, expected " + tableCount);
+
+		for(int i = 0; i < tableCount; i++)
+		{
+			clients[i].close();
+		}
+
+		check(server.getTableCount() == 0, "server counts " + server.getTableCount() + " tables after closing all");
+
+		server.shutdown();
+
+		System.out.println(String.format(Locale.US, "%d tables spun in %.2f s, %d keyframes, ~%d bytes per idle table and client",
+				tableCount, elapsedNanos / 1.0e9, keyframes, Math.max(heapAfter - heapBefore, 0L) / tableCount));
+		System.out.println("All server checks passed");
+	}
+
+	/**
+	 * @return number of keyframes of the table
+	 */
+	private static int verify(int index, LocalSpinClient client, float fling, float[] obstacles, float finger)
+	{
+		SpinEngine engine = new SpinEngine();
+
+		for(float obstacle : obstacles)
+		{
+			engine.addFixedObstacle(AngleMath.normalizeDegrees(obstacle));
+		}
+
+		if(!Float.isNaN(finger))
+		{
+			engine.setObstacle(AngleMath.normalizeDegrees(finger));
+		}
+
+		engine.setRotationStepDegrees(Math.max(-SpinEngine.MAX_ROTATION_DEGREES, Math.min(fling, SpinEngine.MAX_ROTATION_DEGREES)));
+		engine.start();
+
+		float[] keyframes = client.getKeyframes();
+		int steps = 0;
+
+		check(client.isKeyframesContiguous(), "table " + index + " got keyframes out of order");
+
+		while(engine.isRotating())
+		{
+			engine.step();
+
+			check(steps < keyframes.length, "table " + index + " misses keyframes from step " + steps);
+			check(Float.floatToIntBits(keyframes[steps]) == Float.floatToIntBits(engine.getRotationDegrees()),
+					"table " + index + " keyframe " + steps + " is " + keyframes[steps] + ", expected " + engine.getRotationDegrees());
+
+			steps++;
+		}
+
+		check(keyframes.length == steps, "table " + index + " got " + keyframes.length + " keyframes, expected " + steps);
+		check(client.getSteps() == steps, "table " + index + " stopped after " + client.getSteps() + " steps, expected " + steps);
+		check(Float.floatToIntBits(client.getStopDegrees()) == Float.floatToIntBits(engine.getRotationDegrees()),
+				"table " + index + " stopped at " + client.getStopDegrees() + ", expected " + engine.getRotationDegrees());
+
+		return steps;
+	}
+
+	/**
+	 * @return number of keyframes of the table
+	 */
+	private static int verifyFixedPoint(int index, LocalSpinClient client, float fling, float[] obstacles, float finger)
+	{
+		FixedPointSpinEngine engine = new FixedPointSpinEngine();
+
+		for(float obstacle : obstacles)
+		{
+			engine.addFixedObstacle(AngleMath.normalizeDegrees(obstacle));
+		}
+
+		if(!Float.isNaN(finger))
+		{
+			engine.setObstacle(AngleMath.normalizeDegrees(finger));
+		}
+
+		engine.setRotationStepDegrees(Math.max(-SpinEngine.MAX_ROTATION_DEGREES, Math.min(fling, SpinEngine.MAX_ROTATION_DEGREES)));
+		engine.start();
+
+		float[] keyframes = client.getKeyframes();
+		int steps = 0;
+
+		check(client.isKeyframesContiguous(), "fixed point table " + index + " got keyframes out of order");
+
+		while(engine.isRotating())
+		{
+			engine.step();
+
+			check(steps < keyframes.length, "fixed point table " + index + " misses keyframes from step " + steps);
+			check(Float.floatToIntBits(keyframes[steps]) == Float.floatToIntBits(engine.getRotationDegrees()),
+					"fixed point table " + index + " keyframe " + steps + " is " + keyframes[steps] + ", expected " + engine.getRotationDegrees());
+
+			steps++;
+		}
+
+		check(keyframes.length == steps, "fixed point table " + index + " got " + keyframes.length + " keyframes, expected " + steps);
+		check(client.getSteps() == steps, "fixed point table " + index + " stopped after " + client.getSteps() + " steps, expected " + steps);
+		check(Float.floatToIntBits(client.getStopDegrees()) == Float.floatToIntBits(engine.getRotationDegrees()),
+				"fixed point table " + index + " stopped at " + client.getStopDegrees() + ", expected " + engine.getRotationDegrees());
+
+		return steps;
+	}
+
+	private static long usedHeap() throws InterruptedException
+	{
+		Runtime runtime = Runtime.getRuntime();
+
+		for(int i = 0; i < 3; i++)
+		{
+			System.gc();
+			Thread.sleep(50L);
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if(!condition)
+		{
+			System.out.println("FAILED: " + message);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,368 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle.server;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.monkeybusiness.spinthebottle.AngleMath;
+import com.monkeybusiness.spinthebottle.SpinEngine;
+
+/**
+ * <p>
+ * A table of a SpinServer. Its bottle only moves on the server; flings and
+ * obstacles sent by clients are applied at the server's current step, and
+ * fling speeds are capped, so a client cannot make up an outcome.
+ * </p>
+ * <p>
+ * Steps are counted from the fling on the server clock, SpinEngine.STEP_NANOS
+ * apiece; the same fling and obstacles give the same keyframes and stop angle
+ * as a SpinEngine stepped by hand. Keyframes are the angles after each step,
+ * handed out in batches of at most KEYFRAME_CAPACITY.
+ * </p>
+ * <p>
+ * With setFixedPoint(boolean), the table runs on integer physics; clients
+ * stepping a FixedPointSpinEngine then replay its spins bit for bit, whatever
+ * their device.
+ * </p>
+ * <p>
+ * Thread safe. Listener calls are made while holding the table's lock.
+ * </p>
+ */
+public final class SpinTable
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Upper bound of the fixed obstacles on a table, keeps its memory bounded */
+	public static final int MAX_FIXED_OBSTACLES = 16;
+
+	/** Upper bound of keyframes per Listener.onKeyframes(...) call */
+	public static final int KEYFRAME_CAPACITY = 16;
+
+	private final SpinServer server;
+	private final Listener listener;
+
+	private final SpinEngine engine = new SpinEngine();
+	private int fixedObstacleCount = 0;
+
+	/** Counts flings, so that listeners tell the keyframes of a spin from those of the one before */
+	private int spin = 0;
+	private long spinStartNanos;
+	/** Steps taken since the fling */
+	private long spinSteps = 0L;
+
+	/** Angles after steps firstKeyframeStep + 1, ... not handed out yet */
+	private final float[] keyframes = new float[KEYFRAME_CAPACITY];
+	private int keyframeCount = 0;
+	private long firstKeyframeStep;
+
+	/** Scheduled while spinning */
+	private ScheduledFuture<?> tick = null;
+
+	private final Runnable ticker = new Runnable()
+	{
+		public void run()
+		{
+			onTick();
+		}
+	};
+
+	private boolean closed = false;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	SpinTable(SpinServer server, Listener listener)
+	{
+		this.server = server;
+		this.listener = listener;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Spins the bottle from where it is, as of now. A spin on the way is replaced.
+	 *
+	 * @param stepDegrees fling speed in degrees per step, clockwise if positive. Capped at SpinEngine.MAX_ROTATION_DEGREES.
+	 * @return number of the spin, as passed to the listener
+	 */
+	public synchronized int fling(float stepDegrees)
+	{
+		checkOpen();
+
+		if(Float.isNaN(stepDegrees) || Float.isInfinite(stepDegrees))
+		{
+			throw new IllegalArgumentException("Fling speed is not a number: " + stepDegrees);
+		}
+
+		catchUp();
+		flush();
+
+		float cappedStepDegrees = Math.max(-SpinEngine.MAX_ROTATION_DEGREES, Math.min(stepDegrees, SpinEngine.MAX_ROTATION_DEGREES));
+
+		engine.setRotationStepDegrees(cappedStepDegrees);
+		engine.start();
+
+		spin++;
+		spinStartNanos = server.nowNanos();
+		spinSteps = 0L;
+
+		//The first step is due right away, as with SpinEngine.advance(long)
+		catchUp();
+
+		if(engine.isRotating() && (tick == null))
+		{
+			tick = server.getScheduler().scheduleAtFixedRate(ticker, SpinServer.KEYFRAME_INTERVAL_NANOS, SpinServer.KEYFRAME_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+		}
+
+		return spin;
+	}
+
+	/**
+	 * Places a finger on the table, as of now. Moves the one placed before.
+	 *
+	 * @param degrees angle of the finger
+	 */
+	public synchronized void touch(float degrees)
+	{
+		checkOpen();
+
+		catchUp();
+
+		engine.setObstacle(normalize(degrees));
+	}
+
+	public synchronized void releaseTouch()
+	{
+		checkOpen();
+
+		catchUp();
+
+		engine.clearObstacle();
+	}
+
+	/**
+	 * Places a fixed obstacle (e.g. a glass) on the table, as of now.
+	 *
+	 * @return key to remove it with
+	 * @throws IllegalStateException if MAX_FIXED_OBSTACLES are on the table already
+	 */
+	public synchronized int addObstacle(float degrees)
+	{
+		checkOpen();
+
+		if(fixedObstacleCount == MAX_FIXED_OBSTACLES)
+		{
+			throw new IllegalStateException("Table holds " + MAX_FIXED_OBSTACLES + " obstacles already");
+		}
+
+		catchUp();
+
+		fixedObstacleCount++;
+
+		return engine.addFixedObstacle(normalize(degrees));
+	}
+
+	/**
+	 * @param key as returned by addObstacle(float)
+	 */
+	public synchronized void removeObstacle(int key)
+	{
+		checkOpen();
+
+		catchUp();
+
+		int count = engine.getFixedObstacleCount();
+
+		engine.removeFixedObstacle(key);
+
+		fixedObstacleCount -= count - engine.getFixedObstacleCount();
+	}
+
+	/**
+	 * Switches the table to FixedPointSpinEngine's integer physics, or back, as of
+	 * now. A spin on the way goes on. See SpinEngine.setFixedPoint(boolean).
+	 */
+	public synchronized void setFixedPoint(boolean fixedPoint)
+	{
+		checkOpen();
+
+		catchUp();
+
+		engine.setFixedPoint(fixedPoint);
+	}
+
+	public synchronized boolean isFixedPoint()
+	{
+		return engine.isFixedPoint();
+	}
+
+	/**
+	 * @return angle of the bottle as of now
+	 */
+	public synchronized float getRotationDegrees()
+	{
+		catchUp();
+
+		return engine.getRotationDegrees();
+	}
+
+	public synchronized boolean isSpinning()
+	{
+		catchUp();
+
+		return engine.isRotating();
+	}
+
+	/**
+	 * Abandons a spin on the way, without a stop, and frees the table. Further calls but this one throw.
+	 */
+	public synchronized void close()
+	{
+		if(closed)
+		{
+			return;
+		}
+
+		closed = true;
+
+		cancelTick();
+
+		server.onTableClosed();
+	}
+
+	private void onTick()
+	{
+		synchronized (this)
+		{
+			if(closed)
+			{
+				return;
+			}
+
+			catchUp();
+			flush();
+		}
+	}
+
+	/**
+	 * Takes the steps due by the server clock, and reports the stop if met.
+	 */
+	private void catchUp()
+	{
+		if(!engine.isRotating())
+		{
+			return;
+		}
+
+		long dueSteps = ((server.nowNanos() - spinStartNanos) / SpinEngine.STEP_NANOS) + 1L;
+
+		while(engine.isRotating() && (spinSteps < dueSteps))
+		{
+			engine.step();
+			spinSteps++;
+
+			if(keyframeCount == KEYFRAME_CAPACITY)
+			{
+				flush();
+			}
+
+			if(keyframeCount == 0)
+			{
+				firstKeyframeStep = spinSteps - 1L;
+			}
+
+			keyframes[keyframeCount++] = engine.getRotationDegrees();
+		}
+
+		if(!engine.isRotating())
+		{
+			flush();
+			cancelTick();
+
+			listener.onStop(this, spin, engine.getRotationDegrees(), spinSteps);
+		}
+	}
+
+	private void flush()
+	{
+		if(keyframeCount != 0)
+		{
+			listener.onKeyframes(this, spin, firstKeyframeStep, keyframes, keyframeCount);
+
+			keyframeCount = 0;
+		}
+	}
+
+	private void cancelTick()
+	{
+		if(tick != null)
+		{
+			tick.cancel(false);
+			tick = null;
+		}
+	}
+
+	private void checkOpen()
+	{
+		if(closed)
+		{
+			throw new IllegalStateException("Table is closed");
+		}
+	}
+
+	private static float normalize(float degrees)
+	{
+		if(Float.isNaN(degrees) || Float.isInfinite(degrees))
+		{
+			throw new IllegalArgumentException("Angle is not a number: " + degrees);
+		}
+
+		return AngleMath.normalizeDegrees(degrees);
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	/**
+	 * Called on the server's threads, or on the thread of a SpinTable call taking
+	 * steps. Must not block; hand data over to the network layer and return.
+	 */
+	public interface Listener
+	{
+		/**
+		 * @param spin number of the spin, as returned by fling(float)
+		 * @param firstStep steps taken before the first keyframe, since the fling
+		 * @param degrees angles after each step, within [0, 360). Reused once the call returns.
+		 * @param count number of keyframes in degrees
+		 */
+		public abstract void onKeyframes(SpinTable table, int spin, long firstStep, float[] degrees, int count);
+
+		/**
+		 * @param stopDegrees authoritative stop angle, within [0, 360)
+		 * @param steps steps taken by the spin
+		 */
+		public abstract void onStop(SpinTable table, int spin, float stopDegrees, long steps);
+	}
+}
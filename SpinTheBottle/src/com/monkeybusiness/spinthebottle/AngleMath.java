@@ -0,0 +1,154 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Angle arithmetic shared by the touch and physics paths; allocation free.
+ * </p>
+ * <p>
+ * atan2Degrees(y, x) interpolates a table of arctangents over the first octant,
+ * sized so that the error stays below the requested maximum. The DEFAULT instance
+ * is accurate to DEFAULT_MAX_ERROR_DEGREES, far below a pixel at any view size.
+ * </p>
+ */
+public final class AngleMath
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final float DEFAULT_MAX_ERROR_DEGREES = 0.01f;
+
+	private static final float DEGREES_PER_PERIOD = SpinEngine.DEGREES_PER_PERIOD;
+	private static final float DEGREES_PER_QUARTER_PERIOD = SpinEngine.DEGREES_PER_QUARTER_PERIOD;
+	private static final float DEGREES_PER_HALF_PERIOD = SpinEngine.DEGREES_PER_HALF_PERIOD;
+
+	/** Bound of |d²/dt² atan(t)| over [0, 1], reached at t = 1/sqrt(3) */
+	private static final double MAX_SECOND_DERIVATIVE = (3.0 * Math.sqrt(3.0)) / 8.0;
+
+	/** Float rounding puts a floor under the achievable error */
+	private static final float MIN_MAX_ERROR_DEGREES = 0.0001f;
+
+	/** Declared after the constants the constructor relies on */
+	public static final AngleMath DEFAULT = new AngleMath(DEFAULT_MAX_ERROR_DEGREES);
+
+	private final int segments;
+	/** atan(i / segments) in degrees, for i within [0, segments] */
+	private final float[] table;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * @param maxErrorDegrees upper bound of the error of atan2Degrees(y, x), at least 0.0001
+	 */
+	public AngleMath(float maxErrorDegrees)
+	{
+		if(!(maxErrorDegrees >= MIN_MAX_ERROR_DEGREES))
+		{
+			throw new IllegalArgumentException("maxErrorDegrees must be at least " + MIN_MAX_ERROR_DEGREES + ", was " + maxErrorDegrees);
+		}
+
+		//Linear interpolation errs by at most h^2 / 8 * max|f''|; half of the budget goes to float rounding
+		double maxErrorRadians = Math.toRadians(maxErrorDegrees / 2.0);
+		double segmentLength = Math.sqrt((8.0 * maxErrorRadians) / MAX_SECOND_DERIVATIVE);
+
+		segments = (int) Math.ceil(1.0 / segmentLength);
+		table = new float[segments + 2];
+
+		for(int i = 0; i <= segments; i++)
+		{
+			table[i] = (float) Math.toDegrees(Math.atan((double) i / segments));
+		}
+
+		//Spares a bound check when t == 1
+		table[segments + 1] = table[segments];
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Approximation of Math.toDegrees(Math.atan2(y, x)).
+	 *
+	 * @return angle of the point, counter-clockwise from the positive x axis. Within [-180, 180]. 0 for the origin.
+	 */
+	public float atan2Degrees(float y, float x)
+	{
+		float absX = Math.abs(x);
+		float absY = Math.abs(y);
+
+		if((absX == 0.0f) && (absY == 0.0f))
+		{
+			return 0.0f;
+		}
+
+		//Reduce to the first octant, t within [0, 1]
+		boolean steep = absY > absX;
+		float t = (steep)?(absX / absY):(absY / absX);
+
+		float position = t * segments;
+		int index = (int) position;
+		float degrees = table[index] + ((table[index + 1] - table[index]) * (position - index));
+
+		if(steep)
+		{
+			degrees = DEGREES_PER_QUARTER_PERIOD - degrees;
+		}
+
+		if(x < 0.0f)
+		{
+			degrees = DEGREES_PER_HALF_PERIOD - degrees;
+		}
+
+		return (y < 0.0f)?(-degrees):(degrees);
+	}
+
+	/**
+	 * @return number of table entries, for diagnostics
+	 */
+	public int getTableSize()
+	{
+		return table.length;
+	}
+
+	/**
+	 * Puts an angle around the unit circle.
+	 *
+	 * @return equivalent angle within [0, 360)
+	 */
+	public static float normalizeDegrees(float degrees)
+	{
+		degrees %= DEGREES_PER_PERIOD;
+
+		if(degrees < 0.0f)
+		{
+			degrees += DEGREES_PER_PERIOD;
+
+			//Tiny negative angles round up to a full period
+			if(degrees >= DEGREES_PER_PERIOD)
+			{
+				degrees = 0.0f;
+			}
+		}
+
+		return degrees;
+	}
+}
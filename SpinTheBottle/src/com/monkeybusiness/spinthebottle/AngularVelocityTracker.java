@@ -0,0 +1,167 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Estimates the angular velocity of a drag from its recent touch samples.
+ * </p>
+ * <p>
+ * Samples are kept in a fixed capacity ring of primitive arrays; adding one
+ * costs constant time and allocates nothing. The velocity is the slope of a
+ * least-squares line through the samples of the last WINDOW_MILLIS, so a
+ * single jittery sample or batched input does not dominate the result.
+ * </p>
+ * <p>
+ * Angles are unwrapped on the way in, taking the shortest way around the
+ * circle between consecutive samples.
+ * </p>
+ */
+public final class AngularVelocityTracker
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final int CAPACITY = 32;
+
+	/** Samples older than this, relative to the latest one, are ignored by the fit */
+	public static final long WINDOW_MILLIS = 100L;
+
+	private static final float DEGREES_PER_PERIOD = SpinEngine.DEGREES_PER_PERIOD;
+	private static final float DEGREES_PER_HALF_PERIOD = SpinEngine.DEGREES_PER_HALF_PERIOD;
+
+	/** Unwrapped angles, may run beyond [0, 360) */
+	private final float[] angles = new float[CAPACITY];
+	private final long[] times = new long[CAPACITY];
+
+	/** Index of the latest sample */
+	private int head = -1;
+	private int count = 0;
+
+	private float lastAngle;
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public void clear()
+	{
+		head = -1;
+		count = 0;
+	}
+
+	/**
+	 * @param degrees angle of the touch, within [0, 360)
+	 * @param timeMillis time the touch happened, e.g. MotionEvent.getEventTime()
+	 */
+	public void addSample(float degrees, long timeMillis)
+	{
+		float angle;
+
+		if(count == 0)
+		{
+			angle = degrees;
+		}
+		else
+		{
+			//Shortest way from the previous sample, within (-180, 180]
+			float delta = AngleMath.normalizeDegrees(degrees - lastAngle);
+
+			if(delta > DEGREES_PER_HALF_PERIOD)
+			{
+				delta -= DEGREES_PER_PERIOD;
+			}
+
+			angle = lastAngle + delta;
+		}
+
+		head = (head + 1) % CAPACITY;
+		angles[head] = angle;
+		times[head] = timeMillis;
+
+		if(count < CAPACITY)
+		{
+			count++;
+		}
+
+		lastAngle = angle;
+	}
+
+	public int getSampleCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return velocity in degrees per millisecond, clockwise positive. 0 if it can not be told.
+	 */
+	public float getVelocity()
+	{
+		if(count < 2)
+		{
+			return 0.0f;
+		}
+
+		long latestTime = times[head];
+
+		//Means over the window, times relative to the latest sample
+		int samples = 0;
+		float sumTime = 0.0f;
+		float sumAngle = 0.0f;
+
+		for(int i = 0, index = head; i < count; i++, index = (index + CAPACITY - 1) % CAPACITY)
+		{
+			long age = latestTime - times[index];
+
+			if(age > WINDOW_MILLIS)
+			{
+				break;
+			}
+
+			sumTime -= age;
+			sumAngle += angles[index];
+			samples++;
+		}
+
+		if(samples < 2)
+		{
+			return 0.0f;
+		}
+
+		float meanTime = sumTime / samples;
+		float meanAngle = sumAngle / samples;
+
+		float covariance = 0.0f;
+		float variance = 0.0f;
+
+		for(int i = 0, index = head; i < samples; i++, index = (index + CAPACITY - 1) % CAPACITY)
+		{
+			float time = -(latestTime - times[index]) - meanTime;
+
+			covariance += time * (angles[index] - meanAngle);
+			variance += time * time;
+		}
+
+		if(variance == 0.0f)
+		{//All at once
+			return 0.0f;
+		}
+
+		return covariance / variance;
+	}
+}
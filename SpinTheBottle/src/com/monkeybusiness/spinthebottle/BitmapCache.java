@@ -0,0 +1,369 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+/**
+ * <p>
+ * Process wide cache of decoded resource bitmaps, keyed by resource id, target size
+ * and BitmapFormat.
+ * Views showing the same bottle share a single bitmap.
+ * </p>
+ * <p>
+ * Entries are reference counted: a bitmap handed out by acquire(...) stays cached
+ * until released. Unreferenced entries are kept for later use, and evicted least
+ * recently used first once the cache grows beyond its byte budget. Evicted bitmaps
+ * go to the BitmapPool.
+ * </p>
+ * <p>
+ * Meant to be used from the UI thread.
+ * </p>
+ */
+public final class BitmapCache
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+
+	/** Access ordered, eldest is the least recently used */
+	private static final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(8, 0.75f, true);
+	private static int bytes = 0;
+
+	/** Decodes on the way, with the requests waiting for them */
+	private static final HashMap<Long, ArrayList<Waiter>> loading = new HashMap<Long, ArrayList<Waiter>>();
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	private BitmapCache()
+	{
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Acquires a reference to the ARGB_8888 bitmap of the resource.
+	 *
+	 * @see #acquire(Resources, int, int, int, BitmapDecoder.Callback)
+	 */
+	static BitmapDecoder.Request acquire(Resources resources, int resourceId, int size, BitmapDecoder.Callback callback)
+	{
+		return acquire(resources, resourceId, size, BitmapFormat.ARGB_8888, callback);
+	}
+
+	/**
+	 * Acquires a reference to the bitmap of the resource, decoding it in the background if not cached.
+	 * Every delivered bitmap must be handed back via release(...) once it is no longer drawn.
+	 *
+	 * @param size preferred dimension of the bitmap, in pixels
+	 * @param format one of BitmapFormat
+	 * @param callback notified on the UI thread, unless the request is cancelled before
+	 * @return request handle to cancel, null if the bitmap was delivered right away
+	 */
+	static synchronized BitmapDecoder.Request acquire(Resources resources, int resourceId, int size, int format, BitmapDecoder.Callback callback)
+	{
+		Long key = key(resourceId, size, format);
+		Entry entry = entries.get(key);
+
+		if(entry != null)
+		{
+			entry.references++;
+			callback.onDecoded(resourceId, entry.bitmap);
+
+			return null;
+		}
+
+		BitmapDecoder.Request request = new BitmapDecoder.Request(resourceId);
+
+		load(resources, resourceId, size, format).add(new Waiter(request, callback));
+
+		return request;
+	}
+
+	/**
+	 * Hands back an ARGB_8888 bitmap delivered by acquire(...).
+	 */
+	static void release(int resourceId, int size, Bitmap bitmap)
+	{
+		release(resourceId, size, BitmapFormat.ARGB_8888, bitmap);
+	}
+
+	/**
+	 * Hands back a bitmap delivered by acquire(...), along with the format it was acquired in.
+	 */
+	static synchronized void release(int resourceId, int size, int format, Bitmap bitmap)
+	{
+		Entry entry = entries.get(key(resourceId, size, format));
+
+		if((entry == null) || (entry.bitmap != bitmap) || (entry.references == 0))
+		{
+			return;
+		}
+
+		entry.references--;
+
+		trim();
+	}
+
+	/**
+	 * Adds a reference to the cached bitmap, as acquire(...) would have handed it out.
+	 *
+	 * @return false if the bitmap is not the one cached for the key
+	 */
+	static synchronized boolean retain(int resourceId, int size, int format, Bitmap bitmap)
+	{
+		Entry entry = entries.get(key(resourceId, size, format));
+
+		if((entry == null) || (entry.bitmap != bitmap))
+		{
+			return false;
+		}
+
+		entry.references++;
+
+		return true;
+	}
+
+	/**
+	 * Decodes the resource in the background, so that a later acquire(...) is served
+	 * right away. E.g. the next bottle in a sequence.
+	 *
+	 * @param size preferred dimension of the bitmap, in pixels. Should match the size of the view to show it.
+	 */
+	public static void prefetch(Resources resources, int resourceId, int size)
+	{
+		prefetch(resources, resourceId, size, BitmapFormat.ARGB_8888);
+	}
+
+	/**
+	 * Same as prefetch(Resources, int, int), for views showing the bottle in another format.
+	 *
+	 * @param format one of BitmapFormat
+	 */
+	public static synchronized void prefetch(Resources resources, int resourceId, int size, int format)
+	{
+		if((size <= 0) || !BitmapFormat.isValid(format))
+		{
+			return;
+		}
+
+		Long key = key(resourceId, size, format);
+
+		if(!entries.containsKey(key))
+		{
+			load(resources, resourceId, size, format);
+		}
+	}
+
+	/**
+	 * @return color to draw the cached ALPHA_8 silhouette with, as found by an AUTO decode; 0 if none
+	 */
+	static synchronized int getSilhouetteColor(int resourceId, int size, int format)
+	{
+		Entry entry = entries.get(key(resourceId, size, format));
+
+		return (entry != null)?(entry.color):(0);
+	}
+
+	/**
+	 * Sets the upper bound of the memory held by unreferenced bitmaps.
+	 * Referenced bitmaps are never evicted, so the cache may exceed it while they are in use.
+	 */
+	public static synchronized void setMaxBytes(int maxBytes)
+	{
+		BitmapCache.maxBytes = maxBytes;
+
+		trim();
+	}
+
+	/**
+	 * @return bytes currently held by cached bitmaps, referenced or not
+	 */
+	public static synchronized int getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Drops every unreferenced bitmap, e.g. on low memory.
+	 */
+	public static synchronized void evictAll()
+	{
+		Iterator<Entry> iterator = entries.values().iterator();
+
+		while(iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+
+			if(entry.references == 0)
+			{
+				iterator.remove();
+				evict(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return waiters of the decode of the resource, started if not on the way yet
+	 */
+	private static ArrayList<Waiter> load(Resources resources, int resourceId, int size, int format)
+	{
+		Long key = key(resourceId, size, format);
+		ArrayList<Waiter> waiters = loading.get(key);
+
+		if(waiters == null)
+		{
+			waiters = new ArrayList<Waiter>(2);
+			loading.put(key, waiters);
+
+			Loader loader = new Loader(key);
+			loader.request = BitmapDecoder.decode(resources, resourceId, size, format, loader);
+		}
+
+		return waiters;
+	}
+
+	private static synchronized void onLoaded(Long key, int resourceId, Bitmap bitmap, int color)
+	{
+		ArrayList<Waiter> waiters = loading.remove(key);
+
+		if(bitmap == null)
+		{
+			for(Waiter waiter : waiters)
+			{
+				if(!waiter.request.isCancelled())
+				{
+					waiter.callback.onDecoded(resourceId, null);
+				}
+			}
+
+			return;
+		}
+
+		Entry entry = new Entry(bitmap, color);
+		entries.put(key, entry);
+		bytes += entry.bytes;
+
+		for(Waiter waiter : waiters)
+		{
+			if(!waiter.request.isCancelled())
+			{
+				entry.references++;
+				waiter.callback.onDecoded(resourceId, bitmap);
+			}
+		}
+
+		trim();
+	}
+
+	/**
+	 * Evicts least recently used, unreferenced entries until within the budget.
+	 */
+	private static void trim()
+	{
+		Iterator<Entry> iterator = entries.values().iterator();
+
+		while((bytes > maxBytes) && iterator.hasNext())
+		{
+			Entry entry = iterator.next();
+
+			if(entry.references == 0)
+			{
+				iterator.remove();
+				evict(entry);
+			}
+		}
+	}
+
+	private static void evict(Entry entry)
+	{
+		bytes -= entry.bytes;
+
+		BitmapPool.put(entry.bitmap);
+	}
+
+	private static Long key(int resourceId, int size, int format)
+	{
+		return Long.valueOf((((long) resourceId) << 32) | (((long) format) << 28) | (size & 0x0FFFFFFFL));
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	private static class Entry
+	{
+		final Bitmap bitmap;
+		final int bytes;
+		/** Silhouette color found by an AUTO decode, 0 otherwise */
+		final int color;
+
+		int references = 0;
+
+		Entry(Bitmap bitmap, int color)
+		{
+			this.bitmap = bitmap;
+			this.bytes = bitmap.getRowBytes() * bitmap.getHeight();
+			this.color = color;
+		}
+	}
+
+	/**
+	 * Completes a decode started by load(...). Keeps the decode request, which carries the silhouette color.
+	 */
+	private static class Loader implements BitmapDecoder.Callback
+	{
+		final Long key;
+
+		/** Set right after the decode starts, always before delivery */
+		BitmapDecoder.Request request;
+
+		Loader(Long key)
+		{
+			this.key = key;
+		}
+
+		public void onDecoded(int resourceId, Bitmap bitmap)
+		{
+			onLoaded(key, resourceId, bitmap, request.getColor());
+		}
+	}
+
+	private static class Waiter
+	{
+		final BitmapDecoder.Request request;
+		final BitmapDecoder.Callback callback;
+
+		Waiter(BitmapDecoder.Request request, BitmapDecoder.Callback callback)
+		{
+			this.request = request;
+			this.callback = callback;
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * <p>
+ * Decodes resource bitmaps on a background thread, fit into a preferred dimension.
+ * </p>
+ * <p>
+ * The source is subsampled by the largest power of two keeping it at least as big
+ * as the preferred dimension, and the rest is scaled by the decoder. Decoding
+ * goes into a pooled bitmap when possible (see BitmapPool). Results are
+ * delivered on the UI thread.
+ * </p>
+ * <p>
+ * Bitmaps come in one of the BitmapFormat formats; AUTO ones are probed pixel
+ * by pixel after decoding, and converted if a smaller format keeps them.
+ * </p>
+ */
+final class BitmapDecoder
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final ExecutorService DECODE_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "BitmapDecoder");
+			thread.setPriority(Thread.MIN_PRIORITY);
+
+			return thread;
+		}
+	});
+
+	private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	private BitmapDecoder()
+	{
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Decodes the resource in the background.
+	 *
+	 * @param preferredDimension size of the longer side of the result, in pixels
+	 * @param format one of BitmapFormat
+	 * @param callback notified on the UI thread, unless the request is cancelled before
+	 * @return request handle, to cancel it
+	 */
+	static Request decode(final Resources resources, final int resourceId, final int preferredDimension, final int format, final Callback callback)
+	{
+		final Request request = new Request(resourceId);
+
+		DECODE_EXECUTOR.execute(new Runnable()
+		{
+			public void run()
+			{
+				if(request.isCancelled())
+				{
+					return;
+				}
+
+				final Bitmap bitmap = decodeResource(resources, resourceId, preferredDimension, format, request);
+
+				MAIN_HANDLER.post(new Runnable()
+				{
+					public void run()
+					{
+						if(request.isCancelled())
+						{
+							BitmapPool.put(bitmap);
+						}
+						else
+						{
+							callback.onDecoded(resourceId, bitmap);
+						}
+					}
+				});
+			}
+		});
+
+		return request;
+	}
+
+	/**
+	 * Decodes the resource on the calling thread.
+	 *
+	 * @param preferredDimension size of the longer side of the result, in pixels
+	 * @param format one of BitmapFormat
+	 * @param request receives the color of an AUTO silhouette, may be null
+	 */
+	static Bitmap decodeResource(Resources resources, int resourceId, int preferredDimension, int format, Request request)
+	{
+		//Bounds probe
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+
+		BitmapFactory.decodeResource(resources, resourceId, options);
+
+		int imageDimension = Math.max(options.outWidth, options.outHeight);
+
+		if((imageDimension <= 0) || (preferredDimension <= 0))
+		{
+			return null;
+		}
+
+		int sampleSize = calculateSampleSize(imageDimension, preferredDimension);
+		int sampledDimension = imageDimension / sampleSize;
+
+		//Full decode
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inScaled = true;
+		options.inDensity = sampledDimension;
+		options.inTargetDensity = preferredDimension;
+
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+		{//Missing before API 11, touching it there throws NoSuchFieldError
+			options.inMutable = true;
+		}
+
+		//ALPHA_8 is extracted from a full decode, which is also what AUTO probes
+		options.inPreferredConfig = (format == BitmapFormat.RGB_565)?(Bitmap.Config.RGB_565):(Bitmap.Config.ARGB_8888);
+		options.inDither = format == BitmapFormat.RGB_565;
+
+		Bitmap reused = null;
+
+		if(BitmapPool.isReuseSupported())
+		{
+			int width = scale(options.outWidth / sampleSize, preferredDimension, sampledDimension);
+			int height = scale(options.outHeight / sampleSize, preferredDimension, sampledDimension);
+
+			reused = BitmapPool.take(width * height * ((format == BitmapFormat.RGB_565)?(2):(4)));
+			options.inBitmap = reused;
+		}
+
+		Bitmap bitmap;
+
+		try
+		{
+			bitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+		}
+		catch(IllegalArgumentException e)
+		{
+			if(reused == null)
+			{
+				throw e;
+			}
+
+			//Pooled bitmap refused; it goes back for another size or format, decode into a new one
+			options.inBitmap = null;
+
+			BitmapPool.put(reused);
+
+			bitmap = BitmapFactory.decodeResource(resources, resourceId, options);
+		}
+
+		if(bitmap == null)
+		{
+			return null;
+		}
+
+		if(format == BitmapFormat.AUTO)
+		{
+			BitmapFormat.Probe probe = probe(bitmap);
+
+			format = probe.getFormat();
+
+			if((format == BitmapFormat.ALPHA_8) && (request != null))
+			{
+				request.setColor(probe.getColor());
+			}
+		}
+
+		return convert(bitmap, format);
+	}
+
+	private static BitmapFormat.Probe probe(Bitmap bitmap)
+	{
+		BitmapFormat.Probe probe = new BitmapFormat.Probe();
+
+		int width = bitmap.getWidth();
+		int[] row = new int[width];
+
+		for(int y = 0; y < bitmap.getHeight(); y++)
+		{
+			bitmap.getPixels(row, 0, width, 0, y, width, 1);
+
+			probe.scan(row, 0, width);
+		}
+
+		return probe;
+	}
+
+	/**
+	 * @return the bitmap in the given format; the original goes to the pool if converted
+	 */
+	private static Bitmap convert(Bitmap bitmap, int format)
+	{
+		Bitmap converted;
+
+		if((format == BitmapFormat.ALPHA_8) && (bitmap.getConfig() != Bitmap.Config.ALPHA_8))
+		{
+			converted = bitmap.extractAlpha();
+		}
+		else if((format == BitmapFormat.RGB_565) && (bitmap.getConfig() != Bitmap.Config.RGB_565))
+		{
+			converted = bitmap.copy(Bitmap.Config.RGB_565, bitmap.isMutable());
+		}
+		else
+		{
+			return bitmap;
+		}
+
+		if(converted == null)
+		{//Out of memory, or not supported; keep the full one
+			return bitmap;
+		}
+
+		BitmapPool.put(bitmap);
+
+		return converted;
+	}
+
+	/**
+	 * @return largest power of two, keeping the sampled image at least as big as preferred
+	 */
+	static int calculateSampleSize(int imageDimension, int preferredDimension)
+	{
+		int sampleSize = 1;
+
+		while((imageDimension / (sampleSize * 2)) >= preferredDimension)
+		{
+			sampleSize *= 2;
+		}
+
+		return sampleSize;
+	}
+
+	private static int scale(int dimension, int targetDensity, int density)
+	{
+		return (int) ((dimension * ((float) targetDensity / density)) + 0.5f);
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	interface Callback
+	{
+		/**
+		 * Called on the UI thread.
+		 *
+		 * @param bitmap decoded bitmap, null if decoding failed
+		 */
+		public abstract void onDecoded(int resourceId, Bitmap bitmap);
+	}
+
+	static final class Request
+	{
+		private final int resourceId;
+		private volatile boolean cancelled = false;
+
+		/** Opaque color of an AUTO silhouette, 0 otherwise */
+		private volatile int color = 0;
+
+		Request(int resourceId)
+		{
+			this.resourceId = resourceId;
+		}
+
+		int getResourceId()
+		{
+			return resourceId;
+		}
+
+		/**
+		 * Drops the request. If the bitmap is decoded anyway, it goes to the pool.
+		 */
+		void cancel()
+		{
+			cancelled = true;
+		}
+
+		boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		void setColor(int color)
+		{
+			this.color = color;
+		}
+
+		/**
+		 * @return color to draw an ALPHA_8 result of an AUTO decode with, 0 if not a silhouette. Set once delivered.
+		 */
+		int getColor()
+		{
+			return color;
+		}
+	}
+}
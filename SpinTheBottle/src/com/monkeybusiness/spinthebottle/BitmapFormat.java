@@ -0,0 +1,174 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * In-memory formats of bottle bitmaps, as set by the bitmap_format attribute
+ * or setBitmapFormat(int) of the spinning views. Values match the attribute's.
+ * </p>
+ */
+public final class BitmapFormat
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** 4 bytes per pixel, any image. The default. */
+	public static final int ARGB_8888 = 0;
+	/** 2 bytes per pixel, for opaque bottles. Transparent pixels turn black. */
+	public static final int RGB_565 = 1;
+	/** 1 byte per pixel, alpha only; drawn in the view's bottle tint. For silhouettes. */
+	public static final int ALPHA_8 = 2;
+	/**
+	 * Smallest of the above keeping the image bit for bit: ALPHA_8 for a single color, RGB_565 if opaque
+	 * and every pixel comes back unchanged from it (see Probe.fitsRgb565(int)), ARGB_8888 otherwise
+	 */
+	public static final int AUTO = 3;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	private BitmapFormat()
+	{
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	static boolean isValid(int format)
+	{
+		return (format >= ARGB_8888) && (format <= AUTO);
+	}
+
+	/**
+	 * @return bytes a pixel takes in the given (non AUTO) format
+	 */
+	static int bytesPerPixel(int format)
+	{
+		switch(format)
+		{
+			case RGB_565:
+				return 2;
+			case ALPHA_8:
+				return 1;
+			default:
+				return 4;
+		}
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	/**
+	 * <p>
+	 * Picks the format for AUTO from the pixels of an image, fed row by row.
+	 * </p>
+	 */
+	public static final class Probe
+	{
+		private boolean opaque = true;
+		/** Opaque so far, and no channel lost bits to RGB_565 */
+		private boolean rgb565 = true;
+		private boolean singleColor = true;
+		/** RGB shared by the visible pixels so far, -1 if none seen yet */
+		private int color = -1;
+
+		/**
+		 * @param argb non-premultiplied pixels, as Bitmap.getPixels(...) gives them
+		 */
+		public void scan(int[] argb, int offset, int length)
+		{
+			for(int i = offset; i < offset + length; i++)
+			{
+				int pixel = argb[i];
+				int alpha = pixel >>> 24;
+
+				if(alpha != 0xFF)
+				{
+					opaque = false;
+					rgb565 = false;
+				}
+				else if(rgb565 && !fitsRgb565(pixel))
+				{
+					rgb565 = false;
+				}
+
+				if(singleColor && (alpha != 0))
+				{
+					int rgb = pixel & 0xFFFFFF;
+
+					if(color == -1)
+					{
+						color = rgb;
+					}
+					else if(color != rgb)
+					{
+						singleColor = false;
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return format of the pixels scanned so far, never AUTO
+		 */
+		public int getFormat()
+		{
+			if(singleColor)
+			{
+				return ALPHA_8;
+			}
+
+			return (rgb565)?(RGB_565):(ARGB_8888);
+		}
+
+		/**
+		 * @return whether the pixel's color comes back unchanged from RGB_565, which
+		 * widens its 5 and 6 bit channels again by repeating their top bits
+		 */
+		static boolean fitsRgb565(int pixel)
+		{
+			int red = (pixel >> 16) & 0xFF;
+			int green = (pixel >> 8) & 0xFF;
+			int blue = pixel & 0xFF;
+
+			return (widen5(red >> 3) == red) && (widen6(green >> 2) == green) && (widen5(blue >> 3) == blue);
+		}
+
+		private static int widen5(int value)
+		{
+			return (value << 3) | (value >> 2);
+		}
+
+		private static int widen6(int value)
+		{
+			return (value << 2) | (value >> 4);
+		}
+
+		/**
+		 * @return opaque color to tint an ALPHA_8 result with, black if nothing is visible
+		 */
+		public int getColor()
+		{
+			return 0xFF000000 | ((color == -1)?(0):(color));
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * <p>
+ * Pool of bitmaps no longer drawn, to be decoded into via BitmapFactory.Options.inBitmap
+ * instead of allocating a new bitmap. Bitmaps are only reused on API 19+, where any
+ * mutable bitmap with enough bytes is accepted.
+ * </p>
+ * <p>
+ * Bitmaps handed to the pool must not be used by the caller anymore.
+ * </p>
+ */
+final class BitmapPool
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final int MAX_BYTES = 8 * 1024 * 1024;
+
+	/** Guarded by the class lock. Least recently added first. */
+	private static final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+	private static int bytes = 0;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	private BitmapPool()
+	{
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	static boolean isReuseSupported()
+	{
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+	}
+
+	/**
+	 * Takes the smallest pooled bitmap that can hold the given bytes.
+	 *
+	 * @return null if none fits
+	 */
+	static synchronized Bitmap take(int minBytes)
+	{
+		Bitmap best = null;
+
+		for(Bitmap bitmap : bitmaps)
+		{
+			int size = bitmap.getAllocationByteCount();
+
+			if((size >= minBytes) && ((best == null) || (size < best.getAllocationByteCount())))
+			{
+				best = bitmap;
+			}
+		}
+
+		if(best != null)
+		{
+			bitmaps.remove(best);
+			bytes -= best.getAllocationByteCount();
+		}
+
+		return best;
+	}
+
+	/**
+	 * Hands over a bitmap for reuse. Bitmaps that can not be reused are left to the garbage collector.
+	 */
+	static synchronized void put(Bitmap bitmap)
+	{
+		if((bitmap == null) || !isReuseSupported() || bitmap.isRecycled() || !bitmap.isMutable())
+		{
+			return;
+		}
+
+		int size = bitmap.getAllocationByteCount();
+
+		if(size > MAX_BYTES)
+		{
+			return;
+		}
+
+		bitmaps.addLast(bitmap);
+		bytes += size;
+
+		while(bytes > MAX_BYTES)
+		{
+			bytes -= bitmaps.removeFirst().getAllocationByteCount();
+		}
+	}
+
+	static synchronized void clear()
+	{
+		bitmaps.clear();
+		bytes = 0;
+	}
+}
@@ -0,0 +1,119 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Drag input waiting for the next frame. Touch panels may deliver several
+ * moves per frame; only the latest drag angle and the latest angle of each
+ * finger reach the engine, once per frame.
+ * </p>
+ * <p>
+ * Not thread safe; guarded by the owner along with its engine.
+ * </p>
+ */
+final class CoalescedInput
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private boolean rotationPending = false;
+	private float rotationDegrees;
+
+	/** Bit per finger with an angle pending, as SpinEngine's fingers */
+	private int obstaclePendingMask = 0;
+	private final float[] obstacleDegrees = new float[SpinEngine.MAX_FINGERS];
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * @return true if no rotation was pending yet, so that the caller should request a frame
+	 */
+	boolean rotateTo(float degrees)
+	{
+		boolean first = !rotationPending;
+
+		rotationDegrees = degrees;
+		rotationPending = true;
+
+		return first;
+	}
+
+	/**
+	 * @param finger within [0, SpinEngine.MAX_FINGERS)
+	 */
+	void setObstacle(int finger, float degrees)
+	{
+		obstacleDegrees[finger] = degrees;
+		obstaclePendingMask |= 1 << finger;
+	}
+
+	/**
+	 * Drops the finger's pending obstacle, if any. The caller clears the engine's one.
+	 */
+	void clearObstacle(int finger)
+	{
+		obstaclePendingMask &= ~(1 << finger);
+	}
+
+	/**
+	 * Drops every pending obstacle.
+	 */
+	void clearObstacles()
+	{
+		obstaclePendingMask = 0;
+	}
+
+	/**
+	 * @return true if input awaits the next frame
+	 */
+	boolean hasPending()
+	{
+		return rotationPending || (obstaclePendingMask != 0);
+	}
+
+	/**
+	 * @return the rotation the engine will have once pending input is applied
+	 */
+	float getRotationDegrees(SpinEngine engine)
+	{
+		return (rotationPending)?(rotationDegrees):(engine.getRotationDegrees());
+	}
+
+	/**
+	 * Hands pending input over to the engine. Called once per frame, and before
+	 * any other engine update so that the order of calls is kept.
+	 */
+	void applyTo(SpinEngine engine)
+	{
+		if(rotationPending)
+		{
+			engine.rotateTo(rotationDegrees);
+			rotationPending = false;
+		}
+
+		for(; obstaclePendingMask != 0; obstaclePendingMask &= obstaclePendingMask - 1)
+		{
+			int finger = Integer.numberOfTrailingZeros(obstaclePendingMask);
+
+			engine.setObstacle(finger, obstacleDegrees[finger]);
+		}
+	}
+}
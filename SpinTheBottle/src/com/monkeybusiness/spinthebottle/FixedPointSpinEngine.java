@@ -0,0 +1,558 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * SpinEngine's physics in integer arithmetic. Angle, speed, friction and
+ * obstacles are held in units of 1/UNITS_PER_DEGREE degree, and bounce as a
+ * fraction of BOUNCE_ONE; there is no floating point on the way. Outcomes are
+ * therefore bit for bit the same on every device and JVM, e.g. for replaying a
+ * networked game on each player's device.
+ * </p>
+ * <p>
+ * Rules are SpinEngine's, step for step: the bottle moves by its speed, stops
+ * on a step slower than half a degree, and loses friction otherwise; each end
+ * of the bottle, ARC_OF_TOLERANCE ahead, bounces off the first obstacle met
+ * on its way. Stop angles differ from SpinEngine's by float rounding only,
+ * see FairnessAnalyzer's engine=compare.
+ * </p>
+ * <p>
+ * Steps are plain integer updates, so there is no closed form skip; skip(int)
+ * steps one by one. Obstacles are scanned linearly, tables hold a few.
+ * </p>
+ * <p>
+ * Views and server tables run on it through SpinEngine.setFixedPoint(boolean).
+ * </p>
+ */
+public final class FixedPointSpinEngine
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Angle units per degree; speeds are in units per step */
+	public static final int UNITS_PER_DEGREE = 1 << 16;
+
+	public static final int UNITS_PER_PERIOD = 360 * UNITS_PER_DEGREE;
+	private static final int UNITS_PER_HALF_PERIOD = UNITS_PER_PERIOD / 2;
+
+	/** Steps slower than this, either way, stop the bottle; SpinEngine rounds them to 0 */
+	private static final int STOP_UNITS = UNITS_PER_DEGREE / 2;
+
+	private static final int ARC_OF_TOLERANCE_UNITS = (int) SpinEngine.ARC_OF_TOLERANCE * UNITS_PER_DEGREE;
+
+	public static final int MAX_ROTATION_UNITS = (int) SpinEngine.MAX_ROTATION_DEGREES * UNITS_PER_DEGREE;
+
+	/** SpinEngine.FRICTION */
+	public static final int FRICTION_UNITS = UNITS_PER_DEGREE / 2;
+
+	/** Bounce coefficients are fractions of this */
+	public static final int BOUNCE_ONE = 1 << 16;
+
+	/** SpinEngine.BOUNCE_ENERGY_COEFFICIENT, rounded */
+	public static final int BOUNCE_ENERGY_COEFFICIENT = (int) ((SpinEngine.BOUNCE_ENERGY_COEFFICIENT * BOUNCE_ONE) + 0.5f);
+
+	private static final int MAX_CATCH_UP_STEPS = 240;
+
+	/** Friction reversing the spin again and again never stops it; predict() gives up after that many steps */
+	private static final int MAX_PREDICTED_STEPS = 100000;
+
+	private static final int MOVING_OBSTACLE_KEY = 0;
+
+	private static final int INITIAL_OBSTACLE_CAPACITY = 4;
+
+	private final int frictionUnits;
+	private final int bounceEnergyCoefficient;
+
+	private int rotationUnits = 0;
+	private int rotationStepUnits = 0;
+	private boolean rotating = false;
+
+	private long lastAdvanceNanos = -1L;
+	private long accumulatedNanos = 0L;
+
+	/** Every obstacle on the table, the moving one included; unordered */
+	private int[] obstacleUnits = new int[INITIAL_OBSTACLE_CAPACITY];
+	private int[] obstacleKeys = new int[INITIAL_OBSTACLE_CAPACITY];
+	private int obstacleCount = 0;
+	private int nextFixedObstacleKey = MOVING_OBSTACLE_KEY + 1;
+
+	private boolean obstacleExists = false;
+
+	/** Bounces off obstacles so far, for SpinEngine to tell a bounce step */
+	private int bounceCount = 0;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public FixedPointSpinEngine()
+	{
+		this(FRICTION_UNITS, BOUNCE_ENERGY_COEFFICIENT);
+	}
+
+	/**
+	 * @param frictionUnits speed lost at each step, in units per step
+	 * @param bounceEnergyCoefficient share of the speed kept when bouncing off an obstacle, in BOUNCE_ONE
+	 */
+	public FixedPointSpinEngine(int frictionUnits, int bounceEnergyCoefficient)
+	{
+		this.frictionUnits = frictionUnits;
+		this.bounceEnergyCoefficient = bounceEnergyCoefficient;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Advances the simulation up to the given time, as SpinEngine.advance(long) does.
+	 *
+	 * @param nowNanos monotonic time stamp, e.g. System.nanoTime()
+	 * @return number of steps taken
+	 */
+	public int advance(long nowNanos)
+	{
+		if(!rotating)
+		{
+			lastAdvanceNanos = -1L;
+			accumulatedNanos = 0L;
+
+			return 0;
+		}
+
+		if(lastAdvanceNanos == -1L)
+		{
+			accumulatedNanos = SpinEngine.STEP_NANOS;
+		}
+		else
+		{
+			accumulatedNanos += nowNanos - lastAdvanceNanos;
+		}
+
+		lastAdvanceNanos = nowNanos;
+
+		long dueSteps = accumulatedNanos / SpinEngine.STEP_NANOS;
+		int steps;
+
+		if(dueSteps > MAX_CATCH_UP_STEPS)
+		{//Drop the rest of the backlog
+			steps = skip(MAX_CATCH_UP_STEPS);
+			accumulatedNanos = 0L;
+		}
+		else
+		{
+			steps = skip((int) dueSteps);
+			accumulatedNanos -= steps * SpinEngine.STEP_NANOS;
+		}
+
+		return steps;
+	}
+
+	/**
+	 * Takes up to the given number of steps, stopping early along with the spin.
+	 *
+	 * @return number of steps taken
+	 */
+	public int skip(int steps)
+	{
+		int taken = 0;
+
+		while(rotating && (taken < steps))
+		{
+			step();
+
+			taken++;
+		}
+
+		return taken;
+	}
+
+	/**
+	 * Takes a single simulation step, regardless of the time.
+	 */
+	public void step()
+	{
+		if((obstacleCount == 0) || (rotationStepUnits == 0) || !collide())
+		{
+			succeedRotation();
+		}
+	}
+
+	/**
+	 * @return true if the bottle bounced off an obstacle
+	 */
+	private boolean collide()
+	{
+		boolean clockwise = rotationStepUnits > 0;
+		int leadUnits = (clockwise)?(ARC_OF_TOLERANCE_UNITS):(-ARC_OF_TOLERANCE_UNITS);
+		int sweepUnits = Math.abs(rotationStepUnits);
+
+		int topUnits = normalize(rotationUnits + leadUnits);
+		int bottomUnits = normalize(topUnits + UNITS_PER_HALF_PERIOD);
+
+		int topHit = -1;
+		int topDistance = Integer.MAX_VALUE;
+		int bottomHit = -1;
+		int bottomDistance = Integer.MAX_VALUE;
+
+		//Ends excluded, as in ObstacleIndex.firstOnArc(...)
+		for(int i = 0; i < obstacleCount; i++)
+		{
+			int distance = distanceOnArc(topUnits, obstacleUnits[i], clockwise);
+
+			if((distance > 0) && (distance < sweepUnits) && (distance < topDistance))
+			{
+				topHit = i;
+				topDistance = distance;
+			}
+
+			distance = distanceOnArc(bottomUnits, obstacleUnits[i], clockwise);
+
+			if((distance > 0) && (distance < sweepUnits) && (distance < bottomDistance))
+			{
+				bottomHit = i;
+				bottomDistance = distance;
+			}
+		}
+
+		if((topHit == -1) && (bottomHit == -1))
+		{
+			return false;
+		}
+
+		if((bottomHit == -1) || ((topHit != -1) && (topDistance <= bottomDistance)))
+		{
+			rotationUnits = normalize(obstacleUnits[topHit] - leadUnits);
+		}
+		else
+		{
+			rotationUnits = normalize(obstacleUnits[bottomHit] - leadUnits + UNITS_PER_HALF_PERIOD);
+		}
+
+		//Truncated toward zero, the same either way
+		rotationStepUnits = (int) -(((long) rotationStepUnits * bounceEnergyCoefficient) / BOUNCE_ONE);
+
+		bounceCount++;
+
+		return true;
+	}
+
+	private void succeedRotation()
+	{
+		rotationUnits = normalize(rotationUnits + rotationStepUnits);
+
+		if(stopsOn(rotationStepUnits))
+		{
+			rotating = false;
+		}
+		else
+		{
+			rotationStepUnits = applyFriction(rotationStepUnits, frictionUnits);
+		}
+	}
+
+	/**
+	 * Predicts where and when the spin stops if started, or let go on, from the
+	 * current state, with no obstacle in its way. Matches stepping bit for bit;
+	 * costs a couple of integer operations per step.
+	 */
+	public SpinPrediction predict()
+	{
+		int units = rotationUnits;
+		int stepUnits = rotationStepUnits;
+
+		for(int step = 1; step <= MAX_PREDICTED_STEPS; step++)
+		{
+			units = normalize(units + stepUnits);
+
+			if(stopsOn(stepUnits))
+			{
+				return new SpinPrediction(toDegrees(units), step);
+			}
+
+			stepUnits = applyFriction(stepUnits, frictionUnits);
+		}
+
+		return SpinPrediction.NEVER;
+	}
+
+	/**
+	 * Step math, shared with SectorTimeline.
+	 *
+	 * @return true if a step of the given speed is the last one
+	 */
+	static boolean stopsOn(int stepUnits)
+	{
+		return (stepUnits >= -STOP_UNITS) && (stepUnits < STOP_UNITS);
+	}
+
+	/**
+	 * @return speed of the step after one of the given speed; friction works against its way, turning it over if strong enough
+	 */
+	static int applyFriction(int stepUnits, int frictionUnits)
+	{
+		return stepUnits + ((stepUnits > 0)?(-frictionUnits):(frictionUnits));
+	}
+
+	int getFrictionUnits()
+	{
+		return frictionUnits;
+	}
+
+	int getBounceCount()
+	{
+		return bounceCount;
+	}
+
+	public void start()
+	{
+		rotating = true;
+
+		lastAdvanceNanos = -1L;
+		accumulatedNanos = 0L;
+	}
+
+	public void stop()
+	{
+		rotating = false;
+	}
+
+	public boolean isRotating()
+	{
+		return rotating;
+	}
+
+	public void rotateTo(float degrees)
+	{
+		rotateToUnits(toUnits(degrees));
+	}
+
+	public void rotateToUnits(int units)
+	{
+		rotationUnits = normalize(units);
+		rotationStepUnits = 0;
+	}
+
+	/**
+	 * @return rotation within [0, 360), exact to the unit
+	 */
+	public float getRotationDegrees()
+	{
+		return toDegrees(rotationUnits);
+	}
+
+	/**
+	 * @return rotation within [0, UNITS_PER_PERIOD)
+	 */
+	public int getRotationUnits()
+	{
+		return rotationUnits;
+	}
+
+	public void setRotationStepDegrees(float degrees)
+	{
+		setRotationStepUnits(toUnits(degrees));
+	}
+
+	/**
+	 * @param units speed in units per step, clockwise if positive. Capped at MAX_ROTATION_UNITS.
+	 */
+	public void setRotationStepUnits(int units)
+	{
+		rotationStepUnits = Math.max(-MAX_ROTATION_UNITS, Math.min(units, MAX_ROTATION_UNITS));
+	}
+
+	public float getRotationStepDegrees()
+	{
+		return toDegrees(rotationStepUnits);
+	}
+
+	public int getRotationStepUnits()
+	{
+		return rotationStepUnits;
+	}
+
+	/**
+	 * Places the moving obstacle (e.g. a finger) on the bottle's path.
+	 */
+	public void setObstacle(float degrees)
+	{
+		setObstacleUnits(toUnits(degrees));
+	}
+
+	public void setObstacleUnits(int units)
+	{
+		putObstacle(MOVING_OBSTACLE_KEY, normalize(units));
+
+		obstacleExists = true;
+	}
+
+	public void clearObstacle()
+	{
+		removeObstacle(MOVING_OBSTACLE_KEY);
+
+		obstacleExists = false;
+	}
+
+	public boolean hasObstacle()
+	{
+		return obstacleExists;
+	}
+
+	/**
+	 * @return key to remove it with
+	 */
+	public int addFixedObstacle(float degrees)
+	{
+		return addFixedObstacleUnits(toUnits(degrees));
+	}
+
+	public int addFixedObstacleUnits(int units)
+	{
+		int key = nextFixedObstacleKey++;
+
+		putObstacle(key, normalize(units));
+
+		return key;
+	}
+
+	/**
+	 * @param key as returned by addFixedObstacle(...)
+	 */
+	public void removeFixedObstacle(int key)
+	{
+		if(key != MOVING_OBSTACLE_KEY)
+		{
+			removeObstacle(key);
+		}
+	}
+
+	public void clearFixedObstacles()
+	{
+		int position = findObstacle(MOVING_OBSTACLE_KEY);
+
+		if(position == -1)
+		{
+			obstacleCount = 0;
+		}
+		else
+		{
+			obstacleUnits[0] = obstacleUnits[position];
+			obstacleKeys[0] = MOVING_OBSTACLE_KEY;
+			obstacleCount = 1;
+		}
+	}
+
+	public int getFixedObstacleCount()
+	{
+		return obstacleCount - ((obstacleExists)?(1):(0));
+	}
+
+	/**
+	 * Obstacle under a key of the caller's, for SpinEngine to mirror its own.
+	 *
+	 * @param units within [0, UNITS_PER_PERIOD)
+	 */
+	void putObstacle(int key, int units)
+	{
+		int position = findObstacle(key);
+
+		if(position == -1)
+		{
+			if(obstacleCount == obstacleUnits.length)
+			{
+				int[] grownUnits = new int[obstacleCount * 2];
+				int[] grownKeys = new int[obstacleCount * 2];
+
+				System.arraycopy(obstacleUnits, 0, grownUnits, 0, obstacleCount);
+				System.arraycopy(obstacleKeys, 0, grownKeys, 0, obstacleCount);
+
+				obstacleUnits = grownUnits;
+				obstacleKeys = grownKeys;
+			}
+
+			position = obstacleCount++;
+		}
+
+		obstacleUnits[position] = units;
+		obstacleKeys[position] = key;
+	}
+
+	void removeObstacle(int key)
+	{
+		int position = findObstacle(key);
+
+		if(position != -1)
+		{//Order does not matter, the last one fills the gap
+			obstacleCount--;
+
+			obstacleUnits[position] = obstacleUnits[obstacleCount];
+			obstacleKeys[position] = obstacleKeys[obstacleCount];
+		}
+	}
+
+	void removeObstacles()
+	{
+		obstacleCount = 0;
+	}
+
+	private int findObstacle(int key)
+	{
+		for(int position = 0; position < obstacleCount; position++)
+		{
+			if(obstacleKeys[position] == key)
+			{
+				return position;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return how far toUnits lies from fromUnits in the given direction, within [0, UNITS_PER_PERIOD)
+	 */
+	private static int distanceOnArc(int fromUnits, int toUnits, boolean clockwise)
+	{
+		int distance = (clockwise)?(toUnits - fromUnits):(fromUnits - toUnits);
+
+		return (distance < 0)?(distance + UNITS_PER_PERIOD):(distance);
+	}
+
+	static int normalize(int units)
+	{
+		int normalized = units % UNITS_PER_PERIOD;
+
+		return (normalized < 0)?(normalized + UNITS_PER_PERIOD):(normalized);
+	}
+
+	/**
+	 * @return the angle or speed in units, rounded to the nearest; the only float step, at the input
+	 */
+	public static int toUnits(float degrees)
+	{
+		return (int) Math.round((double) degrees * UNITS_PER_DEGREE);
+	}
+
+	public static float toDegrees(int units)
+	{
+		return (float) units / UNITS_PER_DEGREE;
+	}
+}
@@ -0,0 +1,170 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * SpinTarget without a view, for replaying recorded sessions on a plain JVM.
+ * </p>
+ * <p>
+ * Mirrors how SpinningDrawableView and SpinningSurfaceView drive their
+ * engine: drag input is coalesced and applied on frame(long), right before
+ * the engine advances. Keep them in sync, or recorded traces stop matching.
+ * </p>
+ */
+public class HeadlessSpinTarget implements SpinTarget
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private final SpinEngine engine = new SpinEngine();
+	private final CoalescedInput input = new CoalescedInput();
+
+	private final int width;
+	private final int height;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public HeadlessSpinTarget(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Does what a view does on a frame, short of drawing.
+	 */
+	public void frame(long frameTimeNanos)
+	{
+		input.applyTo(engine);
+
+		engine.advance(frameTimeNanos);
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public float getRotationDegree()
+	{
+		return input.getRotationDegrees(engine);
+	}
+
+	public void rotateTo(float degrees)
+	{
+		input.rotateTo(degrees);
+	}
+
+	public void setRotationStepDegrees(float degrees)
+	{
+		input.applyTo(engine);
+
+		engine.setRotationStepDegrees(degrees);
+	}
+
+	public void startRotating()
+	{
+		input.applyTo(engine);
+
+		engine.start();
+	}
+
+	public void stopRotating()
+	{
+		input.applyTo(engine);
+
+		engine.stop();
+	}
+
+	/**
+	 * As the views' setFixedPointPhysics(boolean) does.
+	 */
+	public void setFixedPoint(boolean fixedPoint)
+	{
+		input.applyTo(engine);
+
+		engine.setFixedPoint(fixedPoint);
+	}
+
+	public boolean isFixedPoint()
+	{
+		return engine.isFixedPoint();
+	}
+
+	public void setObstacle(int finger, float degrees)
+	{
+		input.setObstacle(finger, degrees);
+	}
+
+	public void clearObstacle(int finger)
+	{
+		input.clearObstacle(finger);
+		engine.clearObstacle(finger);
+	}
+
+	/**
+	 * @return key to remove it with, that of this target's engine
+	 */
+	public int addFixedObstacle(float degrees)
+	{
+		return engine.addFixedObstacle(degrees);
+	}
+
+	public void removeFixedObstacle(int key)
+	{
+		engine.removeFixedObstacle(key);
+	}
+
+	/**
+	 * @return engine state as of the last frame
+	 */
+	public float getEngineRotationDegrees()
+	{
+		return engine.getRotationDegrees();
+	}
+
+	public float getEngineRotationStepDegrees()
+	{
+		return engine.getRotationStepDegrees();
+	}
+
+	public boolean isRotating()
+	{
+		return engine.isRotating();
+	}
+
+	/**
+	 * @return fingers on the engine's table, as of the last frame
+	 */
+	public int getFingerCount()
+	{
+		return engine.getFingerCount();
+	}
+}
@@ -1,5 +1,6 @@
 package com.monkeybusiness.spinthebottle;
 
+import com.monkeybusiness.spinthebottle.SpinningDrawableView.OnDrawableLoadedListener;
 import com.monkeybusiness.spinthebottle.SpinningDrawableView.OnStartRotatingListener;
 import com.monkeybusiness.spinthebottle.SpinningDrawableView.OnStopRotatingListener;
 
@@ -12,6 +13,7 @@ import android.widget.Toast;
 public class MainActivity extends Activity 
 {
 	private static final String TAG = "SpinningDrawableViewTest";
+	private static final String STATE_BOTTLE_INDEX = "bottleIndex";
 	
 	SpinningDrawableView bottleView;
 	
@@ -27,11 +29,19 @@ public class MainActivity extends Activity
         
         fetchReferencesFromXML();
         
+        if(savedInstanceState != null)
+        {
+        	bottleIndex = savedInstanceState.getInt(STATE_BOTTLE_INDEX, 0);
+        }
+        
+        //Bottle decoded before a configuration change, if any; the view restores its spin by itself
+        bottleView.restoreBitmap((RetainedBitmap) getLastNonConfigurationInstance());
+        
         bottleView.setOnStartRotatingListener(new OnStartRotatingListener() 
         {	
-			public void onStart(float angularSpeed) 
+			public void onStart(float angularSpeed, SpinPrediction prediction) 
 			{
-				Log.d(TAG, "starting to rotate with " + angularSpeed);	
+				Log.d(TAG, "starting to rotate with " + angularSpeed + ", " + prediction);	
 			}
 		});
         
@@ -42,6 +52,52 @@ public class MainActivity extends Activity
 				Log.d(TAG, "stopped at " + stopAngle);
 			}
 		});
+        
+        bottleView.setOnDrawableLoadedListener(new OnDrawableLoadedListener() 
+        {
+			public void onPlaceholderDrawn(int resourceId, long elapsedNanos) 
+			{
+				Log.d(TAG, "placeholder drawn in " + (elapsedNanos / 1000000L) + " ms");
+			}
+			
+			public void onFullQualityDrawn(int resourceId, long elapsedNanos) 
+			{
+				Log.d(TAG, "full quality drawn in " + (elapsedNanos / 1000000L) + " ms");
+			}
+		});
+        
+        //View is measured by then
+        bottleView.post(new Runnable() 
+        {
+			public void run() 
+			{
+				prefetchNextBottle();
+			}
+		});
+    }
+    
+    @Override
+    protected void onSaveInstanceState(Bundle outState) 
+    {
+    	super.onSaveInstanceState(outState);
+    	
+    	outState.putInt(STATE_BOTTLE_INDEX, bottleIndex);
+    }
+    
+    @Override
+    public Object onRetainNonConfigurationInstance() 
+    {
+    	return bottleView.retainBitmap();
+    }
+    
+    /**
+     * Decodes the bottle following the current one in the background, so that "Change bottle" shows it right away.
+     */
+    private void prefetchNextBottle()
+    {
+    	int nextBottleId = bottleResourceIds[(bottleIndex + 1) % bottleResourceIds.length];
+    	
+    	BitmapCache.prefetch(getResources(), nextBottleId, bottleView.getMeasuredWidth());
     }
 
 	private void fetchReferencesFromXML() 
@@ -57,6 +113,8 @@ public class MainActivity extends Activity
 				int bottleId = bottleResourceIds[bottleIndex];
 				
 				bottleView.setResourceDrawable(bottleId);
+				
+				prefetchNextBottle();
 			}
 		});
 		
@@ -64,9 +122,9 @@ public class MainActivity extends Activity
 		{
 			public void onClick(View v) 
 			{
-				float degree = bottleView.getRotationDegree();
+				SpinState state = bottleView.getSpinState();
 				
-				Toast.makeText(MainActivity.this, "Bottle @" + degree, Toast.LENGTH_SHORT).show();
+				Toast.makeText(MainActivity.this, "Bottle @" + state.getRotationDegrees() + ((state.isRotating())?(", spinning"):("")), Toast.LENGTH_SHORT).show();
 			}
 		});
 	}
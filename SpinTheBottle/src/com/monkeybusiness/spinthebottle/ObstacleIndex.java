@@ -0,0 +1,246 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Obstacle angles on the table, sorted around the circle, for SpinEngine's
+ * collision checks. Finds the first obstacle on an arc in O(log n), across
+ * 0/360 as well.
+ * </p>
+ * <p>
+ * Each obstacle carries a key, so that a moving one (e.g. a finger) is updated
+ * in place. Updates cost O(n), which suits the few obstacles of a table.
+ * Memory only grows with the largest obstacle count so far; updating never
+ * allocates otherwise.
+ * </p>
+ * <p>
+ * Not thread safe; guarded by the owning engine.
+ * </p>
+ */
+final class ObstacleIndex
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final float DEGREES_PER_PERIOD = SpinEngine.DEGREES_PER_PERIOD;
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** Ascending, within [0, 360) */
+	private float[] degrees = new float[INITIAL_CAPACITY];
+	/** Key of each obstacle in degrees */
+	private int[] keys = new int[INITIAL_CAPACITY];
+
+	private int count = 0;
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	int size()
+	{
+		return count;
+	}
+
+	/**
+	 * @return angle of the obstacle at the given sorted position, within [0, 360)
+	 */
+	float getDegrees(int position)
+	{
+		return degrees[position];
+	}
+
+	int getKey(int position)
+	{
+		return keys[position];
+	}
+
+	/**
+	 * @return sorted position of the obstacle with the given key, -1 if none
+	 */
+	int find(int key)
+	{
+		for(int position = 0; position < count; position++)
+		{
+			if(keys[position] == key)
+			{
+				return position;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Places the obstacle with the given key, moving it if already placed.
+	 */
+	void put(int key, float obstacleDegrees)
+	{
+		remove(key);
+
+		obstacleDegrees = AngleMath.normalizeDegrees(obstacleDegrees);
+
+		if(count == degrees.length)
+		{
+			float[] grownDegrees = new float[count * 2];
+			int[] grownKeys = new int[count * 2];
+
+			System.arraycopy(degrees, 0, grownDegrees, 0, count);
+			System.arraycopy(keys, 0, grownKeys, 0, count);
+
+			degrees = grownDegrees;
+			keys = grownKeys;
+		}
+
+		int position = firstAbove(obstacleDegrees);
+
+		System.arraycopy(degrees, position, degrees, position + 1, count - position);
+		System.arraycopy(keys, position, keys, position + 1, count - position);
+
+		degrees[position] = obstacleDegrees;
+		keys[position] = key;
+
+		count++;
+	}
+
+	/**
+	 * @return true if an obstacle with the given key was removed
+	 */
+	boolean remove(int key)
+	{
+		int position = find(key);
+
+		if(position == -1)
+		{
+			return false;
+		}
+
+		count--;
+
+		System.arraycopy(degrees, position + 1, degrees, position, count - position);
+		System.arraycopy(keys, position + 1, keys, position, count - position);
+
+		return true;
+	}
+
+	void clear()
+	{
+		count = 0;
+	}
+
+	/**
+	 * Finds the first obstacle met when sweeping the given arc, ends excluded.
+	 *
+	 * @param fromDegrees start of the arc, within [0, 360)
+	 * @param sweepDegrees length of the arc, clockwise if positive; less than a period
+	 * @return sorted position of the obstacle, -1 if none
+	 */
+	int firstOnArc(float fromDegrees, float sweepDegrees)
+	{
+		if((count == 0) || (sweepDegrees == 0.0f))
+		{
+			return -1;
+		}
+
+		int position;
+
+		if(sweepDegrees > 0)
+		{
+			position = firstAbove(fromDegrees);
+
+			if(position == count)
+			{//Wraps around 360
+				position = 0;
+			}
+		}
+		else
+		{
+			position = firstAtOrAbove(fromDegrees) - 1;
+
+			if(position == -1)
+			{//Wraps around 0
+				position = count - 1;
+			}
+		}
+
+		float distance = distanceOnArc(fromDegrees, degrees[position], sweepDegrees > 0);
+
+		return ((distance > 0.0f) && (distance < Math.abs(sweepDegrees)))?(position):(-1);
+	}
+
+	/**
+	 * @return how far toDegrees lies from fromDegrees in the given direction, within [0, 360)
+	 */
+	static float distanceOnArc(float fromDegrees, float toDegrees, boolean clockwise)
+	{
+		float distance = (clockwise)?(toDegrees - fromDegrees):(fromDegrees - toDegrees);
+
+		return (distance < 0)?(distance + DEGREES_PER_PERIOD):(distance);
+	}
+
+	/**
+	 * @return first sorted position with an angle above the given one, count if none
+	 */
+	private int firstAbove(float value)
+	{
+		int low = 0;
+		int high = count;
+
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+
+			if(degrees[middle] <= value)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * @return first sorted position with an angle at or above the given one, count if none
+	 */
+	private int firstAtOrAbove(float value)
+	{
+		int low = 0;
+		int high = count;
+
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+
+			if(degrees[middle] < value)
+			{
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+}
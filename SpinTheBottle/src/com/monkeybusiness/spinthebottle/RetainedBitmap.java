@@ -0,0 +1,86 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import android.graphics.Bitmap;
+
+/**
+ * <p>
+ * Keeps a decoded bottle in the BitmapCache across a configuration change,
+ * so that the re-created view shows it without decoding it again. Meant to be
+ * handed over through Activity.onRetainNonConfigurationInstance().
+ * </p>
+ * <p>
+ * Holds a reference on the cached bitmap until release() is called; the view
+ * it is restored to does so once it has acquired the bitmap by itself.
+ * </p>
+ */
+public final class RetainedBitmap
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private final int resourceId;
+	private final int size;
+	private final int format;
+	private final Bitmap bitmap;
+
+	private boolean released = false;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	private RetainedBitmap(int resourceId, int size, int format, Bitmap bitmap)
+	{
+		this.resourceId = resourceId;
+		this.size = size;
+		this.format = format;
+		this.bitmap = bitmap;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * @return holder of a new reference on the cached bitmap, null if the bitmap is not the cached one
+	 */
+	static RetainedBitmap retain(int resourceId, int size, int format, Bitmap bitmap)
+	{
+		if(!BitmapCache.retain(resourceId, size, format, bitmap))
+		{
+			return null;
+		}
+
+		return new RetainedBitmap(resourceId, size, format, bitmap);
+	}
+
+	/**
+	 * Hands the reference back to the BitmapCache. Further calls do nothing.
+	 */
+	public void release()
+	{
+		if(!released)
+		{
+			released = true;
+
+			BitmapCache.release(resourceId, size, format, bitmap);
+		}
+	}
+}
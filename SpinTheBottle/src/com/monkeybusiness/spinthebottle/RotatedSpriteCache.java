@@ -0,0 +1,440 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+/**
+ * <p>
+ * Cache of pre-rotated frames of spinning bitmaps. Drawing a cached frame is a
+ * plain blit, instead of an arbitrary angle resample of the whole bitmap.
+ * </p>
+ * <p>
+ * Frames are rendered in the background at the given angular resolution, and
+ * keyed by drawable id, view size and BitmapFormat. The total size of frames is capped;
+ * frames of the least recently drawn sprite sets are dropped first. Callers fall back to
+ * matrix drawing whenever draw(...) returns false.
+ * </p>
+ * <p>
+ * Views drawing the same key share a sprite set: each prepare(...) takes a
+ * reference to it, each evict(...) hands one back, and the set goes once none is left.
+ * </p>
+ */
+public class RotatedSpriteCache
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final float DEFAULT_ANGULAR_RESOLUTION_DEGREES = 3.0f;
+
+	/** Frames of every cache are rendered one after another, away from the UI thread */
+	private static final ExecutorService RENDER_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "RotatedSpriteCache");
+			thread.setPriority(Thread.MIN_PRIORITY);
+
+			return thread;
+		}
+	});
+
+	private final int maxBytes;
+	private final float angularResolutionDegrees;
+	private final int frameCount;
+
+	/** Guarded by this. Access ordered, eldest is the least recently drawn. */
+	private final LinkedHashMap<Long, SpriteSet> spriteSets = new LinkedHashMap<Long, SpriteSet>(8, 0.75f, true);
+	private int bytes = 0;
+
+	/** Guarded by this. Spares the map look up (and boxing of the key) on every frame. */
+	private SpriteSet lastDrawn = null;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * @param maxBytes upper bound of the memory held by frames
+	 * @param angularResolutionDegrees angle between two consecutive frames. Should divide 360.
+	 */
+	public RotatedSpriteCache(int maxBytes, float angularResolutionDegrees)
+	{
+		this.maxBytes = maxBytes;
+		this.angularResolutionDegrees = angularResolutionDegrees;
+		this.frameCount = Math.round(SpinEngine.DEGREES_PER_PERIOD / angularResolutionDegrees);
+	}
+
+	public RotatedSpriteCache(int maxBytes)
+	{
+		this(maxBytes, DEFAULT_ANGULAR_RESOLUTION_DEGREES);
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Takes a reference to the rotated frames of the bitmap, and starts rendering
+	 * them in the background unless already there. Hand it back with evict(...)
+	 * and the same key.
+	 *
+	 * @param drawableId resource id of the bitmap
+	 * @param viewSize size of the (square) view drawing the bitmap
+	 * @param format BitmapFormat the bitmap was decoded in
+	 * @param source bitmap to rotate, drawn unscaled. Must not be recycled until evicted.
+	 * @param pivotX rotation pivot, in bitmap pixels
+	 * @param pivotY rotation pivot, in bitmap pixels
+	 */
+	public void prepare(int drawableId, int viewSize, int format, Bitmap source, float pivotX, float pivotY)
+	{
+		final SpriteSet spriteSet;
+		final int generation;
+
+		synchronized (this)
+		{
+			Long key = key(drawableId, viewSize, format);
+
+			SpriteSet cached = spriteSets.get(key);
+
+			if(cached == null)
+			{
+				spriteSet = new SpriteSet(drawableId, viewSize, format, source, pivotX, pivotY, frameCount);
+				spriteSets.put(key, spriteSet);
+			}
+			else
+			{
+				cached.references++;
+
+				if(!cached.dropped)
+				{//Rendered, or on the way
+					return;
+				}
+
+				//Frames dropped for room meanwhile; render them again, from a bitmap known to be alive
+				spriteSet = cached;
+				spriteSet.source = source;
+				spriteSet.dropped = false;
+			}
+
+			generation = spriteSet.generation;
+		}
+
+		RENDER_EXECUTOR.execute(new Runnable()
+		{
+			public void run()
+			{
+				renderFrames(spriteSet, generation);
+			}
+		});
+	}
+
+	/**
+	 * @return angle of the frame draw(...) picks for the given angle
+	 */
+	public float getFrameDegrees(float degrees)
+	{
+		int index = Math.round(degrees / angularResolutionDegrees) % frameCount;
+
+		return index * angularResolutionDegrees;
+	}
+
+	/**
+	 * Draws the cached frame closest to the given angle.
+	 *
+	 * @return false if the frame is not cached (yet), so that the caller should draw by itself
+	 */
+	public boolean draw(Canvas canvas, int drawableId, int viewSize, int format, float degrees)
+	{
+		Bitmap frame;
+		float left;
+		float top;
+
+		synchronized (this)
+		{
+			SpriteSet spriteSet = lastDrawn;
+
+			if((spriteSet == null) || (spriteSet.drawableId != drawableId) || (spriteSet.viewSize != viewSize) || (spriteSet.format != format))
+			{
+				spriteSet = spriteSets.get(key(drawableId, viewSize, format));
+
+				if(spriteSet == null)
+				{
+					return false;
+				}
+
+				lastDrawn = spriteSet;
+			}
+
+			int index = Math.round(degrees / angularResolutionDegrees) % frameCount;
+
+			if(index < 0)
+			{
+				index += frameCount;
+			}
+
+			frame = spriteSet.frames[index];
+
+			if(frame == null)
+			{
+				return false;
+			}
+
+			left = spriteSet.frameLefts[index];
+			top = spriteSet.frameTops[index];
+		}
+
+		canvas.drawBitmap(frame, left, top, null);
+
+		return true;
+	}
+
+	/**
+	 * Hands back a reference taken by prepare(...); frames go with the last one.
+	 */
+	public synchronized void evict(int drawableId, int viewSize, int format)
+	{
+		Long key = key(drawableId, viewSize, format);
+
+		SpriteSet spriteSet = spriteSets.get(key);
+
+		if((spriteSet != null) && (--spriteSet.references == 0))
+		{
+			spriteSets.remove(key);
+			release(spriteSet);
+		}
+	}
+
+	/**
+	 * Drops every frame, e.g. when memory runs low. References stay; the next
+	 * prepare(...) of a key renders its frames again.
+	 */
+	public synchronized void evictAll()
+	{
+		for(SpriteSet spriteSet : spriteSets.values())
+		{
+			release(spriteSet);
+		}
+	}
+
+	/**
+	 * @return bytes currently held by frames
+	 */
+	public synchronized int getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @param generation of the sprite set when rendering was asked for; a later one means its frames were dropped meanwhile
+	 */
+	private void renderFrames(SpriteSet spriteSet, int generation)
+	{
+		Matrix matrix = new Matrix();
+		RectF bounds = new RectF();
+		Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+		Bitmap source;
+
+		synchronized (this)
+		{
+			source = spriteSet.source;
+		}
+
+		Bitmap.Config config = (source.getConfig() != null)?(source.getConfig()):(Bitmap.Config.ARGB_8888);
+
+		for(int i = 0; i < frameCount; i++)
+		{
+			//Rotated bounds of the bitmap, in view coordinates
+			matrix.setRotate(i * angularResolutionDegrees, spriteSet.pivotX, spriteSet.pivotY);
+			bounds.set(0, 0, source.getWidth(), source.getHeight());
+			matrix.mapRect(bounds);
+
+			int left = (int) Math.floor(bounds.left);
+			int top = (int) Math.floor(bounds.top);
+			int width = (int) Math.ceil(bounds.right) - left;
+			int height = (int) Math.ceil(bounds.bottom) - top;
+
+			int frameBytes = width * height * bytesPerPixel(config);
+
+			synchronized (this)
+			{
+				if((spriteSet.generation != generation) || !reserve(spriteSet, frameBytes))
+				{//Dropped meanwhile, or out of budget; rest falls back to matrix drawing
+					return;
+				}
+			}
+
+			Bitmap frame;
+
+			try
+			{
+				frame = Bitmap.createBitmap(width, height, config);
+			}
+			catch(OutOfMemoryError e)
+			{
+				synchronized (this)
+				{
+					bytes -= frameBytes;
+				}
+
+				return;
+			}
+
+			Canvas canvas = new Canvas(frame);
+			matrix.postTranslate(-left, -top);
+			canvas.drawBitmap(source, matrix, paint);
+
+			synchronized (this)
+			{
+				if(spriteSet.generation != generation)
+				{
+					bytes -= frameBytes;
+
+					return;
+				}
+
+				spriteSet.frames[i] = frame;
+				spriteSet.frameLefts[i] = left;
+				spriteSet.frameTops[i] = top;
+				spriteSet.bytes += frameBytes;
+			}
+		}
+	}
+
+	/**
+	 * Makes room for a new frame by dropping the frames of least recently drawn sets, other than the given one.
+	 * Their references stay. Must be called while holding the lock.
+	 */
+	private boolean reserve(SpriteSet owner, int frameBytes)
+	{
+		Iterator<SpriteSet> iterator = spriteSets.values().iterator();
+
+		while(((bytes + frameBytes) > maxBytes) && iterator.hasNext())
+		{
+			SpriteSet eldest = iterator.next();
+
+			if((eldest != owner) && !eldest.dropped)
+			{
+				release(eldest);
+			}
+		}
+
+		if((bytes + frameBytes) > maxBytes)
+		{
+			return false;
+		}
+
+		bytes += frameBytes;
+
+		return true;
+	}
+
+	/**
+	 * Frames are only dropped, not recycled; a display list may still refer to them.
+	 * Rendering on the way stops. Must be called while holding the lock.
+	 */
+	private void release(SpriteSet spriteSet)
+	{
+		bytes -= spriteSet.bytes;
+		spriteSet.bytes = 0;
+		spriteSet.dropped = true;
+		spriteSet.generation++;
+
+		if(lastDrawn == spriteSet)
+		{
+			lastDrawn = null;
+		}
+
+		for(int i = 0; i < spriteSet.frames.length; i++)
+		{
+			spriteSet.frames[i] = null;
+		}
+	}
+
+	private static Long key(int drawableId, int viewSize, int format)
+	{
+		return Long.valueOf((((long) drawableId) << 32) | (((long) format) << 28) | (viewSize & 0x0FFFFFFFL));
+	}
+
+	private static int bytesPerPixel(Bitmap.Config config)
+	{
+		switch(config)
+		{
+			case ALPHA_8:
+				return 1;
+			case RGB_565:
+			case ARGB_4444:
+				return 2;
+			default:
+				return 4;
+		}
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	private static class SpriteSet
+	{
+		final int drawableId;
+		final int viewSize;
+		final int format;
+		/** Guarded by the cache */
+		Bitmap source;
+		final float pivotX;
+		final float pivotY;
+
+		final Bitmap[] frames;
+		final int[] frameLefts;
+		final int[] frameTops;
+
+		/** Guarded by the cache, as the rest below */
+		int bytes = 0;
+		/** Views holding the set, see prepare(...) and evict(...) */
+		int references = 1;
+		/** Frames released, not to be rendered until prepared again */
+		boolean dropped = false;
+		/** Bumped on each release, stops rendering on the way */
+		int generation = 0;
+
+		SpriteSet(int drawableId, int viewSize, int format, Bitmap source, float pivotX, float pivotY, int frameCount)
+		{
+			this.drawableId = drawableId;
+			this.viewSize = viewSize;
+			this.format = format;
+			this.source = source;
+			this.pivotX = pivotX;
+			this.pivotY = pivotY;
+
+			this.frames = new Bitmap[frameCount];
+			this.frameLefts = new int[frameCount];
+			this.frameTops = new int[frameCount];
+		}
+	}
+}
@@ -0,0 +1,383 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Every sector boundary a spin crosses, and the step it crosses it on,
+ * worked out once at fling time with SpinEngine's own segment math. Frames
+ * then fire the crossings that fell due, e.g. as ticks for sound and haptics,
+ * rather than comparing sectors frame by frame.
+ * </p>
+ * <p>
+ * Obstacles are not foreseen. A bounce off one changes the course from its
+ * step on, so the crossings from there are worked out again; the bounce step
+ * itself runs up to the obstacle first. Should several bounces fall into one
+ * frame (a stall), crossings between them are missed.
+ * </p>
+ * <p>
+ * An engine in fixed point mode has no segments; its steps are followed one
+ * by one in integers instead, as it takes them.
+ * </p>
+ * <p>
+ * Not thread safe; used along with its engine. Allocates only to grow past
+ * the longest spin so far.
+ * </p>
+ */
+public final class SectorTimeline
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Spins still rotating after this many steps (e.g. with no friction) are followed that far */
+	private static final int MAX_STEPS = 100000;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** Reversals followed at most, as in SpinEngine.predict() */
+	private static final int MAX_SEGMENTS = 4;
+
+	private final SectorWheel wheel;
+
+	/** Crossings in order: engine step count it happens on, and player entered */
+	private long[] steps = new long[INITIAL_CAPACITY];
+	private int[] players = new int[INITIAL_CAPACITY];
+	private int count = 0;
+
+	/** First crossing not fired yet */
+	private int next = 0;
+
+	/** Engine bounces the timeline accounts for */
+	private int bounceCount;
+
+	private boolean active = false;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public SectorTimeline(SectorWheel wheel)
+	{
+		this.wheel = wheel;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Works out the crossings of the spin the engine is on, from its current
+	 * state. Called at fling time, and whenever its speed is set while spinning.
+	 */
+	public void start(SpinEngine engine)
+	{
+		count = 0;
+		next = 0;
+		bounceCount = engine.getBounceCount();
+		active = engine.isRotating();
+
+		if(!active)
+		{
+			return;
+		}
+
+		FixedPointSpinEngine fixedPoint = engine.getFixedPoint();
+
+		if(fixedPoint != null)
+		{
+			addFixedPointSteps(fixedPoint.getFrictionUnits(), fixedPoint.getRotationUnits(), fixedPoint.getRotationStepUnits(), engine.getStepCount());
+
+			return;
+		}
+
+		//From the start of the segment, for the engine's rounding; steps taken already are skipped
+		long segmentStartStep = engine.getStepCount() - engine.getSegmentSteps();
+
+		addSegments(engine.getFriction(), engine.getSegmentDegrees(), engine.getSegmentStepDegrees(), segmentStartStep);
+
+		skipTo(engine.getStepCount());
+	}
+
+	/**
+	 * Fires the crossings up to the engine's last step, once it stepped a frame.
+	 * Ends the timeline once the engine stops.
+	 *
+	 * @param listener null to drop them
+	 * @return crossings fired
+	 */
+	public int advance(SpinEngine engine, Listener listener)
+	{
+		if(!active)
+		{
+			return 0;
+		}
+
+		checkBounce(engine);
+
+		long stepCount = engine.getStepCount();
+		int fired = 0;
+
+		while((next < count) && (steps[next] <= stepCount))
+		{
+			if(listener != null)
+			{
+				listener.onSectorEntered(players[next]);
+			}
+
+			next++;
+			fired++;
+		}
+
+		if(!engine.isRotating())
+		{
+			clear();
+		}
+
+		return fired;
+	}
+
+	/**
+	 * Drops the crossings up to the engine's last step without firing them,
+	 * e.g. after SpinEngine.skip(int).
+	 */
+	public void skip(SpinEngine engine)
+	{
+		if(!active)
+		{
+			return;
+		}
+
+		checkBounce(engine);
+
+		skipTo(engine.getStepCount());
+
+		if(!engine.isRotating())
+		{
+			clear();
+		}
+	}
+
+	public void clear()
+	{
+		count = 0;
+		next = 0;
+		active = false;
+	}
+
+	/**
+	 * @return false once the spin stopped, or was stopped
+	 */
+	public boolean isActive()
+	{
+		return active;
+	}
+
+	/**
+	 * @return crossings of the spin, fired ones included
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+	/**
+	 * @return engine step count the crossing happens on
+	 */
+	public long getStep(int crossing)
+	{
+		return steps[crossing];
+	}
+
+	public int getPlayer(int crossing)
+	{
+		return players[crossing];
+	}
+
+	public SectorWheel getWheel()
+	{
+		return wheel;
+	}
+
+	/**
+	 * Reworks the crossings from the engine's last bounce on, if it bounced since.
+	 */
+	private void checkBounce(SpinEngine engine)
+	{
+		if(engine.getBounceCount() == bounceCount)
+		{
+			return;
+		}
+
+		bounceCount = engine.getBounceCount();
+
+		long bounceStep = engine.getBounceStep();
+
+		//Crossings before the bounce hold, later ones went another way
+		while((count > next) && (steps[count - 1] >= bounceStep))
+		{
+			count--;
+		}
+
+		//The bounce step runs up to the obstacle, then the bottle heads back
+		float fromDegrees = engine.getBounceFromDegrees();
+		float fromStepDegrees = engine.getBounceFromStepDegrees();
+
+		addCrossings(wheel.getPlayerAt(fromDegrees), engine.getBounceDegrees(), fromStepDegrees > 0, bounceStep);
+
+		FixedPointSpinEngine fixedPoint = engine.getFixedPoint();
+
+		if(fixedPoint != null)
+		{
+			addFixedPointSteps(fixedPoint.getFrictionUnits(), engine.getBounceUnits(), engine.getBounceStepUnits(), bounceStep);
+		}
+		else
+		{
+			addSegments(engine.getFriction(), engine.getBounceDegrees(), engine.getBounceStepDegrees(), bounceStep);
+		}
+	}
+
+	/**
+	 * Adds the crossings of a spin from the start of a segment, as SpinEngine
+	 * steps it, up to the stop.
+	 *
+	 * @param startStep engine step count at the start of the segment; its first step is the next one
+	 */
+	private void addSegments(float friction, float startDegrees, float startStepDegrees, long startStep)
+	{
+		int player = wheel.getPlayerAt(startDegrees);
+
+		for(int segment = 0; segment < MAX_SEGMENTS; segment++)
+		{
+			int leaveStep = SpinEngine.leaveStep(friction, startStepDegrees);
+			boolean stops = (leaveStep != Integer.MAX_VALUE) && SpinEngine.stopsOn(SpinEngine.stepDegreesAt(friction, startStepDegrees, leaveStep));
+
+			//Stopping takes one more step, of the leave step's speed
+			long lastStep = Math.min((stops)?(leaveStep + 1L):(leaveStep), MAX_STEPS);
+
+			for(int step = 1; step <= lastStep; step++)
+			{
+				float stepDegrees = SpinEngine.stepDegreesAt(friction, startStepDegrees, step - 1);
+
+				if(stepDegrees != 0.0f)
+				{
+					float degrees = SpinEngine.degreesAt(friction, startDegrees, startStepDegrees, step);
+
+					player = addCrossings(player, degrees, stepDegrees > 0, startStep + step);
+				}
+			}
+
+			if(stops || (lastStep != leaveStep))
+			{
+				return;
+			}
+
+			//Reversed, carries on as a new segment
+			startDegrees = SpinEngine.degreesAt(friction, startDegrees, startStepDegrees, leaveStep);
+			startStepDegrees = SpinEngine.stepDegreesAt(friction, startStepDegrees, leaveStep);
+			startStep += leaveStep;
+		}
+	}
+
+	/**
+	 * Adds the crossings of a spin in fixed point mode, as FixedPointSpinEngine
+	 * steps it, up to the stop.
+	 *
+	 * @param startStep engine step count of the given state; its first step is the next one
+	 */
+	private void addFixedPointSteps(int frictionUnits, int units, int stepUnits, long startStep)
+	{
+		int player = wheel.getPlayerAt(FixedPointSpinEngine.toDegrees(units));
+
+		for(int step = 1; step <= MAX_STEPS; step++)
+		{
+			units = FixedPointSpinEngine.normalize(units + stepUnits);
+
+			if(stepUnits != 0)
+			{
+				player = addCrossings(player, FixedPointSpinEngine.toDegrees(units), stepUnits > 0, startStep + step);
+			}
+
+			if(FixedPointSpinEngine.stopsOn(stepUnits))
+			{
+				return;
+			}
+
+			stepUnits = FixedPointSpinEngine.applyFriction(stepUnits, frictionUnits);
+		}
+	}
+
+	/**
+	 * Adds the boundaries between the given player's sector and the angle a
+	 * step ends at, in the way it went. A step is shorter than a full turn.
+	 *
+	 * @return player at the end of the step
+	 */
+	private int addCrossings(int player, float toDegrees, boolean clockwise, long step)
+	{
+		int toPlayer = wheel.getPlayerAt(toDegrees);
+
+		while(player != toPlayer)
+		{
+			player = wheel.next(player, clockwise);
+
+			add(step, player);
+		}
+
+		return player;
+	}
+
+	private void add(long step, int player)
+	{
+		if(count == steps.length)
+		{
+			long[] grownSteps = new long[count * 2];
+			int[] grownPlayers = new int[count * 2];
+
+			System.arraycopy(steps, 0, grownSteps, 0, count);
+			System.arraycopy(players, 0, grownPlayers, 0, count);
+
+			steps = grownSteps;
+			players = grownPlayers;
+		}
+
+		steps[count] = step;
+		players[count] = player;
+		count++;
+	}
+
+	private void skipTo(long stepCount)
+	{
+		while((next < count) && (steps[next] <= stepCount))
+		{
+			next++;
+		}
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	public interface Listener
+	{
+		/**
+		 * The bottle's top crossed into a player's sector; called in order, on the frame it happened in.
+		 */
+		public abstract void onSectorEntered(int player);
+	}
+}
@@ -0,0 +1,231 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Players around the table, each owning the sector of angles closer to them
+ * than to any other; sectors meet halfway between neighbours. Tells which
+ * player an angle points at in O(1), e.g. the bottle's top when it stops.
+ * </p>
+ * <p>
+ * The lookup table has a bin per degree. Players are kept at least
+ * MIN_PLAYER_SPACING_DEGREES apart, so that a bin holds at most one sector
+ * boundary, and a lookup is a table read and a comparison.
+ * </p>
+ * <p>
+ * Immutable; make a new one to seat players differently.
+ * </p>
+ */
+public final class SectorWheel
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final int MAX_PLAYERS = 64;
+
+	public static final float MIN_PLAYER_SPACING_DEGREES = 1.0f;
+
+	private static final int BINS = 360;
+
+	private static final float NO_BOUNDARY = Float.MAX_VALUE;
+
+	/** As given, in player order */
+	private final float[] playerDegrees;
+
+	/** Players sorted clockwise, i.e. by angle */
+	private final int[] clockwiseOrder;
+	/** Index of each player in clockwiseOrder */
+	private final int[] clockwisePositions;
+
+	/** Angle each player's sector starts at, going clockwise */
+	private final float[] sectorStartDegrees;
+
+	/** Per degree: player at its start, boundary within it (NO_BOUNDARY if none) and player from there on */
+	private final byte[] binPlayers = new byte[BINS];
+	private final float[] binBoundaries = new float[BINS];
+	private final byte[] binNextPlayers = new byte[BINS];
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * @param playerDegrees angle of each player around the table within [0, 360), clockwise from the top
+	 * @throws IllegalArgumentException if none, more than MAX_PLAYERS, out of range, or closer than MIN_PLAYER_SPACING_DEGREES
+	 */
+	public SectorWheel(float... playerDegrees)
+	{
+		int count = playerDegrees.length;
+
+		if((count == 0) || (count > MAX_PLAYERS))
+		{
+			throw new IllegalArgumentException(count + " players, expected 1 to " + MAX_PLAYERS);
+		}
+
+		this.playerDegrees = playerDegrees.clone();
+
+		for(float degrees : this.playerDegrees)
+		{
+			if(!(degrees >= 0.0f) || (degrees >= SpinEngine.DEGREES_PER_PERIOD))
+			{
+				throw new IllegalArgumentException("player at " + degrees + " out of [0, 360)");
+			}
+		}
+
+		//Insertion sort, players are few
+		clockwiseOrder = new int[count];
+
+		for(int i = 0; i < count; i++)
+		{
+			int position = i;
+
+			while((position > 0) && (this.playerDegrees[clockwiseOrder[position - 1]] > this.playerDegrees[i]))
+			{
+				clockwiseOrder[position] = clockwiseOrder[position - 1];
+				position--;
+			}
+
+			clockwiseOrder[position] = i;
+		}
+
+		clockwisePositions = new int[count];
+		sectorStartDegrees = new float[count];
+
+		for(int position = 0; position < count; position++)
+		{
+			int player = clockwiseOrder[position];
+			int previous = clockwiseOrder[(position + count - 1) % count];
+
+			clockwisePositions[player] = position;
+
+			if(count == 1)
+			{
+				sectorStartDegrees[player] = 0.0f;
+				continue;
+			}
+
+			float gap = AngleMath.normalizeDegrees(this.playerDegrees[player] - this.playerDegrees[previous]);
+
+			if(gap < MIN_PLAYER_SPACING_DEGREES)
+			{
+				throw new IllegalArgumentException("players at " + this.playerDegrees[previous] + " and " + this.playerDegrees[player]
+						+ " closer than " + MIN_PLAYER_SPACING_DEGREES + " degrees");
+			}
+
+			sectorStartDegrees[player] = AngleMath.normalizeDegrees(this.playerDegrees[player] - (gap / 2.0f));
+		}
+
+		for(int bin = 0; bin < BINS; bin++)
+		{
+			binPlayers[bin] = (byte) search(bin);
+			binBoundaries[bin] = NO_BOUNDARY;
+			binNextPlayers[bin] = binPlayers[bin];
+		}
+
+		if(count > 1)
+		{
+			for(int player = 0; player < count; player++)
+			{
+				float start = sectorStartDegrees[player];
+				int bin = (int) start;
+
+				if(start != bin)
+				{//Within the bin, rather than on its start
+					binBoundaries[bin] = start;
+					binNextPlayers[bin] = (byte) player;
+				}
+			}
+		}
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public int getPlayerCount()
+	{
+		return playerDegrees.length;
+	}
+
+	public float getPlayerDegrees(int player)
+	{
+		return playerDegrees[player];
+	}
+
+	/**
+	 * @return angle the player's sector starts at, going clockwise; its boundary with the previous player
+	 */
+	public float getSectorStartDegrees(int player)
+	{
+		return sectorStartDegrees[player];
+	}
+
+	/**
+	 * @param degrees angle within [0, 360), e.g. the bottle's rotation
+	 * @return player whose sector holds the angle; boundaries belong to the sector starting there
+	 */
+	public int getPlayerAt(float degrees)
+	{
+		int bin = (int) degrees;
+
+		if((bin < 0) || (bin >= BINS))
+		{
+			degrees = AngleMath.normalizeDegrees(degrees);
+			bin = Math.min((int) degrees, BINS - 1);
+		}
+
+		return (degrees >= binBoundaries[bin])?(binNextPlayers[bin]):(binPlayers[bin]);
+	}
+
+	/**
+	 * @return player whose sector comes next in the given direction
+	 */
+	int next(int player, boolean clockwise)
+	{
+		int count = clockwiseOrder.length;
+		int position = clockwisePositions[player] + ((clockwise)?(1):(count - 1));
+
+		return clockwiseOrder[position % count];
+	}
+
+	/**
+	 * Linear search, for building the table.
+	 */
+	private int search(float degrees)
+	{
+		int count = clockwiseOrder.length;
+
+		for(int position = 0; position < count; position++)
+		{
+			int player = clockwiseOrder[position];
+			int next = clockwiseOrder[(position + 1) % count];
+
+			float offset = AngleMath.normalizeDegrees(degrees - sectorStartDegrees[player]);
+			float width = AngleMath.normalizeDegrees(sectorStartDegrees[next] - sectorStartDegrees[player]);
+
+			if((count == 1) || (offset < width))
+			{
+				return player;
+			}
+		}
+
+		return clockwiseOrder[0];
+	}
+}
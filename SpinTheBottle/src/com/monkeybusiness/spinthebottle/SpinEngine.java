@@ -0,0 +1,944 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Spin physics of the bottle, free of any android dependency.
+ * </p>
+ * <p>
+ * Friction and bounce are defined per simulation step. Steps are taken on a
+ * fixed timestep of SpinEngine.STEP_NANOS, fed by the real elapsed time passed
+ * to advance(long). Thus spin speed, duration and stop angle do not depend on
+ * how often the caller draws.
+ * </p>
+ * <p>
+ * Friction is linear, so the spin is tracked as segments: stretches between
+ * external changes and bounces, within which the state after any number of
+ * steps follows in O(1). That is what makes skip(int) and predict() cheap,
+ * and keeps them identical to stepping.
+ * </p>
+ * <p>
+ * Optionally, the physics run in integers instead, see setFixedPoint(boolean).
+ * </p>
+ */
+public class SpinEngine
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/*****************************************************
+	 * Timing
+	 */
+	/** Length of a single simulation step. Friction and bounce were tuned on 60 fps. */
+	public static final long STEP_NANOS = 1000000000L / 60L;
+
+	/** Upper bound of steps to catch up at once, in case of a long stall (e.g. app paused) */
+	private static final int MAX_CATCH_UP_STEPS = 240;
+
+	private long lastAdvanceNanos = -1L;
+	private long accumulatedNanos = 0L;
+
+	/** Simulated time of the last step, for progress samples */
+	private long stepClockNanos = 0L;
+
+	/** Optional, receives every step */
+	private SpinProgress progress = null;
+
+	/*****************************************************
+	 * Rotation
+	 */
+	public static final float MAX_ROTATION_DEGREES = 60.0f;
+	public static final float MIN_ROTATION_DEGREES = 0.0f;
+
+	static final float DEGREES_PER_PERIOD = 360.0f;
+	static final float DEGREES_PER_QUARTER_PERIOD = DEGREES_PER_PERIOD / 4.0f;
+	static final float DEGREES_PER_HALF_PERIOD = DEGREES_PER_PERIOD / 2.0f;
+
+	private float rotationDegrees = 0;
+	private float rotationStepDegrees;
+
+	private boolean rotating = false;
+
+	/*****************************************************
+	 * Segment, the spin since the last external change, bounce or reversal
+	 */
+	private float segmentDegrees = 0.0f;
+	private float segmentStepDegrees = 0.0f;
+	/** Steps taken within the segment */
+	private int segmentSteps = 0;
+	/** Index of the segment's first step slow enough to stop on, or reversed; see leaveStep(float, float) */
+	private int segmentLeaveStep = 0;
+
+	/** A spin reversed by friction again and again (friction above 0.5) never stops */
+	private static final int MAX_PREDICTED_SEGMENTS = 4;
+
+	/** Steps taken since the engine was made; the first one is step 1 */
+	private long stepCount = 0L;
+
+	/*****************************************************
+	 * Last bounce, for SectorTimeline to pick the spin up from
+	 */
+	private int bounceCount = 0;
+	private long bounceStep;
+	/** State before and right after the bounce step */
+	private float bounceFromDegrees;
+	private float bounceFromStepDegrees;
+	private float bounceDegrees;
+	private float bounceStepDegrees;
+
+	/****************************************************
+	 * Friction
+	 */
+	public static final float FRICTION = 0.5f;
+
+	private final float friction;
+
+	/****************************************************
+	 * Obstacle
+	 */
+	public static final float BOUNCE_ENERGY_COEFFICIENT = 0.2f;
+
+	private final float bounceEnergyCoefficient;
+
+	static final float ARC_OF_TOLERANCE = 30.0f; //in degrees
+
+	/** Fingers on the table at once, e.g. pointer ids of a touch screen */
+	public static final int MAX_FINGERS = 32;
+
+	/** Key of finger 0 in obstacles, other fingers count down and fixed obstacles up from there */
+	private static final int MOVING_OBSTACLE_KEY = 0;
+
+	/** Every obstacle on the table, the fingers included */
+	private final ObstacleIndex obstacles = new ObstacleIndex();
+	private int nextFixedObstacleKey = MOVING_OBSTACLE_KEY + 1;
+
+	/** Bit per finger on the table */
+	private int fingerMask = 0;
+	private final float[] fingerDegrees = new float[MAX_FINGERS];
+
+	/****************************************************
+	 * Fixed point mode
+	 */
+	/** Steps the spin while set; rotation, speed and rotating mirror its state after each step */
+	private FixedPointSpinEngine fixedPoint = null;
+
+	/** State right after the last bounce, in fixed point units */
+	private int bounceUnits;
+	private int bounceStepUnits;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public SpinEngine()
+	{
+		this(FRICTION, BOUNCE_ENERGY_COEFFICIENT);
+	}
+
+	/**
+	 * Engine with tuned physics, e.g. for simulations. Both are applied per step.
+	 *
+	 * @param friction speed lost at each step, in degrees per step
+	 * @param bounceEnergyCoefficient share of the speed kept when bouncing off an obstacle
+	 */
+	public SpinEngine(float friction, float bounceEnergyCoefficient)
+	{
+		this.friction = friction;
+		this.bounceEnergyCoefficient = bounceEnergyCoefficient;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Advances the simulation up to the given time. Takes as many fixed steps as
+	 * fit in the time elapsed since the previous call, keeping the remainder for
+	 * the next one. The very first call after start() takes a single step.
+	 *
+	 * @param nowNanos monotonic time stamp, e.g. System.nanoTime()
+	 * @return number of steps taken
+	 */
+	public int advance(long nowNanos)
+	{
+		if(!rotating)
+		{
+			lastAdvanceNanos = -1L;
+			accumulatedNanos = 0L;
+
+			return 0;
+		}
+
+		if(lastAdvanceNanos == -1L)
+		{
+			accumulatedNanos = STEP_NANOS;
+		}
+		else
+		{
+			accumulatedNanos += nowNanos - lastAdvanceNanos;
+		}
+
+		lastAdvanceNanos = nowNanos;
+
+		long dueSteps = accumulatedNanos / STEP_NANOS;
+		int steps;
+
+		if(dueSteps > MAX_CATCH_UP_STEPS)
+		{//Drop the rest of the backlog
+			stepClockNanos = nowNanos - (MAX_CATCH_UP_STEPS * STEP_NANOS);
+
+			steps = skip(MAX_CATCH_UP_STEPS);
+			accumulatedNanos = 0L;
+		}
+		else
+		{
+			//Due steps end where the leftover starts
+			stepClockNanos = nowNanos - accumulatedNanos;
+
+			steps = skip((int) dueSteps);
+			accumulatedNanos -= steps * STEP_NANOS;
+		}
+
+		return steps;
+	}
+
+	/**
+	 * Takes the given number of steps at once, exactly as that many step() calls
+	 * would, and stops early along with the spin. Costs O(1) without obstacles.
+	 *
+	 * @return number of steps taken
+	 */
+	public int skip(int steps)
+	{
+		int taken = 0;
+
+		while(rotating && (taken < steps))
+		{
+			int plainSteps = Math.min(steps - taken, segmentLeaveStep - segmentSteps);
+
+			if((obstacles.size() != 0) || (plainSteps == 0) || (progress != null) || (fixedPoint != null))
+			{//Bounce, stop or reversal at hand, every step is wanted, or no segments in fixed point
+				step();
+
+				taken++;
+			}
+			else
+			{//Nothing but friction up to the leave step
+				segmentSteps += plainSteps;
+				stepCount += plainSteps;
+
+				rotationDegrees = degreesAt(friction, segmentDegrees, segmentStepDegrees, segmentSteps);
+				rotationStepDegrees = stepDegreesAt(friction, segmentStepDegrees, segmentSteps);
+
+				checkReversal();
+
+				taken += plainSteps;
+			}
+		}
+
+		return taken;
+	}
+
+	/**
+	 * Takes a single simulation step, regardless of the time.
+	 */
+	public void step()
+	{
+		stepCount++;
+
+		if(fixedPoint != null)
+		{
+			stepFixedPoint();
+		}
+		else if((obstacles.size() != 0) && (rotationStepDegrees != 0.0f))
+		{
+			collide();
+		}
+		else
+		{
+			succeedRotation();
+		}
+
+		stepClockNanos += STEP_NANOS;
+
+		if(progress != null)
+		{
+			progress.record(stepClockNanos, rotationDegrees, rotationStepDegrees);
+		}
+	}
+
+	/**
+	 * Records every step from now on, at the cost of skip(int) taking them one
+	 * by one. The caller ends each frame with SpinProgress.endFrame().
+	 *
+	 * @param progress recorder, null to stop recording
+	 */
+	public void setProgress(SpinProgress progress)
+	{
+		this.progress = progress;
+	}
+
+	/**
+	 * <p>
+	 * Collision stage. Each end of the bottle, ARC_OF_TOLERANCE ahead of it,
+	 * sweeps the arc of the coming step; the first obstacle met by either end
+	 * stops the bottle there and bounces it back, keeping
+	 * bounceEnergyCoefficient of its speed. Otherwise the step is taken as usual.
+	 * </p>
+	 */
+	private void collide()
+	{
+		boolean clockwise = rotationStepDegrees > 0;
+		float leadDegrees = (clockwise)?(ARC_OF_TOLERANCE):(-ARC_OF_TOLERANCE);
+
+		float topDegrees = AngleMath.normalizeDegrees(rotationDegrees + leadDegrees);
+		float bottomDegrees = AngleMath.normalizeDegrees(rotationDegrees + leadDegrees + DEGREES_PER_HALF_PERIOD);
+
+		int topHit = obstacles.firstOnArc(topDegrees, rotationStepDegrees);
+		int bottomHit = obstacles.firstOnArc(bottomDegrees, rotationStepDegrees);
+
+		if((topHit == -1) && (bottomHit == -1))
+		{
+			succeedRotation();
+
+			return;
+		}
+
+		boolean topFirst = (bottomHit == -1) || ((topHit != -1)
+				&& (ObstacleIndex.distanceOnArc(topDegrees, obstacles.getDegrees(topHit), clockwise)
+						<= ObstacleIndex.distanceOnArc(bottomDegrees, obstacles.getDegrees(bottomHit), clockwise)));
+
+		bounceCount++;
+		bounceStep = stepCount;
+		bounceFromDegrees = rotationDegrees;
+		bounceFromStepDegrees = rotationStepDegrees;
+
+		//Make bottle hit the obstacle
+		if(topFirst)
+		{
+			rotationDegrees = AngleMath.normalizeDegrees(obstacles.getDegrees(topHit) - leadDegrees);
+		}
+		else
+		{
+			rotationDegrees = AngleMath.normalizeDegrees(obstacles.getDegrees(bottomHit) - leadDegrees + DEGREES_PER_HALF_PERIOD);
+		}
+
+		rotationStepDegrees = -(rotationStepDegrees * bounceEnergyCoefficient);
+
+		bounceDegrees = rotationDegrees;
+		bounceStepDegrees = rotationStepDegrees;
+
+		beginSegment();
+	}
+
+	/**
+	 * Takes the step in fixed point, recording a bounce as collide() does.
+	 */
+	private void stepFixedPoint()
+	{
+		int bounces = fixedPoint.getBounceCount();
+		float fromDegrees = rotationDegrees;
+		float fromStepDegrees = rotationStepDegrees;
+
+		fixedPoint.step();
+
+		mirrorFixedPoint();
+
+		rotating = fixedPoint.isRotating();
+
+		if(fixedPoint.getBounceCount() != bounces)
+		{
+			bounceCount++;
+			bounceStep = stepCount;
+			bounceFromDegrees = fromDegrees;
+			bounceFromStepDegrees = fromStepDegrees;
+			bounceDegrees = rotationDegrees;
+			bounceStepDegrees = rotationStepDegrees;
+			bounceUnits = fixedPoint.getRotationUnits();
+			bounceStepUnits = fixedPoint.getRotationStepUnits();
+		}
+	}
+
+	private void mirrorFixedPoint()
+	{
+		rotationDegrees = fixedPoint.getRotationDegrees();
+		rotationStepDegrees = fixedPoint.getRotationStepDegrees();
+	}
+
+	/**
+	 * <p>
+	 * Switches the physics to FixedPointSpinEngine's integer arithmetic, or back.
+	 * Stop angles then come out bit for bit the same on every device and JVM,
+	 * from the same flings and obstacles. They differ from the float physics by
+	 * rounding only, see FairnessAnalyzer's engine=compare.
+	 * </p>
+	 * <p>
+	 * The state carries over, rounded to fixed point units; a spin on the way
+	 * goes on. Everything else works as before, skip(int) takes the steps one
+	 * by one though.
+	 * </p>
+	 */
+	public void setFixedPoint(boolean enabled)
+	{
+		if(enabled == (fixedPoint != null))
+		{
+			return;
+		}
+
+		if(enabled)
+		{
+			fixedPoint = new FixedPointSpinEngine(FixedPointSpinEngine.toUnits(friction), 
+					(int) ((bounceEnergyCoefficient * FixedPointSpinEngine.BOUNCE_ONE) + 0.5f));
+
+			fixedPoint.rotateTo(rotationDegrees);
+			fixedPoint.setRotationStepDegrees(rotationStepDegrees);
+
+			if(rotating)
+			{
+				fixedPoint.start();
+			}
+
+			for(int position = 0; position < obstacles.size(); position++)
+			{
+				fixedPoint.putObstacle(obstacles.getKey(position), toUnits(obstacles.getDegrees(position)));
+			}
+
+			mirrorFixedPoint();
+		}
+		else
+		{
+			fixedPoint = null;
+		}
+
+		beginSegment();
+	}
+
+	public boolean isFixedPoint()
+	{
+		return fixedPoint != null;
+	}
+
+	/**
+	 * @return the fixed point physics, null unless isFixedPoint()
+	 */
+	FixedPointSpinEngine getFixedPoint()
+	{
+		return fixedPoint;
+	}
+
+	/**
+	 * @return normalized angle in fixed point units
+	 */
+	private static int toUnits(float degrees)
+	{
+		return FixedPointSpinEngine.normalize(FixedPointSpinEngine.toUnits(degrees));
+	}
+
+	private void succeedRotation()
+	{
+		float stepDegrees = rotationStepDegrees;
+
+		//Succeed rotation degrees, around the unit circle
+		segmentSteps++;
+		rotationDegrees = degreesAt(friction, segmentDegrees, segmentStepDegrees, segmentSteps);
+
+		applyFriction(stepDegrees);
+	}
+
+	/**
+	 * <p>
+	 * Simulates the friction effect applied by gravity and surface to the bottle
+	 * </p>
+	 * <p>
+	 * Decelerate rotation speed by friction (SpinEngine.FRICTION by default) at each step
+	 * </p>
+	 *
+	 * @param stepDegrees speed of the step just taken
+	 */
+	private void applyFriction(float stepDegrees)
+	{
+		if(stopsOn(stepDegrees))
+		{
+			rotating = false;
+
+			//Starting over takes one more step of the same speed
+			beginSegment();
+		}
+		else
+		{
+			//Apply friction
+			rotationStepDegrees = stepDegreesAt(friction, segmentStepDegrees, segmentSteps);
+
+			checkReversal();
+		}
+	}
+
+	/**
+	 * Called on reaching a step of the segment.
+	 */
+	private void checkReversal()
+	{
+		if((segmentSteps == segmentLeaveStep) && !stopsOn(rotationStepDegrees))
+		{//Friction overshot zero and reversed the spin; it pulls the other way from now on
+			beginSegment();
+		}
+	}
+
+	static boolean stopsOn(float stepDegrees)
+	{
+		return MIN_ROTATION_DEGREES == Math.round(stepDegrees);
+	}
+
+	/**
+	 * Starts a new segment at the current state.
+	 */
+	private void beginSegment()
+	{
+		segmentDegrees = rotationDegrees;
+		segmentStepDegrees = rotationStepDegrees;
+		segmentSteps = 0;
+		segmentLeaveStep = leaveStep(friction, rotationStepDegrees);
+	}
+
+	/**
+	 * Segment math, shared with SpinScene.
+	 *
+	 * @return speed of the given step of a segment starting with startStepDegrees
+	 */
+	static float stepDegreesAt(float friction, float startStepDegrees, int step)
+	{
+		double decrement = (double) friction * step;
+
+		return (float) ((startStepDegrees < 0)?(startStepDegrees + decrement):(startStepDegrees - decrement));
+	}
+
+	/**
+	 * @return rotation after the given number of steps of a segment, within [0, 360)
+	 */
+	static float degreesAt(float friction, float startDegrees, float startStepDegrees, int steps)
+	{
+		//Arithmetic series of the step speeds
+		double decrement = (double) friction * (((double) steps * (steps - 1)) / 2.0);
+		double travelled = ((double) startStepDegrees * steps) + ((startStepDegrees < 0)?(decrement):(-decrement));
+
+		return AngleMath.normalizeDegrees((float) ((startDegrees + travelled) % DEGREES_PER_PERIOD));
+	}
+
+	/**
+	 * Finds the first step of a segment slower than half a degree (that is, one
+	 * to stop on), or turned the other way. Speeds before it keep their sign and
+	 * never stop the spin.
+	 *
+	 * @return step index, Integer.MAX_VALUE if never
+	 */
+	static int leaveStep(float friction, float startStepDegrees)
+	{
+		if(hasLeft(startStepDegrees, startStepDegrees))
+		{
+			return 0;
+		}
+
+		if(friction <= 0.0f)
+		{
+			return Integer.MAX_VALUE;
+		}
+
+		double estimate = (startStepDegrees < 0)
+				?(Math.ceil((-0.5 - startStepDegrees) / friction))
+				:(Math.floor((startStepDegrees - 0.5) / friction) + 1.0);
+
+		if(estimate >= Integer.MAX_VALUE)
+		{
+			return Integer.MAX_VALUE;
+		}
+
+		int step = (int) Math.max(1.0, estimate);
+
+		//Float rounding of the speeds may move the boundary by a step
+		while((step > 1) && hasLeft(startStepDegrees, stepDegreesAt(friction, startStepDegrees, step - 1)))
+		{
+			step--;
+		}
+
+		while(!hasLeft(startStepDegrees, stepDegreesAt(friction, startStepDegrees, step)))
+		{
+			step++;
+		}
+
+		return step;
+	}
+
+	private static boolean hasLeft(float startStepDegrees, float stepDegrees)
+	{
+		return (startStepDegrees < 0)?(stepDegrees >= -0.5f):(stepDegrees < 0.5f);
+	}
+
+	/**
+	 * Predicts where and when the spin stops if started, or let go on, from the
+	 * current state, with nothing (an obstacle, a drag) getting in its way.
+	 * Matches stepping bit for bit, in O(1).
+	 */
+	public SpinPrediction predict()
+	{
+		if(fixedPoint != null)
+		{
+			return fixedPoint.predict();
+		}
+
+		float startDegrees = segmentDegrees;
+		float startStepDegrees = segmentStepDegrees;
+		int step = segmentSteps;
+		int leaveStep = segmentLeaveStep;
+
+		long steps = 0L;
+
+		for(int segment = 0; (segment < MAX_PREDICTED_SEGMENTS) && (leaveStep != Integer.MAX_VALUE); segment++)
+		{
+			steps += leaveStep - step;
+
+			float leaveStepDegrees = stepDegreesAt(friction, startStepDegrees, leaveStep);
+
+			if(stopsOn(leaveStepDegrees))
+			{
+				return new SpinPrediction(degreesAt(friction, startDegrees, startStepDegrees, leaveStep + 1), steps + 1L);
+			}
+
+			//Reversed, carries on as a new segment
+			startDegrees = degreesAt(friction, startDegrees, startStepDegrees, leaveStep);
+			startStepDegrees = leaveStepDegrees;
+			step = 0;
+			leaveStep = leaveStep(friction, leaveStepDegrees);
+		}
+
+		return SpinPrediction.NEVER;
+	}
+
+	long getStepCount()
+	{
+		return stepCount;
+	}
+
+	float getFriction()
+	{
+		return friction;
+	}
+
+	/**
+	 * @return rotation the current segment started from
+	 */
+	float getSegmentDegrees()
+	{
+		return segmentDegrees;
+	}
+
+	float getSegmentStepDegrees()
+	{
+		return segmentStepDegrees;
+	}
+
+	int getSegmentSteps()
+	{
+		return segmentSteps;
+	}
+
+	/**
+	 * @return bounces off obstacles so far; the other getBounce*() tell about the last one
+	 */
+	int getBounceCount()
+	{
+		return bounceCount;
+	}
+
+	/**
+	 * @return step count of the bounce step
+	 */
+	long getBounceStep()
+	{
+		return bounceStep;
+	}
+
+	float getBounceFromDegrees()
+	{
+		return bounceFromDegrees;
+	}
+
+	float getBounceFromStepDegrees()
+	{
+		return bounceFromStepDegrees;
+	}
+
+	/**
+	 * @return rotation the bounce left the bottle at, where the next segment starts
+	 */
+	float getBounceDegrees()
+	{
+		return bounceDegrees;
+	}
+
+	float getBounceStepDegrees()
+	{
+		return bounceStepDegrees;
+	}
+
+	/**
+	 * @return rotation the bounce left the bottle at, in fixed point units; meaningless unless isFixedPoint()
+	 */
+	int getBounceUnits()
+	{
+		return bounceUnits;
+	}
+
+	int getBounceStepUnits()
+	{
+		return bounceStepUnits;
+	}
+
+	public void start()
+	{
+		rotating = true;
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.start();
+		}
+
+		lastAdvanceNanos = -1L;
+		accumulatedNanos = 0L;
+	}
+
+	public void stop()
+	{
+		rotating = false;
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.stop();
+		}
+	}
+
+	public boolean isRotating()
+	{
+		return rotating;
+	}
+
+	public void rotateTo(float degrees)
+	{
+		rotationDegrees = degrees;
+		rotationStepDegrees = 0.0f;
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.rotateTo(degrees);
+
+			mirrorFixedPoint();
+		}
+
+		beginSegment();
+	}
+
+	public float getRotationDegrees()
+	{
+		return rotationDegrees;
+	}
+
+	public void setRotationStepDegrees(float degrees)
+	{
+		rotationStepDegrees = degrees;
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.setRotationStepDegrees(degrees);
+
+			mirrorFixedPoint();
+		}
+
+		beginSegment();
+	}
+
+	public float getRotationStepDegrees()
+	{
+		return rotationStepDegrees;
+	}
+
+	/**
+	 * Places the moving obstacle (e.g. a finger) at the given angle on the
+	 * bottle's path, along with the fixed ones. Same as finger 0.
+	 *
+	 * @param degrees obstacle angle within [0, 360)
+	 */
+	public void setObstacle(float degrees)
+	{
+		setObstacle(0, degrees);
+	}
+
+	/**
+	 * Places one of several fingers on the bottle's path, e.g. of a group
+	 * playing on a tablet.
+	 *
+	 * @param finger within [0, MAX_FINGERS)
+	 * @param degrees obstacle angle within [0, 360)
+	 */
+	public void setObstacle(int finger, float degrees)
+	{
+		checkFinger(finger);
+
+		fingerDegrees[finger] = degrees;
+		fingerMask |= 1 << finger;
+
+		obstacles.put(MOVING_OBSTACLE_KEY - finger, degrees);
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.putObstacle(MOVING_OBSTACLE_KEY - finger, toUnits(degrees));
+		}
+	}
+
+	/**
+	 * Lifts every finger.
+	 */
+	public void clearObstacle()
+	{
+		while(fingerMask != 0)
+		{
+			clearObstacle(Integer.numberOfTrailingZeros(fingerMask));
+		}
+	}
+
+	public void clearObstacle(int finger)
+	{
+		checkFinger(finger);
+
+		if((fingerMask & (1 << finger)) != 0)
+		{
+			fingerMask &= ~(1 << finger);
+
+			obstacles.remove(MOVING_OBSTACLE_KEY - finger);
+
+			if(fixedPoint != null)
+			{
+				fixedPoint.removeObstacle(MOVING_OBSTACLE_KEY - finger);
+			}
+		}
+	}
+
+	public boolean hasObstacle()
+	{
+		return fingerMask != 0;
+	}
+
+	/**
+	 * @return angle of the lowest numbered finger, meaningless unless hasObstacle()
+	 */
+	public float getObstacleDegrees()
+	{
+		return fingerDegrees[(fingerMask == 0)?(0):(Integer.numberOfTrailingZeros(fingerMask))];
+	}
+
+	public int getFingerCount()
+	{
+		return Integer.bitCount(fingerMask);
+	}
+
+	private static void checkFinger(int finger)
+	{
+		if((finger < 0) || (finger >= MAX_FINGERS))
+		{
+			throw new IllegalArgumentException("finger " + finger + " out of [0, " + MAX_FINGERS + ")");
+		}
+	}
+
+	/**
+	 * Places a fixed obstacle (e.g. a glass on the table) on the bottle's path.
+	 *
+	 * @param degrees obstacle angle within [0, 360)
+	 * @return key to remove it with
+	 */
+	public int addFixedObstacle(float degrees)
+	{
+		int key = nextFixedObstacleKey++;
+
+		obstacles.put(key, degrees);
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.putObstacle(key, toUnits(degrees));
+		}
+
+		return key;
+	}
+
+	/**
+	 * @param key as returned by addFixedObstacle(float)
+	 */
+	public void removeFixedObstacle(int key)
+	{
+		if(key > MOVING_OBSTACLE_KEY)
+		{
+			obstacles.remove(key);
+
+			if(fixedPoint != null)
+			{
+				fixedPoint.removeObstacle(key);
+			}
+		}
+	}
+
+	public void clearFixedObstacles()
+	{
+		obstacles.clear();
+
+		if(fixedPoint != null)
+		{
+			fixedPoint.removeObstacles();
+		}
+
+		for(int mask = fingerMask; mask != 0; mask &= mask - 1)
+		{
+			int finger = Integer.numberOfTrailingZeros(mask);
+
+			obstacles.put(MOVING_OBSTACLE_KEY - finger, fingerDegrees[finger]);
+
+			if(fixedPoint != null)
+			{
+				fixedPoint.putObstacle(MOVING_OBSTACLE_KEY - finger, toUnits(fingerDegrees[finger]));
+			}
+		}
+	}
+
+	/**
+	 * Records the fixed obstacles on the table, e.g. when a trace starts.
+	 */
+	void traceFixedObstacles(SpinTraceWriter writer)
+	{
+		for(int i = 0; i < obstacles.size(); i++)
+		{
+			int key = obstacles.getKey(i);
+
+			if(key > MOVING_OBSTACLE_KEY)
+			{
+				writer.addObstacle(key, obstacles.getDegrees(i));
+			}
+		}
+	}
+
+	public int getFixedObstacleCount()
+	{
+		return obstacles.size() - getFingerCount();
+	}
+}
@@ -0,0 +1,110 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * Touch geometry used by the swipe detection, free of any android dependency.
+ * Angles are in degrees, clockwise, 0 pointing up.
+ */
+public final class SpinGeometry
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final int TOUCH_NOT 		= 0;
+	public static final int TOUCH_TOP  		= 1;
+	public static final int TOUCH_BOTTOM 	= 2;
+
+	private static final float DEGREES_PER_PERIOD = SpinEngine.DEGREES_PER_PERIOD;
+	private static final float ARC_OF_TOLERANCE = SpinEngine.ARC_OF_TOLERANCE;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	private SpinGeometry()
+	{
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * @param x horizontal distance from the view center, positive to the right
+	 * @param y vertical distance from the view center, positive upwards
+	 * @return angle of the point, measured clockwise from the positive x axis. Within [-180, 180].
+	 *         Accurate to AngleMath.DEFAULT_MAX_ERROR_DEGREES.
+	 */
+	public static float touchDegrees(float x, float y)
+	{
+		return -AngleMath.DEFAULT.atan2Degrees(y, x);
+	}
+
+	/**
+	 * Finds out which end of the bottle, if any, lies under the touch.
+	 *
+	 * @param degrees touch angle, as touchDegrees(x, y) + 90
+	 * @param rotationDegrees current rotation of the bottle
+	 * @return one of TOUCH_NOT, TOUCH_TOP or TOUCH_BOTTOM
+	 */
+	public static int touchedEnd(float degrees, float rotationDegrees)
+	{
+		float currentObjectAngle = (rotationDegrees < 0)?(rotationDegrees + DEGREES_PER_PERIOD):rotationDegrees;
+
+		if(Math.abs(currentObjectAngle - degrees) < ARC_OF_TOLERANCE)
+		{
+			return TOUCH_TOP;
+		}
+		else if(Math.abs(currentObjectAngle - degrees - DEGREES_PER_PERIOD) < ARC_OF_TOLERANCE)
+		{
+			return TOUCH_TOP;
+		}
+		else if(Math.abs((Math.abs(currentObjectAngle - degrees) - 180)) < ARC_OF_TOLERANCE)
+		{
+			return TOUCH_BOTTOM;
+		}
+
+		return TOUCH_NOT;
+	}
+
+	/**
+	 * Angular velocity between two touch samples, taking the shortest way around the circle.
+	 *
+	 * @return velocity in degrees per millisecond, clockwise positive
+	 */
+	public static float angularVelocity(float formerAngle, long formerTime, float succeedingAngle, long succeedingTime)
+	{
+		float angularDistance = succeedingAngle - formerAngle;
+
+		//Fix for circular property of angle
+		if(angularDistance < -180)
+		{
+			angularDistance += DEGREES_PER_PERIOD;
+		}
+		//Again another fix for circular property;
+		else if(angularDistance > 180)
+		{
+			angularDistance = Math.abs(angularDistance - DEGREES_PER_PERIOD);
+		}
+
+		float elapsedTime = (float) (succeedingTime - formerTime);
+
+		return angularDistance / elapsedTime;
+	}
+}
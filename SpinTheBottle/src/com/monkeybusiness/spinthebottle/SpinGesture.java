@@ -0,0 +1,305 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Turns touches into drags, tosses and obstacles of a SpinTarget, free of any
+ * android dependency. SwipeDetector feeds it from MotionEvents; the trace
+ * replayer feeds it from recorded ones.
+ * </p>
+ * <p>
+ * Several fingers may be on the table at once. The first one to touch an end
+ * of the bottle grabs it, and tosses it when lifted; every other finger is an
+ * obstacle of its own. Pointer state is kept in arrays indexed by pointer id,
+ * so that touches allocate nothing; ids from MAX_POINTERS on are ignored.
+ * </p>
+ * <p>
+ * Coordinates are in view pixels, times in milliseconds of the event clock.
+ * </p>
+ */
+public final class SpinGesture
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final float DEGREES_PER_QUARTER_PERIOD = SpinEngine.DEGREES_PER_QUARTER_PERIOD;
+	private static final float DEGREES_PER_HALF_PERIOD = SpinEngine.DEGREES_PER_HALF_PERIOD;
+	private static final float MAX_ROTATION_DEGREES = SpinEngine.MAX_ROTATION_DEGREES;
+
+	/** Pointer ids tracked, one finger obstacle each */
+	public static final int MAX_POINTERS = SpinEngine.MAX_FINGERS;
+
+	private static final int TOUCH_NOT 		= SpinGeometry.TOUCH_NOT;
+	private static final int TOUCH_TOP  	= SpinGeometry.TOUCH_TOP;
+	private static final int TOUCH_BOTTOM 	= SpinGeometry.TOUCH_BOTTOM;
+
+	/** State of a pointer that is not down */
+	private static final int TOUCH_UP 		= -1;
+
+	private static final int NO_POINTER = -1;
+
+	private static final float VELOCITY_MAX = 1.0f;
+
+	private final SpinTarget target;
+
+	/** Per pointer id; TOUCH_TOP or TOUCH_BOTTOM for the grabbing one, TOUCH_NOT for obstacles */
+	private final int[] touchStates = new int[MAX_POINTERS];
+
+	/** Per pointer id; latest bottle angle of the grabbing one, latest obstacle angle of others */
+	private final float[] succeedingAngles = new float[MAX_POINTERS];
+
+	private int grabbingPointer = NO_POINTER;
+
+	/** Fed with every sample of the grabbing pointer's drag, historical ones included */
+	private final AngularVelocityTracker velocityTracker = new AngularVelocityTracker();
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public SpinGesture(SpinTarget target)
+	{
+		this.target = target;
+
+		for(int i = 0; i < MAX_POINTERS; i++)
+		{
+			touchStates[i] = TOUCH_UP;
+		}
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Single pointer shorthand of onDown(0, ...), as are the others below.
+	 */
+	public void onDown(float x, float y, long timeMillis)
+	{
+		onDown(0, x, y, timeMillis);
+	}
+
+	public void onMoveSample(float x, float y, long timeMillis)
+	{
+		onMoveSample(0, x, y, timeMillis);
+	}
+
+	public void onMove(float x, float y, long timeMillis)
+	{
+		onMove(0, x, y, timeMillis);
+	}
+
+	public void onUp()
+	{
+		onUp(0);
+	}
+
+	/**
+	 * A pointer touched the table; it grabs the bottle if on one of its ends
+	 * and nothing grabs it yet, and is an obstacle otherwise.
+	 */
+	public void onDown(int pointerId, float x, float y, long timeMillis)
+	{
+		if(!isTracked(pointerId))
+		{
+			return;
+		}
+
+		if(touchStates[pointerId] != TOUCH_UP)
+		{//Never lifted, e.g. its up got lost; start over
+			onCancel(pointerId);
+		}
+
+		float degrees = touchDegrees(x, y);
+		int touchState = SpinGeometry.touchedEnd(degrees, target.getRotationDegree());
+
+		if((touchState != TOUCH_NOT) && (grabbingPointer == NO_POINTER))
+		{
+			touchStates[pointerId] = touchState;
+			grabbingPointer = pointerId;
+
+			target.stopRotating();
+
+			velocityTracker.clear();
+			trackSample(pointerId, degrees, timeMillis);
+
+			target.rotateTo(succeedingAngles[pointerId]);
+		}
+		else
+		{
+			touchStates[pointerId] = TOUCH_NOT;
+
+			trackSample(pointerId, degrees, timeMillis);
+
+			target.setObstacle(pointerId, succeedingAngles[pointerId]);
+		}
+	}
+
+	/**
+	 * Takes a sample batched into a move, before its latest one. Only drags care about them.
+	 */
+	public void onMoveSample(int pointerId, float x, float y, long timeMillis)
+	{
+		if(isTracked(pointerId) && (pointerId == grabbingPointer))
+		{
+			trackSample(pointerId, touchDegrees(x, y), timeMillis);
+		}
+	}
+
+	/**
+	 * Takes the latest sample of a move.
+	 */
+	public void onMove(int pointerId, float x, float y, long timeMillis)
+	{
+		if(!isTracked(pointerId) || (touchStates[pointerId] == TOUCH_UP))
+		{
+			return;
+		}
+
+		trackSample(pointerId, touchDegrees(x, y), timeMillis);
+
+		if(pointerId == grabbingPointer)
+		{
+			target.rotateTo(succeedingAngles[pointerId]);
+		}
+		else
+		{
+			target.setObstacle(pointerId, succeedingAngles[pointerId]);
+		}
+	}
+
+	/**
+	 * A pointer left the table; the grabbing one tosses the bottle.
+	 */
+	public void onUp(int pointerId)
+	{
+		if(!isTracked(pointerId) || (touchStates[pointerId] == TOUCH_UP))
+		{
+			return;
+		}
+
+		if(pointerId != grabbingPointer)
+		{
+			target.clearObstacle(pointerId);
+		}
+		else if(velocityTracker.getSampleCount() > 1)
+		{//Tossed
+			float velocity = velocityTracker.getVelocity();
+
+			if(velocity > VELOCITY_MAX)
+			{//Rotate with maximum speed
+				target.setRotationStepDegrees(MAX_ROTATION_DEGREES);
+			}
+			else if(velocity < -VELOCITY_MAX)
+			{//Rotate with maximum speed
+				target.setRotationStepDegrees(-MAX_ROTATION_DEGREES);
+			}
+			else
+			{
+				target.setRotationStepDegrees(MAX_ROTATION_DEGREES * velocity);
+			}
+
+			target.startRotating();
+		}
+
+		release(pointerId);
+	}
+
+	/**
+	 * The gesture got taken away, e.g. by a parent view; every pointer leaves
+	 * the table, and nothing is tossed.
+	 */
+	public void onCancel()
+	{
+		for(int pointerId = 0; pointerId < MAX_POINTERS; pointerId++)
+		{
+			onCancel(pointerId);
+		}
+	}
+
+	private void onCancel(int pointerId)
+	{
+		if(touchStates[pointerId] == TOUCH_NOT)
+		{
+			target.clearObstacle(pointerId);
+		}
+
+		if(touchStates[pointerId] != TOUCH_UP)
+		{
+			release(pointerId);
+		}
+	}
+
+	private void release(int pointerId)
+	{
+		touchStates[pointerId] = TOUCH_UP;
+
+		if(pointerId == grabbingPointer)
+		{
+			grabbingPointer = NO_POINTER;
+
+			//reset artifacts
+			velocityTracker.clear();
+		}
+	}
+
+	private static boolean isTracked(int pointerId)
+	{
+		return (pointerId >= 0) && (pointerId < MAX_POINTERS);
+	}
+
+	/**
+	 * Updates the pointer's succeeding angle with a touch sample, and feeds it to
+	 * the velocity tracker while grabbing.
+	 *
+	 * @param degrees touch angle, as touchDegrees(x, y)
+	 * @param timeMillis time the touch happened
+	 */
+	private void trackSample(int pointerId, float degrees, long timeMillis)
+	{
+		int touchState = touchStates[pointerId];
+
+		if(touchState == TOUCH_BOTTOM)
+		{
+			succeedingAngles[pointerId] = AngleMath.normalizeDegrees(degrees - DEGREES_PER_HALF_PERIOD);
+		}
+		else
+		{
+			succeedingAngles[pointerId] = AngleMath.normalizeDegrees(degrees);
+		}
+
+		if(touchState != TOUCH_NOT)
+		{
+			velocityTracker.addSample(succeedingAngles[pointerId], timeMillis);
+		}
+	}
+
+	/**
+	 * Computed once per sample, shared by the hit test and the drag.
+	 *
+	 * @return angle of the touch around the view center, 0 pointing up. Within [-90, 270].
+	 */
+	private float touchDegrees(float eventX, float eventY)
+	{
+		float x =  (eventX - (target.getWidth()  / 2));
+		float y = -(eventY - (target.getHeight() / 2));
+
+		return SpinGeometry.touchDegrees(x, y) + DEGREES_PER_QUARTER_PERIOD;
+	}
+}
@@ -0,0 +1,474 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Per-frame timings of spinning views: physics time, draw time and the gap
+ * between frames, plus jank counters and per-spin summaries. Handed to
+ * SpinningDrawableView.setMetrics(SpinMetrics), off by default.
+ * </p>
+ * <p>
+ * Memory is fixed at construction and recording neither locks nor allocates:
+ * a frame costs a handful of atomic increments. Timings go into log-linear
+ * histograms with 8 sub-buckets per power of two, i.e. within 12.5% of the
+ * recorded value. snapshot() may be taken from any thread while frames are
+ * recorded; histograms are copied one after the other, so a snapshot may
+ * straddle a frame.
+ * </p>
+ * <p>
+ * Holds no spin in progress, so that views spinning at once on any threads
+ * may share one: each view counts the frames of its own spin and hands them
+ * over with endSpin(long, long).
+ * </p>
+ */
+public final class SpinMetrics
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** A frame this much longer than the expected interval is janky */
+	public static final float JANK_FACTOR = 1.5f;
+
+	private final long frameIntervalNanos;
+	private final long jankNanos;
+
+	private final Histogram physicsNanos = new Histogram();
+	private final Histogram drawNanos = new Histogram();
+	private final Histogram frameGapNanos = new Histogram();
+	private final Histogram spinFrames = new Histogram();
+	private final Histogram spinMaxFrameGapNanos = new Histogram();
+
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong jankyFrames = new AtomicLong();
+	private final AtomicLong droppedFrames = new AtomicLong();
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * Expects a frame per SpinEngine step, i.e. 60 per second.
+	 */
+	public SpinMetrics()
+	{
+		this(SpinEngine.STEP_NANOS);
+	}
+
+	/**
+	 * @param frameIntervalNanos expected time between frames, e.g. the display refresh period
+	 */
+	public SpinMetrics(long frameIntervalNanos)
+	{
+		if(frameIntervalNanos <= 0L)
+		{
+			throw new IllegalArgumentException("Frame interval must be positive, was " + frameIntervalNanos);
+		}
+
+		this.frameIntervalNanos = frameIntervalNanos;
+		this.jankNanos = (long) (frameIntervalNanos * (double) JANK_FACTOR);
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Adds a finished spin to the spin summaries.
+	 *
+	 * @param frames frames recorded during the spin
+	 * @param maxFrameGapNanos longest frameGapNanos among them, 0 if none
+	 */
+	public void endSpin(long frames, long maxFrameGapNanos)
+	{
+		spinFrames.record(frames);
+		spinMaxFrameGapNanos.record(maxFrameGapNanos);
+	}
+
+	/**
+	 * Records a frame drawn while spinning.
+	 *
+	 * @param physicsNanos time spent stepping the engine
+	 * @param drawNanos time spent drawing the bottle
+	 * @param frameGapNanos time since the previous frame of the spin, -1 for its first frame
+	 */
+	public void recordFrame(long physicsNanos, long drawNanos, long frameGapNanos)
+	{
+		this.physicsNanos.record(physicsNanos);
+		this.drawNanos.record(drawNanos);
+
+		frames.incrementAndGet();
+
+		if(frameGapNanos >= 0L)
+		{
+			this.frameGapNanos.record(frameGapNanos);
+
+			if(frameGapNanos > jankNanos)
+			{
+				jankyFrames.incrementAndGet();
+
+				//Refresh periods passed without a frame
+				droppedFrames.addAndGet(((frameGapNanos + (frameIntervalNanos / 2L)) / frameIntervalNanos) - 1L);
+			}
+		}
+	}
+
+	public Snapshot snapshot()
+	{
+		return new Snapshot(frameIntervalNanos,
+				physicsNanos.snapshot(), drawNanos.snapshot(), frameGapNanos.snapshot(),
+				spinFrames.snapshot(), spinMaxFrameGapNanos.snapshot(),
+				frames.get(), jankyFrames.get(), droppedFrames.get());
+	}
+
+	/**
+	 * Clears everything recorded so far, e.g. right after an export. Spins in
+	 * progress carry on, and are summed up once they end.
+	 */
+	public void reset()
+	{
+		physicsNanos.reset();
+		drawNanos.reset();
+		frameGapNanos.reset();
+		spinFrames.reset();
+		spinMaxFrameGapNanos.reset();
+
+		frames.set(0L);
+		jankyFrames.set(0L);
+		droppedFrames.set(0L);
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	/**
+	 * <p>
+	 * Lock-free log-linear histogram of non-negative values. Values below 8 get a
+	 * bucket each, every power of two above is split into 8 buckets. Values from
+	 * 2^40 on (about 18 minutes in nanoseconds) share the last bucket.
+	 * </p>
+	 */
+	static final class Histogram
+	{
+		static final int SUB_BUCKET_BITS = 3;
+		static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		static final int MAX_BITS = 40;
+		static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long value)
+		{
+			if(value < 0L)
+			{
+				value = 0L;
+			}
+
+			counts.incrementAndGet(bucketOf(value));
+			sum.addAndGet(value);
+
+			long current = max.get();
+
+			while((value > current) && !max.compareAndSet(current, value))
+			{
+				current = max.get();
+			}
+		}
+
+		HistogramSnapshot snapshot()
+		{
+			long[] copy = new long[BUCKETS];
+
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				copy[i] = counts.get(i);
+			}
+
+			return new HistogramSnapshot(copy, sum.get(), max.get());
+		}
+
+		void reset()
+		{
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				counts.set(i, 0L);
+			}
+
+			sum.set(0L);
+			max.set(0L);
+		}
+
+		static int bucketOf(long value)
+		{
+			if(value < SUB_BUCKETS)
+			{
+				return (int) value;
+			}
+
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+			if(exponent >= MAX_BITS)
+			{
+				return BUCKETS - 1;
+			}
+
+			int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+			return ((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS) + subBucket;
+		}
+
+		/**
+		 * @return smallest value falling into the given bucket
+		 */
+		static long lowerBoundOf(int bucket)
+		{
+			if(bucket < SUB_BUCKETS)
+			{
+				return bucket;
+			}
+
+			int exponent = (bucket / SUB_BUCKETS) + SUB_BUCKET_BITS - 1;
+			long subBucket = bucket % SUB_BUCKETS;
+
+			return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Immutable copy of a Histogram.
+	 * </p>
+	 */
+	public static final class HistogramSnapshot
+	{
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		HistogramSnapshot(long[] counts, long sum, long max)
+		{
+			long count = 0L;
+
+			for(int i = 0; i < counts.length; i++)
+			{
+				count += counts[i];
+			}
+
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public long getMax()
+		{
+			return max;
+		}
+
+		public double getMean()
+		{
+			return (count == 0L)?(0.0):((double) sum / count);
+		}
+
+		/**
+		 * @param percentile within [0, 100]
+		 * @return lower bound of the bucket holding the given percentile, 0 if empty
+		 */
+		public long getValueAtPercentile(double percentile)
+		{
+			if(count == 0L)
+			{
+				return 0L;
+			}
+
+			long rank = Math.max(1L, (long) Math.ceil((percentile / 100.0) * count));
+			long seen = 0L;
+
+			for(int i = 0; i < counts.length; i++)
+			{
+				seen += counts[i];
+
+				if(seen >= rank)
+				{
+					return Math.min(Histogram.lowerBoundOf(i), max);
+				}
+			}
+
+			return max;
+		}
+
+		/**
+		 * Appends one "name,lower bound,count" line per non-empty bucket.
+		 */
+		public void export(String name, Appendable out) throws IOException
+		{
+			for(int i = 0; i < counts.length; i++)
+			{
+				if(counts[i] != 0L)
+				{
+					out.append(name).append(',').append(Long.toString(Histogram.lowerBoundOf(i))).append(',').append(Long.toString(counts[i])).append('\n');
+				}
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			return "n=" + count + " mean=" + Math.round(getMean()) + " p50=" + getValueAtPercentile(50.0)
+					+ " p90=" + getValueAtPercentile(90.0) + " p99=" + getValueAtPercentile(99.0) + " max=" + max;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Everything recorded by a SpinMetrics up to snapshot(). Times in nanoseconds.
+	 * </p>
+	 */
+	public static final class Snapshot
+	{
+		private final long frameIntervalNanos;
+
+		private final HistogramSnapshot physicsNanos;
+		private final HistogramSnapshot drawNanos;
+		private final HistogramSnapshot frameGapNanos;
+		private final HistogramSnapshot spinFrames;
+		private final HistogramSnapshot spinMaxFrameGapNanos;
+
+		private final long frames;
+		private final long jankyFrames;
+		private final long droppedFrames;
+
+		Snapshot(long frameIntervalNanos,
+				HistogramSnapshot physicsNanos, HistogramSnapshot drawNanos, HistogramSnapshot frameGapNanos,
+				HistogramSnapshot spinFrames, HistogramSnapshot spinMaxFrameGapNanos,
+				long frames, long jankyFrames, long droppedFrames)
+		{
+			this.frameIntervalNanos = frameIntervalNanos;
+			this.physicsNanos = physicsNanos;
+			this.drawNanos = drawNanos;
+			this.frameGapNanos = frameGapNanos;
+			this.spinFrames = spinFrames;
+			this.spinMaxFrameGapNanos = spinMaxFrameGapNanos;
+			this.frames = frames;
+			this.jankyFrames = jankyFrames;
+			this.droppedFrames = droppedFrames;
+		}
+
+		public long getFrameIntervalNanos()
+		{
+			return frameIntervalNanos;
+		}
+
+		/** Time spent stepping the engine, per frame */
+		public HistogramSnapshot getPhysicsNanos()
+		{
+			return physicsNanos;
+		}
+
+		/** Time spent drawing the bottle, per frame */
+		public HistogramSnapshot getDrawNanos()
+		{
+			return drawNanos;
+		}
+
+		/** Time between consecutive frames of a spin */
+		public HistogramSnapshot getFrameGapNanos()
+		{
+			return frameGapNanos;
+		}
+
+		/** Frames drawn, per ended spin */
+		public HistogramSnapshot getSpinFrames()
+		{
+			return spinFrames;
+		}
+
+		/** Longest frame gap, per ended spin */
+		public HistogramSnapshot getSpinMaxFrameGapNanos()
+		{
+			return spinMaxFrameGapNanos;
+		}
+
+		public long getFrames()
+		{
+			return frames;
+		}
+
+		/**
+		 * @return frames that came more than JANK_FACTOR frame intervals after the previous one
+		 */
+		public long getJankyFrames()
+		{
+			return jankyFrames;
+		}
+
+		/**
+		 * @return frame intervals that passed without a frame
+		 */
+		public long getDroppedFrames()
+		{
+			return droppedFrames;
+		}
+
+		public long getSpins()
+		{
+			return spinFrames.getCount();
+		}
+
+		/**
+		 * Appends counters as "name,value" lines, then histograms as "name,lower bound,count" lines.
+		 */
+		public void export(Appendable out) throws IOException
+		{
+			out.append("frames,").append(Long.toString(frames)).append('\n');
+			out.append("janky_frames,").append(Long.toString(jankyFrames)).append('\n');
+			out.append("dropped_frames,").append(Long.toString(droppedFrames)).append('\n');
+			out.append("spins,").append(Long.toString(getSpins())).append('\n');
+
+			physicsNanos.export("physics_ns", out);
+			drawNanos.export("draw_ns", out);
+			frameGapNanos.export("frame_gap_ns", out);
+			spinFrames.export("spin_frames", out);
+			spinMaxFrameGapNanos.export("spin_max_frame_gap_ns", out);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "frames=" + frames + " janky=" + jankyFrames + " dropped=" + droppedFrames + " spins=" + getSpins()
+					+ "\nphysics_ns " + physicsNanos
+					+ "\ndraw_ns " + drawNanos
+					+ "\nframe_gap_ns " + frameGapNanos
+					+ "\nspin_frames " + spinFrames
+					+ "\nspin_max_frame_gap_ns " + spinMaxFrameGapNanos;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Where and when a spin stops, as told by SpinEngine.predict() before it
+ * does. Only holds as long as nothing gets in the bottle's way.
+ * </p>
+ */
+public final class SpinPrediction
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Spin that goes on forever, e.g. without friction */
+	public static final SpinPrediction NEVER = new SpinPrediction(Float.NaN, -1L);
+
+	private final float stopDegrees;
+	private final long steps;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	SpinPrediction(float stopDegrees, long steps)
+	{
+		this.stopDegrees = stopDegrees;
+		this.steps = steps;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public boolean stops()
+	{
+		return steps >= 0L;
+	}
+
+	/**
+	 * @return rotation the bottle stops at, within [0, 360). NaN if it never stops.
+	 */
+	public float getStopDegrees()
+	{
+		return stopDegrees;
+	}
+
+	/**
+	 * @return simulation steps until the bottle stops, the stopping one included. -1 if it never stops.
+	 */
+	public long getSteps()
+	{
+		return steps;
+	}
+
+	/**
+	 * @return time until the bottle stops, -1 if it never stops
+	 */
+	public long getDurationNanos()
+	{
+		return (stops())?(steps * SpinEngine.STEP_NANOS):(-1L);
+	}
+
+	@Override
+	public String toString()
+	{
+		return (stops())?("stops at " + stopDegrees + " after " + steps + " steps"):("never stops");
+	}
+}
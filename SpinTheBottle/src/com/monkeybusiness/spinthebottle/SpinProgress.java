@@ -0,0 +1,247 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Angle, speed and time of every simulated step of a spin, for listeners
+ * driving UI, sound or haptics off the spin instead of polling it.
+ * </p>
+ * <p>
+ * The engine records each step into a preallocated ring of primitive arrays;
+ * once per frame the samples so far are handed to the listener as one batch,
+ * either right away on the frame's thread or on the given executor. Recording
+ * never allocates and never waits for the listener: if the ring is full, new
+ * samples are dropped and counted, see getDroppedCount().
+ * </p>
+ * <p>
+ * Single producer, single consumer: the thread stepping the engine records,
+ * batches are delivered one at a time.
+ * </p>
+ */
+public final class SpinProgress
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** A few seconds of a frozen consumer at 60 steps per second */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final Listener listener;
+	private final Executor executor;
+
+	private final float[] degrees;
+	private final float[] stepDegrees;
+	private final long[] timeNanos;
+	private final int mask;
+
+	/** Samples recorded so far; written by the producer only */
+	private volatile long head = 0L;
+	/** Samples delivered so far; written by the consumer only */
+	private volatile long tail = 0L;
+
+	private volatile long dropped = 0L;
+
+	/** Position and size of the batch being delivered */
+	private long batchStart;
+	private int batchSize;
+
+	private final AtomicBoolean deliveryScheduled = new AtomicBoolean(false);
+
+	private final Runnable delivery = new Runnable()
+	{
+		public void run()
+		{
+			deliver();
+
+			//Cleared only once done, so that no second delivery overlaps this one;
+			//samples recorded meanwhile were skipped by endFrame(), pick them up
+			deliveryScheduled.set(false);
+
+			if((head != tail) && deliveryScheduled.compareAndSet(false, true))
+			{
+				executor.execute(delivery);
+			}
+		}
+	};
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * @param capacity samples held until delivered, rounded up to a power of two
+	 * @param listener receives the batches
+	 * @param executor runs the deliveries, null to deliver on the frame's thread; may be a thread pool, deliveries never overlap
+	 */
+	public SpinProgress(int capacity, Listener listener, Executor executor)
+	{
+		if(capacity <= 0)
+		{
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		int size = Integer.highestOneBit(capacity);
+
+		if(size < capacity)
+		{
+			size <<= 1;
+		}
+
+		this.listener = listener;
+		this.executor = executor;
+
+		this.degrees = new float[size];
+		this.stepDegrees = new float[size];
+		this.timeNanos = new long[size];
+		this.mask = size - 1;
+	}
+
+	public SpinProgress(Listener listener, Executor executor)
+	{
+		this(DEFAULT_CAPACITY, listener, executor);
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Records a step. Called by the engine, on the thread stepping it.
+	 */
+	void record(long stepTimeNanos, float rotationDegrees, float rotationStepDegrees)
+	{
+		long position = head;
+
+		if((position - tail) > mask)
+		{//Consumer lags behind
+			dropped++;
+
+			return;
+		}
+
+		int index = (int) position & mask;
+
+		degrees[index] = rotationDegrees;
+		stepDegrees[index] = rotationStepDegrees;
+		timeNanos[index] = stepTimeNanos;
+
+		//Publishes the sample along with it
+		head = position + 1L;
+	}
+
+	/**
+	 * Hands the samples recorded so far to the listener, on the executor if any.
+	 * Called once per frame, on the thread stepping the engine.
+	 */
+	public void endFrame()
+	{
+		if(head == tail)
+		{
+			return;
+		}
+
+		if(executor == null)
+		{
+			deliver();
+		}
+		else if(deliveryScheduled.compareAndSet(false, true))
+		{
+			executor.execute(delivery);
+		}
+	}
+
+	private void deliver()
+	{
+		long start = tail;
+		long end = head;
+
+		if(end == start)
+		{
+			return;
+		}
+
+		batchStart = start;
+		batchSize = (int) (end - start);
+
+		listener.onProgress(this);
+
+		//Frees the slots for the producer
+		tail = end;
+	}
+
+	/**
+	 * @return number of samples in the batch being delivered
+	 */
+	public int size()
+	{
+		return batchSize;
+	}
+
+	/**
+	 * @param i index within the batch being delivered, oldest first
+	 * @return angle after the step, within [0, 360)
+	 */
+	public float getDegrees(int i)
+	{
+		return degrees[(int) (batchStart + i) & mask];
+	}
+
+	/**
+	 * @return speed after the step, in degrees per step; clockwise if positive
+	 */
+	public float getStepDegrees(int i)
+	{
+		return stepDegrees[(int) (batchStart + i) & mask];
+	}
+
+	/**
+	 * @return simulated time of the step, on the clock passed to SpinEngine.advance(long)
+	 */
+	public long getTimeNanos(int i)
+	{
+		return timeNanos[(int) (batchStart + i) & mask];
+	}
+
+	/**
+	 * @return samples dropped so far, since the ring was full
+	 */
+	public long getDroppedCount()
+	{
+		return dropped;
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	public interface Listener
+	{
+		/**
+		 * Receives the steps simulated since the previous batch. The batch is only
+		 * valid during the call; copy what is needed.
+		 *
+		 * @param batch samples, read through its size() and getters
+		 */
+		public abstract void onProgress(SpinProgress batch);
+	}
+}
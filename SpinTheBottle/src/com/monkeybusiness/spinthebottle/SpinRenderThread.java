@@ -0,0 +1,231 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+
+/**
+ * <p>
+ * Steps and draws frames of a surface on its own thread.
+ * </p>
+ * <p>
+ * Frames are paced by the display's vsync signal; via Choreographer on API 16+,
+ * and by the blocking SurfaceHolder.unlockCanvasAndPost(Canvas) on older devices.
+ * Frames are only scheduled on request, so the thread sleeps on an idle screen.
+ * </p>
+ */
+class SpinRenderThread extends HandlerThread implements Handler.Callback
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final int MESSAGE_SCHEDULE_FRAME = 1;
+
+	private final SurfaceHolder holder;
+	private final Renderer renderer;
+
+	private Handler handler;
+	private VsyncScheduler vsyncScheduler;
+
+	/** Guards surfaceReady. Held while drawing, so that the surface is not destroyed under our feet. */
+	private final Object surfaceLock = new Object();
+
+	private volatile boolean surfaceReady = false;
+
+	private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	SpinRenderThread(SurfaceHolder holder, Renderer renderer)
+	{
+		super("SpinRenderThread");
+
+		this.holder = holder;
+		this.renderer = renderer;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Starts the thread and waits until it is ready to take requests.
+	 */
+	void startRendering()
+	{
+		start();
+
+		handler = new Handler(getLooper(), this);
+	}
+
+	/**
+	 * Stops the thread. Frames requested afterwards are ignored.
+	 */
+	void stopRendering()
+	{
+		setSurfaceReady(false);
+
+		quit();
+	}
+
+	void setSurfaceReady(boolean ready)
+	{
+		synchronized (surfaceLock)
+		{
+			surfaceReady = ready;
+		}
+	}
+
+	/**
+	 * Blocks until the frame being drawn, if any, is posted. Frames drawn
+	 * afterwards see whatever the caller published before calling this.
+	 */
+	void waitForFrame()
+	{
+		synchronized (surfaceLock)
+		{
+			//Nothing to do, lock is held while drawing
+		}
+	}
+
+	/**
+	 * Schedules a frame on the next vsync, unless one is already scheduled. Safe to call from any thread.
+	 */
+	void requestRender()
+	{
+		if(!surfaceReady || (handler == null) || !frameScheduled.compareAndSet(false, true))
+		{
+			return;
+		}
+
+		handler.sendEmptyMessage(MESSAGE_SCHEDULE_FRAME);
+	}
+
+	public boolean handleMessage(Message message)
+	{
+		if(message.what == MESSAGE_SCHEDULE_FRAME)
+		{
+			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+			{
+				if(vsyncScheduler == null)
+				{
+					vsyncScheduler = new VsyncScheduler(this);
+				}
+
+				vsyncScheduler.schedule();
+			}
+			else
+			{
+				//unlockCanvasAndPost() blocks until the next vsync
+				doFrame(System.nanoTime());
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	void doFrame(long frameTimeNanos)
+	{
+		boolean moreFrames = false;
+
+		frameScheduled.set(false);
+
+		synchronized (surfaceLock)
+		{
+			if(!surfaceReady)
+			{
+				return;
+			}
+
+			moreFrames = renderer.onStep(frameTimeNanos);
+
+			Canvas canvas = holder.lockCanvas();
+
+			if(canvas != null)
+			{
+				try
+				{
+					renderer.onDraw(canvas);
+				}
+				finally
+				{
+					holder.unlockCanvasAndPost(canvas);
+				}
+			}
+		}
+
+		if(moreFrames)
+		{
+			requestRender();
+		}
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	interface Renderer
+	{
+		/**
+		 * Steps the simulation up to the frame time. Called on the render thread.
+		 *
+		 * @return true if more frames are needed
+		 */
+		public abstract boolean onStep(long frameTimeNanos);
+
+		/**
+		 * Draws the frame. Called on the render thread.
+		 */
+		public abstract void onDraw(Canvas canvas);
+	}
+
+	/**
+	 * Kept in its own class, so that Choreographer is only loaded on API 16+
+	 */
+	private static class VsyncScheduler implements Choreographer.FrameCallback
+	{
+		private final SpinRenderThread thread;
+
+		VsyncScheduler(SpinRenderThread thread)
+		{
+			this.thread = thread;
+		}
+
+		void schedule()
+		{
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+		public void doFrame(long frameTimeNanos)
+		{
+			thread.doFrame(frameTimeNanos);
+		}
+	}
+}
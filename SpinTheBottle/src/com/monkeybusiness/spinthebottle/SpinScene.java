@@ -0,0 +1,475 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Many bottles spinning at once, free of any android dependency. Drawn by
+ * SpinningSceneView.
+ * </p>
+ * <p>
+ * State lives in primitive arrays indexed by bottle, and only the spinning
+ * bottles are visited, in a single loop per frame. Each bottle follows the
+ * SpinEngine rules, bit for bit, short of obstacles: scene bottles do not
+ * bounce. Thanks to the closed-form segments of SpinEngine, a frame costs the
+ * same whatever the number of steps it catches up on.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public final class SpinScene
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** As SpinEngine */
+	private static final int MAX_CATCH_UP_STEPS = 240;
+
+	private final float friction;
+
+	private int count = 0;
+
+	/*****************************************************
+	 * Per bottle
+	 */
+	private final float[] pivotX;
+	private final float[] pivotY;
+	private final float[] size;
+	/** Bitmap slot, bottles sharing one are drawn together */
+	private final int[] slot;
+
+	private final float[] rotationDegrees;
+	private final float[] rotationStepDegrees;
+	private final boolean[] rotating;
+
+	private final float[] segmentDegrees;
+	private final float[] segmentStepDegrees;
+	private final int[] segmentSteps;
+	private final int[] segmentLeaveStep;
+
+	/*****************************************************
+	 * Spinning bottles, unordered
+	 */
+	private final int[] active;
+	private int activeCount = 0;
+	/** Position of each bottle in active, -1 if at rest */
+	private final int[] activePosition;
+
+	/** Bottles stopped by friction during the last advance(long) or skip(int) */
+	private final int[] stopped;
+	private int stoppedCount = 0;
+
+	/** Bottle indices sorted by slot */
+	private final int[] drawOrder;
+	private boolean drawOrderValid = true;
+
+	/*****************************************************
+	 * Timing, shared by all bottles
+	 */
+	private long lastAdvanceNanos = -1L;
+	private long accumulatedNanos = 0L;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public SpinScene(int capacity)
+	{
+		this(capacity, SpinEngine.FRICTION);
+	}
+
+	public SpinScene(int capacity, float friction)
+	{
+		this.friction = friction;
+
+		pivotX = new float[capacity];
+		pivotY = new float[capacity];
+		size = new float[capacity];
+		slot = new int[capacity];
+
+		rotationDegrees = new float[capacity];
+		rotationStepDegrees = new float[capacity];
+		rotating = new boolean[capacity];
+
+		segmentDegrees = new float[capacity];
+		segmentStepDegrees = new float[capacity];
+		segmentSteps = new int[capacity];
+		segmentLeaveStep = new int[capacity];
+
+		active = new int[capacity];
+		activePosition = new int[capacity];
+		stopped = new int[capacity];
+		drawOrder = new int[capacity];
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Places a bottle at rest, pointing up.
+	 *
+	 * @param pivotX center of rotation, in scene pixels
+	 * @param pivotY center of rotation, in scene pixels
+	 * @param size side of the square the bottle is drawn in, centered on the pivot
+	 * @param slot bitmap slot to draw it with
+	 * @return index of the bottle
+	 */
+	public int addBottle(float pivotX, float pivotY, float size, int slot)
+	{
+		if(count == this.pivotX.length)
+		{
+			throw new IllegalStateException("Scene is full, capacity " + count);
+		}
+
+		int bottle = count++;
+
+		this.pivotX[bottle] = pivotX;
+		this.pivotY[bottle] = pivotY;
+		this.size[bottle] = size;
+		this.slot[bottle] = slot;
+
+		activePosition[bottle] = -1;
+		drawOrderValid = false;
+
+		rotateTo(bottle, 0.0f);
+
+		return bottle;
+	}
+
+	public int getBottleCount()
+	{
+		return count;
+	}
+
+	public int getActiveCount()
+	{
+		return activeCount;
+	}
+
+	public float getPivotX(int bottle)
+	{
+		return pivotX[bottle];
+	}
+
+	public float getPivotY(int bottle)
+	{
+		return pivotY[bottle];
+	}
+
+	public float getSize(int bottle)
+	{
+		return size[bottle];
+	}
+
+	public int getSlot(int bottle)
+	{
+		return slot[bottle];
+	}
+
+	public void setSlot(int bottle, int slot)
+	{
+		this.slot[bottle] = slot;
+
+		drawOrderValid = false;
+	}
+
+	public float getRotationDegrees(int bottle)
+	{
+		return rotationDegrees[bottle];
+	}
+
+	public float getRotationStepDegrees(int bottle)
+	{
+		return rotationStepDegrees[bottle];
+	}
+
+	public boolean isRotating(int bottle)
+	{
+		return rotating[bottle];
+	}
+
+	public void rotateTo(int bottle, float degrees)
+	{
+		rotationDegrees[bottle] = degrees;
+		rotationStepDegrees[bottle] = 0.0f;
+
+		beginSegment(bottle);
+	}
+
+	public void setRotationStepDegrees(int bottle, float degrees)
+	{
+		rotationStepDegrees[bottle] = degrees;
+
+		beginSegment(bottle);
+	}
+
+	public void start(int bottle)
+	{
+		if(rotating[bottle])
+		{
+			return;
+		}
+
+		if(activeCount == 0)
+		{//Clock idled along with the last bottle
+			lastAdvanceNanos = -1L;
+			accumulatedNanos = 0L;
+		}
+
+		rotating[bottle] = true;
+
+		activePosition[bottle] = activeCount;
+		active[activeCount++] = bottle;
+	}
+
+	public void stop(int bottle)
+	{
+		if(rotating[bottle])
+		{
+			rotating[bottle] = false;
+
+			deactivate(bottle);
+		}
+	}
+
+	/**
+	 * Advances every spinning bottle up to the given time, on the fixed
+	 * timestep of SpinEngine.
+	 *
+	 * @param nowNanos monotonic time stamp, e.g. System.nanoTime()
+	 * @return number of steps taken
+	 */
+	public int advance(long nowNanos)
+	{
+		if(activeCount == 0)
+		{
+			lastAdvanceNanos = -1L;
+			accumulatedNanos = 0L;
+			stoppedCount = 0;
+
+			return 0;
+		}
+
+		if(lastAdvanceNanos == -1L)
+		{
+			accumulatedNanos = SpinEngine.STEP_NANOS;
+		}
+		else
+		{
+			accumulatedNanos += nowNanos - lastAdvanceNanos;
+		}
+
+		lastAdvanceNanos = nowNanos;
+
+		long dueSteps = accumulatedNanos / SpinEngine.STEP_NANOS;
+		int steps = (int) Math.min(dueSteps, MAX_CATCH_UP_STEPS);
+
+		if(dueSteps > MAX_CATCH_UP_STEPS)
+		{//Drop the rest of the backlog
+			accumulatedNanos = 0L;
+		}
+		else
+		{
+			accumulatedNanos -= steps * SpinEngine.STEP_NANOS;
+		}
+
+		skip(steps);
+
+		return steps;
+	}
+
+	/**
+	 * Takes the given number of steps on every spinning bottle, regardless of the time.
+	 */
+	public void skip(int steps)
+	{
+		stoppedCount = 0;
+
+		if(steps <= 0)
+		{
+			return;
+		}
+
+		//Backwards, so that removing the current bottle leaves the rest to visit in place
+		for(int position = activeCount - 1; position >= 0; position--)
+		{
+			int bottle = active[position];
+
+			skipBottle(bottle, steps);
+
+			if(!rotating[bottle])
+			{
+				deactivate(bottle);
+
+				stopped[stoppedCount++] = bottle;
+			}
+		}
+	}
+
+	/**
+	 * @return number of bottles stopped by friction during the last advance(long) or skip(int)
+	 */
+	public int getStoppedCount()
+	{
+		return stoppedCount;
+	}
+
+	/**
+	 * @param index within [0, getStoppedCount())
+	 * @return bottle stopped by friction during the last advance(long) or skip(int)
+	 */
+	public int getStopped(int index)
+	{
+		return stopped[index];
+	}
+
+	/**
+	 * @return bottle indices grouped by slot, in the first getBottleCount() entries. Do not modify.
+	 */
+	public int[] getDrawOrder()
+	{
+		if(!drawOrderValid)
+		{
+			//Insertion sort; stable, and scenes are small and rarely change
+			for(int i = 0; i < count; i++)
+			{
+				int bottle = i;
+				int position = i;
+
+				while((position > 0) && (slot[drawOrder[position - 1]] > slot[bottle]))
+				{
+					drawOrder[position] = drawOrder[position - 1];
+					position--;
+				}
+
+				drawOrder[position] = bottle;
+			}
+
+			drawOrderValid = true;
+		}
+
+		return drawOrder;
+	}
+
+	/**
+	 * @return the topmost bottle whose circle contains the given point, -1 if none
+	 */
+	public int hitTest(float x, float y)
+	{
+		int[] order = getDrawOrder();
+
+		for(int i = count - 1; i >= 0; i--)
+		{
+			int bottle = order[i];
+
+			float dx = x - pivotX[bottle];
+			float dy = y - pivotY[bottle];
+			float radius = size[bottle] / 2.0f;
+
+			if(((dx * dx) + (dy * dy)) <= (radius * radius))
+			{
+				return bottle;
+			}
+		}
+
+		return -1;
+	}
+
+	private void deactivate(int bottle)
+	{
+		int position = activePosition[bottle];
+		int last = active[--activeCount];
+
+		active[position] = last;
+		activePosition[last] = position;
+		activePosition[bottle] = -1;
+	}
+
+	/**
+	 * SpinEngine.skip(int), short of obstacles.
+	 */
+	private void skipBottle(int bottle, int steps)
+	{
+		int taken = 0;
+
+		while(rotating[bottle] && (taken < steps))
+		{
+			int plainSteps = Math.min(steps - taken, segmentLeaveStep[bottle] - segmentSteps[bottle]);
+
+			if(plainSteps == 0)
+			{//Stop or reversal at hand
+				stepBottle(bottle);
+
+				taken++;
+			}
+			else
+			{
+				segmentSteps[bottle] += plainSteps;
+
+				rotationDegrees[bottle] = SpinEngine.degreesAt(friction, segmentDegrees[bottle], segmentStepDegrees[bottle], segmentSteps[bottle]);
+				rotationStepDegrees[bottle] = SpinEngine.stepDegreesAt(friction, segmentStepDegrees[bottle], segmentSteps[bottle]);
+
+				checkReversal(bottle);
+
+				taken += plainSteps;
+			}
+		}
+	}
+
+	/**
+	 * SpinEngine.step(), short of obstacles.
+	 */
+	private void stepBottle(int bottle)
+	{
+		float stepDegrees = rotationStepDegrees[bottle];
+
+		segmentSteps[bottle]++;
+		rotationDegrees[bottle] = SpinEngine.degreesAt(friction, segmentDegrees[bottle], segmentStepDegrees[bottle], segmentSteps[bottle]);
+
+		if(SpinEngine.stopsOn(stepDegrees))
+		{
+			rotating[bottle] = false;
+
+			beginSegment(bottle);
+		}
+		else
+		{
+			rotationStepDegrees[bottle] = SpinEngine.stepDegreesAt(friction, segmentStepDegrees[bottle], segmentSteps[bottle]);
+
+			checkReversal(bottle);
+		}
+	}
+
+	private void checkReversal(int bottle)
+	{
+		if((segmentSteps[bottle] == segmentLeaveStep[bottle]) && !SpinEngine.stopsOn(rotationStepDegrees[bottle]))
+		{
+			beginSegment(bottle);
+		}
+	}
+
+	private void beginSegment(int bottle)
+	{
+		segmentDegrees[bottle] = rotationDegrees[bottle];
+		segmentStepDegrees[bottle] = rotationStepDegrees[bottle];
+		segmentSteps[bottle] = 0;
+		segmentLeaveStep[bottle] = SpinEngine.leaveStep(friction, rotationStepDegrees[bottle]);
+	}
+}
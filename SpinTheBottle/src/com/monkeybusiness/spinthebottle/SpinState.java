@@ -0,0 +1,100 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Consistent copy of a bottle's spin, as read from a SpinStateRecord. Safe to
+ * hand over to any thread.
+ * </p>
+ */
+public final class SpinState
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private final long version;
+
+	private final float rotationDegrees;
+	private final float rotationStepDegrees;
+	private final boolean rotating;
+
+	private final boolean obstacle;
+	private final float obstacleDegrees;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	SpinState(long version, float rotationDegrees, float rotationStepDegrees, boolean rotating, boolean obstacle, float obstacleDegrees)
+	{
+		this.version = version;
+		this.rotationDegrees = rotationDegrees;
+		this.rotationStepDegrees = rotationStepDegrees;
+		this.rotating = rotating;
+		this.obstacle = obstacle;
+		this.obstacleDegrees = obstacleDegrees;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * @return number of states published up to this one, 0 if none yet; later states have greater versions
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	public float getRotationDegrees()
+	{
+		return rotationDegrees;
+	}
+
+	public float getRotationStepDegrees()
+	{
+		return rotationStepDegrees;
+	}
+
+	public boolean isRotating()
+	{
+		return rotating;
+	}
+
+	public boolean hasObstacle()
+	{
+		return obstacle;
+	}
+
+	/**
+	 * @return obstacle angle, meaningless unless hasObstacle()
+	 */
+	public float getObstacleDegrees()
+	{
+		return obstacleDegrees;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "v" + version + " @" + rotationDegrees + " step " + rotationStepDegrees
+				+ ((rotating)?(" rotating"):(" at rest")) + ((obstacle)?(" obstacle @" + obstacleDegrees):(""));
+	}
+}
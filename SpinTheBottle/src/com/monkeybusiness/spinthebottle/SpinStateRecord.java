@@ -0,0 +1,121 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * <p>
+ * Spin state published by the thread that owns a SpinEngine, for readers on
+ * any other thread (analytics, networking, UI buttons).
+ * </p>
+ * <p>
+ * A sequence lock: the writer bumps the sequence to odd, writes the fields,
+ * and bumps it back to even. Readers retry until they see the same even
+ * sequence before and after reading the fields, so they never observe a torn
+ * state and never block the writer. Publishing neither locks nor allocates.
+ * </p>
+ * <p>
+ * One writer at a time; callers serialize publish(...) themselves, e.g. under
+ * the lock guarding the engine.
+ * </p>
+ */
+public final class SpinStateRecord
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Odd while a write is in progress */
+	private volatile long sequence = 0L;
+
+	//Volatile as well, so that field reads are not reordered around the sequence reads
+	private volatile float rotationDegrees = 0.0f;
+	private volatile float rotationStepDegrees = 0.0f;
+	private volatile boolean rotating = false;
+	private volatile boolean obstacle = false;
+	private volatile float obstacleDegrees = 0.0f;
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public void publish(SpinEngine engine)
+	{
+		publish(engine.getRotationDegrees(), engine.getRotationStepDegrees(), engine.isRotating(), engine.hasObstacle(), engine.getObstacleDegrees());
+	}
+
+	public void publish(float rotationDegrees, float rotationStepDegrees, boolean rotating, boolean obstacle, float obstacleDegrees)
+	{
+		long start = sequence + 1L;
+
+		sequence = start;
+
+		this.rotationDegrees = rotationDegrees;
+		this.rotationStepDegrees = rotationStepDegrees;
+		this.rotating = rotating;
+		this.obstacle = obstacle;
+		this.obstacleDegrees = obstacleDegrees;
+
+		sequence = start + 1L;
+	}
+
+	/**
+	 * @return the latest published state, consistent as a whole
+	 */
+	public SpinState read()
+	{
+		while(true)
+		{
+			long start = sequence;
+
+			if((start & 1L) != 0L)
+			{//Write in progress
+				Thread.yield();
+
+				continue;
+			}
+
+			float rotationDegrees = this.rotationDegrees;
+			float rotationStepDegrees = this.rotationStepDegrees;
+			boolean rotating = this.rotating;
+			boolean obstacle = this.obstacle;
+			float obstacleDegrees = this.obstacleDegrees;
+
+			if(sequence == start)
+			{
+				return new SpinState(start / 2L, rotationDegrees, rotationStepDegrees, rotating, obstacle, obstacleDegrees);
+			}
+		}
+	}
+
+	/**
+	 * A single field is never torn, so this skips the sequence check of read().
+	 *
+	 * @return the latest published rotation
+	 */
+	public float getRotationDegrees()
+	{
+		return rotationDegrees;
+	}
+
+	/**
+	 * @return number of states published so far
+	 */
+	public long getVersion()
+	{
+		return sequence / 2L;
+	}
+}
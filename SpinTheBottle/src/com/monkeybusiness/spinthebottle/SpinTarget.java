@@ -0,0 +1,45 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+/**
+ * Something spinning, that a SpinGesture can drive. Implemented by
+ * SpinningDrawableView, SpinningSurfaceView and HeadlessSpinTarget.
+ */
+public interface SpinTarget
+{
+	public abstract int getWidth();
+
+	public abstract int getHeight();
+
+	public abstract float getRotationDegree();
+
+	public abstract void rotateTo(float degrees);
+
+	public abstract void setRotationStepDegrees(float degrees);
+
+	public abstract void startRotating();
+
+	public abstract void stopRotating();
+
+	/**
+	 * @param finger pointer id of the finger, within [0, SpinEngine.MAX_FINGERS)
+	 */
+	public abstract void setObstacle(int finger, float degrees);
+
+	public abstract void clearObstacle(int finger);
+}
@@ -0,0 +1,274 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Records touches fed to a spinning view and the spin state of every frame,
+ * so that a session can be replayed headless (see tools/TraceReplayer).
+ * </p>
+ * <p>
+ * Binary, big endian layout:
+ * </p>
+ * <pre>
+ * header: int MAGIC, int VERSION, int view width, int view height, byte fixed point physics
+ * touch:  byte RECORD_TOUCH, byte action (ACTION_*), byte pointer id, short sample count,
+ *         sample count x (float x, float y, long event time millis); historical samples first.
+ *         One record per pointer of a move, none for pointers beyond SpinGesture.MAX_POINTERS.
+ * frame:  byte RECORD_FRAME, long frame time nanos, float rotation degrees,
+ *         float rotation step degrees, byte rotating
+ * engine: byte RECORD_ENGINE, byte fixed point physics; from then on
+ * obstacle added:   byte RECORD_OBSTACLE_ADD, int key, float degrees
+ * obstacle removed: byte RECORD_OBSTACLE_REMOVE, int key
+ *         Fixed obstacles, keys as the recording view's addFixedObstacle(float) returned them.
+ * </pre>
+ * <p>
+ * Safe to call from the UI and render threads at once. I/O errors stop the
+ * recording, rather than the app; see checkError().
+ * </p>
+ */
+public class SpinTraceWriter
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final int MAGIC = 0x53544254;	//"STBT"
+	/**
+	 * 2: closed-form spin segments, frames of version 1 no longer replay bit for bit.
+	 * 3: pointer ids and ACTION_CANCEL, for several fingers at once.
+	 * 4: engine mode, float or fixed point physics; fixed obstacles.
+	 */
+	public static final int VERSION = 4;
+
+	public static final byte RECORD_TOUCH = 1;
+	public static final byte RECORD_FRAME = 2;
+	public static final byte RECORD_ENGINE = 3;
+	public static final byte RECORD_OBSTACLE_ADD = 4;
+	public static final byte RECORD_OBSTACLE_REMOVE = 5;
+
+	public static final byte ACTION_DOWN = 0;
+	public static final byte ACTION_MOVE = 1;
+	public static final byte ACTION_UP = 2;
+	/** Every pointer left, nothing tossed; no samples */
+	public static final byte ACTION_CANCEL = 3;
+
+	private final DataOutputStream output;
+
+	private IOException error = null;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	/**
+	 * @param fixedPoint physics the session starts on; the views also record theirs once given the writer
+	 */
+	public SpinTraceWriter(OutputStream output, int viewWidth, int viewHeight, boolean fixedPoint) throws IOException
+	{
+		this.output = new DataOutputStream(new BufferedOutputStream(output, 16 * 1024));
+
+		this.output.writeInt(MAGIC);
+		this.output.writeInt(VERSION);
+		this.output.writeInt(viewWidth);
+		this.output.writeInt(viewHeight);
+		this.output.writeByte((fixedPoint)?(1):(0));
+	}
+
+	public SpinTraceWriter(OutputStream output, int viewWidth, int viewHeight) throws IOException
+	{
+		this(output, viewWidth, viewHeight, false);
+	}
+
+	public SpinTraceWriter(File file, int viewWidth, int viewHeight) throws IOException
+	{
+		this(new FileOutputStream(file), viewWidth, viewHeight, false);
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Starts a touch record; exactly sampleCount touchSample(...) calls must follow,
+	 * while holding the writer's lock.
+	 *
+	 * @param action one of ACTION_DOWN, ACTION_MOVE, ACTION_UP or ACTION_CANCEL
+	 * @param pointerId within [0, SpinGesture.MAX_POINTERS)
+	 */
+	public synchronized void beginTouch(byte action, int pointerId, int sampleCount)
+	{
+		if(error != null)
+		{
+			return;
+		}
+
+		try
+		{
+			output.writeByte(RECORD_TOUCH);
+			output.writeByte(action);
+			output.writeByte(pointerId);
+			output.writeShort(sampleCount);
+		}
+		catch(IOException e)
+		{
+			error = e;
+		}
+	}
+
+	public synchronized void touchSample(float x, float y, long timeMillis)
+	{
+		if(error != null)
+		{
+			return;
+		}
+
+		try
+		{
+			output.writeFloat(x);
+			output.writeFloat(y);
+			output.writeLong(timeMillis);
+		}
+		catch(IOException e)
+		{
+			error = e;
+		}
+	}
+
+	/**
+	 * Records the state right after the engine advanced to the given frame time.
+	 */
+	public synchronized void frame(long frameTimeNanos, float rotationDegrees, float rotationStepDegrees, boolean rotating)
+	{
+		if(error != null)
+		{
+			return;
+		}
+
+		try
+		{
+			output.writeByte(RECORD_FRAME);
+			output.writeLong(frameTimeNanos);
+			output.writeFloat(rotationDegrees);
+			output.writeFloat(rotationStepDegrees);
+			output.writeByte((rotating)?(1):(0));
+		}
+		catch(IOException e)
+		{
+			error = e;
+		}
+	}
+
+	/**
+	 * Records a switch between float and fixed point physics, see SpinEngine.setFixedPoint(boolean).
+	 */
+	public synchronized void engine(boolean fixedPoint)
+	{
+		if(error != null)
+		{
+			return;
+		}
+
+		try
+		{
+			output.writeByte(RECORD_ENGINE);
+			output.writeByte((fixedPoint)?(1):(0));
+		}
+		catch(IOException e)
+		{
+			error = e;
+		}
+	}
+
+	/**
+	 * Records a fixed obstacle placed on the table.
+	 *
+	 * @param key as addFixedObstacle(float) returned it
+	 */
+	public synchronized void addObstacle(int key, float degrees)
+	{
+		if(error != null)
+		{
+			return;
+		}
+
+		try
+		{
+			output.writeByte(RECORD_OBSTACLE_ADD);
+			output.writeInt(key);
+			output.writeFloat(degrees);
+		}
+		catch(IOException e)
+		{
+			error = e;
+		}
+	}
+
+	/**
+	 * @param key of a fixed obstacle recorded by addObstacle(int, float)
+	 */
+	public synchronized void removeObstacle(int key)
+	{
+		if(error != null)
+		{
+			return;
+		}
+
+		try
+		{
+			output.writeByte(RECORD_OBSTACLE_REMOVE);
+			output.writeInt(key);
+		}
+		catch(IOException e)
+		{
+			error = e;
+		}
+	}
+
+	/**
+	 * Flushes and closes the trace.
+	 */
+	public synchronized void close()
+	{
+		try
+		{
+			output.close();
+		}
+		catch(IOException e)
+		{
+			if(error == null)
+			{
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * @return first I/O error hit, null if none. The trace is cut short there.
+	 */
+	public synchronized IOException checkError()
+	{
+		return error;
+	}
+}
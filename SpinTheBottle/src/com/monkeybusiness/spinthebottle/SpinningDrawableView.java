@@ -1,791 +1,1518 @@
-/* 
- *  Copyright 2012 Gökhan Barış Aker
- *
- *  Licensed under the Apache License, Version 2.0 (the "License");
- *  you may not use this file except in compliance with the License.
- *  You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
- */
-
-package com.monkeybusiness.spinthebottle;
-
-import android.app.Activity;
-import android.content.Context;
-import android.content.res.TypedArray;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.drawable.BitmapDrawable;
-import android.util.AttributeSet;
-import android.util.DisplayMetrics;
-import android.view.MotionEvent;
-import android.view.View;
-
-public class SpinningDrawableView extends View 
-{
-	/******************************************************
-	 *************** @category Variables ******************
-	 *****************************************************/
-	
-	/******************************************************
-	 * Log
-	 */
-	private static final String TAG = "SpinningDrawableView";
-	private static final boolean LOG = false;
-	
-	/*****************************************************
-	 * Rotation
-	 */
-	public static final float MAX_ROTATION_DEGREES = 60.0f;
-	public static final float MIN_ROTATION_DEGREES = 0.0f;
-	
-	private static final float DEGREES_PER_PERIOD = 360.0f;
-	private static final float DEGREES_PER_QUARTER_PERIOD = DEGREES_PER_PERIOD / 4.0f;
-	private static final float DEGREES_PER_HALF_PERIOD = DEGREES_PER_PERIOD / 2.0f;
-	private static final float DEGREES_PER_THREE_QUARTER_PERIOD = (DEGREES_PER_PERIOD * 3.0f) / 4.0f;
-	
-	private float rotationDegrees = 0;
-	private float rotationStepDegrees;
-	
-
-	private float rotationPivotXCoefficient = 0.5f;	//Middle by default
-	private float rotationPivotYCoefficient = 0.5f;	//Middle by default
-	
-	private int rotationPivotX;
-	private int rotationPivotY;
-	
-	private boolean rotating = false;
-	
-	/****************************************************
-	 * Friction
-	 */
-	private static final float FRICTION = 0.5f;
-	
-	/****************************************************
-	 * Obstacle
-	 */
-	private static final float BOUNCE_ENERGY_COEFFICIENT = 0.2f;
-	
-	private boolean obstacleExists = false;
-	
-	/****************************************************
-	 * GUI
-	 */
-	private int drawableId = -1;
-	private BitmapDrawable drawable = null;
-	private static Matrix matrix = new Matrix();
-	
-	/******************************************************
-	 * ???
-	 */
-
-	private static final int TOUCH_NOT 		= 0;
-	private static final int TOUCH_TOP  	= 1;
-	private static final int TOUCH_BOTTOM 	= 2;
-	
-	private int touchState;
-	
-	private float formerAngle = 0.0f;
-	private long formerTime = -1L;
-	private float succeedingAngle = 0.0f;
-	private long succeedingTime = -1L;
-	
-
-	private static final float ARC_OF_TOLERANCE = 30.0f; //in degrees
-	
-	private static final float VELOCITY_MAX = 1.0f;
-	
-	private float angle1;
-	private float angle2;
-	private float angle3;
-	
-	private OnStartRotatingListener onStartRotatingListener;
-	private OnStopRotatingListener onStopRotatingListener;
-
-	/******************************************************
-	 ***************** @category Constructors *************
-	 *****************************************************/
-	
-	public SpinningDrawableView(Context context) 
-	{
-		super(context);
-		
-        setOnTouchListener(new SwipeDetector());
-	}
-	
-	public SpinningDrawableView(Context context, AttributeSet attrs) 
-	{
-        this(context, attrs, 0);
-        
-        setOnTouchListener(new SwipeDetector());
-    }
-    
-    public SpinningDrawableView(Context context, AttributeSet attrs, int defStyle) 
-    {
-        super(context, attrs, defStyle);
-        
-        //Initilize view according to pre-hints provided via xml
-        init(attrs);
-        
-        setOnTouchListener(new SwipeDetector());
-    }
-    
-    /******************************************************
-	 ***************** @category Methods ******************
-	 *****************************************************/
-    
-	/* (non-Javadoc)
-	 * @see android.view.View#onMeasure(int, int)
-	 */
-	@Override
-	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) 
-	{
-		//setMeasuredDimension(drawable.getBitmap().getWidth(), drawable.getBitmap().getHeight());
-		
-		/*
-		 * TODO check wrap content datas
-		 */
-		
-		int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
-		int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
-
-		//Square by nature
-		width = height = Math.min(width, height);
-
-		setMeasuredDimension(width, height);
-
-		if((drawableId != -1) && (drawable == null))
-		{
-			setResourceDrawable(drawableId);
-		}
-	}
-	
-	private void init(AttributeSet attrs) 
-	{
-		TypedArray a = getContext().obtainStyledAttributes(attrs, R.styleable.spinthebottle);
-
-		//Fetch resource drawable id if defined
-		drawableId = a.getResourceId(R.styleable.spinthebottle_bottle_drawable, -1);
-
-		//Remove artifacts
-		a.recycle();
-	}
-	
-	private DisplayMetrics initializeMetrics() 
-	{
-		// Define metrics for hardware configuration
-		DisplayMetrics metrics = new DisplayMetrics();
-		((Activity) getContext()).getWindowManager().getDefaultDisplay().getMetrics(metrics);
-
-		return metrics;
-	}
-
-	/* (non-Javadoc)
-	 * @see android.view.View#onDraw(android.graphics.Canvas)
-	 */
-	protected void onDraw(Canvas canvas) 
-	{
-		if(drawable != null)
-		{
-			synchronized (this) 
-			{
-				updateRotationDegree();
-			}
-			
-			matrix.reset();
-			
-			matrix.setRotate(rotationDegrees, rotationPivotX, rotationPivotY);
-			
-			canvas.drawBitmap(drawable.getBitmap(), matrix, null);
-			
-			if(rotating)
-			{
-				invalidate();
-			}
-		}
-	}
-
-	private void updateRotationDegree()
-	{
-		if(obstacleExists)
-		{
-			if(rotationStepDegrees > 0)
-			{//If rotating to clockwise
-				
-				//Top
-				angle1 = Float.valueOf((rotationDegrees + ARC_OF_TOLERANCE) % DEGREES_PER_PERIOD);
-				//Obstacle
-				angle2 = Float.valueOf(succeedingAngle);
-				//Bottom
-				angle3 = Float.valueOf((rotationDegrees + ARC_OF_TOLERANCE + DEGREES_PER_HALF_PERIOD) % DEGREES_PER_PERIOD);
-				
-				if(angle2 < DEGREES_PER_QUARTER_PERIOD)
-				{
-					//If shifting required,
-					if((angle1 >= DEGREES_PER_THREE_QUARTER_PERIOD) || (angle3 >= DEGREES_PER_THREE_QUARTER_PERIOD))
-					{
-						//shift each angle by Period/4
-						angle1 += DEGREES_PER_QUARTER_PERIOD;
-						angle1 %= DEGREES_PER_PERIOD;
-						
-						angle3 += DEGREES_PER_QUARTER_PERIOD;
-						angle3 %= DEGREES_PER_PERIOD;
-					
-						angle2 += DEGREES_PER_QUARTER_PERIOD;
-					}
-				}
-				
-				if((angle2 > angle1) && (angle2 < (angle1 + rotationStepDegrees)))
-				{//If within the range of succeeding step					
-					//Make bottle hit the obstacle
-					rotationDegrees = succeedingAngle - ARC_OF_TOLERANCE;
-					rotationDegrees += (rotationDegrees < 0.0f)?(DEGREES_PER_PERIOD):(0.0f);
-					rotationStepDegrees = -(rotationStepDegrees * BOUNCE_ENERGY_COEFFICIENT);				
-				}
-				else if((angle2 > angle3) && (angle2 < (angle3 + rotationStepDegrees)))
-				{//If within the range of succeeding step
-					//Make bottle hit the obstacle
-					rotationDegrees = (succeedingAngle - ARC_OF_TOLERANCE + DEGREES_PER_HALF_PERIOD) % DEGREES_PER_PERIOD;
-					rotationStepDegrees = -(rotationStepDegrees * BOUNCE_ENERGY_COEFFICIENT);				
-				}
-				else
-				{
-					//Succeed rotation degrees
-					rotationDegrees += rotationStepDegrees;
-					//putRotation around unit circle
-					if(rotationDegrees < 0)
-					{
-						rotationDegrees += DEGREES_PER_PERIOD;
-					}
-					else
-					{
-						rotationDegrees %= DEGREES_PER_PERIOD;
-					}
-				
-					applyFriction();
-				}
-			}
-			else if(rotationStepDegrees < 0)
-			{//If rotating to counter-clockwise
-				
-				//Top
-				angle1 = Float.valueOf(rotationDegrees - ARC_OF_TOLERANCE);
-				angle1 += (angle1 < 0.0f)?(DEGREES_PER_PERIOD):(0.0f);
-				//Obstacle
-				angle2 = Float.valueOf(succeedingAngle);
-				//Bottom
-				angle3 = Float.valueOf((rotationDegrees - ARC_OF_TOLERANCE + DEGREES_PER_HALF_PERIOD) % DEGREES_PER_PERIOD);
-				
-				if(angle2 > DEGREES_PER_THREE_QUARTER_PERIOD)
-				{
-					//If shifting required,
-					if((angle1 < DEGREES_PER_QUARTER_PERIOD) || (angle3 < DEGREES_PER_QUARTER_PERIOD))
-					{
-						//shift each angle by Period/4
-						angle2 += DEGREES_PER_QUARTER_PERIOD;
-						angle2 %= DEGREES_PER_PERIOD;
-					
-						angle1 += DEGREES_PER_QUARTER_PERIOD;
-						angle3 += DEGREES_PER_QUARTER_PERIOD;
-					}
-				}
-				
-				if((angle2 < angle1) && (angle2 > (angle1 + rotationStepDegrees)))
-				{//If within the range of succeeding step
-					//Make bottle hit the obstacle
-					rotationDegrees = (succeedingAngle + ARC_OF_TOLERANCE) % DEGREES_PER_PERIOD;
-					rotationStepDegrees = -(rotationStepDegrees * BOUNCE_ENERGY_COEFFICIENT);				
-				}
-				else if((angle2 < angle3) && (angle2 > (angle3 + rotationStepDegrees)))
-				{//If within the range of succeeding step
-					//Make bottle hit the obstacle
-					rotationDegrees = (succeedingAngle + ARC_OF_TOLERANCE + DEGREES_PER_HALF_PERIOD) % DEGREES_PER_PERIOD;
-					rotationStepDegrees = -(rotationStepDegrees * BOUNCE_ENERGY_COEFFICIENT);				
-				}
-				else
-				{
-					//Succeed rotation degrees
-					rotationDegrees += rotationStepDegrees;
-					//putRotation around unit circle
-					if(rotationDegrees < 0)
-					{
-						rotationDegrees += DEGREES_PER_PERIOD;
-					}
-					else
-					{
-						rotationDegrees %= DEGREES_PER_PERIOD;
-					}
-				
-					applyFriction();
-				}
-			}
-		}
-		else
-		{
-			//Succeed rotation degrees
-			rotationDegrees += rotationStepDegrees;
-			//putRotation around unit circle
-			if(rotationDegrees < 0)
-			{
-				rotationDegrees += DEGREES_PER_PERIOD;
-			}
-			else
-			{
-				rotationDegrees %= DEGREES_PER_PERIOD;
-			}
-					
-			applyFriction();
-		}
-	}
-	
-	/**
-	 * <p>
-	 * Simulates the friction effect applied by gravity and surface to the bottle
-	 * </p>
-	 * <p>
-	 * Decelerate rotation speed by RotateView2.FRICTION at each call
-	 * </p>
-	 */
-	private void applyFriction() 
-	{
-		if(MIN_ROTATION_DEGREES == Math.round(rotationStepDegrees))
-		{
-			stopRotating();
-		}
-		else
-		{
-			//Apply friction
-			rotationStepDegrees += (rotationStepDegrees < 0)?FRICTION:-FRICTION;
-		}
-	}
-
-	/**
-	 * Update bitmap object with new bitmap.
-	 * 
-	 * @param bitmap new bitmap data to spin
-	 * @param optimizeBitmap boolean flag indicating, if bitmap should be resized for better memory management or not. Set to true if you have no idea what you are doing :).
-	 */
-	public void setBitmap(Bitmap bitmap, boolean optimizeBitmap)
-	{
-		setDrawable(new BitmapDrawable(bitmap), optimizeBitmap);
-	}
-	
-	/**
-	 * Updates drawable reference of the view.
-	 * 
-	 * @param drawable new drawable source
-	 * @param optimizeDrawable boolean flag indicating, if drawable should be resized for better memory management or not. Set to true if you have no idea what you are doing :)
-	 */
-	public void setDrawable(BitmapDrawable drawable, boolean optimizeDrawable)
-	{
-		//Break bonds with old drawable
-		if(this.drawable != null)
-		{
-			if(this.drawable.getBitmap() != null)
-			{
-				this.drawable.getBitmap().recycle();
-			}
-			
-			this.drawable.setCallback(null);
-			unscheduleDrawable(this.drawable);
-			this.drawable = null;
-			
-			//Clear the orphan artifacts of ancient bitmap object
-			System.gc();
-		}
-		
-		//Must optimize new drawable's bitmap, in order to maintain peace at memory ^^^
-		//get new drawable's bitmap instance
-		Bitmap originalBitmap = drawable.getBitmap();
-		
-		//If drawable is not empty inside
-		if(originalBitmap != null)
-		{
-			int targetWidth = getMeasuredWidth();
-			int targetHeight = getMeasuredHeight();
-			
-			//Check if any optimization necessary
-			if( optimizeDrawable && !((originalBitmap.getWidth() == targetWidth) && (originalBitmap.getHeight() == targetHeight)) )
-			{//Do the optimization
-				Bitmap optimizedBitmap = Bitmap.createBitmap(originalBitmap, 0, 0, targetWidth, targetHeight);
-				//Create optimized drawable and update its bitmap, then update SpinningDrawableView.drawable.
-				this.drawable = new BitmapDrawable(optimizedBitmap);
-				this.drawable.setCallback(this);
-				
-				//Break bonds with non-optimized drawable
-				originalBitmap.recycle();
-				drawable.setCallback(null);
-				unscheduleDrawable(drawable);
-				drawable = null;
-				
-				//Clear the orphan artifacts of ancient bitmap object
-				System.gc();
-			}
-			else
-			{//No need to optimization
-				//Just update the reference
-				this.drawable = drawable;
-				this.drawable.setCallback(this);
-			}
-			
-			//Update rotation data
-			rotationPivotX = (int) (drawable.getBitmap().getWidth() * rotationPivotXCoefficient);
-			rotationPivotY = (int) (drawable.getBitmap().getHeight() * rotationPivotYCoefficient);
-		}
-		
-		invalidate();
-	}
-	
-	/**
-	 * Initializes drawable bitmap from resources. Unlike setDrawable( Drawable ), 
-	 * It optimizes bitmap on the first run. Thus a better memory management :P
-	 * 
-	 * @param resourceId
-	 */
-	public void setResourceDrawable(int resourceId)
-	{
-		drawableId = resourceId;
-		
-		//Initialize options
-    	BitmapFactory.Options options = new BitmapFactory.Options();
-    	
-    	int imageDimension = getImageDimension(resourceId);
-    	
-    	DisplayMetrics metrics = initializeMetrics();
-    	
-    	//Modify options
-    	options.inJustDecodeBounds = false;
-    	options.inSampleSize = 1;//calculateSampleSize(metrics.widthPixels);
-    	options.inScaled = true;
-    	options.inTargetDensity = (int) (metrics.densityDpi * calculateFrameAndDrawableRatioCoefficient(getMeasuredWidth(), imageDimension));
-    	options.inPurgeable = false;
-    	options.inDensity = metrics.densityDpi;
-    	
-    	// Create bitmap with drawableId using options
-    	Bitmap bitmap = BitmapFactory.decodeResource(getResources(), drawableId, options);
-    	
-    	//Update view's bitmap object without optimization as we done it above.
-    	setBitmap(bitmap, false);
-	}
-	
-	private int getImageDimension(int resourceId)
-    {
-		BitmapFactory.Options options = new BitmapFactory.Options();
-		
-		//set decode only bounds
-		options.inJustDecodeBounds = true;
-		
-		BitmapFactory.decodeResource(getResources(), resourceId, options);
-		
-		return (Math.max(options.outWidth, options.outHeight));
-    }
-	
-	private float calculateFrameAndDrawableRatioCoefficient(int preferredDimension, int drawableDimension)
-    {
-		return ((float) preferredDimension / (float) drawableDimension);
-    }
-	
-	public void setRotationStepDegrees(float degrees)
-	{
-		this.rotationStepDegrees = degrees;
-	}
-	
-	private float getRotationStepDegrees()
-	{
-		return this.rotationStepDegrees;
-	}
-	
-	public void rotateTo(float degrees)
-	{
-		rotationDegrees = degrees;
-		rotationStepDegrees = 0.0f;
-		
-		invalidate();
-	}
-	
-	public void startRotating()
-	{
-		rotating = true;
-		
-		if(onStartRotatingListener != null)
-		{
-			onStartRotatingListener.onStart(getRotationStepDegrees());
-		}
-		
-		invalidate();
-	}
-	
-	public void stopRotating()
-	{
-		if(rotating && (onStopRotatingListener != null))
-		{
-			onStopRotatingListener.onStop(rotationDegrees);
-		}
-		
-		rotating = false;
-	}
-	
-	private float calculateAngularVelocity()
-	{
-		float velocity = 0.0f;
-		
-		if(formerTime != -1L)
-		{
-			float angularDistance = succeedingAngle - formerAngle;
-			
-			//Fix for circular property of angle
-			if(angularDistance < -180)
-			{
-				angularDistance += DEGREES_PER_PERIOD;
-			}
-			//Again another fix for circular property;
-			else if(angularDistance > 180)
-			{
-				angularDistance = Math.abs(angularDistance - DEGREES_PER_PERIOD);
-			}
-			
-			float elapsedTime = (float) (succeedingTime - formerTime);
-			
-			velocity = angularDistance / elapsedTime;
-		}
-		
-		return velocity;
-	}
-	
-	public void setOnStartRotatingListener(OnStartRotatingListener listener)
-	{
-		this.onStartRotatingListener = listener;
-	}
-	
-	public void setOnStopRotatingListener(OnStopRotatingListener listener)
-	{
-		this.onStopRotatingListener = listener;
-	}
-	
-	/**
-	 * Sets initial rotation degree. Set a value between
-	 * SpinningDrawableView.MAX_ROTATION_DEGREES and SpinningDrawableView.MIN_ROTATION_DEGREES
-	 * 
-	 * @param rotationSpeed Angular rotation speed
-	 */
-	public void setRotationSpeed(float rotationSpeed) 
-	{
-		this.rotationStepDegrees = rotationSpeed;
-	}
-
-	/**
-	 * 
-	 * @return Image rotation angle
-	 */
-	public float getRotationDegree() 
-	{
-		return this.rotationDegrees;
-	}
-	
-	/******************************************************
-	 *************** @category Subclasses******************
-	 *****************************************************/
-	
-	class SwipeDetector implements View.OnTouchListener
-	{
-		public boolean onTouch(View v, MotionEvent event) 
-		{
-			switch(event.getAction()) 
-			{
-				case MotionEvent.ACTION_DOWN:
-				{
-					touchState = isInTouchWithObject(event);
-					
-					switch(touchState)
-					{
-						case TOUCH_TOP:
-						{
-							stopRotating();
-							
-							float x =  (event.getX() - (getWidth()  / 2));
-							float y = -(event.getY() - (getHeight() / 2));
-							
-							succeedingAngle = -((float) Math.toDegrees(Math.atan2(y,x))) + 90;
-							succeedingAngle += (succeedingAngle < 0)?(DEGREES_PER_PERIOD):(0);
-							succeedingTime = System.currentTimeMillis();
-							
-							rotateTo(succeedingAngle);
-							
-							break;
-						}
-						case TOUCH_BOTTOM:
-						{
-							stopRotating();
-							
-							float x =  (event.getX() - (getWidth()  / 2));
-							float y = -(event.getY() - (getHeight() / 2));
-							
-							succeedingAngle = -((float) Math.toDegrees(Math.atan2(y,x))) - 90;
-							succeedingAngle += (succeedingAngle < 0)?(DEGREES_PER_PERIOD):(0);
-							succeedingTime = System.currentTimeMillis();
-							
-							rotateTo(succeedingAngle);
-							
-							break;
-						}
-						case TOUCH_NOT:
-						{
-							float x =  (event.getX() - (getWidth()  / 2));
-							float y = -(event.getY() - (getHeight() / 2));
-							
-							succeedingAngle = -((float) Math.toDegrees(Math.atan2(y,x))) + 90;
-							succeedingAngle += (succeedingAngle < 0)?(DEGREES_PER_PERIOD):(0);
-							succeedingTime = System.currentTimeMillis();
-							
-							obstacleExists = true;
-							
-							break;
-						}
-					}
-					
-					break;
-				}
-				case MotionEvent.ACTION_MOVE:
-				{
-					switch(touchState) 
-					{
-						case TOUCH_TOP:
-						{
-							formerAngle = succeedingAngle;
-							formerTime = succeedingTime;
-							
-							float x =  (event.getX() - (getWidth()  / 2));
-							float y = -(event.getY() - (getHeight() / 2));
-							
-							succeedingAngle = -((float) Math.toDegrees(Math.atan2(y,x))) + 90;
-							succeedingAngle += (succeedingAngle < 0)?(DEGREES_PER_PERIOD):(0);
-							succeedingTime = System.currentTimeMillis();
-							
-							rotateTo(succeedingAngle);
-							
-							break;
-						}
-						case TOUCH_BOTTOM:
-						{
-							formerAngle = succeedingAngle;
-							formerTime = succeedingTime;
-							
-							float x =  (event.getX() - (getWidth()  / 2));
-							float y = -(event.getY() - (getHeight() / 2));
-							
-							succeedingAngle = -((float) Math.toDegrees(Math.atan2(y,x))) - 90;
-							succeedingAngle += (succeedingAngle < 0)?(DEGREES_PER_PERIOD):(0);
-							succeedingTime = System.currentTimeMillis();
-							
-							rotateTo(succeedingAngle);
-							
-							break;
-						}
-						case TOUCH_NOT:
-						{
-							formerAngle = succeedingAngle;
-							formerTime = succeedingTime;
-							
-							float x =  (event.getX() - (getWidth()  / 2));
-							float y = -(event.getY() - (getHeight() / 2));
-							
-							succeedingAngle = -((float) Math.toDegrees(Math.atan2(y,x))) + 90;
-							succeedingAngle += (succeedingAngle < 0)?(DEGREES_PER_PERIOD):(0);
-							succeedingTime = System.currentTimeMillis();
-							
-							obstacleExists = true;
-							
-							break;
-						}
-					}
-					
-					break;
-				}
-				case MotionEvent.ACTION_UP:
-				{
-					//If placed an obstacle before remove it.
-					if(obstacleExists)
-					{
-						obstacleExists = false;
-					}
-					
-					//If object tossed
-					if((touchState != TOUCH_NOT) && (formerTime != -1L))
-					{
-						float velocity = calculateAngularVelocity();
-					    
-					    if(velocity > VELOCITY_MAX)
-					    {//Rotate with maximum speed
-					    	setRotationStepDegrees(MAX_ROTATION_DEGREES);
-					    }
-					    else if(velocity < -VELOCITY_MAX)
-					    {//Rotate with maximum speed
-					    	setRotationStepDegrees(-MAX_ROTATION_DEGREES);
-					    }
-					    else
-					    {
-					    	setRotationStepDegrees(MAX_ROTATION_DEGREES * velocity);
-					    }
-					    
-				    	startRotating();
-					}
-					
-					//reset artifacts
-					formerTime = -1L;
-					succeedingTime = -1L;
-					
-					break;
-				}
-				default:
-				{
-					return false;
-				}
-			}
-			
-			return true;
-		}
-
-		private int isInTouchWithObject(MotionEvent event) 
-		{
-			float x =  (event.getX() - (getWidth()  / 2));
-			float y = -(event.getY() - (getHeight() / 2));
-			
-			float degrees = -((float) Math.toDegrees(Math.atan2(y,x))) + 90;
-			
-			float currentObjectAngle = (rotationDegrees < 0)?(rotationDegrees + DEGREES_PER_PERIOD):rotationDegrees;
-			
-			if(Math.abs(currentObjectAngle - degrees) < ARC_OF_TOLERANCE)
-			{
-				return TOUCH_TOP;
-			}
-			else if(Math.abs(currentObjectAngle - degrees - DEGREES_PER_PERIOD) < ARC_OF_TOLERANCE)
-			{
-				return TOUCH_TOP;
-			}
-			else if(Math.abs((Math.abs(currentObjectAngle - degrees) - 180)) < ARC_OF_TOLERANCE)
-			{
-				return TOUCH_BOTTOM;
-			}
-			
-			return TOUCH_NOT;
-		}
-	}
-	
-	public interface OnStopRotatingListener
-	{
-		public abstract void onStop(float stopAngle);
-	}
-	
-	public interface OnStartRotatingListener
-	{
-		public abstract void onStart(float angularVelocity);
-	}
-}
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.concurrent.Executor;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+public class SpinningDrawableView extends View implements SpinTarget
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+	
+	/******************************************************
+	 * Log
+	 */
+	private static final String TAG = "SpinningDrawableView";
+	private static final boolean LOG = false;
+	
+	/*****************************************************
+	 * Rotation
+	 */
+	public static final float MAX_ROTATION_DEGREES = SpinEngine.MAX_ROTATION_DEGREES;
+	public static final float MIN_ROTATION_DEGREES = SpinEngine.MIN_ROTATION_DEGREES;
+	
+	private final SpinEngine engine = new SpinEngine();
+	
+	/** Engine state for readers on other threads, published after every update */
+	private final SpinStateRecord state = new SpinStateRecord();
+	
+	/** Drag input, applied to the engine once per frame */
+	private final CoalescedInput input = new CoalescedInput();
+	
+	private final SwipeDetector swipeDetector = new SwipeDetector(this);
+	
+	/** Optional, records touches and frames for a headless replay */
+	private SpinTraceWriter traceWriter = null;
+	
+	/** Optional, every simulated step for a listener */
+	private SpinProgress progress = null;
+	
+	/** Optional, per-frame timings */
+	private SpinMetrics metrics = null;
+	/** Time of the previous frame of the spin, -1 if none yet */
+	private long metricsLastFrameNanos = -1L;
+	/** Spin in progress, summed up into metrics once it ends */
+	private boolean metricsInSpin = false;
+	private long metricsSpinFrames;
+	private long metricsSpinMaxFrameGapNanos;
+	
+	/*****************************************************
+	 * Frame, stepped by stepFrame() before each traversal's draw
+	 */
+	private final FrameStepper frameStepper = new FrameStepper();
+	
+	private boolean frameStepped = false;
+	private boolean frameWasRotating;
+	private long frameTimeStampNanos;
+	private long framePhysicsNanos;
+	
+
+	private float rotationPivotXCoefficient = 0.5f;	//Middle by default
+	private float rotationPivotYCoefficient = 0.5f;	//Middle by default
+	
+	private int rotationPivotX;
+	private int rotationPivotY;
+	
+	/****************************************************
+	 * GUI
+	 */
+	private int drawableId = -1;
+	private BitmapDrawable drawable = null;
+	private final Matrix matrix = new Matrix();
+	
+	/** Pixels added around the rotated bounds when invalidating */
+	private static final int BOUNDS_MARGIN = 2;
+	
+	/** Region last drawn to, repainted along with the next one */
+	private final Rect drawnBounds = new Rect();
+	private float drawnDegrees;
+	private boolean drawnBoundsValid = false;
+	
+	private final Rect dirtyBounds = new Rect();
+	private final Rect spriteBounds = new Rect();
+	private final RectF boundsRect = new RectF();
+	private final Matrix boundsMatrix = new Matrix();
+	
+	/** Optional, pre-rotated frames for fast spins */
+	private RotatedSpriteCache spriteCache = null;
+	/** Resource id of the bitmap handed to spriteCache, -1 if not a resource */
+	private int spriteDrawableId = -1;
+	/** Size and BitmapFormat the frames were prepared at, the rest of their key */
+	private int spriteSize;
+	private int spriteFormat;
+	
+	/** Resource decoding in the background, if any */
+	private BitmapDecoder.Request pendingDecode = null;
+	
+	/*****************************************************
+	 * Progressive loading
+	 */
+	/** Placeholders are decoded at this fraction of the view size */
+	private static final int PLACEHOLDER_SUBSAMPLING = 8;
+	
+	private boolean progressiveLoading = false;
+	
+	/** Low resolution version of the resource decoding, if any */
+	private BitmapDecoder.Request pendingPlaceholder = null;
+	
+	/** View pixels per bitmap pixel; above 1 while a placeholder is shown */
+	private float bitmapScale = 1.0f;
+	private boolean showingPlaceholder = false;
+	
+	/** Time the resource drawable was asked for, reported to onDrawableLoadedListener */
+	private long loadRequestedNanos;
+	private boolean placeholderDrawPending = false;
+	private boolean fullQualityDrawPending = false;
+	
+	/** Key of the drawable's bitmap in BitmapCache, -1 if not acquired from there */
+	private int acquiredDrawableId = -1;
+	private int acquiredSize;
+	private int acquiredFormat;
+	
+	/** Bitmap kept over a configuration change, released once acquired again */
+	private RetainedBitmap retainedBitmap = null;
+	
+	/** BitmapFormat of resource drawables */
+	private int bitmapFormat = BitmapFormat.ARGB_8888;
+	
+	/** Color of ALPHA_8 bitmaps, 0 for the color found by an AUTO decode (black otherwise) */
+	private int bottleTint = 0;
+	/** Color found by the AUTO decode of the current bitmap, 0 if none */
+	private int silhouetteColor = 0;
+	private final Paint tintPaint = new Paint();
+	
+	/*****************************************************
+	 * Players, null if none seated; sector crossings of the spin are worked out at fling time
+	 */
+	private SectorTimeline sectorTimeline = null;
+	
+	/******************************************************
+	 * Listeners
+	 */
+	private OnStartRotatingListener onStartRotatingListener;
+	private OnStopRotatingListener onStopRotatingListener;
+	private OnDrawableLoadedListener onDrawableLoadedListener;
+	private OnSectorListener onSectorListener;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+	
+	public SpinningDrawableView(Context context) 
+	{
+		super(context);
+		
+        setOnTouchListener(swipeDetector);
+	}
+	
+	public SpinningDrawableView(Context context, AttributeSet attrs) 
+	{
+        this(context, attrs, 0);
+        
+        setOnTouchListener(swipeDetector);
+    }
+    
+    public SpinningDrawableView(Context context, AttributeSet attrs, int defStyle) 
+    {
+        super(context, attrs, defStyle);
+        
+        //Initilize view according to pre-hints provided via xml
+        init(attrs);
+        
+        setOnTouchListener(swipeDetector);
+    }
+    
+    /******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+    
+	/* (non-Javadoc)
+	 * @see android.view.View#onMeasure(int, int)
+	 */
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) 
+	{
+		//setMeasuredDimension(drawable.getBitmap().getWidth(), drawable.getBitmap().getHeight());
+		
+		/*
+		 * TODO check wrap content datas
+		 */
+		
+		int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+		int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+
+		//Square by nature
+		width = height = Math.min(width, height);
+
+		setMeasuredDimension(width, height);
+
+		if((drawableId != -1) && (drawable == null) && (pendingDecode == null))
+		{
+			loadResourceDrawable();
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see android.view.View#onDetachedFromWindow()
+	 */
+	@Override
+	protected void onAttachedToWindow() 
+	{
+		super.onAttachedToWindow();
+		
+		getViewTreeObserver().addOnPreDrawListener(frameStepper);
+	}
+	
+	/* (non-Javadoc)
+	 * @see android.view.View#onDetachedFromWindow()
+	 */
+	@Override
+	protected void onDetachedFromWindow() 
+	{
+		super.onDetachedFromWindow();
+		
+		getViewTreeObserver().removeOnPreDrawListener(frameStepper);
+		
+		releaseRetainedBitmap();
+		
+		cancelDecodes();
+		
+		//Shared bitmap is handed back, onMeasure acquires it again if re-attached
+		if((acquiredDrawableId != -1) || showingPlaceholder)
+		{
+			releaseDrawable();
+		}
+	}
+	
+	private void init(AttributeSet attrs) 
+	{
+		TypedArray a = getContext().obtainStyledAttributes(attrs, R.styleable.spinthebottle);
+
+		//Fetch resource drawable id if defined
+		drawableId = a.getResourceId(R.styleable.spinthebottle_bottle_drawable, -1);
+		
+		bitmapFormat = a.getInt(R.styleable.spinthebottle_bitmap_format, BitmapFormat.ARGB_8888);
+		bottleTint = a.getColor(R.styleable.spinthebottle_bottle_tint, 0);
+		progressiveLoading = a.getBoolean(R.styleable.spinthebottle_progressive_loading, false);
+		engine.setFixedPoint(a.getBoolean(R.styleable.spinthebottle_fixed_point_physics, false));
+		
+		//Cold start is timed from inflation
+		loadRequestedNanos = System.nanoTime();
+		
+		if(!BitmapFormat.isValid(bitmapFormat))
+		{
+			bitmapFormat = BitmapFormat.ARGB_8888;
+		}
+		
+		updateTintPaint();
+
+		//Remove artifacts
+		a.recycle();
+	}
+	
+	/**
+	 * Steps the engine ahead of a draw, if a frame is due, and marks the region
+	 * to repaint: the union of the bottle's bounds as last drawn and as about to
+	 * be drawn. Called on every traversal of the window, before drawing.
+	 */
+	private void stepFrame()
+	{
+		frameStepped = false;
+		
+		if(drawable == null)
+		{
+			return;
+		}
+		
+		if(engine.isRotating() || input.hasPending())
+		{
+			SpinMetrics frameMetrics = metrics;
+			
+			long frameTimeNanos = System.nanoTime();
+			
+			//Latest drag angle and obstacle of this frame
+			input.applyTo(engine);
+			
+			boolean wasRotating = engine.isRotating();
+			
+			//Step physics on the real elapsed time, not on the draw count
+			engine.advance(frameTimeNanos);
+			
+			state.publish(engine);
+			
+			if(sectorTimeline != null)
+			{//Ticks of this frame
+				sectorTimeline.advance(engine, onSectorListener);
+			}
+			
+			frameStepped = true;
+			frameWasRotating = wasRotating;
+			frameTimeStampNanos = frameTimeNanos;
+			framePhysicsNanos = (frameMetrics != null)?(System.nanoTime() - frameTimeNanos):(0L);
+			
+			SpinTraceWriter writer = traceWriter;
+			
+			if(writer != null)
+			{
+				writer.frame(frameTimeNanos, engine.getRotationDegrees(), engine.getRotationStepDegrees(), engine.isRotating());
+			}
+			
+			if(wasRotating && !engine.isRotating())
+			{//Stopped by friction
+				reportRest();
+			}
+		}
+		
+		if(progress != null)
+		{//Steps of this frame, and of fastForward(long) calls since the previous one
+			progress.endFrame();
+		}
+		
+		//Also catches angles set outside of frames, e.g. by fastForward(long)
+		if(drawnBoundsValid && (engine.getRotationDegrees() != drawnDegrees))
+		{
+			frameBounds(engine.getRotationDegrees(), dirtyBounds);
+			
+			dirtyBounds.union(drawnBounds);
+			
+			invalidate(dirtyBounds);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see android.view.View#onDraw(android.graphics.Canvas)
+	 */
+	protected void onDraw(Canvas canvas) 
+	{
+		if(drawable != null)
+		{
+			SpinMetrics frameMetrics = metrics;
+			
+			float rotationDegrees = engine.getRotationDegrees();
+			
+			long drawStartNanos = (frameMetrics != null)?(System.nanoTime()):(0L);
+			
+			//At rest, the exact angle is drawn
+			boolean drawn = engine.isRotating() && (spriteCache != null) && (spriteDrawableId != -1) 
+					&& spriteCache.draw(canvas, spriteDrawableId, spriteSize, spriteFormat, rotationDegrees);
+			
+			if(!drawn)
+			{
+				Bitmap bitmap = drawable.getBitmap();
+				
+				matrix.setScale(bitmapScale, bitmapScale);
+				
+				matrix.postRotate(rotationDegrees, rotationPivotX, rotationPivotY);
+				
+				//Alpha only bitmaps take the paint's color
+				canvas.drawBitmap(bitmap, matrix, (bitmap.getConfig() == Bitmap.Config.ALPHA_8)?(tintPaint):(null));
+			}
+			
+			if((frameMetrics != null) && frameStepped && frameWasRotating)
+			{
+				long frameGapNanos = (metricsLastFrameNanos == -1L)?(-1L):(frameTimeStampNanos - metricsLastFrameNanos);
+				
+				frameMetrics.recordFrame(framePhysicsNanos, System.nanoTime() - drawStartNanos, frameGapNanos);
+				
+				metricsLastFrameNanos = frameTimeStampNanos;
+				metricsSpinFrames++;
+				metricsSpinMaxFrameGapNanos = Math.max(metricsSpinMaxFrameGapNanos, frameGapNanos);
+				
+				if(!engine.isRotating())
+				{
+					endMetricsSpin();
+				}
+			}
+			
+			frameStepped = false;
+			
+			if(placeholderDrawPending || fullQualityDrawPending)
+			{
+				reportDrawableDrawn();
+			}
+			
+			drawnDegrees = rotationDegrees;
+			frameBounds(rotationDegrees, drawnBounds);
+			drawnBoundsValid = true;
+			
+			if(engine.isRotating())
+			{
+				//Next traversal; stepFrame() adds the bounds the bottle moves to
+				invalidate(drawnBounds);
+			}
+		}
+	}
+	
+	/**
+	 * Requests a traversal without repainting more than the bottle; stepFrame()
+	 * marks the rest.
+	 */
+	private void requestFrame()
+	{
+		if(drawnBoundsValid)
+		{
+			invalidate(drawnBounds);
+		}
+		else
+		{
+			invalidate();
+		}
+	}
+	
+	/**
+	 * Bounds of the bottle drawn at the given angle, whether as is or from a
+	 * pre-rotated frame.
+	 */
+	private void frameBounds(float degrees, Rect bounds)
+	{
+		rotatedBounds(degrees, bounds);
+		
+		if(engine.isRotating() && (spriteCache != null) && (spriteDrawableId != -1))
+		{//The frame is rendered at an angle close by
+			rotatedBounds(spriteCache.getFrameDegrees(degrees), spriteBounds);
+			
+			bounds.union(spriteBounds);
+		}
+	}
+	
+	/**
+	 * Bounds of the bitmap rotated around the pivot, in view pixels.
+	 */
+	private void rotatedBounds(float degrees, Rect bounds)
+	{
+		Bitmap bitmap = drawable.getBitmap();
+		
+		boundsRect.set(0.0f, 0.0f, bitmap.getWidth() * bitmapScale, bitmap.getHeight() * bitmapScale);
+		
+		boundsMatrix.setRotate(degrees, rotationPivotX, rotationPivotY);
+		boundsMatrix.mapRect(boundsRect);
+		
+		boundsRect.roundOut(bounds);
+		
+		//Filtering of pre-rotated frames bleeds a little
+		bounds.inset(-BOUNDS_MARGIN, -BOUNDS_MARGIN);
+	}
+
+	/**
+	 * Update bitmap object with new bitmap.
+	 * 
+	 * @param bitmap new bitmap data to spin
+	 * @param optimizeBitmap boolean flag indicating, if bitmap should be resized for better memory management or not. Set to true if you have no idea what you are doing :).
+	 */
+	public void setBitmap(Bitmap bitmap, boolean optimizeBitmap)
+	{
+		setDrawable(new BitmapDrawable(bitmap), optimizeBitmap);
+	}
+	
+	/**
+	 * Updates drawable reference of the view.
+	 * 
+	 * @param drawable new drawable source
+	 * @param optimizeDrawable boolean flag indicating, if drawable should be resized for better memory management or not. Set to true if you have no idea what you are doing :)
+	 */
+	public void setDrawable(BitmapDrawable drawable, boolean optimizeDrawable)
+	{
+		//A resource decoded later on must not override this one
+		cancelDecodes();
+		
+		showDrawable(drawable, optimizeDrawable, 1.0f);
+	}
+	
+	/**
+	 * Replaces the current drawable, leaving decodes on the way as they are.
+	 * 
+	 * @param scale view pixels per bitmap pixel
+	 */
+	private void showDrawable(BitmapDrawable drawable, boolean optimizeDrawable, float scale)
+	{
+		releaseDrawable();
+		
+		bitmapScale = scale;
+		
+		//Must optimize new drawable's bitmap, in order to maintain peace at memory ^^^
+		//get new drawable's bitmap instance
+		Bitmap originalBitmap = drawable.getBitmap();
+		
+		//If drawable is not empty inside
+		if(originalBitmap != null)
+		{
+			int targetWidth = getMeasuredWidth();
+			int targetHeight = getMeasuredHeight();
+			
+			//Check if any optimization necessary
+			if( optimizeDrawable && !((originalBitmap.getWidth() == targetWidth) && (originalBitmap.getHeight() == targetHeight)) )
+			{//Do the optimization
+				Bitmap optimizedBitmap = Bitmap.createBitmap(originalBitmap, 0, 0, targetWidth, targetHeight);
+				//Create optimized drawable and update its bitmap, then update SpinningDrawableView.drawable.
+				this.drawable = new BitmapDrawable(optimizedBitmap);
+				this.drawable.setCallback(this);
+				
+				//Break bonds with non-optimized drawable
+				BitmapPool.put(originalBitmap);
+				drawable.setCallback(null);
+				unscheduleDrawable(drawable);
+				drawable = null;
+			}
+			else
+			{//No need to optimization
+				//Just update the reference
+				this.drawable = drawable;
+				this.drawable.setCallback(this);
+			}
+			
+			//Bounds of the previous bitmap are gone with it
+			drawnBoundsValid = false;
+			
+			//Update rotation data, in view pixels
+			rotationPivotX = (int) (this.drawable.getBitmap().getWidth() * bitmapScale * rotationPivotXCoefficient);
+			rotationPivotY = (int) (this.drawable.getBitmap().getHeight() * bitmapScale * rotationPivotYCoefficient);
+		}
+		
+		invalidate();
+	}
+	
+	/**
+	 * Breaks bonds with the current drawable. Its bitmap is handed back to the
+	 * BitmapCache if acquired from there, or to the BitmapPool otherwise.
+	 */
+	private void releaseDrawable()
+	{
+		//Old frames refer to the bitmap released below
+		releaseSprites();
+		
+		if(this.drawable != null)
+		{
+			if(acquiredDrawableId != -1)
+			{
+				BitmapCache.release(acquiredDrawableId, acquiredSize, acquiredFormat, this.drawable.getBitmap());
+			}
+			else
+			{
+				//Let the next decode reuse its memory
+				BitmapPool.put(this.drawable.getBitmap());
+			}
+			
+			this.drawable.setCallback(null);
+			unscheduleDrawable(this.drawable);
+			this.drawable = null;
+		}
+		
+		acquiredDrawableId = -1;
+		showingPlaceholder = false;
+		silhouetteColor = 0;
+		updateTintPaint();
+	}
+	
+	/**
+	 * Initializes drawable bitmap from resources. Unlike setDrawable( Drawable ), 
+	 * It optimizes bitmap on the first run. Thus a better memory management :P
+	 * <p>
+	 * Decoding runs in the background; the current bitmap is shown until the new
+	 * one is ready, or a low resolution placeholder with progressive loading.
+	 * If the view is not measured yet, decoding waits for onMeasure. Bitmaps are
+	 * shared through the BitmapCache, see BitmapCache.prefetch(...).
+	 * </p>
+	 * 
+	 * @param resourceId
+	 */
+	public void setResourceDrawable(int resourceId)
+	{
+		drawableId = resourceId;
+		loadRequestedNanos = System.nanoTime();
+		
+		loadResourceDrawable();
+	}
+	
+	private void loadResourceDrawable()
+	{
+		final int resourceId = drawableId;
+		
+		cancelDecodes();
+		
+		final int size = getMeasuredWidth();
+		
+		if(size == 0)
+		{
+			return;
+		}
+		
+		final int format = bitmapFormat;
+		
+		if((acquiredDrawableId == resourceId) && (acquiredSize == size) && (acquiredFormat == format))
+		{//Already showing it
+			releaseRetainedBitmap();
+			
+			return;
+		}
+		
+		//Queued ahead of the full decode, which the decoder runs afterwards
+		if(progressiveLoading)
+		{
+			loadPlaceholder(resourceId, size);
+		}
+		
+		// Create bitmap with drawableId, fit into the view
+		pendingDecode = BitmapCache.acquire(getResources(), resourceId, size, format, new BitmapDecoder.Callback() 
+		{
+			public void onDecoded(int resourceId, Bitmap bitmap) 
+			{
+				pendingDecode = null;
+				
+				//Too late to be of use
+				cancelPlaceholder();
+				
+				if(bitmap != null)
+				{
+					//Update view's bitmap object without optimization as decoder did it.
+					showDrawable(new BitmapDrawable(bitmap), false, 1.0f);
+					
+					fullQualityDrawPending = true;
+					
+					acquiredDrawableId = resourceId;
+					acquiredSize = size;
+					acquiredFormat = format;
+					
+					silhouetteColor = BitmapCache.getSilhouetteColor(resourceId, size, format);
+					updateTintPaint();
+					
+					prepareSprites();
+				}
+			}
+		});
+		
+		if(pendingDecode == null)
+		{//Cached, no placeholder needed
+			cancelPlaceholder();
+		}
+		
+		//Served from the cache by now if retained for this size, or decoding otherwise
+		releaseRetainedBitmap();
+	}
+	
+	/**
+	 * Decodes a heavily subsampled version of the resource, shown scaled up until the full one is in.
+	 */
+	private void loadPlaceholder(int resourceId, final int size)
+	{
+		final int placeholderSize = Math.max(size / PLACEHOLDER_SUBSAMPLING, 1);
+		
+		pendingPlaceholder = BitmapDecoder.decode(getResources(), resourceId, placeholderSize, BitmapFormat.ARGB_8888, new BitmapDecoder.Callback() 
+		{
+			public void onDecoded(int resourceId, Bitmap bitmap) 
+			{
+				pendingPlaceholder = null;
+				
+				if(bitmap == null)
+				{
+					return;
+				}
+				
+				if(pendingDecode == null)
+				{//Full one is in already
+					BitmapPool.put(bitmap);
+					
+					return;
+				}
+				
+				//Longer side fills the view, as the full one does; the spin goes on as is
+				showDrawable(new BitmapDrawable(bitmap), false, (float) size / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+				
+				showingPlaceholder = true;
+				placeholderDrawPending = true;
+			}
+		});
+	}
+	
+	private void cancelPlaceholder()
+	{
+		if(pendingPlaceholder != null)
+		{
+			pendingPlaceholder.cancel();
+			pendingPlaceholder = null;
+		}
+	}
+	
+	private void cancelDecodes()
+	{
+		if(pendingDecode != null)
+		{
+			pendingDecode.cancel();
+			pendingDecode = null;
+		}
+		
+		cancelPlaceholder();
+	}
+	
+	private void reportDrawableDrawn()
+	{
+		long elapsedNanos = System.nanoTime() - loadRequestedNanos;
+		
+		OnDrawableLoadedListener listener = onDrawableLoadedListener;
+		
+		if((listener != null) && placeholderDrawPending)
+		{
+			listener.onPlaceholderDrawn(drawableId, elapsedNanos);
+		}
+		
+		if((listener != null) && fullQualityDrawPending)
+		{
+			listener.onFullQualityDrawn(drawableId, elapsedNanos);
+		}
+		
+		placeholderDrawPending = false;
+		fullQualityDrawPending = false;
+	}
+	
+	/**
+	 * Shows a low resolution placeholder while the resource drawable decodes, unless
+	 * it is cached. Trades a little decode time for an earlier first draw. Off by default.
+	 */
+	public void setProgressiveLoading(boolean progressiveLoading)
+	{
+		this.progressiveLoading = progressiveLoading;
+	}
+	
+	public boolean isProgressiveLoading()
+	{
+		return progressiveLoading;
+	}
+	
+	/**
+	 * Runs the spin on integer physics, so that the same flings and obstacles stop
+	 * at bit for bit the same angle on every device, e.g. in a networked game; also
+	 * lighter on devices with slow floating point. A spin on the way goes on. Off by default.
+	 * 
+	 * @see SpinEngine#setFixedPoint(boolean)
+	 */
+	public void setFixedPointPhysics(boolean fixedPoint)
+	{
+		input.applyTo(engine);
+		
+		engine.setFixedPoint(fixedPoint);
+		
+		state.publish(engine);
+		
+		if(traceWriter != null)
+		{
+			traceWriter.engine(fixedPoint);
+		}
+		
+		//Crossings follow the new physics
+		startSectorTimeline();
+	}
+	
+	public boolean isFixedPointPhysics()
+	{
+		return engine.isFixedPoint();
+	}
+	
+	/**
+	 * Keeps the resource bitmap shown in the BitmapCache, for the view re-created
+	 * after a configuration change. E.g. from Activity.onRetainNonConfigurationInstance().
+	 * 
+	 * @return holder to pass to restoreBitmap(RetainedBitmap) of the new view, null if no resource bitmap is shown
+	 */
+	public RetainedBitmap retainBitmap()
+	{
+		if((acquiredDrawableId == -1) || (drawable == null))
+		{
+			return null;
+		}
+		
+		return RetainedBitmap.retain(acquiredDrawableId, acquiredSize, acquiredFormat, drawable.getBitmap());
+	}
+	
+	/**
+	 * Takes over a bitmap kept by retainBitmap() of the previous view. The bitmap
+	 * is served from the cache once measured, instead of being decoded again; the
+	 * holder is released then, or on detach.
+	 * 
+	 * @param retained as returned by retainBitmap(), may be null
+	 */
+	public void restoreBitmap(RetainedBitmap retained)
+	{
+		releaseRetainedBitmap();
+		
+		retainedBitmap = retained;
+	}
+	
+	private void releaseRetainedBitmap()
+	{
+		if(retainedBitmap != null)
+		{
+			retainedBitmap.release();
+			retainedBitmap = null;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see android.view.View#onSaveInstanceState()
+	 */
+	@Override
+	protected Parcelable onSaveInstanceState() 
+	{
+		SavedState savedState = new SavedState(super.onSaveInstanceState());
+		
+		input.applyTo(engine);
+		
+		savedState.drawableId = drawableId;
+		savedState.bitmapFormat = bitmapFormat;
+		savedState.rotationDegrees = engine.getRotationDegrees();
+		savedState.rotationStepDegrees = engine.getRotationStepDegrees();
+		savedState.rotating = engine.isRotating();
+		savedState.fixedPoint = engine.isFixedPoint();
+		
+		return savedState;
+	}
+	
+	/* (non-Javadoc)
+	 * @see android.view.View#onRestoreInstanceState(android.os.Parcelable)
+	 */
+	@Override
+	protected void onRestoreInstanceState(Parcelable state) 
+	{
+		if(!(state instanceof SavedState))
+		{
+			super.onRestoreInstanceState(state);
+			
+			return;
+		}
+		
+		SavedState savedState = (SavedState) state;
+		
+		super.onRestoreInstanceState(savedState.getSuperState());
+		
+		bitmapFormat = savedState.bitmapFormat;
+		
+		if(savedState.drawableId != -1)
+		{//Acquired once measured, unless already
+			setResourceDrawable(savedState.drawableId);
+		}
+		
+		input.applyTo(engine);
+		
+		engine.setFixedPoint(savedState.fixedPoint);
+		engine.rotateTo(savedState.rotationDegrees);
+		engine.setRotationStepDegrees(savedState.rotationStepDegrees);
+		
+		if(savedState.rotating)
+		{//Picks up where it left off, listeners saw the start already
+			engine.start();
+			
+			startSectorTimeline();
+			
+			beginMetricsSpin();
+		}
+		else
+		{
+			engine.stop();
+		}
+		
+		this.state.publish(engine);
+		
+		requestFrame();
+	}
+	
+	/**
+	 * Sets the in-memory format of resource drawables, re-decoding the current one if needed.
+	 * E.g. RGB_565 halves the memory of an opaque bottle, ALPHA_8 quarters that of a silhouette.
+	 * 
+	 * @param format one of BitmapFormat
+	 * @throws IllegalArgumentException if the format is unknown
+	 */
+	public void setBitmapFormat(int format)
+	{
+		if(!BitmapFormat.isValid(format))
+		{
+			throw new IllegalArgumentException("Unknown bitmap format: " + format);
+		}
+		
+		bitmapFormat = format;
+		
+		if(drawableId != -1)
+		{
+			setResourceDrawable(drawableId);
+		}
+	}
+	
+	public int getBitmapFormat()
+	{
+		return bitmapFormat;
+	}
+	
+	/**
+	 * Sets the color of ALPHA_8 bitmaps.
+	 * 
+	 * @param color ARGB color, 0 for the color found by an AUTO decode, or black
+	 */
+	public void setBottleTint(int color)
+	{
+		bottleTint = color;
+		
+		updateTintPaint();
+		
+		if((drawable != null) && (drawable.getBitmap().getConfig() == Bitmap.Config.ALPHA_8))
+		{
+			requestFrame();
+		}
+	}
+	
+	/**
+	 * @return bytes held by the bitmap drawn, 0 if none. Shared bitmaps count fully in every view showing them.
+	 */
+	public int getBitmapBytes()
+	{
+		if(drawable == null)
+		{
+			return 0;
+		}
+		
+		Bitmap bitmap = drawable.getBitmap();
+		
+		return (bitmap != null)?(bitmap.getRowBytes() * bitmap.getHeight()):(0);
+	}
+	
+	private void updateTintPaint()
+	{
+		tintPaint.setColor((bottleTint != 0)?(bottleTint):((silhouetteColor != 0)?(silhouetteColor):(0xFF000000)));
+	}
+	
+	/**
+	 * Records every touch and frame into the given trace, to be replayed headless
+	 * by tools/TraceReplayer. The caller closes the writer once done.
+	 * 
+	 * @param writer trace to record into, null to stop recording
+	 */
+	public void setTraceWriter(SpinTraceWriter writer)
+	{
+		if(writer != null)
+		{//Physics this view runs on, whatever the writer was created with, and obstacles already placed
+			writer.engine(engine.isFixedPoint());
+			engine.traceFixedObstacles(writer);
+		}
+		
+		traceWriter = writer;
+		swipeDetector.setTraceWriter(writer);
+	}
+	
+	/**
+	 * Records physics time, draw time and frame gaps of every frame drawn while
+	 * spinning. Cheap enough to leave on; off by default.
+	 * 
+	 * @param metrics metrics to record into, may be shared among views. null to stop recording.
+	 */
+	public void setMetrics(SpinMetrics metrics)
+	{
+		endMetricsSpin();
+		
+		this.metrics = metrics;
+		
+		metricsLastFrameNanos = -1L;
+		
+		if(engine.isRotating())
+		{
+			beginMetricsSpin();
+		}
+	}
+	
+	/**
+	 * Starts counting the frames of a spin, if recording metrics. A spin left open is summed up first.
+	 */
+	private void beginMetricsSpin()
+	{
+		endMetricsSpin();
+		
+		metricsLastFrameNanos = -1L;
+		
+		if(metrics != null)
+		{
+			metricsInSpin = true;
+			metricsSpinFrames = 0L;
+			metricsSpinMaxFrameGapNanos = 0L;
+		}
+	}
+	
+	/**
+	 * Sums the spin in progress up into metrics, if any.
+	 */
+	private void endMetricsSpin()
+	{
+		if(metricsInSpin)
+		{
+			metricsInSpin = false;
+			
+			metrics.endSpin(metricsSpinFrames, metricsSpinMaxFrameGapNanos);
+		}
+	}
+	
+	/**
+	 * Enables drawing fast spins from pre-rotated frames of the resource drawable.
+	 * Frames are rendered in the background; until then, and at rest, the bitmap is
+	 * rotated on the fly as usual.
+	 * 
+	 * @param cache cache to render frames into, may be shared among views. null to disable.
+	 */
+	public void setRotatedSpriteCache(RotatedSpriteCache cache)
+	{
+		releaseSprites();
+		
+		spriteCache = cache;
+		
+		prepareSprites();
+	}
+	
+	private void prepareSprites()
+	{
+		//Only for the decoded resource, not a placeholder; frames of alpha only bitmaps would lose the tint
+		if((spriteCache != null) && (acquiredDrawableId != -1) && (drawable != null) && (drawable.getBitmap() != null)
+				&& (drawable.getBitmap().getConfig() != Bitmap.Config.ALPHA_8))
+		{
+			int size = getMeasuredWidth();
+			
+			//Pivot in bitmap pixels. New reference first, so that frames held already under the same key stay.
+			spriteCache.prepare(acquiredDrawableId, size, acquiredFormat, drawable.getBitmap(), rotationPivotX / bitmapScale, rotationPivotY / bitmapScale);
+			
+			releaseSprites();
+			
+			spriteDrawableId = acquiredDrawableId;
+			spriteSize = size;
+			spriteFormat = acquiredFormat;
+		}
+	}
+	
+	/**
+	 * Hands the frames back to spriteCache, under the key they were prepared with; other views may still draw them.
+	 */
+	private void releaseSprites()
+	{
+		if((spriteCache != null) && (spriteDrawableId != -1))
+		{
+			spriteCache.evict(spriteDrawableId, spriteSize, spriteFormat);
+		}
+		
+		spriteDrawableId = -1;
+	}
+	
+	public void setRotationStepDegrees(float degrees)
+	{
+		input.applyTo(engine);
+		
+		engine.setRotationStepDegrees(degrees);
+		
+		state.publish(engine);
+		
+		startSectorTimeline();
+	}
+	
+	private float getRotationStepDegrees()
+	{
+		return engine.getRotationStepDegrees();
+	}
+	
+	/**
+	 * Rotates the bottle on the next frame. Calls within a frame coalesce, the last one wins.
+	 * 
+	 * @param degrees
+	 */
+	public void rotateTo(float degrees)
+	{
+		if(!engine.isRotating() && (degrees == input.getRotationDegrees(engine)))
+		{//Already there
+			return;
+		}
+		
+		if(input.rotateTo(degrees))
+		{
+			requestFrame();
+		}
+	}
+	
+	public void startRotating()
+	{
+		input.applyTo(engine);
+		
+		engine.start();
+		
+		state.publish(engine);
+		
+		startSectorTimeline();
+		
+		beginMetricsSpin();
+		
+		if(onStartRotatingListener != null)
+		{
+			onStartRotatingListener.onStart(getRotationStepDegrees(), engine.predict());
+		}
+		
+		requestFrame();
+	}
+	
+	/**
+	 * Tells where and when the bottle stops, unless touched on the way. Holds at
+	 * fling time; see OnStartRotatingListener.
+	 */
+	public SpinPrediction predictStop()
+	{
+		input.applyTo(engine);
+		
+		state.publish(engine);
+		
+		return engine.predict();
+	}
+	
+	/**
+	 * Jumps ahead in the spin, as if the given time passed, without drawing the
+	 * frames in between. Not recorded by a SpinTraceWriter.
+	 * 
+	 * @param durationNanos time to skip, e.g. SpinPrediction.getDurationNanos() to land on the stop angle
+	 */
+	public void fastForward(long durationNanos)
+	{
+		input.applyTo(engine);
+		
+		if(engine.isRotating())
+		{
+			engine.skip((int) Math.min(durationNanos / SpinEngine.STEP_NANOS, Integer.MAX_VALUE));
+			
+			state.publish(engine);
+			
+			if(sectorTimeline != null)
+			{//No ticks for skipped frames
+				sectorTimeline.skip(engine);
+			}
+			
+			//Skipped frames are not dropped ones
+			metricsLastFrameNanos = -1L;
+			
+			if(!engine.isRotating())
+			{
+				endMetricsSpin();
+				
+				reportRest();
+			}
+			
+			requestFrame();
+		}
+	}
+	
+	public void stopRotating()
+	{
+		input.applyTo(engine);
+		
+		if(engine.isRotating())
+		{
+			endMetricsSpin();
+			
+			if(onStopRotatingListener != null)
+			{
+				onStopRotatingListener.onStop(engine.getRotationDegrees());
+			}
+		}
+		
+		engine.stop();
+		
+		state.publish(engine);
+		
+		if(sectorTimeline != null)
+		{
+			sectorTimeline.clear();
+		}
+	}
+	
+	/**
+	 * Places an obstacle (e.g. a finger) on the bottle's way, as of the next frame.
+	 * Same as finger 0.
+	 * 
+	 * @param degrees obstacle angle within [0, 360)
+	 */
+	public void setObstacle(float degrees)
+	{
+		setObstacle(0, degrees);
+	}
+	
+	/**
+	 * Places one of several fingers on the bottle's way, as of the next frame.
+	 * 
+	 * @param finger within [0, SpinEngine.MAX_FINGERS)
+	 * @param degrees obstacle angle within [0, 360)
+	 */
+	public void setObstacle(int finger, float degrees)
+	{
+		//Only matters while spinning, frames are on the way then
+		input.setObstacle(finger, degrees);
+	}
+	
+	/**
+	 * Lifts every finger.
+	 */
+	public void clearObstacle()
+	{
+		input.clearObstacles();
+		engine.clearObstacle();
+		
+		state.publish(engine);
+	}
+	
+	public void clearObstacle(int finger)
+	{
+		input.clearObstacle(finger);
+		engine.clearObstacle(finger);
+		
+		state.publish(engine);
+	}
+	
+	/**
+	 * Places a fixed obstacle (e.g. a glass on the table) the bottle bounces off,
+	 * along with the finger.
+	 * 
+	 * @param degrees obstacle angle within [0, 360)
+	 * @return key to remove it with
+	 */
+	public int addFixedObstacle(float degrees)
+	{
+		int key = engine.addFixedObstacle(degrees);
+		
+		if(traceWriter != null)
+		{
+			traceWriter.addObstacle(key, degrees);
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * @param key as returned by addFixedObstacle(float)
+	 */
+	public void removeFixedObstacle(int key)
+	{
+		engine.removeFixedObstacle(key);
+		
+		if(traceWriter != null)
+		{
+			traceWriter.removeObstacle(key);
+		}
+	}
+	
+	public void setOnStartRotatingListener(OnStartRotatingListener listener)
+	{
+		this.onStartRotatingListener = listener;
+	}
+	
+	public void setOnStopRotatingListener(OnStopRotatingListener listener)
+	{
+		this.onStopRotatingListener = listener;
+	}
+	
+	/**
+	 * Reports the angle, speed and time of every simulated step, in one batch per
+	 * frame. Recording neither allocates nor waits for the listener; see SpinProgress.
+	 * 
+	 * @param listener receives the batches, null to stop reporting
+	 * @param executor delivers the batches, e.g. to a game thread. null to deliver on the UI thread, right after stepping.
+	 */
+	public void setOnRotationProgressListener(SpinProgress.Listener listener, Executor executor)
+	{
+		progress = (listener != null)?(new SpinProgress(listener, executor)):(null);
+		
+		engine.setProgress(progress);
+	}
+	
+	public void setOnDrawableLoadedListener(OnDrawableLoadedListener listener)
+	{
+		this.onDrawableLoadedListener = listener;
+	}
+	
+	/**
+	 * Seats players around the table, each owning the angles closer to them than
+	 * to anyone else. See SectorWheel.
+	 * 
+	 * @param playerDegrees angle of each player within [0, 360), clockwise from the top; none to unseat all
+	 * @throws IllegalArgumentException if more than SectorWheel.MAX_PLAYERS, or closer than SectorWheel.MIN_PLAYER_SPACING_DEGREES
+	 */
+	public void setPlayers(float... playerDegrees)
+	{
+		sectorTimeline = (playerDegrees.length == 0)?(null):(new SectorTimeline(new SectorWheel(playerDegrees)));
+		
+		startSectorTimeline();
+	}
+	
+	public int getPlayerCount()
+	{
+		return (sectorTimeline != null)?(sectorTimeline.getWheel().getPlayerCount()):(0);
+	}
+	
+	/**
+	 * @return player the top of the bottle points at, -1 if none seated
+	 */
+	public int getSelectedPlayer()
+	{
+		return (sectorTimeline != null)?(sectorTimeline.getWheel().getPlayerAt(getRotationDegree())):(-1);
+	}
+	
+	/**
+	 * @param listener ticks for every sector crossed, and the player the bottle stops at; needs setPlayers(float...)
+	 */
+	public void setOnSectorListener(OnSectorListener listener)
+	{
+		this.onSectorListener = listener;
+	}
+	
+	/**
+	 * Works out the sector crossings of the spin from the engine's state, if players are seated.
+	 */
+	private void startSectorTimeline()
+	{
+		if(sectorTimeline != null)
+		{
+			sectorTimeline.start(engine);
+		}
+	}
+	
+	/**
+	 * The spin came to rest by itself.
+	 */
+	private void reportRest()
+	{
+		float stopDegrees = engine.getRotationDegrees();
+		
+		if(onStopRotatingListener != null)
+		{
+			onStopRotatingListener.onStop(stopDegrees);
+		}
+		
+		if((sectorTimeline != null) && (onSectorListener != null))
+		{
+			onSectorListener.onPlayerSelected(sectorTimeline.getWheel().getPlayerAt(stopDegrees), stopDegrees);
+		}
+	}
+	
+	/**
+	 * Sets initial rotation degree. Set a value between
+	 * SpinningDrawableView.MAX_ROTATION_DEGREES and SpinningDrawableView.MIN_ROTATION_DEGREES
+	 * 
+	 * @param rotationSpeed Angular rotation speed
+	 */
+	public void setRotationSpeed(float rotationSpeed) 
+	{
+		input.applyTo(engine);
+		
+		engine.setRotationStepDegrees(rotationSpeed);
+		
+		state.publish(engine);
+		
+		startSectorTimeline();
+	}
+
+	/**
+	 * For the UI thread; pending rotateTo(float) calls included.
+	 * 
+	 * @return Image rotation angle
+	 */
+	public float getRotationDegree() 
+	{
+		return input.getRotationDegrees(engine);
+	}
+	
+	/**
+	 * Safe from any thread, and never holds up drawing. Reflects the engine as of
+	 * the last frame or call on the UI thread.
+	 * 
+	 * @return consistent copy of the spin state
+	 */
+	public SpinState getSpinState()
+	{
+		return state.read();
+	}
+	
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+	
+	public interface OnStopRotatingListener
+	{
+		public abstract void onStop(float stopAngle);
+	}
+	
+	/**
+	 * Called while stepping frames, on the UI thread.
+	 */
+	public interface OnSectorListener extends SectorTimeline.Listener
+	{
+		/**
+		 * The spin came to rest with the top of the bottle in the player's sector.
+		 * Not called when stopped by a touch.
+		 */
+		public abstract void onPlayerSelected(int player, float stopAngle);
+	}
+	
+	public interface OnStartRotatingListener
+	{
+		/**
+		 * @param angularVelocity initial speed, in degrees per step
+		 * @param prediction where and when the bottle stops, unless touched on the way
+		 */
+		public abstract void onStart(float angularVelocity, SpinPrediction prediction);
+	}
+	
+	/**
+	 * Load timings of resource drawables, e.g. to track cold start latency. Times
+	 * count from the setResourceDrawable(int) call, or from inflation for the
+	 * bottle_drawable attribute, up to the first draw. Called while drawing.
+	 */
+	public interface OnDrawableLoadedListener
+	{
+		/**
+		 * Not called if the full quality bitmap came first, e.g. from the cache.
+		 */
+		public abstract void onPlaceholderDrawn(int resourceId, long elapsedNanos);
+		
+		public abstract void onFullQualityDrawn(int resourceId, long elapsedNanos);
+	}
+	
+	/**
+	 * Spin and drawable of the view, kept over configuration changes and process death.
+	 * The bitmap itself is not parcelled, see retainBitmap().
+	 */
+	static class SavedState extends BaseSavedState
+	{
+		int drawableId;
+		int bitmapFormat;
+		float rotationDegrees;
+		float rotationStepDegrees;
+		boolean rotating;
+		boolean fixedPoint;
+		
+		SavedState(Parcelable superState)
+		{
+			super(superState);
+		}
+		
+		private SavedState(Parcel source)
+		{
+			super(source);
+			
+			drawableId = source.readInt();
+			bitmapFormat = source.readInt();
+			rotationDegrees = source.readFloat();
+			rotationStepDegrees = source.readFloat();
+			rotating = source.readInt() != 0;
+			fixedPoint = source.readInt() != 0;
+		}
+		
+		@Override
+		public void writeToParcel(Parcel destination, int flags) 
+		{
+			super.writeToParcel(destination, flags);
+			
+			destination.writeInt(drawableId);
+			destination.writeInt(bitmapFormat);
+			destination.writeFloat(rotationDegrees);
+			destination.writeFloat(rotationStepDegrees);
+			destination.writeInt((rotating)?(1):(0));
+			destination.writeInt((fixedPoint)?(1):(0));
+		}
+		
+		public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>()
+		{
+			public SavedState createFromParcel(Parcel source) 
+			{
+				return new SavedState(source);
+			}
+			
+			public SavedState[] newArray(int size) 
+			{
+				return new SavedState[size];
+			}
+		};
+	}
+	
+	private class FrameStepper implements ViewTreeObserver.OnPreDrawListener
+	{
+		public boolean onPreDraw() 
+		{
+			stepFrame();
+			
+			return true;
+		}
+	}
+}
@@ -0,0 +1,468 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * <p>
+ * Many bottles in a single view, e.g. a party table. One SpinScene steps
+ * every spinning bottle per frame, and one onDraw draws them all; bottles
+ * sharing a bitmap slot are drawn one after the other, so that the renderer
+ * can batch them.
+ * </p>
+ * <p>
+ * Bottles are flung by touch just like SpinningDrawableView, but do not
+ * bounce off fingers.
+ * </p>
+ */
+public class SpinningSceneView extends View
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final SpinScene scene;
+
+	/****************************************************
+	 * GUI
+	 */
+	private final Matrix matrix = new Matrix();
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/** Bitmap per slot, null if not set yet */
+	private Bitmap[] slotBitmaps = new Bitmap[4];
+	/** Resource id per slot, -1 if set as a bitmap */
+	private int[] slotResourceIds = new int[] { -1, -1, -1, -1 };
+	private int[] slotSizes = new int[4];
+	/** Whether each slot's bitmap was acquired from BitmapCache */
+	private boolean[] slotAcquired = new boolean[4];
+	private BitmapDecoder.Request[] slotDecodes = new BitmapDecoder.Request[4];
+
+	/****************************************************
+	 * Touch
+	 */
+	private final BottleTarget touchTarget = new BottleTarget();
+	private final SwipeDetector swipeDetector = new SwipeDetector(touchTarget);
+
+	/******************************************************
+	 * Listeners
+	 */
+	private OnBottleStopListener onBottleStopListener;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public SpinningSceneView(Context context)
+	{
+		this(context, DEFAULT_CAPACITY);
+	}
+
+	public SpinningSceneView(Context context, int capacity)
+	{
+		super(context);
+
+		scene = new SpinScene(capacity);
+
+		setOnTouchListener(new SceneTouchListener());
+	}
+
+	public SpinningSceneView(Context context, AttributeSet attrs)
+	{
+		this(context, attrs, 0);
+	}
+
+	public SpinningSceneView(Context context, AttributeSet attrs, int defStyle)
+	{
+		super(context, attrs, defStyle);
+
+		scene = new SpinScene(DEFAULT_CAPACITY);
+
+		setOnTouchListener(new SceneTouchListener());
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Places a bottle at rest, pointing up.
+	 *
+	 * @param pivotX center of rotation, in view pixels
+	 * @param pivotY center of rotation, in view pixels
+	 * @param size side of the square the bottle is drawn in, centered on the pivot
+	 * @param slot bitmap slot to draw it with, see setSlotBitmap(...) and setSlotResource(...)
+	 * @return index of the bottle
+	 */
+	public int addBottle(float pivotX, float pivotY, float size, int slot)
+	{
+		int bottle = scene.addBottle(pivotX, pivotY, size, slot);
+
+		invalidate();
+
+		return bottle;
+	}
+
+	public int getBottleCount()
+	{
+		return scene.getBottleCount();
+	}
+
+	/**
+	 * Tosses a bottle, as a fling would.
+	 *
+	 * @param rotationStepDegrees initial speed, within [-MAX_ROTATION_DEGREES, MAX_ROTATION_DEGREES]
+	 */
+	public void spin(int bottle, float rotationStepDegrees)
+	{
+		scene.setRotationStepDegrees(bottle, rotationStepDegrees);
+		scene.start(bottle);
+
+		invalidate();
+	}
+
+	public float getRotationDegrees(int bottle)
+	{
+		return scene.getRotationDegrees(bottle);
+	}
+
+	public boolean isRotating(int bottle)
+	{
+		return scene.isRotating(bottle);
+	}
+
+	/**
+	 * @param bitmap drawn by every bottle of the slot, scaled to their size. Owned by the caller.
+	 */
+	public void setSlotBitmap(int slot, Bitmap bitmap)
+	{
+		releaseSlot(slot);
+
+		slotBitmaps[slot] = bitmap;
+
+		invalidate();
+	}
+
+	/**
+	 * Decodes a resource for the slot in the background, shared through the BitmapCache.
+	 *
+	 * @param size decoded size in pixels, e.g. that of the largest bottle of the slot
+	 */
+	public void setSlotResource(int slot, int resourceId, int size)
+	{
+		releaseSlot(slot);
+
+		slotResourceIds[slot] = resourceId;
+		slotSizes[slot] = size;
+
+		acquireSlot(slot);
+	}
+
+	private void acquireSlot(final int slot)
+	{
+		final int resourceId = slotResourceIds[slot];
+
+		slotDecodes[slot] = BitmapCache.acquire(getResources(), resourceId, slotSizes[slot], new BitmapDecoder.Callback()
+		{
+			public void onDecoded(int decodedResourceId, Bitmap bitmap)
+			{
+				slotDecodes[slot] = null;
+
+				if(bitmap != null)
+				{
+					slotBitmaps[slot] = bitmap;
+					slotAcquired[slot] = true;
+
+					invalidate();
+				}
+			}
+		});
+	}
+
+	private void releaseSlot(int slot)
+	{
+		ensureSlot(slot);
+
+		if(slotDecodes[slot] != null)
+		{
+			slotDecodes[slot].cancel();
+			slotDecodes[slot] = null;
+		}
+
+		if(slotAcquired[slot])
+		{
+			BitmapCache.release(slotResourceIds[slot], slotSizes[slot], slotBitmaps[slot]);
+		}
+
+		slotBitmaps[slot] = null;
+		slotResourceIds[slot] = -1;
+		slotAcquired[slot] = false;
+	}
+
+	private void ensureSlot(int slot)
+	{
+		if(slot < slotBitmaps.length)
+		{
+			return;
+		}
+
+		int length = Math.max(slot + 1, slotBitmaps.length * 2);
+
+		Bitmap[] bitmaps = new Bitmap[length];
+		int[] resourceIds = new int[length];
+		int[] sizes = new int[length];
+		boolean[] acquired = new boolean[length];
+		BitmapDecoder.Request[] decodes = new BitmapDecoder.Request[length];
+
+		System.arraycopy(slotBitmaps, 0, bitmaps, 0, slotBitmaps.length);
+		System.arraycopy(slotResourceIds, 0, resourceIds, 0, slotResourceIds.length);
+		System.arraycopy(slotSizes, 0, sizes, 0, slotSizes.length);
+		System.arraycopy(slotAcquired, 0, acquired, 0, slotAcquired.length);
+		System.arraycopy(slotDecodes, 0, decodes, 0, slotDecodes.length);
+
+		for(int i = slotResourceIds.length; i < length; i++)
+		{
+			resourceIds[i] = -1;
+		}
+
+		slotBitmaps = bitmaps;
+		slotResourceIds = resourceIds;
+		slotSizes = sizes;
+		slotAcquired = acquired;
+		slotDecodes = decodes;
+	}
+
+	/* (non-Javadoc)
+	 * @see android.view.View#onAttachedToWindow()
+	 */
+	@Override
+	protected void onAttachedToWindow()
+	{
+		super.onAttachedToWindow();
+
+		//Shared bitmaps handed back on detach
+		for(int slot = 0; slot < slotResourceIds.length; slot++)
+		{
+			if((slotResourceIds[slot] != -1) && (slotBitmaps[slot] == null) && (slotDecodes[slot] == null))
+			{
+				acquireSlot(slot);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see android.view.View#onDetachedFromWindow()
+	 */
+	@Override
+	protected void onDetachedFromWindow()
+	{
+		super.onDetachedFromWindow();
+
+		for(int slot = 0; slot < slotBitmaps.length; slot++)
+		{
+			if(slotDecodes[slot] != null)
+			{
+				slotDecodes[slot].cancel();
+				slotDecodes[slot] = null;
+			}
+
+			if(slotAcquired[slot])
+			{
+				BitmapCache.release(slotResourceIds[slot], slotSizes[slot], slotBitmaps[slot]);
+
+				slotBitmaps[slot] = null;
+				slotAcquired[slot] = false;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see android.view.View#onDraw(android.graphics.Canvas)
+	 */
+	@Override
+	protected void onDraw(Canvas canvas)
+	{
+		//Every spinning bottle, in one go
+		scene.advance(System.nanoTime());
+
+		if(onBottleStopListener != null)
+		{
+			for(int i = 0; i < scene.getStoppedCount(); i++)
+			{
+				int bottle = scene.getStopped(i);
+
+				onBottleStopListener.onStop(bottle, scene.getRotationDegrees(bottle));
+			}
+		}
+
+		//Grouped by slot, consecutive draws share the bitmap
+		int[] order = scene.getDrawOrder();
+
+		for(int i = 0; i < scene.getBottleCount(); i++)
+		{
+			int bottle = order[i];
+			int slot = scene.getSlot(bottle);
+			Bitmap bitmap = (slot < slotBitmaps.length)?(slotBitmaps[slot]):(null);
+
+			if(bitmap == null)
+			{
+				continue;
+			}
+
+			float halfWidth = bitmap.getWidth() / 2.0f;
+			float halfHeight = bitmap.getHeight() / 2.0f;
+			float scale = scene.getSize(bottle) / (2.0f * Math.max(halfWidth, halfHeight));
+
+			matrix.setTranslate(-halfWidth, -halfHeight);
+			matrix.postScale(scale, scale);
+			matrix.postRotate(scene.getRotationDegrees(bottle), 0.0f, 0.0f);
+			matrix.postTranslate(scene.getPivotX(bottle), scene.getPivotY(bottle));
+
+			canvas.drawBitmap(bitmap, matrix, paint);
+		}
+
+		if(scene.getActiveCount() > 0)
+		{
+			invalidate();
+		}
+	}
+
+	public void setOnBottleStopListener(OnBottleStopListener listener)
+	{
+		this.onBottleStopListener = listener;
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	public interface OnBottleStopListener
+	{
+		public abstract void onStop(int bottle, float stopAngle);
+	}
+
+	/**
+	 * Routes a gesture to the bottle it started on, in the bottle's own coordinates.
+	 */
+	private class SceneTouchListener implements View.OnTouchListener
+	{
+		public boolean onTouch(View v, MotionEvent event)
+		{
+			if(event.getAction() == MotionEvent.ACTION_DOWN)
+			{
+				touchTarget.bottle = scene.hitTest(event.getX(), event.getY());
+			}
+
+			int bottle = touchTarget.bottle;
+
+			if(bottle == -1)
+			{
+				return false;
+			}
+
+			float left = scene.getPivotX(bottle) - (scene.getSize(bottle) / 2.0f);
+			float top = scene.getPivotY(bottle) - (scene.getSize(bottle) / 2.0f);
+
+			event.offsetLocation(-left, -top);
+
+			boolean handled = swipeDetector.onTouch(v, event);
+
+			event.offsetLocation(left, top);
+
+			if((event.getAction() == MotionEvent.ACTION_UP) || (event.getAction() == MotionEvent.ACTION_CANCEL))
+			{
+				touchTarget.bottle = -1;
+			}
+
+			return handled;
+		}
+	}
+
+	/**
+	 * The touched bottle, as a SpinGesture sees it.
+	 */
+	private class BottleTarget implements SpinTarget
+	{
+		int bottle = -1;
+
+		public int getWidth()
+		{
+			return (int) scene.getSize(bottle);
+		}
+
+		public int getHeight()
+		{
+			return (int) scene.getSize(bottle);
+		}
+
+		public float getRotationDegree()
+		{
+			return scene.getRotationDegrees(bottle);
+		}
+
+		public void rotateTo(float degrees)
+		{
+			scene.rotateTo(bottle, degrees);
+
+			invalidate();
+		}
+
+		public void setRotationStepDegrees(float degrees)
+		{
+			scene.setRotationStepDegrees(bottle, degrees);
+		}
+
+		public void startRotating()
+		{
+			scene.start(bottle);
+
+			invalidate();
+		}
+
+		public void stopRotating()
+		{
+			if(scene.isRotating(bottle))
+			{
+				scene.stop(bottle);
+
+				if(onBottleStopListener != null)
+				{
+					onBottleStopListener.onStop(bottle, scene.getRotationDegrees(bottle));
+				}
+			}
+		}
+
+		public void setObstacle(int finger, float degrees)
+		{
+			//Scene bottles do not bounce
+		}
+
+		public void clearObstacle(int finger)
+		{
+		}
+	}
+}
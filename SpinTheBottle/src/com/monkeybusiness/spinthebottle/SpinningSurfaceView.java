@@ -0,0 +1,982 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import java.util.concurrent.Executor;
+
+import com.monkeybusiness.spinthebottle.SpinningDrawableView.OnStartRotatingListener;
+import com.monkeybusiness.spinthebottle.SpinningDrawableView.OnStopRotatingListener;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+import android.view.ViewParent;
+
+/**
+ * <p>
+ * Render thread flavour of SpinningDrawableView. Physics stepping and drawing
+ * run on a SpinRenderThread paced by vsync, leaving the UI thread to touch
+ * handling and the rest of the widgets. The thread goes idle once the bottle stops.
+ * </p>
+ * <p>
+ * Listeners are still notified on the UI thread.
+ * </p>
+ * <p>
+ * The surface sits under the window, so that views laid out over it stay
+ * visible; the backgrounds of the views behind it are drawn into each frame
+ * instead of showing through. See refreshBackground().
+ * </p>
+ */
+public class SpinningSurfaceView extends SurfaceView implements SurfaceHolder.Callback, SpinTarget
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/*****************************************************
+	 * Rotation
+	 */
+	/** Shared by the UI and render threads; always accessed while holding its lock */
+	private final SpinEngine engine = new SpinEngine();
+
+	/** Engine state for lock-free readers, published under the engine lock after every update */
+	private final SpinStateRecord state = new SpinStateRecord();
+
+	/** Drag input, applied to the engine once per frame. Guarded by the engine's lock. */
+	private final CoalescedInput input = new CoalescedInput();
+
+	private final SwipeDetector swipeDetector = new SwipeDetector(this);
+
+	/** Optional, records touches and frames for a headless replay */
+	private volatile SpinTraceWriter traceWriter = null;
+
+	/** Optional, every simulated step for a listener. Recorded under the engine lock, delivered by the render thread. */
+	private volatile SpinProgress progress = null;
+
+	private float rotationPivotXCoefficient = 0.5f;	//Middle by default
+	private float rotationPivotYCoefficient = 0.5f;	//Middle by default
+
+	/****************************************************
+	 * GUI
+	 */
+	private int drawableId = -1;
+	private volatile Bitmap bitmap = null;
+
+	/** Resource decoding in the background, if any */
+	private BitmapDecoder.Request pendingDecode = null;
+
+	/** Key of the bitmap in BitmapCache, -1 if not acquired from there */
+	private int acquiredDrawableId = -1;
+	private int acquiredSize;
+	private int acquiredFormat;
+
+	/** BitmapFormat of resource drawables */
+	private int bitmapFormat = BitmapFormat.ARGB_8888;
+
+	/** Color of ALPHA_8 bitmaps, 0 for the color found by an AUTO decode (black otherwise) */
+	private int bottleTint = 0;
+	/** Color found by the AUTO decode of the current bitmap, 0 if none */
+	private int silhouetteColor = 0;
+	/** Resolved from the above, for the render thread */
+	private volatile int tintColor = 0xFF000000;
+
+	/** Backgrounds of the views behind this one, drawn by the UI thread; null if none */
+	private volatile Bitmap background = null;
+
+	/** Render thread only */
+	private final Matrix matrix = new Matrix();
+	private final Paint backgroundPaint = new Paint();
+	private final Paint tintPaint = new Paint();
+	private float frameRotationDegrees;
+
+	private SpinRenderThread renderThread;
+
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/******************************************************
+	 * Listeners
+	 */
+	private volatile OnStartRotatingListener onStartRotatingListener;
+	private volatile OnStopRotatingListener onStopRotatingListener;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	public SpinningSurfaceView(Context context)
+	{
+		super(context);
+
+		initSurface();
+	}
+
+	public SpinningSurfaceView(Context context, AttributeSet attrs)
+	{
+		this(context, attrs, 0);
+	}
+
+	public SpinningSurfaceView(Context context, AttributeSet attrs, int defStyle)
+	{
+		super(context, attrs, defStyle);
+
+		//Initilize view according to pre-hints provided via xml
+		init(attrs);
+
+		initSurface();
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	private void init(AttributeSet attrs)
+	{
+		TypedArray a = getContext().obtainStyledAttributes(attrs, R.styleable.spinthebottle);
+
+		//Fetch resource drawable id if defined
+		drawableId = a.getResourceId(R.styleable.spinthebottle_bottle_drawable, -1);
+
+		bitmapFormat = a.getInt(R.styleable.spinthebottle_bitmap_format, BitmapFormat.ARGB_8888);
+		bottleTint = a.getColor(R.styleable.spinthebottle_bottle_tint, 0);
+		engine.setFixedPoint(a.getBoolean(R.styleable.spinthebottle_fixed_point_physics, false));
+
+		if(!BitmapFormat.isValid(bitmapFormat))
+		{
+			bitmapFormat = BitmapFormat.ARGB_8888;
+		}
+
+		updateTintColor();
+
+		//Remove artifacts
+		a.recycle();
+	}
+
+	private void initSurface()
+	{
+		//Under the window, so that views drawn over it stay visible; the window cuts a hole over it, see refreshBackground()
+		setZOrderMediaOverlay(true);
+		getHolder().setFormat(PixelFormat.TRANSPARENT);
+
+		//Background replaces whatever the previous frame left
+		backgroundPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+		getHolder().addCallback(this);
+
+		setOnTouchListener(swipeDetector);
+	}
+
+	/* (non-Javadoc)
+	 * @see android.view.View#onMeasure(int, int)
+	 */
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+	{
+		int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+		int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+
+		//Square by nature
+		width = height = Math.min(width, height);
+
+		setMeasuredDimension(width, height);
+
+		if((drawableId != -1) && (bitmap == null) && (pendingDecode == null))
+		{
+			setResourceDrawable(drawableId);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see android.view.View#onLayout(boolean, int, int, int, int)
+	 */
+	@Override
+	protected void onLayout(boolean changed, int left, int top, int right, int bottom)
+	{
+		super.onLayout(changed, left, top, right, bottom);
+
+		if(changed)
+		{
+			refreshBackground();
+		}
+	}
+
+	/**
+	 * Draws the backgrounds of the views behind this one again, for the render
+	 * thread to draw under the bottle. Done on every layout that moves or resizes
+	 * the view; call it after changing one of those backgrounds. Animated
+	 * backgrounds are not followed, SpinningDrawableView draws over those.
+	 */
+	public void refreshBackground()
+	{
+		int width = getWidth();
+		int height = getHeight();
+
+		if((width <= 0) || (height <= 0))
+		{
+			return;
+		}
+
+		Bitmap snapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+		if(drawBackgrounds(new Canvas(snapshot), this))
+		{
+			background = snapshot;
+		}
+		else
+		{
+			snapshot.recycle();
+
+			background = null;
+		}
+
+		requestRender();
+	}
+
+	/**
+	 * Draws the backgrounds of the given view's ancestors, outermost first, in the view's coordinates.
+	 *
+	 * @return whether any was drawn
+	 */
+	private static boolean drawBackgrounds(Canvas canvas, View view)
+	{
+		ViewParent parent = view.getParent();
+
+		if(!(parent instanceof View))
+		{
+			return false;
+		}
+
+		View parentView = (View) parent;
+
+		canvas.save();
+
+		//Backgrounds stay put while the content scrolls
+		canvas.translate(parentView.getScrollX() - view.getLeft(), parentView.getScrollY() - view.getTop());
+
+		boolean drawn = drawBackgrounds(canvas, parentView);
+
+		Drawable drawable = parentView.getBackground();
+
+		if(drawable != null)
+		{
+			drawable.draw(canvas);
+
+			drawn = true;
+		}
+
+		canvas.restore();
+
+		return drawn;
+	}
+
+	/* (non-Javadoc)
+	 * @see android.view.View#onDetachedFromWindow()
+	 */
+	@Override
+	protected void onDetachedFromWindow()
+	{
+		super.onDetachedFromWindow();
+
+		if(pendingDecode != null)
+		{
+			pendingDecode.cancel();
+			pendingDecode = null;
+		}
+
+		//Shared bitmap is handed back, onMeasure acquires it again if re-attached
+		if(acquiredDrawableId != -1)
+		{
+			swapBitmap(null);
+		}
+	}
+
+	public void surfaceCreated(SurfaceHolder holder)
+	{
+		renderThread = new SpinRenderThread(holder, new SurfaceRenderer());
+		renderThread.startRendering();
+		renderThread.setSurfaceReady(true);
+	}
+
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
+	{
+		requestRender();
+	}
+
+	public void surfaceDestroyed(SurfaceHolder holder)
+	{
+		//Blocks until the frame on the way, if any, is posted
+		renderThread.stopRendering();
+		renderThread = null;
+	}
+
+	private void requestRender()
+	{
+		SpinRenderThread thread = renderThread;
+
+		if(thread != null)
+		{
+			thread.requestRender();
+		}
+	}
+
+	/**
+	 * Update bitmap object with new bitmap.
+	 *
+	 * @param bitmap new bitmap data to spin
+	 */
+	public void setBitmap(Bitmap bitmap)
+	{
+		if(pendingDecode != null)
+		{
+			pendingDecode.cancel();
+			pendingDecode = null;
+		}
+
+		swapBitmap(bitmap);
+
+		requestRender();
+	}
+
+	/**
+	 * Publishes the new bitmap, and hands the old one back to the BitmapCache if acquired from there.
+	 */
+	private void swapBitmap(Bitmap bitmap)
+	{
+		Bitmap oldBitmap = this.bitmap;
+
+		this.bitmap = bitmap;
+
+		if(acquiredDrawableId != -1)
+		{
+			SpinRenderThread thread = renderThread;
+
+			if(thread != null)
+			{//Old bitmap may still be on the canvas
+				thread.waitForFrame();
+			}
+
+			BitmapCache.release(acquiredDrawableId, acquiredSize, acquiredFormat, oldBitmap);
+
+			acquiredDrawableId = -1;
+		}
+
+		silhouetteColor = 0;
+		updateTintColor();
+	}
+
+	/**
+	 * Initializes drawable bitmap from resources, scaled to fit into the view.
+	 * Decoding runs in the background; bitmaps are shared through the BitmapCache.
+	 *
+	 * @param resourceId
+	 */
+	public void setResourceDrawable(int resourceId)
+	{
+		drawableId = resourceId;
+
+		if(pendingDecode != null)
+		{
+			pendingDecode.cancel();
+			pendingDecode = null;
+		}
+
+		final int size = getMeasuredWidth();
+
+		if(size == 0)
+		{//Waits for onMeasure
+			return;
+		}
+
+		final int format = bitmapFormat;
+
+		if((acquiredDrawableId == resourceId) && (acquiredSize == size) && (acquiredFormat == format))
+		{//Already showing it
+			return;
+		}
+
+		pendingDecode = BitmapCache.acquire(getResources(), resourceId, size, format, new BitmapDecoder.Callback()
+		{
+			public void onDecoded(int resourceId, Bitmap bitmap)
+			{
+				pendingDecode = null;
+
+				if(bitmap != null)
+				{
+					swapBitmap(bitmap);
+
+					acquiredDrawableId = resourceId;
+					acquiredSize = size;
+					acquiredFormat = format;
+
+					silhouetteColor = BitmapCache.getSilhouetteColor(resourceId, size, format);
+					updateTintColor();
+
+					requestRender();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the in-memory format of resource drawables, re-decoding the current one if needed.
+	 *
+	 * @param format one of BitmapFormat
+	 * @throws IllegalArgumentException if the format is unknown
+	 * @see SpinningDrawableView#setBitmapFormat(int)
+	 */
+	public void setBitmapFormat(int format)
+	{
+		if(!BitmapFormat.isValid(format))
+		{
+			throw new IllegalArgumentException("Unknown bitmap format: " + format);
+		}
+
+		bitmapFormat = format;
+
+		if(drawableId != -1)
+		{
+			setResourceDrawable(drawableId);
+		}
+	}
+
+	public int getBitmapFormat()
+	{
+		return bitmapFormat;
+	}
+
+	/**
+	 * Sets the color of ALPHA_8 bitmaps.
+	 *
+	 * @param color ARGB color, 0 for the color found by an AUTO decode, or black
+	 */
+	public void setBottleTint(int color)
+	{
+		bottleTint = color;
+
+		updateTintColor();
+
+		requestRender();
+	}
+
+	/**
+	 * @return bytes held by the bitmap drawn, 0 if none. Shared bitmaps count fully in every view showing them.
+	 */
+	public int getBitmapBytes()
+	{
+		Bitmap current = bitmap;
+
+		return (current != null)?(current.getRowBytes() * current.getHeight()):(0);
+	}
+
+	private void updateTintColor()
+	{
+		tintColor = (bottleTint != 0)?(bottleTint):((silhouetteColor != 0)?(silhouetteColor):(0xFF000000));
+	}
+
+	public void setRotationStepDegrees(float degrees)
+	{
+		synchronized (engine)
+		{
+			input.applyTo(engine);
+			engine.setRotationStepDegrees(degrees);
+
+			state.publish(engine);
+		}
+	}
+
+	/**
+	 * Rotates the bottle on the next frame. Calls within a frame coalesce, the last one wins.
+	 *
+	 * @param degrees
+	 */
+	public void rotateTo(float degrees)
+	{
+		synchronized (engine)
+		{
+			input.rotateTo(degrees);
+		}
+
+		requestRender();
+	}
+
+	public void startRotating()
+	{
+		float rotationStepDegrees;
+		SpinPrediction prediction;
+
+		synchronized (engine)
+		{
+			input.applyTo(engine);
+			engine.start();
+
+			state.publish(engine);
+
+			rotationStepDegrees = engine.getRotationStepDegrees();
+			prediction = engine.predict();
+		}
+
+		OnStartRotatingListener listener = onStartRotatingListener;
+
+		if(listener != null)
+		{
+			listener.onStart(rotationStepDegrees, prediction);
+		}
+
+		requestRender();
+	}
+
+	/**
+	 * Tells where and when the bottle stops, unless touched on the way. Holds at
+	 * fling time; see OnStartRotatingListener.
+	 */
+	public SpinPrediction predictStop()
+	{
+		synchronized (engine)
+		{
+			input.applyTo(engine);
+
+			state.publish(engine);
+
+			return engine.predict();
+		}
+	}
+
+	/**
+	 * Jumps ahead in the spin, as if the given time passed, without drawing the
+	 * frames in between. Not recorded by a SpinTraceWriter.
+	 *
+	 * @param durationNanos time to skip, e.g. SpinPrediction.getDurationNanos() to land on the stop angle
+	 */
+	public void fastForward(long durationNanos)
+	{
+		boolean stopped;
+		float rotationDegrees;
+
+		synchronized (engine)
+		{
+			input.applyTo(engine);
+
+			boolean wasRotating = engine.isRotating();
+
+			engine.skip((int) Math.min(durationNanos / SpinEngine.STEP_NANOS, Integer.MAX_VALUE));
+
+			state.publish(engine);
+
+			stopped = wasRotating && !engine.isRotating();
+			rotationDegrees = engine.getRotationDegrees();
+		}
+
+		OnStopRotatingListener listener = onStopRotatingListener;
+
+		if(stopped && (listener != null))
+		{
+			listener.onStop(rotationDegrees);
+		}
+
+		requestRender();
+	}
+
+	public void stopRotating()
+	{
+		boolean wasRotating;
+		float rotationDegrees;
+
+		synchronized (engine)
+		{
+			input.applyTo(engine);
+
+			wasRotating = engine.isRotating();
+			rotationDegrees = engine.getRotationDegrees();
+
+			engine.stop();
+
+			state.publish(engine);
+		}
+
+		OnStopRotatingListener listener = onStopRotatingListener;
+
+		if(wasRotating && (listener != null))
+		{
+			listener.onStop(rotationDegrees);
+		}
+	}
+
+	/**
+	 * Places an obstacle (e.g. a finger) on the bottle's way, as of the next frame.
+	 * Same as finger 0.
+	 *
+	 * @param degrees obstacle angle within [0, 360)
+	 */
+	public void setObstacle(float degrees)
+	{
+		setObstacle(0, degrees);
+	}
+
+	/**
+	 * Places one of several fingers on the bottle's way, as of the next frame.
+	 *
+	 * @param finger within [0, SpinEngine.MAX_FINGERS)
+	 * @param degrees obstacle angle within [0, 360)
+	 */
+	public void setObstacle(int finger, float degrees)
+	{
+		synchronized (engine)
+		{
+			input.setObstacle(finger, degrees);
+		}
+	}
+
+	/**
+	 * Lifts every finger.
+	 */
+	public void clearObstacle()
+	{
+		synchronized (engine)
+		{
+			input.clearObstacles();
+			engine.clearObstacle();
+
+			state.publish(engine);
+		}
+	}
+
+	public void clearObstacle(int finger)
+	{
+		synchronized (engine)
+		{
+			input.clearObstacle(finger);
+			engine.clearObstacle(finger);
+
+			state.publish(engine);
+		}
+	}
+
+	/**
+	 * Places a fixed obstacle (e.g. a glass on the table) the bottle bounces off,
+	 * along with the finger.
+	 *
+	 * @param degrees obstacle angle within [0, 360)
+	 * @return key to remove it with
+	 */
+	public int addFixedObstacle(float degrees)
+	{
+		SpinTraceWriter writer = traceWriter;
+
+		if(writer == null)
+		{
+			return addFixedObstacle(degrees, null);
+		}
+		else
+		{
+			//Same lock order as the render thread
+			synchronized (writer)
+			{
+				return addFixedObstacle(degrees, writer);
+			}
+		}
+	}
+
+	private int addFixedObstacle(float degrees, SpinTraceWriter writer)
+	{
+		synchronized (engine)
+		{
+			int key = engine.addFixedObstacle(degrees);
+
+			if(writer != null)
+			{
+				writer.addObstacle(key, degrees);
+			}
+
+			return key;
+		}
+	}
+
+	/**
+	 * @param key as returned by addFixedObstacle(float)
+	 */
+	public void removeFixedObstacle(int key)
+	{
+		SpinTraceWriter writer = traceWriter;
+
+		if(writer == null)
+		{
+			removeFixedObstacle(key, null);
+		}
+		else
+		{
+			synchronized (writer)
+			{
+				removeFixedObstacle(key, writer);
+			}
+		}
+	}
+
+	private void removeFixedObstacle(int key, SpinTraceWriter writer)
+	{
+		synchronized (engine)
+		{
+			engine.removeFixedObstacle(key);
+
+			if(writer != null)
+			{
+				writer.removeObstacle(key);
+			}
+		}
+	}
+
+	/**
+	 * Runs the spin on integer physics, see SpinningDrawableView.setFixedPointPhysics(boolean).
+	 */
+	public void setFixedPointPhysics(boolean fixedPoint)
+	{
+		SpinTraceWriter writer = traceWriter;
+
+		if(writer == null)
+		{
+			setFixedPoint(fixedPoint, null);
+		}
+		else
+		{
+			//Same lock order as the render thread; the switch lands in the trace between the frames it falls between
+			synchronized (writer)
+			{
+				setFixedPoint(fixedPoint, writer);
+			}
+		}
+	}
+
+	private void setFixedPoint(boolean fixedPoint, SpinTraceWriter writer)
+	{
+		synchronized (engine)
+		{
+			input.applyTo(engine);
+
+			engine.setFixedPoint(fixedPoint);
+
+			state.publish(engine);
+
+			if(writer != null)
+			{
+				writer.engine(fixedPoint);
+			}
+		}
+	}
+
+	public boolean isFixedPointPhysics()
+	{
+		synchronized (engine)
+		{
+			return engine.isFixedPoint();
+		}
+	}
+
+	/**
+	 * Records every touch and frame into the given trace, to be replayed headless
+	 * by tools/TraceReplayer. The caller closes the writer once done.
+	 *
+	 * @param writer trace to record into, null to stop recording
+	 */
+	public void setTraceWriter(SpinTraceWriter writer)
+	{
+		if(writer != null)
+		{
+			synchronized (writer)
+			{
+				synchronized (engine)
+				{//Physics this view runs on, whatever the writer was created with, and obstacles already placed
+					writer.engine(engine.isFixedPoint());
+					engine.traceFixedObstacles(writer);
+				}
+			}
+		}
+
+		traceWriter = writer;
+		swipeDetector.setTraceWriter(writer);
+	}
+
+	/**
+	 * Reports the angle, speed and time of every simulated step, in one batch per
+	 * frame. Recording neither allocates nor waits for the listener; see SpinProgress.
+	 *
+	 * @param listener receives the batches, null to stop reporting
+	 * @param executor delivers the batches, e.g. to a game thread. null to deliver on the render thread, right after stepping.
+	 */
+	public void setOnRotationProgressListener(SpinProgress.Listener listener, Executor executor)
+	{
+		SpinProgress newProgress = (listener != null)?(new SpinProgress(listener, executor)):(null);
+
+		synchronized (engine)
+		{
+			engine.setProgress(newProgress);
+		}
+
+		progress = newProgress;
+	}
+
+	public void setOnStartRotatingListener(OnStartRotatingListener listener)
+	{
+		this.onStartRotatingListener = listener;
+	}
+
+	public void setOnStopRotatingListener(OnStopRotatingListener listener)
+	{
+		this.onStopRotatingListener = listener;
+	}
+
+	/**
+	 *
+	 * @return Image rotation angle
+	 */
+	public float getRotationDegree()
+	{
+		synchronized (engine)
+		{
+			return input.getRotationDegrees(engine);
+		}
+	}
+
+	/**
+	 * Safe from any thread, and unlike getRotationDegree() never waits for the
+	 * render thread. Reflects the engine as of the last frame or update.
+	 *
+	 * @return consistent copy of the spin state
+	 */
+	public SpinState getSpinState()
+	{
+		return state.read();
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	private class SurfaceRenderer implements SpinRenderThread.Renderer
+	{
+		/** Outcome of the last advance() */
+		private boolean stopped;
+		private boolean rotating;
+
+		public boolean onStep(long frameTimeNanos)
+		{
+			SpinTraceWriter writer = traceWriter;
+
+			if(writer == null)
+			{
+				advance(frameTimeNanos, null);
+			}
+			else
+			{
+				//Same lock order as SwipeDetector; touches land in the trace in the order they were applied
+				synchronized (writer)
+				{
+					advance(frameTimeNanos, writer);
+				}
+			}
+
+			SpinProgress frameProgress = progress;
+
+			if(frameProgress != null)
+			{//Outside of the engine lock, the listener may take its time
+				frameProgress.endFrame();
+			}
+
+			final OnStopRotatingListener listener = onStopRotatingListener;
+
+			if(stopped && (listener != null))
+			{//Stopped by friction
+				final float stopAngle = frameRotationDegrees;
+
+				mainHandler.post(new Runnable()
+				{
+					public void run()
+					{
+						listener.onStop(stopAngle);
+					}
+				});
+			}
+
+			return rotating;
+		}
+
+		private void advance(long frameTimeNanos, SpinTraceWriter writer)
+		{
+			synchronized (engine)
+			{
+				//Latest drag angle and obstacle of this frame
+				input.applyTo(engine);
+
+				boolean wasRotating = engine.isRotating();
+
+				engine.advance(frameTimeNanos);
+
+				state.publish(engine);
+
+				rotating = engine.isRotating();
+				stopped = wasRotating && !rotating;
+				frameRotationDegrees = engine.getRotationDegrees();
+
+				if(writer != null)
+				{
+					writer.frame(frameTimeNanos, frameRotationDegrees, engine.getRotationStepDegrees(), rotating);
+				}
+			}
+		}
+
+		public void onDraw(Canvas canvas)
+		{
+			Bitmap frameBackground = background;
+
+			if(frameBackground != null)
+			{
+				canvas.drawBitmap(frameBackground, 0.0f, 0.0f, backgroundPaint);
+			}
+			else
+			{
+				canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+			}
+
+			Bitmap frameBitmap = bitmap;
+
+			if(frameBitmap != null)
+			{
+				matrix.setRotate(frameRotationDegrees, frameBitmap.getWidth() * rotationPivotXCoefficient, frameBitmap.getHeight() * rotationPivotYCoefficient);
+
+				if(frameBitmap.getConfig() == Bitmap.Config.ALPHA_8)
+				{//Alpha only bitmaps take the paint's color
+					tintPaint.setColor(tintColor);
+
+					canvas.drawBitmap(frameBitmap, matrix, tintPaint);
+				}
+				else
+				{
+					canvas.drawBitmap(frameBitmap, matrix, null);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle;
+
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * <p>
+ * Feeds MotionEvents of a view into a SpinGesture, recording them on the way if asked to.
+ * </p>
+ * <p>
+ * Every pointer of an event is handed over in a single pass, by pointer id.
+ * getActionMasked() and getActionIndex() need API 8; the masks they apply are
+ * compile time constants, so they are applied by hand instead.
+ * </p>
+ */
+class SwipeDetector implements View.OnTouchListener
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private final SpinGesture gesture;
+
+	private volatile SpinTraceWriter traceWriter = null;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	SwipeDetector(SpinTarget target)
+	{
+		this.gesture = new SpinGesture(target);
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * @param writer trace to record touches into, null to stop recording
+	 */
+	void setTraceWriter(SpinTraceWriter writer)
+	{
+		this.traceWriter = writer;
+	}
+
+	public boolean onTouch(View v, MotionEvent event) 
+	{
+		SpinTraceWriter writer = traceWriter;
+
+		if(writer == null)
+		{
+			return handle(event);
+		}
+
+		//Recorded along with its effect, so that a frame recorded by a render thread can not slip in between
+		synchronized (writer)
+		{
+			record(writer, event);
+
+			return handle(event);
+		}
+	}
+
+	private boolean handle(MotionEvent event)
+	{
+		int action = event.getAction();
+
+		switch(action & MotionEvent.ACTION_MASK) 
+		{
+			case MotionEvent.ACTION_DOWN:
+			case MotionEvent.ACTION_POINTER_DOWN:
+			{
+				int index = actionIndex(action);
+
+				gesture.onDown(event.getPointerId(index), event.getX(index), event.getY(index), event.getEventTime());
+
+				break;
+			}
+			case MotionEvent.ACTION_MOVE:
+			{
+				//Samples batched into this event, oldest first, pointer by pointer
+				int historySize = event.getHistorySize();
+				int pointerCount = event.getPointerCount();
+
+				for(int index = 0; index < pointerCount; index++)
+				{
+					int pointerId = event.getPointerId(index);
+
+					for(int i = 0; i < historySize; i++)
+					{
+						gesture.onMoveSample(pointerId, event.getHistoricalX(index, i), event.getHistoricalY(index, i), event.getHistoricalEventTime(i));
+					}
+
+					gesture.onMove(pointerId, event.getX(index), event.getY(index), event.getEventTime());
+				}
+
+				break;
+			}
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_POINTER_UP:
+			{
+				gesture.onUp(event.getPointerId(actionIndex(action)));
+
+				break;
+			}
+			case MotionEvent.ACTION_CANCEL:
+			{
+				gesture.onCancel();
+
+				break;
+			}
+			default:
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Records the event the way handle(MotionEvent) takes it, one record per pointer.
+	 */
+	private void record(SpinTraceWriter writer, MotionEvent event)
+	{
+		int action = event.getAction();
+
+		switch(action & MotionEvent.ACTION_MASK)
+		{
+			case MotionEvent.ACTION_DOWN:
+			case MotionEvent.ACTION_POINTER_DOWN:
+				record(writer, SpinTraceWriter.ACTION_DOWN, event, actionIndex(action), 0);
+				break;
+			case MotionEvent.ACTION_MOVE:
+				for(int index = 0; index < event.getPointerCount(); index++)
+				{
+					record(writer, SpinTraceWriter.ACTION_MOVE, event, index, event.getHistorySize());
+				}
+				break;
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_POINTER_UP:
+				record(writer, SpinTraceWriter.ACTION_UP, event, actionIndex(action), 0);
+				break;
+			case MotionEvent.ACTION_CANCEL:
+				writer.beginTouch(SpinTraceWriter.ACTION_CANCEL, 0, 0);
+				break;
+			default:
+				return;
+		}
+	}
+
+	private static void record(SpinTraceWriter writer, byte action, MotionEvent event, int index, int historySize)
+	{
+		int pointerId = event.getPointerId(index);
+
+		if(pointerId >= SpinGesture.MAX_POINTERS)
+		{//Ignored by the gesture too
+			return;
+		}
+
+		writer.beginTouch(action, pointerId, historySize + 1);
+
+		for(int i = 0; i < historySize; i++)
+		{
+			writer.touchSample(event.getHistoricalX(index, i), event.getHistoricalY(index, i), event.getHistoricalEventTime(i));
+		}
+
+		writer.touchSample(event.getX(index), event.getY(index), event.getEventTime());
+	}
+
+	/**
+	 * @return index of the pointer a (pointer) down or up is about, as getActionIndex()
+	 */
+	private static int actionIndex(int action)
+	{
+		return (action & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+	}
+}
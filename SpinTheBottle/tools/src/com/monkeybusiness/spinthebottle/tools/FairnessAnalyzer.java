@@ -0,0 +1,1052 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle.tools;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.monkeybusiness.spinthebottle.FixedPointSpinEngine;
+import com.monkeybusiness.spinthebottle.SpinEngine;
+import com.monkeybusiness.spinthebottle.SpinPrediction;
+
+/**
+ * <p>
+ * Tells whether the bottle is fair: runs millions of spins of SpinEngine,
+ * split across all cores with fork/join, and tests the stop angles for
+ * uniformity with a chi-square test over the sectors of the table.
+ * </p>
+ * <p>
+ * Spins with a clear path are predicted in O(1) by SpinEngine.predict(),
+ * which matches stepping exactly; only those hitting an obstacle, or spun on
+ * a table with fixed obstacles, are stepped.
+ * </p>
+ * <p>
+ * Runs are deterministic for a given seed; each batch of spins draws from
+ * its own generator, seeded by the index of its first spin.
+ * </p>
+ * <p>
+ * engine=fixed runs FixedPointSpinEngine instead, always stepped. engine=compare
+ * runs both on the same draws, starting each spin from the same angle, and
+ * tests whether their sector counts come from the same distribution.
+ * </p>
+ * <p>
+ * Usage: FairnessAnalyzer [key=value]...
+ * </p>
+ * <pre>
+ * spins=1000000           spins per parameter set
+ * sectors=8               players around the bottle
+ * velocity=fling:2        initial speed, one of
+ *                           fling:max         drag speed uniform in [-max, max] degrees/ms,
+ *                                             clamped and scaled as a toss (SpinGesture)
+ *                           uniform:min:max   degrees per step
+ *                           normal:mean:sd    degrees per step, clamped to MAX_ROTATION_DEGREES
+ * start=0                 start angle in degrees, "uniform", or "chain" (each spin
+ *                         starts where the previous one stopped, as in a game; each
+ *                         batch of 8192 spins, run apart, starts from a uniform angle)
+ * friction=0.5            single value or from:to:step, swept
+ * bounce=0.2              single value or from:to:step, swept
+ * obstacle=0              probability that a finger blocks the path for up to a second
+ * table=                  fixed obstacles around the table, comma separated degrees
+ * seed=1
+ * threads=&lt;cores&gt;
+ * engine=float            float, fixed (FixedPointSpinEngine), or compare (both, single parameter set only)
+ * histogram=&lt;file&gt;        writes the per degree stop counts as csv (single parameter set only)
+ * </pre>
+ */
+public class FairnessAnalyzer
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final int BINS = 360;
+
+	/** Spins per fork/join leaf */
+	private static final int LEAF_SPINS = 8192;
+
+	/** A spin still rotating after this many steps is given up, e.g. with no friction at all */
+	private static final int MAX_STEPS_PER_SPIN = 100000;
+
+	/** Drag speed (degrees/ms) tossing at MAX_ROTATION_DEGREES, as in SpinGesture */
+	private static final float FLING_VELOCITY_MAX = 1.0f;
+
+	/** Frames a finger obstacle is held at most, one second */
+	private static final int MAX_OBSTACLE_STEPS = 60;
+
+	static final int ENGINE_FLOAT = 0;
+	static final int ENGINE_FIXED = 1;
+	static final int ENGINE_COMPARE = 2;
+
+	private static final String[] ENGINE_NAMES = { "float", "fixed", "compare" };
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public static void main(String[] args) throws FileNotFoundException
+	{
+		int spins = 1000000;
+		int sectors = 8;
+		String velocity = "fling:2";
+		String start = "0";
+		String friction = String.valueOf(SpinEngine.FRICTION);
+		String bounce = String.valueOf(SpinEngine.BOUNCE_ENERGY_COEFFICIENT);
+		double obstacle = 0.0;
+		float[] table = new float[0];
+		long seed = 1L;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String histogram = null;
+		int engine = ENGINE_FLOAT;
+
+		try
+		{
+			for(String arg : args)
+			{
+				int separator = arg.indexOf('=');
+
+				if(separator < 0)
+				{
+					throw new IllegalArgumentException(arg);
+				}
+
+				String key = arg.substring(0, separator);
+				String value = arg.substring(separator + 1);
+
+				if(key.equals("spins"))				spins = Integer.parseInt(value);
+				else if(key.equals("sectors"))		sectors = Integer.parseInt(value);
+				else if(key.equals("velocity"))		velocity = value;
+				else if(key.equals("start"))		start = value;
+				else if(key.equals("friction"))		friction = value;
+				else if(key.equals("bounce"))		bounce = value;
+				else if(key.equals("obstacle"))		obstacle = Double.parseDouble(value);
+				else if(key.equals("table"))		table = list(value);
+				else if(key.equals("seed"))			seed = Long.parseLong(value);
+				else if(key.equals("threads"))		threads = Integer.parseInt(value);
+				else if(key.equals("engine"))		engine = engine(value);
+				else if(key.equals("histogram"))	histogram = value;
+				else throw new IllegalArgumentException(arg);
+			}
+
+			Velocity.parse(velocity);
+			Start.parse(start);
+
+			if((spins <= 0) || (sectors <= 1) || (sectors > BINS) || (threads <= 0) || (obstacle < 0.0) || (obstacle > 1.0))
+			{
+				throw new IllegalArgumentException("out of range");
+			}
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.out.println("Bad argument: " + e.getMessage());
+			System.out.println("Usage: FairnessAnalyzer [spins=N] [sectors=N] [velocity=fling:max|uniform:min:max|normal:mean:sd]");
+			System.out.println("       [start=degrees|uniform|chain] [friction=f|from:to:step] [bounce=b|from:to:step]");
+			System.out.println("       [obstacle=probability] [table=degrees,...] [seed=N] [threads=N] [engine=float|fixed|compare]");
+			System.out.println("       [histogram=file]");
+			System.exit(2);
+			return;
+		}
+
+		float[] frictions = range(friction);
+		float[] bounces = range(bounce);
+		boolean sweep = (frictions.length * bounces.length) > 1;
+
+		if(sweep && (engine == ENGINE_COMPARE))
+		{
+			System.out.println("Bad argument: engine=compare takes a single parameter set");
+			System.exit(2);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		System.out.println(String.format(Locale.US, "%d spins per set, velocity %s, start %s, obstacle %.2f, table %s, %d sectors, %d threads, %s engine",
+				spins, velocity, start, obstacle, Arrays.toString(table), sectors, threads, ENGINE_NAMES[engine]));
+
+		if(sweep)
+		{
+			System.out.println("friction  bounce   chi-square        p  max/mean  not stopped    spins/s");
+		}
+
+		long sweepStart = System.nanoTime();
+
+		for(float f : frictions)
+		{
+			for(float b : bounces)
+			{
+				if(f <= 0.0f)
+				{//The bottle would never stop
+					System.out.println(String.format(Locale.US, "friction %.3f skipped, must be positive", f));
+					continue;
+				}
+
+				Simulation simulation = new Simulation(f, b, Velocity.parse(velocity), Start.parse(start), obstacle, table, seed, engine, sectors);
+
+				long runStart = System.nanoTime();
+				Tally tally = pool.invoke(new SpinTask(simulation, 0, spins));
+				double seconds = (System.nanoTime() - runStart) / 1e9;
+
+				Report report = new Report(tally);
+
+				if(sweep)
+				{
+					System.out.println(String.format(Locale.US, "%8.3f  %6.3f  %11.1f  %7.4f  %8.2f  %11d  %9.0f",
+							f, b, report.chiSquare, report.pValue, report.maxBinRatio, tally.notStopped, spins / seconds));
+				}
+				else
+				{
+					if(tally.compared != null)
+					{
+						System.out.println("float engine:");
+					}
+
+					report.print(System.out, seconds);
+
+					if(tally.compared != null)
+					{
+						Report comparedReport = new Report(tally.compared);
+
+						System.out.println("fixed point engine:");
+						comparedReport.print(System.out, seconds);
+
+						printComparison(System.out, tally, report, comparedReport);
+					}
+
+					if(histogram != null)
+					{
+						writeHistogram(tally, histogram);
+					}
+				}
+			}
+		}
+
+		if(sweep)
+		{
+			System.out.println(String.format(Locale.US, "sweep took %.1f s", (System.nanoTime() - sweepStart) / 1e9));
+		}
+
+		pool.shutdown();
+	}
+
+	/**
+	 * @return one of ENGINE_FLOAT, ENGINE_FIXED or ENGINE_COMPARE
+	 */
+	static int engine(String spec)
+	{
+		for(int i = 0; i < ENGINE_NAMES.length; i++)
+		{
+			if(ENGINE_NAMES[i].equals(spec))
+			{
+				return i;
+			}
+		}
+
+		throw new IllegalArgumentException("engine " + spec);
+	}
+
+	/**
+	 * @param spec a single value or from:to:step, both ends included
+	 */
+	static float[] range(String spec)
+	{
+		String[] parts = spec.split(":");
+
+		if(parts.length == 1)
+		{
+			return new float[] { Float.parseFloat(parts[0]) };
+		}
+
+		if(parts.length != 3)
+		{
+			throw new IllegalArgumentException(spec);
+		}
+
+		float from = Float.parseFloat(parts[0]);
+		float to = Float.parseFloat(parts[1]);
+		float step = Float.parseFloat(parts[2]);
+
+		if((step <= 0.0f) || (to < from))
+		{
+			throw new IllegalArgumentException(spec);
+		}
+
+		int count = Math.round((to - from) / step) + 1;
+		float[] values = new float[count];
+
+		for(int i = 0; i < count; i++)
+		{
+			values[i] = from + (i * step);
+		}
+
+		return values;
+	}
+
+	/**
+	 * @return "a,b,c" as floats, none for an empty string
+	 */
+	static float[] list(String spec)
+	{
+		if(spec.length() == 0)
+		{
+			return new float[0];
+		}
+
+		String[] parts = spec.split(",");
+		float[] values = new float[parts.length];
+
+		for(int i = 0; i < parts.length; i++)
+		{
+			values[i] = Float.parseFloat(parts[i]);
+		}
+
+		return values;
+	}
+
+	private static void writeHistogram(Tally tally, String file) throws FileNotFoundException
+	{
+		PrintStream output = new PrintStream(file);
+
+		try
+		{
+			output.println((tally.compared == null)?("degree,count"):("degree,count,fixed"));
+
+			for(int i = 0; i < BINS; i++)
+			{
+				output.println(i + "," + tally.bins[i] + ((tally.compared == null)?(""):("," + tally.compared.bins[i])));
+			}
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	/**
+	 * Prints how far the fixed point engine's stops are from the float one's:
+	 * per spin, and as distributions, with a chi-square test of homogeneity over
+	 * the sectors.
+	 */
+	private static void printComparison(PrintStream output, Tally tally, Report report, Report comparedReport)
+	{
+		int sectors = report.sectorCounts.length;
+		long spins = tally.stopped() + tally.notStopped;
+
+		double chiSquare = homogeneity(report.sectorCounts, comparedReport.sectorCounts);
+		double pValue = upperRegularizedGamma((sectors - 1) / 2.0, chiSquare / 2.0);
+
+		output.println("float against fixed point:");
+		output.println(String.format(Locale.US, "stop angles differ in %d spins (%.4f%%), degree bins in %d (%.4f%%), by %.5f degrees at most",
+				tally.differing, (100.0 * tally.differing) / spins, tally.differingBins, (100.0 * tally.differingBins) / spins, tally.maxDifference));
+		output.println(String.format(Locale.US, "homogeneity chi-square %.2f, df %d, p %.4f%s",
+				chiSquare, sectors - 1, pValue, (pValue < 0.01)?(", NOT the same distribution"):("")));
+	}
+
+	/**
+	 * @return chi-square statistic of two samples over the same categories, sectors - 1 degrees of freedom
+	 */
+	static double homogeneity(long[] first, long[] second)
+	{
+		double firstTotal = 0.0;
+		double secondTotal = 0.0;
+
+		for(int i = 0; i < first.length; i++)
+		{
+			firstTotal += first[i];
+			secondTotal += second[i];
+		}
+
+		if((firstTotal == 0.0) || (secondTotal == 0.0))
+		{
+			return 0.0;
+		}
+
+		double firstWeight = Math.sqrt(secondTotal / firstTotal);
+		double secondWeight = Math.sqrt(firstTotal / secondTotal);
+		double chiSquare = 0.0;
+
+		for(int i = 0; i < first.length; i++)
+		{
+			long both = first[i] + second[i];
+
+			if(both != 0L)
+			{
+				double difference = (first[i] * firstWeight) - (second[i] * secondWeight);
+
+				chiSquare += (difference * difference) / both;
+			}
+		}
+
+		return chiSquare;
+	}
+
+	/**
+	 * Regularized upper incomplete gamma function Q(a, x), e.g. the p-value of
+	 * a chi-square statistic x2 with df degrees of freedom is Q(df / 2, x2 / 2).
+	 */
+	static double upperRegularizedGamma(double a, double x)
+	{
+		if(x <= 0.0)
+		{
+			return 1.0;
+		}
+
+		double logPrefix = (a * Math.log(x)) - x - logGamma(a);
+
+		if(x < (a + 1.0))
+		{//Series of P(a, x)
+			double term = 1.0 / a;
+			double sum = term;
+
+			for(int n = 1; n < 1000; n++)
+			{
+				term *= x / (a + n);
+				sum += term;
+
+				if(Math.abs(term) < (Math.abs(sum) * 1e-15))
+				{
+					break;
+				}
+			}
+
+			return 1.0 - (sum * Math.exp(logPrefix));
+		}
+
+		//Continued fraction of Q(a, x), modified Lentz
+		double tiny = 1e-300;
+		double b = x + 1.0 - a;
+		double c = 1.0 / tiny;
+		double d = 1.0 / b;
+		double fraction = d;
+
+		for(int n = 1; n < 1000; n++)
+		{
+			double an = -n * (n - a);
+
+			b += 2.0;
+			d = (an * d) + b;
+			d = (Math.abs(d) < tiny)?(tiny):(d);
+			c = b + (an / c);
+			c = (Math.abs(c) < tiny)?(tiny):(c);
+			d = 1.0 / d;
+
+			double delta = d * c;
+
+			fraction *= delta;
+
+			if(Math.abs(delta - 1.0) < 1e-15)
+			{
+				break;
+			}
+		}
+
+		return Math.exp(logPrefix) * fraction;
+	}
+
+	/**
+	 * Lanczos approximation, good to about 1e-10 for positive arguments.
+	 */
+	static double logGamma(double x)
+	{
+		final double[] coefficients = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+				-1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+
+		double y = x;
+		double tmp = x + 5.5;
+
+		tmp -= (x + 0.5) * Math.log(tmp);
+
+		double series = 1.000000000190015;
+
+		for(double coefficient : coefficients)
+		{
+			series += coefficient / ++y;
+		}
+
+		return -tmp + Math.log((2.5066282746310005 * series) / x);
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	/**
+	 * Initial rotation step of a spin, in degrees per step.
+	 */
+	static abstract class Velocity
+	{
+		abstract float sample(SplittableRandom random);
+
+		static Velocity parse(String spec)
+		{
+			String[] parts = spec.split(":");
+
+			try
+			{
+				if(parts[0].equals("fling") && (parts.length == 2))
+				{
+					final float max = Float.parseFloat(parts[1]);
+
+					return new Velocity()
+					{
+						@Override
+						float sample(SplittableRandom random)
+						{
+							float velocity = (float) ((random.nextDouble() * 2.0 - 1.0) * max);
+
+							return SpinEngine.MAX_ROTATION_DEGREES * Math.max(-FLING_VELOCITY_MAX, Math.min(FLING_VELOCITY_MAX, velocity));
+						}
+					};
+				}
+				else if(parts[0].equals("uniform") && (parts.length == 3))
+				{
+					final float min = Float.parseFloat(parts[1]);
+					final float max = Float.parseFloat(parts[2]);
+
+					return new Velocity()
+					{
+						@Override
+						float sample(SplittableRandom random)
+						{
+							return (float) (min + (random.nextDouble() * (max - min)));
+						}
+					};
+				}
+				else if(parts[0].equals("normal") && (parts.length == 3))
+				{
+					final float mean = Float.parseFloat(parts[1]);
+					final float deviation = Float.parseFloat(parts[2]);
+
+					return new Velocity()
+					{
+						@Override
+						float sample(SplittableRandom random)
+						{
+							//Box-Muller
+							double gaussian = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble())) * Math.cos(2.0 * Math.PI * random.nextDouble());
+							float velocity = (float) (mean + (gaussian * deviation));
+
+							return Math.max(-SpinEngine.MAX_ROTATION_DEGREES, Math.min(SpinEngine.MAX_ROTATION_DEGREES, velocity));
+						}
+					};
+				}
+			}
+			catch(NumberFormatException e)
+			{
+				//Falls through
+			}
+
+			throw new IllegalArgumentException("velocity " + spec);
+		}
+	}
+
+	/**
+	 * Where each spin starts from.
+	 */
+	static class Start
+	{
+		static final int FIXED = 0;
+		static final int UNIFORM = 1;
+		static final int CHAIN = 2;
+
+		final int mode;
+		final float degrees;
+
+		private Start(int mode, float degrees)
+		{
+			this.mode = mode;
+			this.degrees = degrees;
+		}
+
+		static Start parse(String spec)
+		{
+			if(spec.equals("uniform"))
+			{
+				return new Start(UNIFORM, 0.0f);
+			}
+			else if(spec.equals("chain"))
+			{
+				return new Start(CHAIN, 0.0f);
+			}
+
+			float degrees = Float.parseFloat(spec);
+
+			if((degrees < 0.0f) || (degrees >= 360.0f))
+			{
+				throw new IllegalArgumentException("start " + spec);
+			}
+
+			return new Start(FIXED, degrees);
+		}
+	}
+
+	/**
+	 * One parameter set; immutable, shared by all tasks.
+	 */
+	static class Simulation
+	{
+		final float friction;
+		final float bounce;
+		final Velocity velocity;
+		final Start start;
+		final double obstacleProbability;
+		final float[] table;
+		final long seed;
+		final int engine;
+		final int sectors;
+
+		Simulation(float friction, float bounce, Velocity velocity, Start start, double obstacleProbability, float[] table, long seed, int engine, int sectors)
+		{
+			this.friction = friction;
+			this.bounce = bounce;
+			this.velocity = velocity;
+			this.start = start;
+			this.obstacleProbability = obstacleProbability;
+			this.table = table;
+			this.seed = seed;
+			this.engine = engine;
+			this.sectors = sectors;
+		}
+
+		Tally newTally()
+		{
+			Tally tally = new Tally(sectors);
+
+			if(engine == ENGINE_COMPARE)
+			{
+				tally.compared = new Tally(sectors);
+			}
+
+			return tally;
+		}
+
+		/**
+		 * Runs spins [from, to) into the tally, single threaded. Compared spins
+		 * go into tally.compared.
+		 */
+		void run(long from, long to, Tally tally)
+		{
+			//Scrambled through a first generator; seeding with seed + from directly would
+			//have neighbouring leaves walk overlapping sequences
+			SplittableRandom random = new SplittableRandom(new SplittableRandom(seed + from).nextLong());
+			SpinEngine floatEngine = null;
+			FixedPointSpinEngine fixedEngine = null;
+
+			if(engine != ENGINE_FIXED)
+			{
+				floatEngine = new SpinEngine(friction, bounce);
+
+				for(float degrees : table)
+				{
+					floatEngine.addFixedObstacle(degrees);
+				}
+			}
+
+			if(engine != ENGINE_FLOAT)
+			{
+				fixedEngine = new FixedPointSpinEngine(FixedPointSpinEngine.toUnits(friction),
+						Math.round(bounce * FixedPointSpinEngine.BOUNCE_ONE));
+
+				for(float degrees : table)
+				{
+					fixedEngine.addFixedObstacle(degrees);
+				}
+			}
+
+			//A chain starts anew in each range, from a random angle rather than the same one every time
+			float degrees = (start.mode == Start.CHAIN)?((float) (random.nextDouble() * 360.0)):(start.degrees);
+
+			for(long spin = from; spin < to; spin++)
+			{
+				if(start.mode == Start.UNIFORM)
+				{
+					degrees = (float) (random.nextDouble() * 360.0);
+				}
+
+				float obstacleDegrees = 0.0f;
+				int obstacleSteps = 0;
+
+				if((obstacleProbability > 0.0) && (random.nextDouble() < obstacleProbability))
+				{
+					obstacleDegrees = (float) (random.nextDouble() * 360.0);
+					obstacleSteps = 1 + random.nextInt(MAX_OBSTACLE_STEPS);
+				}
+
+				float stepDegrees = velocity.sample(random);
+				float stop = -1.0f;
+
+				if(floatEngine != null)
+				{
+					stop = spin(floatEngine, degrees, stepDegrees, obstacleDegrees, obstacleSteps, tally);
+				}
+
+				if(fixedEngine != null)
+				{
+					Tally fixedTally = (tally.compared != null)?(tally.compared):(tally);
+					float fixedStop = spin(fixedEngine, degrees, stepDegrees, obstacleDegrees, obstacleSteps, fixedTally);
+
+					if(floatEngine == null)
+					{
+						stop = fixedStop;
+					}
+					else
+					{
+						tally.compare(stop, fixedStop);
+					}
+				}
+
+				//Compared engines both chain on from the float stop, keeping spins side by side
+				if((start.mode == Start.CHAIN) && (stop >= 0.0f))
+				{
+					degrees = stop;
+				}
+			}
+		}
+
+		/**
+		 * @param obstacleSteps steps a finger blocks the path at obstacleDegrees for, 0 for none
+		 * @return stop angle, -1 if the spin did not stop
+		 */
+		private float spin(SpinEngine engine, float degrees, float stepDegrees, float obstacleDegrees, int obstacleSteps, Tally tally)
+		{
+			if(obstacleSteps != 0)
+			{
+				engine.setObstacle(obstacleDegrees);
+			}
+
+			engine.rotateTo(degrees);
+			engine.setRotationStepDegrees(stepDegrees);
+			engine.start();
+
+			if((obstacleSteps == 0) && (table.length == 0))
+			{
+				SpinPrediction prediction = engine.predict();
+
+				if(prediction.stops() && (prediction.getSteps() <= MAX_STEPS_PER_SPIN))
+				{
+					tally.steps += prediction.getSteps();
+
+					return tally.stop(prediction.getStopDegrees());
+				}
+			}
+
+			int steps = 0;
+
+			while(engine.isRotating() && (steps < MAX_STEPS_PER_SPIN))
+			{
+				if(steps == obstacleSteps)
+				{
+					engine.clearObstacle();
+				}
+
+				engine.step();
+				steps++;
+			}
+
+			engine.clearObstacle();
+
+			tally.steps += steps;
+
+			if(engine.isRotating())
+			{
+				engine.stop();
+
+				tally.notStopped++;
+
+				return -1.0f;
+			}
+
+			return tally.stop(engine.getRotationDegrees());
+		}
+
+		/**
+		 * Same spin on the fixed point engine; always stepped.
+		 */
+		private float spin(FixedPointSpinEngine engine, float degrees, float stepDegrees, float obstacleDegrees, int obstacleSteps, Tally tally)
+		{
+			if(obstacleSteps != 0)
+			{
+				engine.setObstacle(obstacleDegrees);
+			}
+
+			engine.rotateTo(degrees);
+			engine.setRotationStepDegrees(stepDegrees);
+			engine.start();
+
+			int steps = 0;
+
+			while(engine.isRotating() && (steps < MAX_STEPS_PER_SPIN))
+			{
+				if(steps == obstacleSteps)
+				{
+					engine.clearObstacle();
+				}
+
+				engine.step();
+				steps++;
+			}
+
+			engine.clearObstacle();
+
+			tally.steps += steps;
+
+			if(engine.isRotating())
+			{
+				engine.stop();
+
+				tally.notStopped++;
+
+				return -1.0f;
+			}
+
+			return tally.stop(engine.getRotationDegrees());
+		}
+	}
+
+	/**
+	 * Splits a range of spins down to LEAF_SPINS.
+	 */
+	static class SpinTask extends RecursiveTask<Tally>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Simulation simulation;
+		private final long from;
+		private final long to;
+
+		SpinTask(Simulation simulation, long from, long to)
+		{
+			this.simulation = simulation;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Tally compute()
+		{
+			if((to - from) <= LEAF_SPINS)
+			{
+				Tally tally = simulation.newTally();
+
+				simulation.run(from, to, tally);
+
+				return tally;
+			}
+
+			//Split on a leaf boundary, so that leaves and their seeds do not depend on the split order
+			long leaves = ((to - from) + LEAF_SPINS - 1) / LEAF_SPINS;
+			long middle = from + ((leaves / 2) * LEAF_SPINS);
+
+			SpinTask left = new SpinTask(simulation, from, middle);
+			SpinTask right = new SpinTask(simulation, middle, to);
+
+			left.fork();
+
+			Tally tally = right.compute();
+
+			tally.add(left.join());
+
+			return tally;
+		}
+	}
+
+	static class Tally
+	{
+		/** Stop counts per degree of rotation */
+		final long[] bins = new long[BINS];
+		/** Stop counts per sector, from the exact angle; sectors need not span whole degrees */
+		final long[] sectorCounts;
+		long notStopped = 0L;
+		long steps = 0L;
+
+		/** Fixed point engine's tally of the same spins, engine=compare only */
+		Tally compared = null;
+
+		/** Spins the compared engines stopped apart, at all and in another degree */
+		long differing = 0L;
+		long differingBins = 0L;
+		/** Largest distance between compared stops, in degrees */
+		double maxDifference = 0.0;
+
+		Tally(int sectors)
+		{
+			sectorCounts = new long[sectors];
+		}
+
+		/**
+		 * @return the stop angle, counted
+		 */
+		float stop(float degrees)
+		{
+			bins[Math.min(BINS - 1, (int) degrees)]++;
+			sectorCounts[Math.min(sectorCounts.length - 1, (int) ((degrees * (double) sectorCounts.length) / 360.0))]++;
+
+			return degrees;
+		}
+
+		/**
+		 * @param stop float engine's stop angle, -1 if it did not stop
+		 * @param comparedStop fixed point engine's, the same way
+		 */
+		void compare(float stop, float comparedStop)
+		{
+			if(stop == comparedStop)
+			{
+				return;
+			}
+
+			differing++;
+
+			if((stop < 0.0f) || (comparedStop < 0.0f) || ((int) stop != (int) comparedStop))
+			{
+				differingBins++;
+			}
+
+			if((stop >= 0.0f) && (comparedStop >= 0.0f))
+			{
+				double difference = Math.abs(stop - comparedStop);
+
+				maxDifference = Math.max(maxDifference, Math.min(difference, 360.0 - difference));
+			}
+		}
+
+		void add(Tally other)
+		{
+			for(int i = 0; i < BINS; i++)
+			{
+				bins[i] += other.bins[i];
+			}
+
+			for(int i = 0; i < sectorCounts.length; i++)
+			{
+				sectorCounts[i] += other.sectorCounts[i];
+			}
+
+			notStopped += other.notStopped;
+			steps += other.steps;
+
+			if(compared != null)
+			{
+				compared.add(other.compared);
+			}
+
+			differing += other.differing;
+			differingBins += other.differingBins;
+			maxDifference = Math.max(maxDifference, other.maxDifference);
+		}
+
+		long stopped()
+		{
+			long stopped = 0L;
+
+			for(long count : bins)
+			{
+				stopped += count;
+			}
+
+			return stopped;
+		}
+	}
+
+	/**
+	 * Chi-square test of a tally against a uniform distribution over the sectors.
+	 */
+	static class Report
+	{
+		final Tally tally;
+		final long[] sectorCounts;
+		final double expected;
+		final double chiSquare;
+		final double pValue;
+		/** Busiest degree over the mean per degree */
+		final double maxBinRatio;
+		final int maxBin;
+
+		Report(Tally tally)
+		{
+			this.tally = tally;
+
+			//Sectors are [i * 360 / sectors, (i + 1) * 360 / sectors)
+			sectorCounts = tally.sectorCounts;
+
+			int sectors = sectorCounts.length;
+			int maxBin = 0;
+
+			for(int i = 0; i < BINS; i++)
+			{
+				if(tally.bins[i] > tally.bins[maxBin])
+				{
+					maxBin = i;
+				}
+			}
+
+			long stopped = tally.stopped();
+
+			expected = (double) stopped / sectors;
+
+			double chiSquare = 0.0;
+
+			for(int i = 0; i < sectors; i++)
+			{
+				chiSquare += contribution(i);
+			}
+
+			this.chiSquare = chiSquare;
+			this.pValue = (stopped == 0L)?(Double.NaN):(upperRegularizedGamma((sectors - 1) / 2.0, chiSquare / 2.0));
+			this.maxBin = maxBin;
+			this.maxBinRatio = (stopped == 0L)?(0.0):(tally.bins[maxBin] / ((double) stopped / BINS));
+		}
+
+		/**
+		 * @return (O - E)^2 / E of the given sector
+		 */
+		double contribution(int sector)
+		{
+			if(expected == 0.0)
+			{
+				return 0.0;
+			}
+
+			double difference = sectorCounts[sector] - expected;
+
+			return (difference * difference) / expected;
+		}
+
+		void print(PrintStream output, double seconds)
+		{
+			long spins = tally.stopped() + tally.notStopped;
+			int sectors = sectorCounts.length;
+
+			output.println(String.format(Locale.US, "%d spins (%d did not stop) in %.3f s, %.0f spins/s, %.1f steps/spin",
+					spins, tally.notStopped, seconds, spins / seconds, (double) tally.steps / spins));
+			output.println("sector      from       to       count    expected  (O-E)^2/E");
+
+			for(int i = 0; i < sectors; i++)
+			{
+				output.println(String.format(Locale.US, "%6d  %8.2f  %7.2f  %10d  %10.1f  %9.2f",
+						i, (360.0 * i) / sectors, (360.0 * (i + 1)) / sectors, sectorCounts[i], expected, contribution(i)));
+			}
+
+			output.println(String.format(Locale.US, "chi-square %.2f, df %d, p %.4f%s",
+					chiSquare, sectors - 1, pValue, (pValue < 0.01)?(", NOT uniform"):("")));
+			output.println(String.format(Locale.US, "busiest degree %d, %.2f times the mean", maxBin, maxBinRatio));
+		}
+	}
+}
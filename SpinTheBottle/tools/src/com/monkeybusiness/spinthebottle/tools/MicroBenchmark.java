@@ -0,0 +1,191 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Minimal benchmark harness in the spirit of JMH; warm up, then measure
+ * average time and allocated bytes per operation over several iterations.
+ * </p>
+ * <p>
+ * Allocations are read from the HotSpot thread allocation counter; on VMs
+ * without it, B/op is reported as n/a.
+ * </p>
+ */
+public abstract class MicroBenchmark
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	/** Consumes benchmark results, so that the JIT can not eliminate the measured work */
+	public static volatile float sink;
+
+	private static final com.sun.management.ThreadMXBean THREAD_BEAN = initializeThreadBean();
+
+	private final String name;
+
+	/******************************************************
+	 ***************** @category Constructors *************
+	 *****************************************************/
+
+	protected MicroBenchmark(String name)
+	{
+		this.name = name;
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	/**
+	 * Runs the measured operation for the given times.
+	 *
+	 * @return a value depending on every operation
+	 */
+	protected abstract float run(int operations);
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public Result measure(int warmupIterations, int measurementIterations, int operations)
+	{
+		for(int i = 0; i < warmupIterations; i++)
+		{
+			sink += run(operations);
+		}
+
+		double[] nanosPerOperation = new double[measurementIterations];
+		long allocatedBytes = 0L;
+		boolean allocationsSupported = true;
+
+		for(int i = 0; i < measurementIterations; i++)
+		{
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+
+			sink += run(operations);
+
+			long elapsed = System.nanoTime() - start;
+			long allocatedAfter = allocatedBytes();
+
+			nanosPerOperation[i] = (double) elapsed / operations;
+
+			if((allocatedBefore < 0L) || (allocatedAfter < 0L))
+			{
+				allocationsSupported = false;
+			}
+			else
+			{
+				allocatedBytes += allocatedAfter - allocatedBefore;
+			}
+		}
+
+		double mean = 0.0;
+
+		for(int i = 0; i < measurementIterations; i++)
+		{
+			mean += nanosPerOperation[i];
+		}
+
+		mean /= measurementIterations;
+
+		double variance = 0.0;
+
+		for(int i = 0; i < measurementIterations; i++)
+		{
+			variance += (nanosPerOperation[i] - mean) * (nanosPerOperation[i] - mean);
+		}
+
+		double deviation = (measurementIterations > 1)?(Math.sqrt(variance / (measurementIterations - 1))):(0.0);
+		double bytesPerOperation = (allocationsSupported)?((double) allocatedBytes / ((double) operations * measurementIterations)):(-1.0);
+
+		return new Result(name, mean, deviation, bytesPerOperation);
+	}
+
+	/**
+	 * @return bytes allocated by the calling thread so far, negative if not supported
+	 */
+	static long allocatedBytes()
+	{
+		if(THREAD_BEAN == null)
+		{
+			return -1L;
+		}
+
+		return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean initializeThreadBean()
+	{
+		try
+		{
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+			if(bean.isThreadAllocatedMemorySupported())
+			{
+				bean.setThreadAllocatedMemoryEnabled(true);
+
+				return bean;
+			}
+		}
+		catch(ClassCastException e)
+		{
+			//Not a HotSpot VM
+		}
+		catch(UnsupportedOperationException e)
+		{
+			//Allocation counting not available
+		}
+
+		return null;
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	public static class Result
+	{
+		public final String name;
+		public final double nanosPerOperation;
+		public final double nanosPerOperationError;
+		/** Negative if allocation counting is not supported */
+		public final double bytesPerOperation;
+
+		Result(String name, double nanosPerOperation, double nanosPerOperationError, double bytesPerOperation)
+		{
+			this.name = name;
+			this.nanosPerOperation = nanosPerOperation;
+			this.nanosPerOperationError = nanosPerOperationError;
+			this.bytesPerOperation = bytesPerOperation;
+		}
+
+		@Override
+		public String toString()
+		{
+			String allocations = (bytesPerOperation < 0.0)?("n/a"):(String.format(Locale.US, "%.3f", bytesPerOperation));
+
+			return String.format(Locale.US, "%-40s %12.3f +- %8.3f ns/op %10s B/op", name, nanosPerOperation, nanosPerOperationError, allocations);
+		}
+	}
+}
@@ -0,0 +1,542 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.monkeybusiness.spinthebottle.AngleMath;
+import com.monkeybusiness.spinthebottle.AngularVelocityTracker;
+import com.monkeybusiness.spinthebottle.FixedPointSpinEngine;
+import com.monkeybusiness.spinthebottle.SpinEngine;
+import com.monkeybusiness.spinthebottle.SpinGeometry;
+import com.monkeybusiness.spinthebottle.SpinMetrics;
+import com.monkeybusiness.spinthebottle.SpinScene;
+
+/**
+ * <p>
+ * Benchmarks of the per frame and per touch hot paths.
+ * </p>
+ * <p>
+ * Usage: SpinBenchmarks [name filter]
+ * </p>
+ */
+public class SpinBenchmarks
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final int WARMUP_ITERATIONS = 10;
+	private static final int MEASUREMENT_ITERATIONS = 10;
+	private static final int OPERATIONS = 1000000;
+
+	/** Touch points spread around the view center, so that every branch of atan2 gets its share */
+	private static final int TOUCH_SAMPLES = 1024;
+	private static final float[] TOUCH_X = new float[TOUCH_SAMPLES];
+	private static final float[] TOUCH_Y = new float[TOUCH_SAMPLES];
+
+	static
+	{
+		for(int i = 0; i < TOUCH_SAMPLES; i++)
+		{
+			double angle = (2.0 * Math.PI * i) / TOUCH_SAMPLES;
+			double radius = 40.0 + (i % 7) * 30.0;
+
+			TOUCH_X[i] = (float) (radius * Math.cos(angle));
+			TOUCH_Y[i] = (float) (radius * Math.sin(angle));
+		}
+	}
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public static void main(String[] args)
+	{
+		String filter = (args.length > 0)?(args[0]):("");
+
+		for(MicroBenchmark benchmark : createBenchmarks())
+		{
+			if(benchmark.getName().contains(filter))
+			{
+				System.out.println(benchmark.measure(WARMUP_ITERATIONS, MEASUREMENT_ITERATIONS, OPERATIONS));
+			}
+		}
+	}
+
+	static List<MicroBenchmark> createBenchmarks()
+	{
+		List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+
+		//Physics; a free step covers the rotation succession and applyFriction()
+		benchmarks.add(new StepBenchmark("step.free", 100.0f, 30.0f, false, 0.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.clockwise.miss", 100.0f, 30.0f, true, 250.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.clockwise.top", 100.0f, 30.0f, true, 150.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.clockwise.bottom", 100.0f, 30.0f, true, 330.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.clockwise.shifted", 300.0f, 50.0f, true, 5.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.counterclockwise.miss", 200.0f, -30.0f, true, 60.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.counterclockwise.top", 200.0f, -30.0f, true, 150.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.counterclockwise.bottom", 200.0f, -30.0f, true, 330.0f));
+		benchmarks.add(new StepBenchmark("step.obstacle.counterclockwise.shifted", 60.0f, -50.0f, true, 350.0f));
+
+		//Table of 16 glasses; the collision stage searches them in O(log n)
+		benchmarks.add(new MicroBenchmark("step.obstacles.table16")
+		{
+			private final SpinEngine engine = new SpinEngine();
+
+			{
+				for(int i = 0; i < 16; i++)
+				{
+					engine.addFixedObstacle(i * 22.5f + 11.0f);
+				}
+			}
+
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					engine.rotateTo(i % 360);
+					engine.setRotationStepDegrees(((i & 1) == 0)?(10.0f):(-10.0f));
+					engine.step();
+
+					result += engine.getRotationDegrees();
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("spin.full")
+		{
+			private final SpinEngine engine = new SpinEngine();
+
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					engine.rotateTo(i % 360);
+					engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+					engine.start();
+
+					while(engine.isRotating())
+					{
+						engine.step();
+					}
+
+					result += engine.getRotationDegrees();
+				}
+
+				return result;
+			}
+		});
+
+		//Fixed point physics, next to the float cases above
+		benchmarks.add(new FixedStepBenchmark("step.fixed.free", 100.0f, 30.0f, false, 0.0f));
+		benchmarks.add(new FixedStepBenchmark("step.fixed.obstacle.clockwise.miss", 100.0f, 30.0f, true, 250.0f));
+		benchmarks.add(new FixedStepBenchmark("step.fixed.obstacle.clockwise.top", 100.0f, 30.0f, true, 150.0f));
+		benchmarks.add(new FixedStepBenchmark("step.fixed.obstacle.counterclockwise.bottom", 200.0f, -30.0f, true, 330.0f));
+
+		//Scanned linearly, unlike the float engine's sorted index
+		benchmarks.add(new MicroBenchmark("step.fixed.obstacles.table16")
+		{
+			private final FixedPointSpinEngine engine = new FixedPointSpinEngine();
+
+			{
+				for(int i = 0; i < 16; i++)
+				{
+					engine.addFixedObstacle(i * 22.5f + 11.0f);
+				}
+			}
+
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+				int stepUnits = 10 * FixedPointSpinEngine.UNITS_PER_DEGREE;
+
+				for(int i = 0; i < operations; i++)
+				{
+					engine.rotateToUnits((i % 360) * FixedPointSpinEngine.UNITS_PER_DEGREE);
+					engine.setRotationStepUnits(((i & 1) == 0)?(stepUnits):(-stepUnits));
+					engine.step();
+
+					result += engine.getRotationUnits();
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("spin.full.fixed")
+		{
+			private final FixedPointSpinEngine engine = new FixedPointSpinEngine();
+
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					engine.rotateToUnits((i % 360) * FixedPointSpinEngine.UNITS_PER_DEGREE);
+					engine.setRotationStepUnits(FixedPointSpinEngine.MAX_ROTATION_UNITS);
+					engine.start();
+
+					while(engine.isRotating())
+					{
+						engine.step();
+					}
+
+					result += engine.getRotationUnits();
+				}
+
+				return result;
+			}
+		});
+
+		//As the views run it, through SpinEngine's fixed point mode
+		benchmarks.add(new MicroBenchmark("spin.full.fixed.mode")
+		{
+			private final SpinEngine engine = new SpinEngine();
+
+			{
+				engine.setFixedPoint(true);
+			}
+
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					engine.rotateTo(i % 360);
+					engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+					engine.start();
+
+					while(engine.isRotating())
+					{
+						engine.step();
+					}
+
+					result += engine.getRotationDegrees();
+				}
+
+				return result;
+			}
+		});
+
+		//Scenes of many bottles; ns/op is per bottle and frame, so it should stay flat as bottles add up
+		for(int bottles : new int[] {1, 10, 100, 200, 1000})
+		{
+			benchmarks.add(new SceneBenchmark(bottles));
+		}
+
+		//Per-frame cost of SpinMetrics, on top of the frame itself
+		benchmarks.add(new MicroBenchmark("metrics.recordFrame")
+		{
+			private final SpinMetrics metrics = new SpinMetrics();
+
+			@Override
+			protected float run(int operations)
+			{
+				for(int i = 0; i < operations; i++)
+				{
+					metrics.recordFrame(20000L + (i & 1023), 150000L + (i & 4095), SpinEngine.STEP_NANOS + ((i % 7) - 3) * 100000L);
+				}
+
+				return metrics.snapshot().getFrames();
+			}
+		});
+
+		//Touch
+		benchmarks.add(new MicroBenchmark("touch.angle")
+		{
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					int sample = i & (TOUCH_SAMPLES - 1);
+
+					float angle = AngleMath.normalizeDegrees(SpinGeometry.touchDegrees(TOUCH_X[sample], TOUCH_Y[sample]) + 90);
+
+					result += angle;
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("angle.atan2.math")
+		{
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					int sample = i & (TOUCH_SAMPLES - 1);
+
+					result += (float) Math.toDegrees(Math.atan2(TOUCH_Y[sample], TOUCH_X[sample]));
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("angle.atan2.table")
+		{
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					int sample = i & (TOUCH_SAMPLES - 1);
+
+					result += AngleMath.DEFAULT.atan2Degrees(TOUCH_Y[sample], TOUCH_X[sample]);
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("touch.isInTouchWithObject")
+		{
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					int sample = i & (TOUCH_SAMPLES - 1);
+
+					float degrees = SpinGeometry.touchDegrees(TOUCH_X[sample], TOUCH_Y[sample]) + 90;
+
+					result += SpinGeometry.touchedEnd(degrees, (i * 7) % 360);
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("touch.angularVelocity")
+		{
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				for(int i = 0; i < operations; i++)
+				{
+					float former = (i * 13) % 360;
+					float succeeding = (i * 17) % 360;
+
+					result += SpinGeometry.angularVelocity(former, i, succeeding, i + 16L);
+				}
+
+				return result;
+			}
+		});
+
+		benchmarks.add(new MicroBenchmark("touch.velocityTracker")
+		{
+			private final AngularVelocityTracker tracker = new AngularVelocityTracker();
+
+			@Override
+			protected float run(int operations)
+			{
+				float result = 0.0f;
+
+				//A drag of 16 samples, then the fit on lift
+				for(int i = 0; i < operations; i++)
+				{
+					tracker.addSample((i * 3) % 360, i * 8L);
+
+					if((i & 15) == 15)
+					{
+						result += tracker.getVelocity();
+
+						tracker.clear();
+					}
+				}
+
+				return result;
+			}
+		});
+
+		return benchmarks;
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	/**
+	 * Takes a single step from a fixed state, to measure one branch of SpinEngine.step()
+	 */
+	static class StepBenchmark extends MicroBenchmark
+	{
+		private final SpinEngine engine = new SpinEngine();
+
+		private final float rotationDegrees;
+		private final float rotationStepDegrees;
+		private final boolean obstacleExists;
+		private final float obstacleDegrees;
+
+		StepBenchmark(String name, float rotationDegrees, float rotationStepDegrees, boolean obstacleExists, float obstacleDegrees)
+		{
+			super(name);
+
+			this.rotationDegrees = rotationDegrees;
+			this.rotationStepDegrees = rotationStepDegrees;
+			this.obstacleExists = obstacleExists;
+			this.obstacleDegrees = obstacleDegrees;
+		}
+
+		@Override
+		protected float run(int operations)
+		{
+			float result = 0.0f;
+
+			if(obstacleExists)
+			{
+				engine.setObstacle(obstacleDegrees);
+			}
+			else
+			{
+				engine.clearObstacle();
+			}
+
+			for(int i = 0; i < operations; i++)
+			{
+				engine.rotateTo(rotationDegrees);
+				engine.setRotationStepDegrees(rotationStepDegrees);
+				engine.step();
+
+				result += engine.getRotationDegrees();
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * StepBenchmark on FixedPointSpinEngine, set up in units so that no float is left in the loop.
+	 */
+	static class FixedStepBenchmark extends MicroBenchmark
+	{
+		private final FixedPointSpinEngine engine = new FixedPointSpinEngine();
+
+		private final int rotationUnits;
+		private final int rotationStepUnits;
+
+		FixedStepBenchmark(String name, float rotationDegrees, float rotationStepDegrees, boolean obstacleExists, float obstacleDegrees)
+		{
+			super(name);
+
+			this.rotationUnits = FixedPointSpinEngine.toUnits(rotationDegrees);
+			this.rotationStepUnits = FixedPointSpinEngine.toUnits(rotationStepDegrees);
+
+			if(obstacleExists)
+			{
+				engine.setObstacle(obstacleDegrees);
+			}
+		}
+
+		@Override
+		protected float run(int operations)
+		{
+			float result = 0.0f;
+
+			for(int i = 0; i < operations; i++)
+			{
+				engine.rotateToUnits(rotationUnits);
+				engine.setRotationStepUnits(rotationStepUnits);
+				engine.step();
+
+				result += engine.getRotationUnits();
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Advances a scene of bottles flung again as soon as they stop, frame by frame.
+	 */
+	static class SceneBenchmark extends MicroBenchmark
+	{
+		private final SpinScene scene;
+
+		SceneBenchmark(int bottles)
+		{
+			super("scene.step." + bottles);
+
+			scene = new SpinScene(bottles);
+
+			for(int i = 0; i < bottles; i++)
+			{
+				int bottle = scene.addBottle((i % 20) * 50.0f, (i / 20) * 50.0f, 48.0f, i % 3);
+
+				fling(bottle);
+			}
+		}
+
+		private void fling(int bottle)
+		{
+			//Spread the speeds, so that bottles stop on different frames
+			scene.setRotationStepDegrees(bottle, SpinEngine.MAX_ROTATION_DEGREES - (bottle % 40));
+			scene.start(bottle);
+		}
+
+		@Override
+		protected float run(int operations)
+		{
+			float result = 0.0f;
+
+			int frames = Math.max(1, operations / scene.getBottleCount());
+
+			for(int frame = 0; frame < frames; frame++)
+			{
+				scene.skip(1);
+
+				for(int i = 0; i < scene.getStoppedCount(); i++)
+				{
+					fling(scene.getStopped(i));
+				}
+
+				result += scene.getRotationDegrees(frame % scene.getBottleCount());
+			}
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,1682 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.monkeybusiness.spinthebottle.AngleMath;
+import com.monkeybusiness.spinthebottle.AngularVelocityTracker;
+import com.monkeybusiness.spinthebottle.FixedPointSpinEngine;
+import com.monkeybusiness.spinthebottle.BitmapFormat;
+import com.monkeybusiness.spinthebottle.HeadlessSpinTarget;
+import com.monkeybusiness.spinthebottle.SectorTimeline;
+import com.monkeybusiness.spinthebottle.SectorWheel;
+import com.monkeybusiness.spinthebottle.SpinEngine;
+import com.monkeybusiness.spinthebottle.SpinGeometry;
+import com.monkeybusiness.spinthebottle.SpinGesture;
+import com.monkeybusiness.spinthebottle.SpinMetrics;
+import com.monkeybusiness.spinthebottle.SpinPrediction;
+import com.monkeybusiness.spinthebottle.SpinProgress;
+import com.monkeybusiness.spinthebottle.SpinScene;
+import com.monkeybusiness.spinthebottle.SpinState;
+import com.monkeybusiness.spinthebottle.SpinStateRecord;
+import com.monkeybusiness.spinthebottle.SpinTraceWriter;
+
+/**
+ * <p>
+ * Self checks of the pure Java parts, runnable on a plain JVM. Exits with a
+ * non-zero status on the first failure.
+ * </p>
+ * <p>
+ * Usage: java -Xint ... SpinChecks
+ * </p>
+ * <p>
+ * Run it interpreted; the JIT would hide allocations by escape analysis, which
+ * older devices do not have.
+ * </p>
+ */
+public class SpinChecks
+{
+	/******************************************************
+	 *************** @category Variables ******************
+	 *****************************************************/
+
+	private static final int FRAMES = 10000;
+	private static final int TOUCH_EVENTS = 10000;
+
+	/** Of checkFixedPoint()'s stops; bump it only along with a deliberate change of the physics */
+	private static final long FIXED_POINT_GOLDEN_HASH = 3205236270493933542L;
+
+	/** Rounds run before counting allocations, so that the JIT settles */
+	private static final int WARMUP_ROUNDS = 20;
+
+	private static final AngularVelocityTracker VELOCITY_TRACKER = new AngularVelocityTracker();
+	private static final SpinStateRecord STATE = new SpinStateRecord();
+
+	/** Frame clock, monotonic across rounds */
+	private static long nowNanos = 0L;
+
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		checkAtan2Error(AngleMath.DEFAULT, AngleMath.DEFAULT_MAX_ERROR_DEGREES);
+		checkAtan2Error(new AngleMath(0.5f), 0.5f);
+		checkAtan2Error(new AngleMath(0.001f), 0.001f);
+		checkNormalizeDegrees();
+		checkBitmapFormatProbe();
+		checkVelocityTracker();
+		checkPrediction();
+		checkObstacles();
+		checkScene();
+		checkMetrics();
+		checkStateRecord();
+		checkProgress();
+		checkFixedPoint();
+		checkMultiTouch();
+		checkSectors();
+		checkHotPathAllocations();
+		checkTraceReplay();
+
+		System.out.println("All checks passed");
+	}
+
+	private static void checkAtan2Error(AngleMath angleMath, float maxErrorDegrees)
+	{
+		double maxError = 0.0;
+
+		for(int i = 0; i < 100000; i++)
+		{
+			double angle = (2.0 * Math.PI * i) / 100000;
+			double radius = 1.0 + (i % 500);
+
+			float x = (float) (radius * Math.cos(angle));
+			float y = (float) (radius * Math.sin(angle));
+
+			double expected = Math.toDegrees(Math.atan2(y, x));
+			double error = Math.abs(angleMath.atan2Degrees(y, x) - expected);
+
+			//+180 and -180 are the same direction
+			maxError = Math.max(maxError, Math.min(error, 360.0 - error));
+		}
+
+		check(maxError <= maxErrorDegrees, "atan2Degrees error " + maxError + " exceeds " + maxErrorDegrees
+				+ " with " + angleMath.getTableSize() + " table entries");
+		check(angleMath.atan2Degrees(0.0f, 0.0f) == 0.0f, "atan2Degrees of the origin is not 0");
+	}
+
+	private static void checkNormalizeDegrees()
+	{
+		float[] inputs = {0.0f, 359.5f, 360.0f, 725.0f, -0.5f, -360.0f, -725.0f, -1.0e-6f};
+		float[] expected = {0.0f, 359.5f, 0.0f, 5.0f, 359.5f, 0.0f, 355.0f, 0.0f};
+
+		for(int i = 0; i < inputs.length; i++)
+		{
+			float actual = AngleMath.normalizeDegrees(inputs[i]);
+
+			check(actual == expected[i], "normalizeDegrees(" + inputs[i] + ") = " + actual + ", expected " + expected[i]);
+		}
+	}
+
+	private static void checkBitmapFormatProbe()
+	{
+		//Every channel widens back from 5 or 6 bits unchanged
+		int[] opaque = {0xFF848284, 0xFFFFFFFF, 0xFF000000};
+		//Blue 0x30 comes back as 0x31
+		int[] opaqueLossy = {0xFF102030, 0xFFFFFFFF, 0xFF000000};
+		int[] silhouette = {0x00000000, 0x80336699, 0xFF336699, 0x00FFFFFF};
+		int[] translucent = {0x00000000, 0x80336699, 0xFF000000};
+		int[] empty = {0x00000000, 0x00FFFFFF};
+
+		checkProbe(opaque, BitmapFormat.RGB_565, -1);
+		checkProbe(opaqueLossy, BitmapFormat.ARGB_8888, -1);
+		checkProbe(silhouette, BitmapFormat.ALPHA_8, 0xFF336699);
+		checkProbe(translucent, BitmapFormat.ARGB_8888, -1);
+		checkProbe(empty, BitmapFormat.ALPHA_8, 0xFF000000);
+
+		//Rows add up; a second color in a later row rules ALPHA_8 out
+		BitmapFormat.Probe probe = new BitmapFormat.Probe();
+		probe.scan(silhouette, 0, silhouette.length);
+		probe.scan(new int[] {0x40336699, 0x40112233}, 1, 1);
+
+		check(probe.getFormat() == BitmapFormat.ARGB_8888, "Probe keeps ALPHA_8 across rows of different colors");
+	}
+
+	/**
+	 * @param expectedColor silhouette color, -1 if not to be checked
+	 */
+	private static void checkProbe(int[] pixels, int expectedFormat, int expectedColor)
+	{
+		BitmapFormat.Probe probe = new BitmapFormat.Probe();
+		probe.scan(pixels, 0, pixels.length);
+
+		check(probe.getFormat() == expectedFormat, "Probe picks format " + probe.getFormat() + " for " + Arrays.toString(pixels)
+				+ ", expected " + expectedFormat);
+		check((expectedColor == -1) || (probe.getColor() == expectedColor), "Probe color " + Integer.toHexString(probe.getColor())
+				+ " for " + Arrays.toString(pixels));
+	}
+
+	private static void checkVelocityTracker()
+	{
+		AngularVelocityTracker tracker = new AngularVelocityTracker();
+
+		check(tracker.getVelocity() == 0.0f, "velocity of no samples is not 0");
+
+		//Counter-clockwise at 0.5 degrees/ms across 0, sampled every 8 ms with +-1 degree of noise
+		for(int i = 0; i < 40; i++)
+		{
+			float noise = ((i % 2) == 0)?(1.0f):(-1.0f);
+
+			tracker.addSample(AngleMath.normalizeDegrees(20.0f - (0.5f * 8 * i) + noise), 1000L + (8 * i));
+		}
+
+		float velocity = tracker.getVelocity();
+
+		check(Math.abs(velocity + 0.5f) < 0.02f, "velocity " + velocity + ", expected -0.5");
+
+		//Held still past the window before lifting
+		tracker.addSample(AngleMath.normalizeDegrees(20.0f - (0.5f * 8 * 39)), 1000L + (8 * 39) + AngularVelocityTracker.WINDOW_MILLIS + 50L);
+
+		check(tracker.getVelocity() == 0.0f, "stale samples were not dropped");
+
+		tracker.clear();
+
+		check(tracker.getSampleCount() == 0, "clear() kept samples");
+	}
+
+	/**
+	 * Drives flings against an obstacle and a stream of touch events, the way
+	 * the views do, and requires that none of it allocates.
+	 */
+	/**
+	 * predict() and skip(int) must agree with stepping, bit for bit; reversing
+	 * frictions (above 0.5) and never ending spins included.
+	 */
+	private static void checkPrediction()
+	{
+		float[] frictions = {SpinEngine.FRICTION, 0.3f, 0.05f, 0.75f, 1.7f, 0.0f};
+		float[] edgeSpeeds = {0.0f, 0.5f, -0.5f, 0.49999997f, -0.50000006f, 1.0f, -1.0f,
+				SpinEngine.MAX_ROTATION_DEGREES, -SpinEngine.MAX_ROTATION_DEGREES};
+
+		Random random = new Random(42L);
+
+		for(float friction : frictions)
+		{
+			for(int i = 0; i < 200; i++)
+			{
+				float speed = (i < edgeSpeeds.length)?(edgeSpeeds[i]):((random.nextFloat() * 2.0f - 1.0f) * SpinEngine.MAX_ROTATION_DEGREES);
+				float degrees = random.nextFloat() * 360.0f;
+				SpinEngine stepped = new SpinEngine(friction, SpinEngine.BOUNCE_ENERGY_COEFFICIENT);
+				SpinEngine skipped = new SpinEngine(friction, SpinEngine.BOUNCE_ENERGY_COEFFICIENT);
+
+				for(SpinEngine engine : new SpinEngine[] {stepped, skipped})
+				{
+					engine.rotateTo(degrees);
+					engine.setRotationStepDegrees(speed);
+					engine.start();
+				}
+
+				SpinPrediction prediction = stepped.predict();
+
+				long steps = 0L;
+
+				while(stepped.isRotating() && (steps < 2000L))
+				{
+					//Predicting on the way must not disturb the spin, and must still hold
+					if(steps == 3L)
+					{
+						SpinPrediction remaining = stepped.predict();
+
+						if(prediction.stops() && (remaining.getSteps() != (prediction.getSteps() - steps)))
+						{
+							fail(spin(friction, speed, degrees) + ": " + remaining + " midway, " + prediction + " at first");
+						}
+					}
+
+					stepped.step();
+					steps++;
+
+					//Odd sized skips, so that they land anywhere in a segment
+					if((steps % 7L) == 0L)
+					{
+						skipped.skip(7);
+
+						checkSameState(stepped, skipped, friction, speed, degrees, steps);
+					}
+				}
+
+				skipped.skip((int) (steps % 7L));
+
+				checkSameState(stepped, skipped, friction, speed, degrees, steps);
+
+				if(prediction.stops())
+				{
+					if(stepped.isRotating() || (prediction.getSteps() != steps)
+							|| (Float.floatToIntBits(prediction.getStopDegrees()) != Float.floatToIntBits(stepped.getRotationDegrees())))
+					{
+						fail(spin(friction, speed, degrees) + ": predicted " + prediction + ", stepped to " + stepped.getRotationDegrees()
+								+ " in " + steps + ((stepped.isRotating())?(", still rotating"):("")));
+					}
+				}
+				else if(!stepped.isRotating())
+				{
+					fail(spin(friction, speed, degrees) + ": predicted to never stop, stopped in " + steps + " steps");
+				}
+			}
+		}
+	}
+
+	/**
+	 * With several obstacles, a step bounces off the first one swept by either
+	 * end of the bottle, as found by scanning them all, across 0/360 as well.
+	 */
+	private static void checkObstacles()
+	{
+		Random random = new Random(5L);
+
+		for(int round = 0; round < 20000; round++)
+		{
+			int count = 1 + random.nextInt(12);
+			float[] obstacles = new float[count];
+
+			SpinEngine engine = new SpinEngine();
+			int[] keys = new int[count];
+
+			for(int i = 0; i < count; i++)
+			{
+				//Around 0/360 every now and then
+				obstacles[i] = ((round & 3) == 0)?(AngleMath.normalizeDegrees(random.nextFloat() * 20.0f - 10.0f)):(random.nextFloat() * 360.0f);
+
+				keys[i] = engine.addFixedObstacle(obstacles[i]);
+			}
+
+			//Dropping one of them leaves the rest in place
+			if((round & 1) == 0)
+			{
+				int removed = random.nextInt(count);
+
+				engine.removeFixedObstacle(keys[removed]);
+
+				obstacles[removed] = obstacles[--count];
+			}
+
+			check(engine.getFixedObstacleCount() == count, "fixed obstacle count " + engine.getFixedObstacleCount() + " instead of " + count);
+
+			float degrees = ((round & 7) == 0)?(AngleMath.normalizeDegrees(random.nextFloat() * 20.0f - 10.0f)):(random.nextFloat() * 360.0f);
+			float speed = (random.nextFloat() * 2.0f - 1.0f) * SpinEngine.MAX_ROTATION_DEGREES;
+
+			engine.rotateTo(degrees);
+			engine.setRotationStepDegrees(speed);
+			engine.start();
+			engine.step();
+
+			//Reference: scan every obstacle for both ends
+			boolean clockwise = speed > 0;
+			float lead = (clockwise)?(30.0f):(-30.0f);
+			float hitDistance = Float.MAX_VALUE;
+			float expectedDegrees = 0.0f;
+
+			for(int end = 0; end < 2; end++)
+			{
+				float endDegrees = AngleMath.normalizeDegrees(degrees + lead + end * 180.0f);
+
+				for(int i = 0; i < count; i++)
+				{
+					float distance = (clockwise)?(obstacles[i] - endDegrees):(endDegrees - obstacles[i]);
+
+					if(distance < 0)
+					{
+						distance += 360.0f;
+					}
+
+					if((distance > 0.0f) && (distance < Math.abs(speed)) && (distance < hitDistance))
+					{
+						hitDistance = distance;
+						expectedDegrees = AngleMath.normalizeDegrees(obstacles[i] - lead + end * 180.0f);
+					}
+				}
+			}
+
+			if(hitDistance == Float.MAX_VALUE)
+			{
+				SpinEngine clear = new SpinEngine();
+
+				clear.rotateTo(degrees);
+				clear.setRotationStepDegrees(speed);
+				clear.start();
+				clear.step();
+
+				check((engine.getRotationDegrees() == clear.getRotationDegrees()) && (engine.getRotationStepDegrees() == clear.getRotationStepDegrees()),
+						"obstacles missed at " + degrees + " speed " + speed);
+			}
+			else
+			{
+				check((engine.getRotationDegrees() == expectedDegrees) && (engine.getRotationStepDegrees() == -(speed * SpinEngine.BOUNCE_ENERGY_COEFFICIENT)),
+						"bounce at " + degrees + " speed " + speed + ": " + engine.getRotationDegrees() + " instead of " + expectedDegrees);
+			}
+		}
+
+		//A finger adds up with the fixed obstacles, and leaves them when lifted
+		SpinEngine engine = new SpinEngine();
+
+		engine.addFixedObstacle(200.0f);
+		engine.setObstacle(100.0f);
+		engine.clearFixedObstacles();
+
+		check(engine.hasObstacle() && (engine.getFixedObstacleCount() == 0), "finger kept when clearing fixed obstacles");
+
+		engine.addFixedObstacle(200.0f);
+		engine.clearObstacle();
+
+		check(!engine.hasObstacle() && (engine.getFixedObstacleCount() == 1), "fixed obstacles kept when lifting the finger");
+
+		//Bounces back and forth between two glasses until it stops
+		engine.rotateTo(0.0f);
+		engine.addFixedObstacle(90.0f);
+		engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+		engine.start();
+
+		for(int i = 0; (i < 1000) && engine.isRotating(); i++)
+		{
+			engine.step();
+		}
+
+		check(!engine.isRotating(), "spin between two obstacles never stopped");
+	}
+
+	/**
+	 * Every bottle of a scene must spin as its own SpinEngine would, frames of
+	 * uneven length and stalls included.
+	 */
+	private static void checkScene()
+	{
+		int bottles = 64;
+
+		SpinScene scene = new SpinScene(bottles);
+		SpinEngine[] engines = new SpinEngine[bottles];
+
+		Random random = new Random(7L);
+
+		for(int bottle = 0; bottle < bottles; bottle++)
+		{
+			float degrees = random.nextFloat() * 360.0f;
+			float speed = (random.nextFloat() * 2.0f - 1.0f) * SpinEngine.MAX_ROTATION_DEGREES;
+
+			check(scene.addBottle(bottle * 10.0f, 0.0f, 10.0f, bottle % 3) == bottle, "scene bottle index");
+
+			scene.rotateTo(bottle, degrees);
+			scene.setRotationStepDegrees(bottle, speed);
+			scene.start(bottle);
+
+			engines[bottle] = new SpinEngine();
+			engines[bottle].rotateTo(degrees);
+			engines[bottle].setRotationStepDegrees(speed);
+			engines[bottle].start();
+		}
+
+		long frameNanos = 0L;
+		boolean[] wasRotating = new boolean[bottles];
+
+		for(int frame = 0; scene.getActiveCount() > 0; frame++)
+		{
+			check(frame < 10000, "scene never came to rest");
+
+			frameNanos += ((frame % 50) == 49)?(5000000000L):(8000000L + random.nextInt(30000000));
+
+			scene.advance(frameNanos);
+
+			int stopped = 0;
+
+			for(int bottle = 0; bottle < bottles; bottle++)
+			{
+				wasRotating[bottle] = engines[bottle].isRotating();
+
+				engines[bottle].advance(frameNanos);
+
+				if(wasRotating[bottle] && !engines[bottle].isRotating())
+				{
+					stopped++;
+				}
+
+				if((Float.floatToIntBits(scene.getRotationDegrees(bottle)) != Float.floatToIntBits(engines[bottle].getRotationDegrees()))
+						|| (Float.floatToIntBits(scene.getRotationStepDegrees(bottle)) != Float.floatToIntBits(engines[bottle].getRotationStepDegrees()))
+						|| (scene.isRotating(bottle) != engines[bottle].isRotating()))
+				{
+					fail("scene bottle " + bottle + " on frame " + frame + ": " + scene.getRotationDegrees(bottle) + " / "
+							+ scene.getRotationStepDegrees(bottle) + ", engine " + engines[bottle].getRotationDegrees() + " / "
+							+ engines[bottle].getRotationStepDegrees());
+				}
+			}
+
+			check(scene.getStoppedCount() == stopped, "scene reported " + scene.getStoppedCount() + " stops on frame " + frame + ", expected " + stopped);
+
+			for(int i = 0; i < scene.getStoppedCount(); i++)
+			{
+				check(wasRotating[scene.getStopped(i)] && !scene.isRotating(scene.getStopped(i)), "scene reported a bottle stopped that was not spinning");
+			}
+		}
+
+		//Grouped by slot, each bottle once
+		int[] order = scene.getDrawOrder();
+		boolean[] drawn = new boolean[bottles];
+
+		for(int i = 0; i < bottles; i++)
+		{
+			check((i == 0) || (scene.getSlot(order[i - 1]) <= scene.getSlot(order[i])), "draw order not grouped by slot");
+			check(!drawn[order[i]], "bottle drawn twice");
+
+			drawn[order[i]] = true;
+		}
+
+		check(scene.hitTest(30.0f, 1.0f) == 3, "hit test missed bottle 3");
+		check(scene.hitTest(30.0f, 20.0f) == -1, "hit test found a bottle off the row");
+	}
+
+	private static void checkSameState(SpinEngine stepped, SpinEngine skipped, float friction, float speed, float degrees, long steps)
+	{
+		if((Float.floatToIntBits(stepped.getRotationDegrees()) != Float.floatToIntBits(skipped.getRotationDegrees()))
+				|| (Float.floatToIntBits(stepped.getRotationStepDegrees()) != Float.floatToIntBits(skipped.getRotationStepDegrees()))
+				|| (stepped.isRotating() != skipped.isRotating()))
+		{
+			fail(spin(friction, speed, degrees) + ", step " + steps
+					+ ": stepped " + stepped.getRotationDegrees() + " / " + stepped.getRotationStepDegrees() + " / " + stepped.isRotating()
+					+ ", skipped " + skipped.getRotationDegrees() + " / " + skipped.getRotationStepDegrees() + " / " + skipped.isRotating());
+		}
+	}
+
+	private static String spin(float friction, float speed, float degrees)
+	{
+		return "friction " + friction + ", speed " + speed + ", from " + degrees;
+	}
+
+	/**
+	 * SpinMetrics counts janky and dropped frames, sums spins up, keeps
+	 * percentiles within a bucket, and records without allocating.
+	 */
+	private static void checkMetrics() throws IOException
+	{
+		long interval = SpinEngine.STEP_NANOS;
+
+		SpinMetrics metrics = new SpinMetrics();
+
+		//Spin of 10 frames: on time, except for a janky one and one three intervals late.
+		//A short spin on time, as another view would record it, overlaps it.
+		long maxGap = 0L;
+
+		for(int frame = 0; frame < 10; frame++)
+		{
+			long gap = (frame == 0)?(-1L):((frame == 4)?((interval * 3L) / 2L + 1000L):((frame == 7)?(interval * 3L):(interval)));
+
+			metrics.recordFrame(1000L * (frame + 1), 100000L, gap);
+
+			maxGap = Math.max(maxGap, gap);
+
+			if(frame == 2)
+			{
+				metrics.recordFrame(500L, 100000L, -1L);
+			}
+			else if(frame == 3)
+			{
+				metrics.recordFrame(500L, 100000L, interval);
+				metrics.endSpin(2L, interval);
+			}
+		}
+
+		metrics.endSpin(10L, maxGap);
+
+		SpinMetrics.Snapshot snapshot = metrics.snapshot();
+
+		check(snapshot.getFrames() == 12L, "metrics frames " + snapshot.getFrames());
+		check(snapshot.getJankyFrames() == 2L, "metrics janky frames " + snapshot.getJankyFrames());
+		check(snapshot.getDroppedFrames() == 3L, "metrics dropped frames " + snapshot.getDroppedFrames());
+		check(snapshot.getSpins() == 2L, "metrics spins " + snapshot.getSpins());
+		check(snapshot.getSpinFrames().getMax() == 10L, "metrics frames per spin " + snapshot.getSpinFrames());
+		check(snapshot.getSpinMaxFrameGapNanos().getMax() == interval * 3L, "metrics max frame gap " + snapshot.getSpinMaxFrameGapNanos());
+		check(snapshot.getFrameGapNanos().getCount() == 10L, "metrics frame gaps " + snapshot.getFrameGapNanos());
+		check(snapshot.getPhysicsNanos().getMax() == 10000L, "metrics physics max " + snapshot.getPhysicsNanos());
+
+		StringBuilder export = new StringBuilder();
+		snapshot.export(export);
+
+		check(export.indexOf("dropped_frames,3\n") >= 0, "metrics export " + export);
+		check(export.indexOf("spin_frames,10,1\n") >= 0, "metrics export " + export);
+
+		//Percentiles land within 12.5% below the exact value
+		SpinMetrics uniform = new SpinMetrics();
+		Random random = new Random(11L);
+		long[] values = new long[10000];
+
+		for(int i = 0; i < values.length; i++)
+		{
+			values[i] = (long) (random.nextDouble() * 50000000.0);
+
+			uniform.recordFrame(values[i], 0L, -1L);
+		}
+
+		Arrays.sort(values);
+
+		SpinMetrics.HistogramSnapshot physics = uniform.snapshot().getPhysicsNanos();
+
+		for(double percentile : new double[] {1.0, 50.0, 90.0, 99.0, 100.0})
+		{
+			long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+			long estimate = physics.getValueAtPercentile(percentile);
+
+			check((estimate <= exact) && (estimate >= exact - (exact / 8L) - 1L), "metrics p" + percentile + " " + estimate + " for " + exact);
+		}
+
+		//Recording is allocation free
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			recordFrames(uniform);
+		}
+
+		long before = MicroBenchmark.allocatedBytes();
+
+		recordFrames(uniform);
+
+		long after = MicroBenchmark.allocatedBytes();
+
+		if((before >= 0L) && (after >= 0L))
+		{
+			check(after == before, (after - before) + " bytes allocated recording " + FRAMES + " frames of metrics");
+		}
+
+		uniform.reset();
+
+		check(uniform.snapshot().getFrames() == 0L, "metrics reset");
+	}
+
+	private static void recordFrames(SpinMetrics metrics)
+	{
+		for(int frame = 0; frame < FRAMES; frame++)
+		{
+			metrics.recordFrame(frame, frame, SpinEngine.STEP_NANOS + frame);
+		}
+	}
+
+	/**
+	 * Readers of a SpinStateRecord never see a state torn between two
+	 * publications, while a writer publishes as fast as it can.
+	 */
+	private static void checkStateRecord() throws InterruptedException
+	{
+		final int publications = 200000;
+		final int readers = 3;
+
+		final SpinStateRecord record = new SpinStateRecord();
+		publishState(record, 0);
+		final String[] failure = new String[1];
+		final long[] reads = new long[readers];
+		final boolean[] done = new boolean[1];
+
+		Thread[] threads = new Thread[readers];
+
+		for(int r = 0; r < readers; r++)
+		{
+			final int reader = r;
+
+			threads[r] = new Thread("state reader " + r)
+			{
+				@Override
+				public void run()
+				{
+					long lastVersion = 0L;
+
+					while(true)
+					{
+						boolean last;
+
+						synchronized (done)
+						{
+							last = done[0];
+						}
+
+						SpinState state = record.read();
+
+						reads[reader]++;
+
+						//Every field derives from the same publication number n, published as version n + 1
+						int n = (int) state.getRotationDegrees();
+
+						if((state.getVersion() < lastVersion)
+								|| (state.getVersion() != n + 1L)
+								|| (state.getRotationStepDegrees() != -n)
+								|| (state.getObstacleDegrees() != n * 2.0f)
+								|| (state.isRotating() != ((n & 1) == 0))
+								|| (state.hasObstacle() != ((n & 2) == 0)))
+						{
+							synchronized (failure)
+							{
+								failure[0] = "torn state " + state + " after version " + lastVersion;
+							}
+
+							return;
+						}
+
+						lastVersion = state.getVersion();
+
+						if(last)
+						{
+							return;
+						}
+					}
+				}
+			};
+
+			threads[r].start();
+		}
+
+		for(int n = 1; n < publications; n++)
+		{
+			publishState(record, n);
+		}
+
+		synchronized (done)
+		{
+			done[0] = true;
+		}
+
+		long totalReads = 0L;
+
+		for(int r = 0; r < readers; r++)
+		{
+			threads[r].join();
+
+			totalReads += reads[r];
+		}
+
+		synchronized (failure)
+		{
+			check(failure[0] == null, failure[0]);
+		}
+
+		check(record.getVersion() == publications, "state record version " + record.getVersion());
+		check(record.read().getRotationDegrees() == publications - 1, "state record last publication");
+		check(totalReads >= readers, "state record reads " + totalReads);
+	}
+
+	private static void publishState(SpinStateRecord record, int n)
+	{
+		record.publish(n, -n, (n & 1) == 0, (n & 2) == 0, n * 2.0f);
+	}
+
+	private static void checkProgress()
+	{
+		final SpinEngine reference = new SpinEngine();
+		final long[] samples = new long[1];
+		final long[] lastTimeNanos = {Long.MIN_VALUE};
+
+		//Every sample matches a step taken by hand, in order and on the step clock
+		SpinProgress progress = new SpinProgress(new SpinProgress.Listener()
+		{
+			public void onProgress(SpinProgress batch)
+			{
+				for(int i = 0; i < batch.size(); i++)
+				{
+					reference.step();
+
+					check(Float.floatToIntBits(batch.getDegrees(i)) == Float.floatToIntBits(reference.getRotationDegrees()),
+							"progress sample " + samples[0] + " at " + batch.getDegrees(i) + ", expected " + reference.getRotationDegrees());
+					check(batch.getStepDegrees(i) == reference.getRotationStepDegrees(), "progress sample " + samples[0] + " speed differs");
+					check((lastTimeNanos[0] == Long.MIN_VALUE) || (batch.getTimeNanos(i) == lastTimeNanos[0] + SpinEngine.STEP_NANOS),
+							"progress sample " + samples[0] + " not a step after the previous one");
+
+					lastTimeNanos[0] = batch.getTimeNanos(i);
+					samples[0]++;
+				}
+			}
+		}, null);
+
+		SpinEngine engine = new SpinEngine();
+		engine.setProgress(progress);
+
+		engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+		reference.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+		engine.start();
+		reference.start();
+
+		long frameNanos = 0L;
+		long steps = 0L;
+
+		for(int frame = 0; engine.isRotating(); frame++)
+		{
+			//Jittery, with a stall now and then
+			frameNanos += SpinEngine.STEP_NANOS + ((frame % 3) - 1) * 2000000L + (((frame % 17) == 0)?(3L * SpinEngine.STEP_NANOS):(0L));
+
+			steps += engine.advance(frameNanos);
+			progress.endFrame();
+
+			check(lastTimeNanos[0] <= frameNanos, "progress sample after the frame time");
+		}
+
+		check(samples[0] == steps, samples[0] + " progress samples for " + steps + " steps");
+		check(progress.getDroppedCount() == 0L, "progress dropped samples of a prompt listener");
+
+		//A stuck consumer costs samples, not a stall
+		final Runnable[] pending = new Runnable[1];
+		final int[] delivered = new int[1];
+
+		SpinProgress stuck = new SpinProgress(16, new SpinProgress.Listener()
+		{
+			public void onProgress(SpinProgress batch)
+			{
+				delivered[0] += batch.size();
+			}
+		}, new Executor()
+		{
+			public void execute(Runnable command)
+			{
+				pending[0] = command;
+			}
+		});
+
+		engine.setProgress(stuck);
+		engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+		engine.start();
+
+		for(int i = 0; i < 40; i++)
+		{
+			engine.step();
+			stuck.endFrame();
+		}
+
+		check(stuck.getDroppedCount() == 24L, "full progress ring dropped " + stuck.getDroppedCount() + " samples, expected 24");
+
+		pending[0].run();
+
+		check(delivered[0] == 16, "progress delivered " + delivered[0] + " samples after a stall, expected 16");
+
+		//On a thread pool, batches still come one at a time and in order
+		final AtomicInteger inside = new AtomicInteger();
+		final AtomicLong pooled = new AtomicLong();
+		final long[] lastPooledNanos = {Long.MIN_VALUE};
+		final boolean[] overlapped = new boolean[1];
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+
+		SpinProgress concurrent = new SpinProgress(new SpinProgress.Listener()
+		{
+			public void onProgress(SpinProgress batch)
+			{
+				if(inside.incrementAndGet() != 1)
+				{
+					overlapped[0] = true;
+				}
+
+				for(int i = 0; i < batch.size(); i++)
+				{
+					//Later than the previous one; drops may leave gaps
+					if(batch.getTimeNanos(i) <= lastPooledNanos[0])
+					{
+						overlapped[0] = true;
+					}
+
+					lastPooledNanos[0] = batch.getTimeNanos(i);
+				}
+
+				pooled.addAndGet(batch.size());
+
+				Thread.yield();
+
+				inside.decrementAndGet();
+			}
+		}, pool);
+
+		engine.setProgress(concurrent);
+		engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+		engine.start();
+
+		int pooledSteps = 0;
+
+		for(int i = 0; i < 200000; i++)
+		{
+			if(!engine.isRotating())
+			{
+				engine.setRotationStepDegrees(SpinEngine.MAX_ROTATION_DEGREES);
+				engine.start();
+			}
+
+			engine.step();
+			pooledSteps++;
+
+			concurrent.endFrame();
+		}
+
+		//The last delivery picks up whatever was recorded while the previous one ran
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+
+		while(((pooled.get() + concurrent.getDroppedCount()) < pooledSteps) && (System.nanoTime() < deadline))
+		{
+			Thread.yield();
+		}
+
+		pool.shutdown();
+
+		check(!overlapped[0], "progress batches overlapped on a thread pool");
+		check(pooled.get() + concurrent.getDroppedCount() == pooledSteps, "progress delivered " + pooled.get() + " and dropped " + concurrent.getDroppedCount() + " of " + pooledSteps + " samples on a thread pool");
+
+		engine.setProgress(null);
+	}
+
+	private static void checkFixedPoint()
+	{
+		//Integer inputs, so the golden hash holds on any JVM; a changed hash is a changed game
+		FixedPointSpinEngine engine = new FixedPointSpinEngine();
+
+		engine.addFixedObstacle(45.0f);
+		engine.addFixedObstacle(200.0f);
+
+		long hash = 17L;
+		int seed = 1;
+
+		for(int spin = 0; spin < 2000; spin++)
+		{
+			seed = (seed * 1103515245) + 12345;
+			engine.rotateToUnits(seed >>> 8);
+
+			seed = (seed * 1103515245) + 12345;
+			engine.setRotationStepUnits((seed >> 7) % FixedPointSpinEngine.MAX_ROTATION_UNITS);
+
+			seed = (seed * 1103515245) + 12345;
+			int obstacleSteps = (seed >>> 16) & 31;
+
+			if(obstacleSteps != 0)
+			{
+				engine.setObstacleUnits(seed);
+			}
+
+			engine.start();
+
+			for(int steps = 0; engine.isRotating(); steps++)
+			{
+				if(steps == obstacleSteps)
+				{
+					engine.clearObstacle();
+				}
+
+				engine.step();
+			}
+
+			engine.clearObstacle();
+
+			hash = (hash * 31L) + engine.getRotationUnits();
+		}
+
+		check(hash == FIXED_POINT_GOLDEN_HASH, "fixed point stops hash to " + hash + ", expected " + FIXED_POINT_GOLDEN_HASH);
+
+		//Speeds exact in both engines stop on the same angle, give or take float rounding
+		SpinEngine reference = new SpinEngine();
+
+		for(float stepDegrees : new float[] {SpinEngine.MAX_ROTATION_DEGREES, 37.5f, -12.25f, 0.75f})
+		{
+			engine.clearFixedObstacles();
+			engine.rotateTo(10.0f);
+			engine.setRotationStepDegrees(stepDegrees);
+			engine.start();
+
+			reference.rotateTo(10.0f);
+			reference.setRotationStepDegrees(stepDegrees);
+			reference.start();
+
+			int steps = engine.skip(FRAMES);
+			int referenceSteps = reference.skip(FRAMES);
+
+			float difference = Math.abs(engine.getRotationDegrees() - reference.getRotationDegrees());
+
+			check(!engine.isRotating() && (steps == referenceSteps), "fixed point spin at " + stepDegrees + " took " + steps + " steps, expected " + referenceSteps);
+			check(Math.min(difference, 360.0f - difference) < 0.01f, "fixed point spin at " + stepDegrees + " stopped at "
+					+ engine.getRotationDegrees() + ", expected " + reference.getRotationDegrees());
+		}
+
+		//Catching up over a stall takes the same steps as stepping
+		FixedPointSpinEngine stepped = new FixedPointSpinEngine();
+
+		engine.rotateToUnits(0);
+		engine.setRotationStepUnits(FixedPointSpinEngine.MAX_ROTATION_UNITS);
+		engine.start();
+		stepped.rotateToUnits(0);
+		stepped.setRotationStepUnits(FixedPointSpinEngine.MAX_ROTATION_UNITS);
+		stepped.start();
+
+		engine.advance(0L);
+		stepped.step();
+		engine.advance(SpinEngine.STEP_NANOS * 30L);
+		stepped.skip(30);
+
+		check(engine.getRotationUnits() == stepped.getRotationUnits(), "fixed point catch up ended at " + engine.getRotationUnits()
+				+ ", expected " + stepped.getRotationUnits());
+
+		checkFixedPointMode();
+	}
+
+	/**
+	 * SpinEngine in fixed point mode steps as FixedPointSpinEngine, fingers and glasses included.
+	 */
+	private static void checkFixedPointMode()
+	{
+		Random random = new Random(23L);
+
+		for(int round = 0; round < 5000; round++)
+		{
+			SpinEngine engine = new SpinEngine();
+			FixedPointSpinEngine reference = new FixedPointSpinEngine();
+
+			//Switched on before the obstacles every other round, after them otherwise
+			if((round & 1) == 0)
+			{
+				engine.setFixedPoint(true);
+			}
+
+			int glasses = random.nextInt(4);
+
+			for(int i = 0; i < glasses; i++)
+			{
+				float degrees = random.nextFloat() * 360.0f;
+
+				engine.addFixedObstacle(degrees);
+				reference.addFixedObstacle(degrees);
+			}
+
+			float finger = random.nextFloat() * 360.0f;
+			boolean touching = random.nextInt(3) == 0;
+
+			if(touching)
+			{
+				engine.setObstacle(3, finger);
+				reference.setObstacle(finger);
+			}
+
+			float degrees = random.nextFloat() * 360.0f;
+			float speed = (random.nextFloat() * 2.0f - 1.0f) * SpinEngine.MAX_ROTATION_DEGREES;
+
+			engine.rotateTo(degrees);
+			engine.setRotationStepDegrees(speed);
+			reference.rotateTo(degrees);
+			reference.setRotationStepDegrees(speed);
+
+			engine.setFixedPoint(true);
+
+			check(engine.isFixedPoint(), "round " + round + " not in fixed point mode");
+
+			SpinPrediction prediction = ((glasses == 0) && !touching)?(engine.predict()):(null);
+
+			engine.start();
+			reference.start();
+
+			int steps = 0;
+
+			for(int frame = 0; reference.isRotating() && (frame < FRAMES); frame++)
+			{
+				//Some steps at once
+				if((frame % 7) == 0)
+				{
+					int skipped = engine.skip(3);
+
+					check(reference.skip(3) == skipped, "round " + round + " skipped a different number of fixed point steps");
+
+					steps += skipped;
+				}
+				else
+				{
+					engine.step();
+					reference.step();
+
+					steps++;
+				}
+
+				check(Float.floatToIntBits(engine.getRotationDegrees()) == Float.floatToIntBits(reference.getRotationDegrees())
+						&& (engine.getRotationStepDegrees() == reference.getRotationStepDegrees()) && (engine.isRotating() == reference.isRotating()),
+						"round " + round + " step " + steps + " at " + engine.getRotationDegrees() + ", expected " + reference.getRotationDegrees());
+
+				if(touching && (frame == 20))
+				{//Finger lifted midway
+					engine.clearObstacle(3);
+					reference.clearObstacle();
+				}
+			}
+
+			check(!engine.isRotating(), "round " + round + " fixed point spin did not stop");
+
+			if(prediction != null)
+			{
+				check((Float.floatToIntBits(prediction.getStopDegrees()) == Float.floatToIntBits(engine.getRotationDegrees())) && (prediction.getSteps() == steps),
+						"round " + round + " predicted a fixed point stop at " + prediction.getStopDegrees() + " after " + prediction.getSteps()
+						+ " steps, stopped at " + engine.getRotationDegrees() + " after " + steps);
+			}
+
+			//Back to floats from the same state
+			engine.setFixedPoint(false);
+
+			check(!engine.isFixedPoint() && (Float.floatToIntBits(engine.getRotationDegrees()) == Float.floatToIntBits(reference.getRotationDegrees())),
+					"round " + round + " lost its angle leaving fixed point mode");
+		}
+	}
+
+	private static void checkMultiTouch()
+	{
+		final int size = 400;
+
+		HeadlessSpinTarget target = new HeadlessSpinTarget(size, size);
+		SpinGesture gesture = new SpinGesture(target);
+		long frameNanos = 0L;
+
+		//Fingers around the bottle, which points up: one grabs the top, the others are obstacles,
+		//even the one on the bottom end while the bottle is grabbed
+		gesture.onDown(0, size / 2, size / 8, 0L);
+		gesture.onDown(3, (size * 7) / 8, size / 2, 0L);
+		gesture.onDown(7, size / 2, (size * 7) / 8, 0L);
+		gesture.onDown(SpinGesture.MAX_POINTERS, size / 8, size / 2, 0L);
+
+		target.frame(frameNanos += SpinEngine.STEP_NANOS);
+
+		check(target.getFingerCount() == 2, target.getFingerCount() + " finger obstacles, expected 2");
+
+		//Toss with the others still down; the bottle bounces off them instead of passing
+		for(int move = 1; move <= 5; move++)
+		{
+			double radians = Math.toRadians(move * 10.0);
+
+			gesture.onMove(0, (float) ((size / 2) + ((size * 3 / 8) * Math.sin(radians))), (float) ((size / 2) - ((size * 3 / 8) * Math.cos(radians))), move * 10L);
+			gesture.onMove(3, (size * 7) / 8, size / 2, move * 10L);
+		}
+
+		gesture.onUp(0);
+
+		check(target.isRotating(), "grabbing finger did not toss");
+		check(target.getFingerCount() == 2, "toss lifted " + (2 - target.getFingerCount()) + " other fingers");
+
+		for(int frame = 0; (frame < 600) && target.isRotating(); frame++)
+		{
+			target.frame(frameNanos += SpinEngine.STEP_NANOS);
+
+			float degrees = target.getEngineRotationDegrees();
+
+			//Ends stop ARC_OF_TOLERANCE short of the fingers at 90 and 180
+			check((degrees >= 30.0f - 0.001f) && (degrees <= 60.0f + 0.001f), "bottle passed a finger, at " + degrees);
+		}
+
+		check(!target.isRotating(), "bottle between two fingers did not stop");
+
+		//Lifting one finger keeps the other; a cancel lifts all
+		gesture.onUp(3);
+		target.frame(frameNanos += SpinEngine.STEP_NANOS);
+
+		check(target.getFingerCount() == 1, target.getFingerCount() + " finger obstacles after lifting one, expected 1");
+
+		gesture.onCancel();
+
+		check(target.getFingerCount() == 0, target.getFingerCount() + " finger obstacles after a cancel, expected 0");
+	}
+
+	private static void checkSectors()
+	{
+		Random random = new Random(25L);
+
+		//Lookup against the nearest player, away from the boundaries
+		for(int round = 0; round < 2000; round++)
+		{
+			int count = 1 + random.nextInt(12);
+			float[] players = new float[count];
+
+			for(int i = 0; i < count; i++)
+			{
+				players[i] = (i * 360.0f / count) + (random.nextFloat() * 20.0f / count);
+			}
+
+			SectorWheel wheel = new SectorWheel(players);
+
+			for(int sample = 0; sample < 100; sample++)
+			{
+				float degrees = random.nextFloat() * 360.0f;
+				int nearest = 0;
+				float nearestDistance = Float.MAX_VALUE;
+				float secondDistance = Float.MAX_VALUE;
+
+				for(int i = 0; i < count; i++)
+				{
+					float distance = Math.abs(AngleMath.normalizeDegrees(degrees - players[i] + 180.0f) - 180.0f);
+
+					if(distance < nearestDistance)
+					{
+						secondDistance = nearestDistance;
+						nearestDistance = distance;
+						nearest = i;
+					}
+					else if(distance < secondDistance)
+					{
+						secondDistance = distance;
+					}
+				}
+
+				if((count > 1) && ((secondDistance - nearestDistance) < 0.001f))
+				{
+					continue;
+				}
+
+				check(wheel.getPlayerAt(degrees) == nearest, "player at " + degrees + " is " + wheel.getPlayerAt(degrees) + ", nearest " + nearest);
+			}
+		}
+
+		//Timeline against the player under the bottle after every step, free and bouncing off a glass, in floats and fixed point
+		final int[] entered = new int[1];
+
+		SectorTimeline.Listener listener = new SectorTimeline.Listener()
+		{
+			public void onSectorEntered(int player)
+			{
+				entered[0] = player;
+			}
+		};
+
+		for(int round = 0; round < 2000; round++)
+		{
+			int count = 2 + random.nextInt(11);
+			float[] players = new float[count];
+
+			for(int i = 0; i < count; i++)
+			{
+				players[i] = (i * 360.0f / count) + (random.nextFloat() * 10.0f / count);
+			}
+
+			SectorWheel wheel = new SectorWheel(players);
+			SectorTimeline timeline = new SectorTimeline(wheel);
+			SpinEngine engine = new SpinEngine();
+
+			engine.setFixedPoint((round & 2) != 0);
+
+			if((round & 1) == 0)
+			{
+				engine.addFixedObstacle(random.nextFloat() * 360.0f);
+			}
+
+			engine.rotateTo(random.nextFloat() * 360.0f);
+			engine.setRotationStepDegrees((random.nextFloat() * 2.0f - 1.0f) * SpinEngine.MAX_ROTATION_DEGREES);
+			engine.start();
+
+			timeline.start(engine);
+
+			entered[0] = wheel.getPlayerAt(engine.getRotationDegrees());
+
+			int fired = 0;
+			int changes = 0;
+			int previous = entered[0];
+
+			for(int step = 0; (step < 100000) && engine.isRotating(); step++)
+			{
+				engine.step();
+
+				fired += timeline.advance(engine, listener);
+
+				int player = wheel.getPlayerAt(engine.getRotationDegrees());
+
+				if(player != previous)
+				{
+					changes++;
+					previous = player;
+				}
+
+				check(entered[0] == player, "round " + round + " step " + step + ": timeline at player " + entered[0] + ", bottle at " + player + " (" + engine.getRotationDegrees() + ")");
+			}
+
+			check(!engine.isRotating(), "round " + round + " did not stop");
+			check(!timeline.isActive(), "round " + round + " timeline still active after the stop");
+			check(fired >= changes, "round " + round + ": " + fired + " crossings fired for " + changes + " sector changes");
+		}
+	}
+
+	private static void checkHotPathAllocations()
+	{
+		SpinEngine engine = new SpinEngine();
+
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			MicroBenchmark.sink += driveFrames(engine) + driveTouches(engine);
+		}
+
+		long before = MicroBenchmark.allocatedBytes();
+
+		float result = driveFrames(engine) + driveTouches(engine);
+
+		long after = MicroBenchmark.allocatedBytes();
+
+		MicroBenchmark.sink += result;
+
+		if((before < 0L) || (after < 0L))
+		{
+			System.out.println("Allocation counting not supported, skipped hot path allocation check");
+
+			return;
+		}
+
+		check(after == before, (after - before) + " bytes allocated over " + FRAMES + " frames and " + TOUCH_EVENTS + " touch events");
+
+		//Once more through a gesture, with several fingers
+		HeadlessSpinTarget target = new HeadlessSpinTarget(400, 400);
+		SpinGesture gesture = new SpinGesture(target);
+
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			MicroBenchmark.sink += driveGesture(gesture, target);
+		}
+
+		before = MicroBenchmark.allocatedBytes();
+
+		result = driveGesture(gesture, target);
+
+		after = MicroBenchmark.allocatedBytes();
+
+		MicroBenchmark.sink += result;
+
+		check(after == before, (after - before) + " bytes allocated over " + TOUCH_EVENTS + " multi-touch events");
+
+		//Once more with every step reported
+		SpinProgress progress = new SpinProgress(new SpinProgress.Listener()
+		{
+			public void onProgress(SpinProgress batch)
+			{
+				for(int i = 0; i < batch.size(); i++)
+				{
+					MicroBenchmark.sink += batch.getDegrees(i) + batch.getTimeNanos(i);
+				}
+			}
+		}, null);
+
+		engine.setProgress(progress);
+
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			MicroBenchmark.sink += driveFrames(engine, progress);
+		}
+
+		before = MicroBenchmark.allocatedBytes();
+
+		result = driveFrames(engine, progress);
+
+		after = MicroBenchmark.allocatedBytes();
+
+		MicroBenchmark.sink += result;
+
+		engine.setProgress(null);
+
+		check(after == before, (after - before) + " bytes allocated over " + FRAMES + " frames reporting progress");
+	}
+
+	private static float driveFrames(SpinEngine engine, SpinProgress progress)
+	{
+		float result = 0.0f;
+
+		for(int frame = 0; frame < FRAMES; frame++)
+		{
+			if(!engine.isRotating())
+			{
+				engine.setRotationStepDegrees(((frame & 1) == 0)?(SpinEngine.MAX_ROTATION_DEGREES):(-SpinEngine.MAX_ROTATION_DEGREES));
+				engine.start();
+			}
+
+			nowNanos += SpinEngine.STEP_NANOS + ((frame % 3) - 1) * 2000000L;
+
+			engine.advance(nowNanos);
+
+			progress.endFrame();
+
+			result += engine.getRotationDegrees();
+		}
+
+		return result;
+	}
+
+	private static float driveFrames(SpinEngine engine)
+	{
+		float result = 0.0f;
+
+		for(int frame = 0; frame < FRAMES; frame++)
+		{
+			if(!engine.isRotating())
+			{//Fling again, alternating directions
+				engine.setRotationStepDegrees(((frame & 1) == 0)?(SpinEngine.MAX_ROTATION_DEGREES):(-SpinEngine.MAX_ROTATION_DEGREES));
+				engine.start();
+			}
+
+			//Finger held down on the way every now and then
+			if((frame % 97) < 20)
+			{
+				engine.setObstacle((frame * 7) % 360);
+			}
+			else
+			{
+				engine.clearObstacle();
+			}
+
+			//Jittery frame pacing
+			nowNanos += SpinEngine.STEP_NANOS + ((frame % 3) - 1) * 2000000L;
+
+			engine.advance(nowNanos);
+
+			STATE.publish(engine);
+
+			result += engine.getRotationDegrees();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Three fingers down, moving and lifted in turns, one of them tossing; a frame after each event.
+	 */
+	private static float driveGesture(SpinGesture gesture, HeadlessSpinTarget target)
+	{
+		float result = 0.0f;
+
+		for(int event = 0; event < TOUCH_EVENTS; event++)
+		{
+			int pointerId = event % 3;
+			int phase = (event / 3) % 20;
+
+			double angle = (2.0 * Math.PI * ((event * 7) % 360)) / 360.0;
+
+			float x = (float) (200.0 + (150.0 * Math.sin(angle)));
+			float y = (float) (200.0 - (150.0 * Math.cos(angle)));
+			long timeMillis = event * 8L;
+
+			if(phase == 0)
+			{
+				gesture.onDown(pointerId, x, y, timeMillis);
+			}
+			else if(phase == 19)
+			{
+				gesture.onUp(pointerId);
+			}
+			else
+			{
+				gesture.onMoveSample(pointerId, x - 1.0f, y, timeMillis - 4L);
+				gesture.onMove(pointerId, x, y, timeMillis);
+			}
+
+			nowNanos += SpinEngine.STEP_NANOS;
+			target.frame(nowNanos);
+
+			result += target.getEngineRotationDegrees();
+		}
+
+		return result;
+	}
+
+	private static float driveTouches(SpinEngine engine)
+	{
+		float result = 0.0f;
+
+		//Grabbing the bottle stops it
+		engine.stop();
+
+		for(int event = 0; event < TOUCH_EVENTS; event++)
+		{
+			double angle = (2.0 * Math.PI * event) / 360.0;
+
+			float x = (float) (200.0 * Math.cos(angle));
+			float y = (float) (200.0 * Math.sin(angle));
+
+			//As SwipeDetector does per event
+			float degrees = SpinGeometry.touchDegrees(x, y) + 90.0f;
+			int touchState = SpinGeometry.touchedEnd(degrees, engine.getRotationDegrees());
+			float succeedingAngle = AngleMath.normalizeDegrees((touchState == SpinGeometry.TOUCH_BOTTOM)?(degrees - 180.0f):(degrees));
+
+			engine.rotateTo(succeedingAngle);
+
+			VELOCITY_TRACKER.addSample(succeedingAngle, event * 8L);
+
+			if((event % 50) == 49)
+			{//Lift the finger
+				result += VELOCITY_TRACKER.getVelocity();
+
+				VELOCITY_TRACKER.clear();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Records a synthetic session the way the views do, and replays it from memory and from a mapped file.
+	 */
+	private static void checkTraceReplay() throws IOException
+	{
+		//Starts on fixed point physics, switches to float mid spin and bounces off glasses
+		byte[] fixedTrace = recordSession(true, true);
+
+		TraceReplayer.Result fixedResult = TraceReplayer.replay(ByteBuffer.wrap(fixedTrace));
+
+		check(fixedResult.isPassed() && (fixedResult.message == null), "replay of a fixed point trace: " + fixedResult);
+
+		//Header byte 16 is the physics the session starts on
+		fixedTrace[16] = 0;
+
+		fixedResult = TraceReplayer.replay(ByteBuffer.wrap(fixedTrace));
+
+		check(!fixedResult.isPassed(), "replay ignored the recorded physics");
+
+		byte[] trace = recordSession(false, false);
+
+		TraceReplayer.Result result = TraceReplayer.replay(ByteBuffer.wrap(trace));
+
+		check(result.isPassed() && (result.message == null), "replay of a clean trace: " + result);
+		check(result.frames > 50, "synthetic session too short, " + result.frames + " frames");
+
+		File file = File.createTempFile("spin", ".trace");
+
+		try
+		{
+			FileOutputStream output = new FileOutputStream(file);
+			output.write(trace);
+			output.close();
+
+			result = TraceReplayer.replay(file);
+
+			check(result.isPassed(), "replay of a mapped trace: " + result);
+		}
+		finally
+		{
+			file.delete();
+		}
+
+		//Rotation of the last frame is 9 bytes before the end
+		trace[trace.length - 9] ^= 0x01;
+
+		result = TraceReplayer.replay(ByteBuffer.wrap(trace));
+
+		check(!result.isPassed(), "replay missed a corrupted frame");
+	}
+
+	/**
+	 * @param fixedPoint start on fixed point physics, and switch to float mid spin
+	 * @param glasses put a glass on the table, and swap it for another one the bottle bounces off
+	 */
+	private static byte[] recordSession(boolean fixedPoint, boolean glasses) throws IOException
+	{
+		final int size = 400;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SpinTraceWriter writer = new SpinTraceWriter(bytes, size, size, fixedPoint);
+		HeadlessSpinTarget target = new HeadlessSpinTarget(size, size);
+		SpinGesture gesture = new SpinGesture(target);
+
+		target.setFixedPoint(fixedPoint);
+
+		long timeMillis = 1000L;
+		long frameNanos = 1000000000L;
+
+		//Grab the top of the bottle, which points up, and toss it clockwise
+		float degrees = 0.0f;
+
+		touch(writer, gesture, SpinTraceWriter.ACTION_DOWN, size, degrees, timeMillis, 1);
+
+		for(int move = 0; move < 10; move++)
+		{
+			degrees += 12.0f;
+			timeMillis += 12L;
+
+			touch(writer, gesture, SpinTraceWriter.ACTION_MOVE, size, degrees, timeMillis, 3);
+
+			frameNanos += SpinEngine.STEP_NANOS;
+			frame(writer, target, frameNanos);
+		}
+
+		touch(writer, gesture, SpinTraceWriter.ACTION_UP, size, degrees, timeMillis, 1);
+
+		int glass = (glasses)?(obstacle(writer, target, 300.0f)):(-1);
+
+		//Spin, with fingers put on the way for a while, one of them moving
+		for(int i = 0; (i < 400) && target.isRotating(); i++)
+		{
+			timeMillis += 16L;
+
+			if((i == 0) && glasses)
+			{//Swapped for one just past it, right before the bottle gets there
+				writer.removeObstacle(glass);
+				target.removeFixedObstacle(glass);
+
+				obstacle(writer, target, 320.0f);
+			}
+			else if((i == 10) && fixedPoint)
+			{
+				writer.engine(false);
+				target.setFixedPoint(false);
+			}
+			else if(i == 20)
+			{
+				touch(writer, gesture, SpinTraceWriter.ACTION_DOWN, 1, size, target.getRotationDegree() + 250.0f, timeMillis, 1);
+			}
+			else if(i == 40)
+			{
+				touch(writer, gesture, SpinTraceWriter.ACTION_DOWN, 0, size, target.getRotationDegree() + 90.0f, timeMillis, 1);
+			}
+			else if((i > 40) && (i < 60))
+			{
+				touch(writer, gesture, SpinTraceWriter.ACTION_MOVE, 1, size, 250.0f + i, timeMillis, 2);
+			}
+			else if(i == 60)
+			{
+				touch(writer, gesture, SpinTraceWriter.ACTION_UP, 0, size, 0.0f, timeMillis, 1);
+			}
+			else if(i == 70)
+			{
+				writer.beginTouch(SpinTraceWriter.ACTION_CANCEL, 0, 0);
+				gesture.onCancel();
+			}
+
+			//Jittery frame pacing
+			frameNanos += SpinEngine.STEP_NANOS + ((i % 5) - 2) * 1500000L;
+			frame(writer, target, frameNanos);
+		}
+
+		writer.close();
+
+		check(writer.checkError() == null, "trace writer failed: " + writer.checkError());
+
+		return bytes.toByteArray();
+	}
+
+	private static void touch(SpinTraceWriter writer, SpinGesture gesture, byte action, int size, float degrees, long timeMillis, int samples)
+	{
+		touch(writer, gesture, action, 0, size, degrees, timeMillis, samples);
+	}
+
+	/**
+	 * Records and applies a touch of a pointer at the given angle, as SwipeDetector does.
+	 * Batched samples of a move trail behind the latest one, 4 ms and 4 degrees apart.
+	 */
+	private static void touch(SpinTraceWriter writer, SpinGesture gesture, byte action, int pointerId, int size, float degrees, long timeMillis, int samples)
+	{
+		writer.beginTouch(action, pointerId, samples);
+
+		for(int i = samples - 1; i >= 0; i--)
+		{
+			double radians = Math.toRadians(degrees - (4.0f * i));
+
+			float x = (float) ((size / 2) + ((size / 4) * Math.sin(radians)));
+			float y = (float) ((size / 2) - ((size / 4) * Math.cos(radians)));
+			long time = timeMillis - (4L * i);
+
+			writer.touchSample(x, y, time);
+
+			if(action == SpinTraceWriter.ACTION_DOWN)
+			{
+				gesture.onDown(pointerId, x, y, time);
+			}
+			else if(action == SpinTraceWriter.ACTION_MOVE)
+			{
+				if(i == 0)
+				{
+					gesture.onMove(pointerId, x, y, time);
+				}
+				else
+				{
+					gesture.onMoveSample(pointerId, x, y, time);
+				}
+			}
+		}
+
+		if(action == SpinTraceWriter.ACTION_UP)
+		{
+			gesture.onUp(pointerId);
+		}
+	}
+
+	private static int obstacle(SpinTraceWriter writer, HeadlessSpinTarget target, float degrees)
+	{
+		int key = target.addFixedObstacle(degrees);
+
+		writer.addObstacle(key, degrees);
+
+		return key;
+	}
+
+	private static void frame(SpinTraceWriter writer, HeadlessSpinTarget target, long frameNanos)
+	{
+		target.frame(frameNanos);
+
+		writer.frame(frameNanos, target.getEngineRotationDegrees(), target.getEngineRotationStepDegrees(), target.isRotating());
+	}
+
+	private static void check(boolean condition, String message)
+	{
+		if(!condition)
+		{
+			fail(message);
+		}
+	}
+
+	private static void fail(String message)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
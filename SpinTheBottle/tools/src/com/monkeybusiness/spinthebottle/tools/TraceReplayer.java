@@ -0,0 +1,346 @@
+/* 
+ *  Copyright 2012 Gökhan Barış Aker
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.monkeybusiness.spinthebottle.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.monkeybusiness.spinthebottle.HeadlessSpinTarget;
+import com.monkeybusiness.spinthebottle.SpinGesture;
+import com.monkeybusiness.spinthebottle.SpinTraceWriter;
+
+/**
+ * <p>
+ * Replays traces recorded by SpinTraceWriter against the headless spin logic,
+ * and verifies that every frame ends up in the recorded state, bit for bit.
+ * </p>
+ * <p>
+ * Trace files are memory mapped and replayed as fast as the CPU allows, one
+ * file per core.
+ * </p>
+ * <p>
+ * Usage: TraceReplayer &lt;trace file or directory&gt;...
+ * </p>
+ */
+public class TraceReplayer
+{
+	/******************************************************
+	 ***************** @category Methods ******************
+	 *****************************************************/
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		List<File> files = new ArrayList<File>();
+
+		for(String arg : args)
+		{
+			collect(new File(arg), files);
+		}
+
+		if(files.isEmpty())
+		{
+			System.out.println("Usage: TraceReplayer <trace file or directory>...");
+			System.exit(2);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		List<Future<Result>> futures = new ArrayList<Future<Result>>(files.size());
+
+		long start = System.nanoTime();
+
+		for(final File file : files)
+		{
+			futures.add(executor.submit(new Callable<Result>()
+			{
+				public Result call() throws IOException
+				{
+					return replay(file);
+				}
+			}));
+		}
+
+		long frames = 0L;
+		int failures = 0;
+
+		for(int i = 0; i < files.size(); i++)
+		{
+			Result result;
+
+			try
+			{
+				result = futures.get(i).get();
+			}
+			catch(ExecutionException e)
+			{
+				result = Result.error(e.getCause().toString());
+			}
+
+			frames += result.frames;
+
+			if(!result.isPassed())
+			{
+				failures++;
+
+				System.out.println(files.get(i) + ": " + result);
+			}
+		}
+
+		executor.shutdown();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format(Locale.US, "%d sessions, %d failed, %d frames in %.3f s (%.0f frames/s)",
+				files.size(), failures, frames, seconds, frames / seconds));
+
+		System.exit((failures == 0)?(0):(1));
+	}
+
+	private static void collect(File file, List<File> files)
+	{
+		if(file.isDirectory())
+		{
+			File[] children = file.listFiles();
+
+			if(children != null)
+			{
+				for(File child : children)
+				{
+					collect(child, files);
+				}
+			}
+		}
+		else if(file.isFile())
+		{
+			files.add(file);
+		}
+	}
+
+	public static Result replay(File file) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+
+			if(channel.size() > Integer.MAX_VALUE)
+			{
+				return Result.error("trace larger than 2 GB");
+			}
+
+			return replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Replays a whole trace, stopping at the first frame that differs from the recording.
+	 */
+	public static Result replay(ByteBuffer trace)
+	{
+		if((trace.remaining() < 17) || (trace.getInt() != SpinTraceWriter.MAGIC))
+		{
+			return Result.error("not a trace");
+		}
+
+		int version = trace.getInt();
+
+		if(version != SpinTraceWriter.VERSION)
+		{
+			return Result.error("unsupported trace version " + version);
+		}
+
+		HeadlessSpinTarget target = new HeadlessSpinTarget(trace.getInt(), trace.getInt());
+		SpinGesture gesture = new SpinGesture(target);
+
+		target.setFixedPoint(trace.get() != 0);
+
+		int frames = 0;
+		int touches = 0;
+
+		//Recorded obstacle key to the target's
+		Map<Integer, Integer> obstacleKeys = new HashMap<Integer, Integer>();
+
+		try
+		{
+			while(trace.hasRemaining())
+			{
+				byte record = trace.get();
+
+				if(record == SpinTraceWriter.RECORD_TOUCH)
+				{
+					replayTouch(trace, gesture);
+
+					touches++;
+				}
+				else if(record == SpinTraceWriter.RECORD_FRAME)
+				{
+					long frameTimeNanos = trace.getLong();
+					float rotationDegrees = trace.getFloat();
+					float rotationStepDegrees = trace.getFloat();
+					boolean rotating = trace.get() != 0;
+
+					target.frame(frameTimeNanos);
+
+					if((Float.floatToIntBits(rotationDegrees) != Float.floatToIntBits(target.getEngineRotationDegrees()))
+							|| (Float.floatToIntBits(rotationStepDegrees) != Float.floatToIntBits(target.getEngineRotationStepDegrees()))
+							|| (rotating != target.isRotating()))
+					{
+						return Result.mismatch(frames, touches, String.format(Locale.US,
+								"frame %d after %d touches: recorded %s / %s / %b, replayed %s / %s / %b",
+								frames, touches,
+								rotationDegrees, rotationStepDegrees, rotating,
+								target.getEngineRotationDegrees(), target.getEngineRotationStepDegrees(), target.isRotating()));
+					}
+
+					frames++;
+				}
+				else if(record == SpinTraceWriter.RECORD_ENGINE)
+				{
+					target.setFixedPoint(trace.get() != 0);
+				}
+				else if(record == SpinTraceWriter.RECORD_OBSTACLE_ADD)
+				{
+					int key = trace.getInt();
+
+					obstacleKeys.put(key, target.addFixedObstacle(trace.getFloat()));
+				}
+				else if(record == SpinTraceWriter.RECORD_OBSTACLE_REMOVE)
+				{
+					Integer key = obstacleKeys.remove(trace.getInt());
+
+					if(key != null)
+					{
+						target.removeFixedObstacle(key);
+					}
+				}
+				else
+				{
+					return Result.error("unknown record " + record + " at offset " + (trace.position() - 1));
+				}
+			}
+		}
+		catch(BufferUnderflowException e)
+		{//Recording cut short, e.g. the app got killed; whatever came before still counts
+			return new Result(frames, touches, true, "truncated");
+		}
+
+		return new Result(frames, touches, true, null);
+	}
+
+	private static void replayTouch(ByteBuffer trace, SpinGesture gesture)
+	{
+		byte action = trace.get();
+		int pointerId = trace.get();
+		int samples = trace.getShort() & 0xFFFF;
+
+		if(action == SpinTraceWriter.ACTION_CANCEL)
+		{
+			gesture.onCancel();
+		}
+
+		for(int i = 0; i < samples; i++)
+		{
+			float x = trace.getFloat();
+			float y = trace.getFloat();
+			long timeMillis = trace.getLong();
+
+			boolean latest = (i == (samples - 1));
+
+			if(action == SpinTraceWriter.ACTION_DOWN)
+			{
+				gesture.onDown(pointerId, x, y, timeMillis);
+			}
+			else if(action == SpinTraceWriter.ACTION_MOVE)
+			{
+				if(latest)
+				{
+					gesture.onMove(pointerId, x, y, timeMillis);
+				}
+				else
+				{
+					gesture.onMoveSample(pointerId, x, y, timeMillis);
+				}
+			}
+			else if((action == SpinTraceWriter.ACTION_UP) && latest)
+			{
+				gesture.onUp(pointerId);
+			}
+		}
+	}
+
+	/******************************************************
+	 *************** @category Subclasses******************
+	 *****************************************************/
+
+	public static class Result
+	{
+		public final int frames;
+		public final int touches;
+		private final boolean passed;
+		/** Mismatch or error description, null if clean */
+		public final String message;
+
+		Result(int frames, int touches, boolean passed, String message)
+		{
+			this.frames = frames;
+			this.touches = touches;
+			this.passed = passed;
+			this.message = message;
+		}
+
+		static Result error(String message)
+		{
+			return new Result(0, 0, false, message);
+		}
+
+		static Result mismatch(int frames, int touches, String message)
+		{
+			return new Result(frames, touches, false, message);
+		}
+
+		public boolean isPassed()
+		{
+			return passed;
+		}
+
+		@Override
+		public String toString()
+		{
+			String status = (passed)?("passed"):("FAILED");
+
+			return status + ", " + frames + " frames, " + touches + " touches" + ((message != null)?(", " + message):(""));
+		}
+	}
+}